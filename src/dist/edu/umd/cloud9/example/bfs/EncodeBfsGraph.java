@@ -42,10 +42,12 @@ import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.Logger;
 
 import edu.umd.cloud9.io.array.ArrayListOfIntsWritable;
+import edu.umd.cloud9.webgraph.data.CsrGraphInputFormat;
 
 /**
  * Tool for taking a plain-text encoding of a directed graph and building corresponding Hadoop
- * structures for running parallel breadth-first search.
+ * structures for running parallel breadth-first search. With <code>-csr</code>, the input is instead
+ * a binary graph written by <code>GenerateTabDelimitedWebGraph -binary</code>.
  *
  * @author Jimmy Lin
  */
@@ -94,12 +96,38 @@ public class EncodeBfsGraph extends Configured implements Tool {
     }
   }
 
+  // reads the nodes of a binary graph
+  private static class CsrMapper extends Mapper<IntWritable, ArrayListOfIntsWritable, IntWritable, BfsNode> {
+    private static final BfsNode node = new BfsNode();
+    private static int src;
+
+    @Override
+    public void setup(Context context) {
+      src = context.getConfiguration().getInt(SRC_OPTION, 0);
+      node.setType(BfsNode.Type.Complete);
+    }
+
+    @Override
+    public void map(IntWritable nid, ArrayListOfIntsWritable neighbors, Context context)
+        throws IOException, InterruptedException {
+      node.setNodeId(nid.get());
+      node.setDistance(nid.get() == src ? 0 : Integer.MAX_VALUE);
+      node.setAdjacencyList(neighbors);
+
+      context.getCounter(Graph.Nodes).increment(1);
+      context.getCounter(Graph.Edges).increment(neighbors.size());
+
+      context.write(nid, node);
+    }
+  }
+
   public EncodeBfsGraph() {
   }
 
   private static final String INPUT_OPTION = "input";
   private static final String OUTPUT_OPTION = "output";
   private static final String SRC_OPTION = "src";
+  private static final String CSR_OPTION = "csr";
 
   @SuppressWarnings("static-access")
   @Override
@@ -111,6 +139,8 @@ public class EncodeBfsGraph extends Configured implements Tool {
         .hasArg().withDescription("output path").create(OUTPUT_OPTION));
     options.addOption(OptionBuilder.withArgName("nodeid")
         .hasArg().withDescription("source node").create(SRC_OPTION));
+    options.addOption(OptionBuilder
+        .withDescription("input is a binary (CSR) graph").create(CSR_OPTION));
 
     CommandLine cmdline;
     CommandLineParser parser = new GnuParser();
@@ -137,6 +167,7 @@ public class EncodeBfsGraph extends Configured implements Tool {
     LOG.info(" - inputDir: " + inputPath);
     LOG.info(" - outputDir: " + outputPath);
     LOG.info(" - src: " + src);
+    LOG.info(" - csr: " + cmdline.hasOption(CSR_OPTION));
 
     Job job = Job.getInstance(getConf());
     job.setJobName(String.format("EncodeBfsGraph[%s: %s, %s: %s, %s: %d]",
@@ -151,7 +182,8 @@ public class EncodeBfsGraph extends Configured implements Tool {
     FileInputFormat.addInputPath(job, new Path(inputPath));
     FileOutputFormat.setOutputPath(job, new Path(outputPath));
 
-    job.setInputFormatClass(TextInputFormat.class);
+    job.setInputFormatClass(cmdline.hasOption(CSR_OPTION) ?
+        CsrGraphInputFormat.class : TextInputFormat.class);
     job.setOutputFormatClass(SequenceFileOutputFormat.class);
 
     job.setMapOutputKeyClass(IntWritable.class);
@@ -159,7 +191,7 @@ public class EncodeBfsGraph extends Configured implements Tool {
     job.setOutputKeyClass(IntWritable.class);
     job.setOutputValueClass(BfsNode.class);
 
-    job.setMapperClass(MyMapper.class);
+    job.setMapperClass(cmdline.hasOption(CSR_OPTION) ? CsrMapper.class : MyMapper.class);
 
     // Delete the output directory if it exists already.
     FileSystem.get(job.getConfiguration()).delete(new Path(outputPath), true);
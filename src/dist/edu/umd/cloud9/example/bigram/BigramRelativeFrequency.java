@@ -19,12 +19,12 @@ package edu.umd.cloud9.example.bigram;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Iterator;
-import java.util.StringTokenizer;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.GnuParser;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
@@ -46,6 +46,11 @@ import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.Logger;
 
 import edu.umd.cloud9.io.pair.PairOfStrings;
+import edu.umd.cloud9.mapreduce.lib.combine.InMapperCombiner;
+import edu.umd.cloud9.mapreduce.lib.combine.Long2IntSumCombiner;
+import edu.umd.cloud9.util.array.ArrayListOfInts;
+import edu.umd.cloud9.util.text.TermIdDictionary;
+import edu.umd.cloud9.util.text.WhitespaceTokenizer;
 
 public class BigramRelativeFrequency extends Configured implements Tool {
   private static final Logger LOG = Logger.getLogger(BigramRelativeFrequency.class);
@@ -54,37 +59,81 @@ public class BigramRelativeFrequency extends Configured implements Tool {
     private static final FloatWritable ONE = new FloatWritable(1);
     private static final PairOfStrings BIGRAM = new PairOfStrings();
 
+    // Simple way to truncate tokens that are too long.
+    private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer(100);
+    private final TermIdDictionary dictionary = new TermIdDictionary();
+    private final ArrayListOfInts terms = new ArrayListOfInts();
+
     @Override
     public void map(LongWritable key, Text value, Context context)
         throws IOException, InterruptedException {
-      String line = value.toString();
+      dictionary.clearIfLargerThan(TermIdDictionary.DEFAULT_MAX_SIZE);
+      int n = tokenizer.tokenize(value, dictionary, terms);
 
-      String prev = null;
-      StringTokenizer itr = new StringTokenizer(line);
-      while (itr.hasMoreTokens()) {
-        String cur = itr.nextToken();
+      // Emit only if we have an actual bigram.
+      for (int i = 1; i < n; i++) {
+        String prev = dictionary.getTerm(terms.get(i - 1));
+        String cur = dictionary.getTerm(terms.get(i));
 
-        // Emit only if we have an actual bigram.
-        if (prev != null) {
+        BIGRAM.set(prev, cur);
+        context.write(BIGRAM, ONE);
 
-          // Simple way to truncate tokens that are too long.
-          if (cur.length() > 100) {
-            cur = cur.substring(0, 100);
-          }
+        BIGRAM.set(prev, "*");
+        context.write(BIGRAM, ONE);
+      }
+    }
+  }
 
-          if (prev.length() > 100) {
-            prev = prev.substring(0, 100);
-          }
+  // Mapper with in-mapper combining: buffers counts of bigrams (and of the "*" marginals) keyed by
+  // pairs of term ids, up to the memory budget of the in-mapper combiner.
+  protected static class MyMapperWithInMapperCombining extends
+      Mapper<LongWritable, Text, PairOfStrings, FloatWritable> {
+    private static final FloatWritable COUNT = new FloatWritable();
+    private static final PairOfStrings BIGRAM = new PairOfStrings();
+
+    // Term id standing in for "*".
+    private static final int MARGINAL = -1;
+
+    private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer(100);
+    private final TermIdDictionary dictionary = new TermIdDictionary();
+    private final ArrayListOfInts terms = new ArrayListOfInts();
+    private Long2IntSumCombiner combiner;
+
+    @Override
+    public void setup(final Context context) {
+      combiner = new Long2IntSumCombiner(context.getConfiguration(),
+          new Long2IntSumCombiner.Emitter() {
+            @Override
+            public void emit(long key, int value) throws IOException, InterruptedException {
+              int right = Long2IntSumCombiner.getRight(key);
+              BIGRAM.set(dictionary.getTerm(Long2IntSumCombiner.getLeft(key)),
+                  right == MARGINAL ? "*" : dictionary.getTerm(right));
+              COUNT.set(value);
+              context.write(BIGRAM, COUNT);
+            }
+          });
+    }
 
-          BIGRAM.set(prev, cur);
-          context.write(BIGRAM, ONE);
+    @Override
+    public void map(LongWritable key, Text value, Context context)
+        throws IOException, InterruptedException {
+      // Term ids are only valid until the dictionary is cleared.
+      if (dictionary.size() > TermIdDictionary.DEFAULT_MAX_SIZE) {
+        combiner.flushAll();
+        dictionary.clear();
+      }
 
-          BIGRAM.set(prev, "*");
-          context.write(BIGRAM, ONE);
-        }
-        prev = cur;
+      int n = tokenizer.tokenize(value, dictionary, terms);
+      for (int i = 1; i < n; i++) {
+        combiner.add(Long2IntSumCombiner.pack(terms.get(i - 1), terms.get(i)), 1);
+        combiner.add(Long2IntSumCombiner.pack(terms.get(i - 1), MARGINAL), 1);
       }
     }
+
+    @Override
+    public void cleanup(Context context) throws IOException, InterruptedException {
+      combiner.close(context);
+    }
   }
 
   protected static class MyCombiner extends
@@ -141,6 +190,8 @@ public class BigramRelativeFrequency extends Configured implements Tool {
   private static final String INPUT = "input";
   private static final String OUTPUT = "output";
   private static final String NUM_REDUCERS = "numReducers";
+  private static final String INMAPPER_COMBINER = "useInMapperCombiner";
+  private static final String INMAPPER_MEMORY = "inMapperCombinerMemory";
 
   /**
    * Runs this tool.
@@ -155,6 +206,9 @@ public class BigramRelativeFrequency extends Configured implements Tool {
         .withDescription("output path").create(OUTPUT));
     options.addOption(OptionBuilder.withArgName("num").hasArg()
         .withDescription("number of reducers").create(NUM_REDUCERS));
+    options.addOption(new Option(INMAPPER_COMBINER, "use in-mapper combiner"));
+    options.addOption(OptionBuilder.withArgName("MB").hasArg()
+        .withDescription("in-mapper combiner memory budget").create(INMAPPER_MEMORY));
 
     CommandLine cmdline;
     CommandLineParser parser = new GnuParser();
@@ -179,11 +233,18 @@ public class BigramRelativeFrequency extends Configured implements Tool {
     String outputPath = cmdline.getOptionValue(OUTPUT);
     int reduceTasks = cmdline.hasOption(NUM_REDUCERS) ?
         Integer.parseInt(cmdline.getOptionValue(NUM_REDUCERS)) : 1;
+    boolean useInMapperCombiner = cmdline.hasOption(INMAPPER_COMBINER);
 
     LOG.info("Tool name: " + BigramRelativeFrequency.class.getSimpleName());
     LOG.info(" - input path: " + inputPath);
     LOG.info(" - output path: " + outputPath);
     LOG.info(" - num reducers: " + reduceTasks);
+    LOG.info(" - use in-mapper combiner: " + useInMapperCombiner);
+    if (cmdline.hasOption(INMAPPER_MEMORY)) {
+      getConf().setInt(InMapperCombiner.MEMORY_PROPERTY,
+          Integer.parseInt(cmdline.getOptionValue(INMAPPER_MEMORY)));
+      LOG.info(" - in-mapper combiner memory: " + cmdline.getOptionValue(INMAPPER_MEMORY) + " MB");
+    }
 
     Job job = Job.getInstance(getConf());
     job.setJobName(BigramRelativeFrequency.class.getSimpleName());
@@ -200,7 +261,7 @@ public class BigramRelativeFrequency extends Configured implements Tool {
     job.setOutputValueClass(FloatWritable.class);
     job.setOutputFormatClass(SequenceFileOutputFormat.class);
 
-    job.setMapperClass(MyMapper.class);
+    job.setMapperClass(useInMapperCombiner ? MyMapperWithInMapperCombining.class : MyMapper.class);
     job.setCombinerClass(MyCombiner.class);
     job.setReducerClass(MyReducer.class);
     job.setPartitionerClass(MyPartitioner.class);
@@ -34,6 +34,7 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Partitioner;
@@ -145,6 +146,22 @@ public class BigramRelativeFrequencyTuple extends Configured implements Tool {
     }
   }
 
+  // Sorts tuples on their serialized bytes instead of deserializing both tuples for every
+  // comparison. Each chararray field is serialized as a type marker, its length and its UTF-8
+  // bytes, so all bigrams with the same left word are adjacent (which is all the partitioner and
+  // reducer need), and within them "*" precedes all longer right words. Note that this is not the
+  // lexicographic order of Tuple.compareTo.
+  public static class MyRawComparator extends WritableComparator {
+    public MyRawComparator() {
+      super(BinSedesTuple.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      return compareBytes(b1, s1, l1, b2, s2, l2);
+    }
+  }
+
   private BigramRelativeFrequencyTuple() {}
 
   private static final String INPUT = "input";
@@ -213,6 +230,7 @@ public class BigramRelativeFrequencyTuple extends Configured implements Tool {
     job.setCombinerClass(MyCombiner.class);
     job.setReducerClass(MyReducer.class);
     job.setPartitionerClass(MyPartitioner.class);
+    job.setSortComparatorClass(MyRawComparator.class);
 
     // Delete the output directory if it exists already.
     Path outputDir = new Path(outputPath);
@@ -24,6 +24,7 @@ import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.GnuParser;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
@@ -44,6 +45,11 @@ import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.Logger;
 
 import edu.umd.cloud9.io.pair.PairOfStrings;
+import edu.umd.cloud9.mapreduce.lib.combine.InMapperCombiner;
+import edu.umd.cloud9.mapreduce.lib.combine.Long2IntSumCombiner;
+import edu.umd.cloud9.util.array.ArrayListOfInts;
+import edu.umd.cloud9.util.text.TermIdDictionary;
+import edu.umd.cloud9.util.text.WhitespaceTokenizer;
 
 /**
  * <p>
@@ -64,6 +70,11 @@ public class ComputeCooccurrenceMatrixPairs extends Configured implements Tool {
   private static class MyMapper extends Mapper<LongWritable, Text, PairOfStrings, IntWritable> {
     private static final PairOfStrings PAIR = new PairOfStrings();
     private static final IntWritable ONE = new IntWritable(1);
+
+    private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    private final TermIdDictionary dictionary = new TermIdDictionary();
+    private final ArrayListOfInts terms = new ArrayListOfInts();
+
     private int window = 2;
 
     @Override
@@ -74,33 +85,76 @@ public class ComputeCooccurrenceMatrixPairs extends Configured implements Tool {
     @Override
     public void map(LongWritable key, Text line, Context context)
         throws IOException, InterruptedException {
-      String text = line.toString();
+      dictionary.clearIfLargerThan(TermIdDictionary.DEFAULT_MAX_SIZE);
+      int n = tokenizer.tokenize(line, dictionary, terms);
 
-      String[] terms = text.split("\\s+");
+      for (int i = 0; i < n; i++) {
+        String term = dictionary.getTerm(terms.get(i));
 
-      for (int i = 0; i < terms.length; i++) {
-        String term = terms[i];
+        for (int j = Math.max(0, i - window); j < Math.min(n, i + window + 1); j++) {
+          if (j == i)
+            continue;
 
-        // skip empty tokens
-        if (term.length() == 0)
-          continue;
+          PAIR.set(term, dictionary.getTerm(terms.get(j)));
+          context.write(PAIR, ONE);
+        }
+      }
+    }
+  }
 
-        for (int j = i - window; j < i + window + 1; j++) {
-          if (j == i || j < 0)
-            continue;
+  // Mapper with in-mapper combining: buffers counts keyed by pairs of term ids, up to the memory
+  // budget of the in-mapper combiner.
+  private static class MyMapperWithInMapperCombining extends
+      Mapper<LongWritable, Text, PairOfStrings, IntWritable> {
+    private static final PairOfStrings PAIR = new PairOfStrings();
+    private static final IntWritable COUNT = new IntWritable();
+
+    private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    private final TermIdDictionary dictionary = new TermIdDictionary();
+    private final ArrayListOfInts terms = new ArrayListOfInts();
+    private Long2IntSumCombiner combiner;
+
+    private int window = 2;
 
-          if (j >= terms.length)
-            break;
+    @Override
+    public void setup(final Context context) {
+      window = context.getConfiguration().getInt("window", 2);
+      combiner = new Long2IntSumCombiner(context.getConfiguration(),
+          new Long2IntSumCombiner.Emitter() {
+            @Override
+            public void emit(long key, int value) throws IOException, InterruptedException {
+              PAIR.set(dictionary.getTerm(Long2IntSumCombiner.getLeft(key)),
+                  dictionary.getTerm(Long2IntSumCombiner.getRight(key)));
+              COUNT.set(value);
+              context.write(PAIR, COUNT);
+            }
+          });
+    }
 
-          // skip empty tokens
-          if (terms[j].length() == 0)
+    @Override
+    public void map(LongWritable key, Text line, Context context)
+        throws IOException, InterruptedException {
+      // Term ids are only valid until the dictionary is cleared.
+      if (dictionary.size() > TermIdDictionary.DEFAULT_MAX_SIZE) {
+        combiner.flushAll();
+        dictionary.clear();
+      }
+
+      int n = tokenizer.tokenize(line, dictionary, terms);
+      for (int i = 0; i < n; i++) {
+        for (int j = Math.max(0, i - window); j < Math.min(n, i + window + 1); j++) {
+          if (j == i)
             continue;
 
-          PAIR.set(term, terms[j]);
-          context.write(PAIR, ONE);
+          combiner.add(Long2IntSumCombiner.pack(terms.get(i), terms.get(j)), 1);
         }
       }
     }
+
+    @Override
+    public void cleanup(Context context) throws IOException, InterruptedException {
+      combiner.close(context);
+    }
   }
 
   private static class MyReducer extends
@@ -137,6 +191,8 @@ public class ComputeCooccurrenceMatrixPairs extends Configured implements Tool {
   private static final String OUTPUT = "output";
   private static final String WINDOW = "window";
   private static final String NUM_REDUCERS = "numReducers";
+  private static final String INMAPPER_COMBINER = "useInMapperCombiner";
+  private static final String INMAPPER_MEMORY = "inMapperCombinerMemory";
 
   /**
    * Runs this tool.
@@ -153,6 +209,9 @@ public class ComputeCooccurrenceMatrixPairs extends Configured implements Tool {
         .withDescription("window size").create(WINDOW));
     options.addOption(OptionBuilder.withArgName("num").hasArg()
         .withDescription("number of reducers").create(NUM_REDUCERS));
+    options.addOption(new Option(INMAPPER_COMBINER, "use in-mapper combiner"));
+    options.addOption(OptionBuilder.withArgName("MB").hasArg()
+        .withDescription("in-mapper combiner memory budget").create(INMAPPER_MEMORY));
 
     CommandLine cmdline;
     CommandLineParser parser = new GnuParser();
@@ -177,6 +236,7 @@ public class ComputeCooccurrenceMatrixPairs extends Configured implements Tool {
     String outputPath = cmdline.getOptionValue(OUTPUT);
     int reduceTasks = cmdline.hasOption(NUM_REDUCERS) ?
         Integer.parseInt(cmdline.getOptionValue(NUM_REDUCERS)) : 1;
+    boolean useInMapperCombiner = cmdline.hasOption(INMAPPER_COMBINER);
     int window = cmdline.hasOption(WINDOW) ? Integer.parseInt(cmdline.getOptionValue(WINDOW)) : 2;
 
     LOG.info("Tool: " + ComputeCooccurrenceMatrixPairs.class.getSimpleName());
@@ -184,6 +244,12 @@ public class ComputeCooccurrenceMatrixPairs extends Configured implements Tool {
     LOG.info(" - output path: " + outputPath);
     LOG.info(" - window: " + window);
     LOG.info(" - number of reducers: " + reduceTasks);
+    LOG.info(" - use in-mapper combiner: " + useInMapperCombiner);
+    if (cmdline.hasOption(INMAPPER_MEMORY)) {
+      getConf().setInt(InMapperCombiner.MEMORY_PROPERTY,
+          Integer.parseInt(cmdline.getOptionValue(INMAPPER_MEMORY)));
+      LOG.info(" - in-mapper combiner memory: " + cmdline.getOptionValue(INMAPPER_MEMORY) + " MB");
+    }
 
     Job job = Job.getInstance(getConf());
     job.setJobName(ComputeCooccurrenceMatrixPairs.class.getSimpleName());
@@ -205,7 +271,7 @@ public class ComputeCooccurrenceMatrixPairs extends Configured implements Tool {
     job.setOutputKeyClass(PairOfStrings.class);
     job.setOutputValueClass(IntWritable.class);
 
-    job.setMapperClass(MyMapper.class);
+    job.setMapperClass(useInMapperCombiner ? MyMapperWithInMapperCombining.class : MyMapper.class);
     job.setCombinerClass(MyReducer.class);
     job.setReducerClass(MyReducer.class);
     job.setPartitionerClass(MyPartitioner.class);
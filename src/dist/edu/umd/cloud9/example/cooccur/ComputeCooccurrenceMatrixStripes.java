@@ -24,6 +24,7 @@ import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.GnuParser;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
@@ -41,7 +42,14 @@ import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.Logger;
 
+import edu.umd.cloud9.io.map.HMapIIW;
 import edu.umd.cloud9.io.map.HMapSIW;
+import edu.umd.cloud9.mapreduce.lib.combine.InMapperCombiner;
+import edu.umd.cloud9.mapreduce.lib.combine.Int2StripeCombiner;
+import edu.umd.cloud9.util.array.ArrayListOfInts;
+import edu.umd.cloud9.util.map.MapII;
+import edu.umd.cloud9.util.text.TermIdDictionary;
+import edu.umd.cloud9.util.text.WhitespaceTokenizer;
 
 /**
  * <p>
@@ -63,6 +71,10 @@ public class ComputeCooccurrenceMatrixStripes extends Configured implements Tool
     private static final HMapSIW MAP = new HMapSIW();
     private static final Text KEY = new Text();
 
+    private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    private final TermIdDictionary dictionary = new TermIdDictionary();
+    private final ArrayListOfInts terms = new ArrayListOfInts();
+
     private int window = 2;
 
     @Override
@@ -73,36 +85,81 @@ public class ComputeCooccurrenceMatrixStripes extends Configured implements Tool
     @Override
     public void map(LongWritable key, Text line, Context context)
         throws IOException, InterruptedException {
-      String text = line.toString();
+      dictionary.clearIfLargerThan(TermIdDictionary.DEFAULT_MAX_SIZE);
+      int n = tokenizer.tokenize(line, dictionary, terms);
 
-      String[] terms = text.split("\\s+");
+      for (int i = 0; i < n; i++) {
+        MAP.clear();
 
-      for (int i = 0; i < terms.length; i++) {
-        String term = terms[i];
+        for (int j = Math.max(0, i - window); j < Math.min(n, i + window + 1); j++) {
+          if (j == i)
+            continue;
 
-        // skip empty tokens
-        if (term.length() == 0)
-          continue;
+          MAP.increment(dictionary.getTerm(terms.get(j)));
+        }
 
-        MAP.clear();
+        dictionary.getTerm(terms.get(i), KEY);
+        context.write(KEY, MAP);
+      }
+    }
+  }
 
-        for (int j = i - window; j < i + window + 1; j++) {
-          if (j == i || j < 0)
-            continue;
+  // Mapper with in-mapper combining: buffers stripes keyed by term id, up to the memory budget of
+  // the in-mapper combiner.
+  private static class MyMapperWithInMapperCombining extends
+      Mapper<LongWritable, Text, Text, HMapSIW> {
+    private static final HMapSIW MAP = new HMapSIW();
+    private static final Text KEY = new Text();
 
-          if (j >= terms.length)
-            break;
+    private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    private final TermIdDictionary dictionary = new TermIdDictionary();
+    private final ArrayListOfInts terms = new ArrayListOfInts();
+    private Int2StripeCombiner combiner;
 
-          // skip empty tokens
-          if (terms[j].length() == 0)
+    private int window = 2;
+
+    @Override
+    public void setup(final Context context) {
+      window = context.getConfiguration().getInt("window", 2);
+      combiner = new Int2StripeCombiner(context.getConfiguration(),
+          new Int2StripeCombiner.Emitter() {
+            @Override
+            public void emit(int key, HMapIIW stripe) throws IOException, InterruptedException {
+              MAP.clear();
+              for (MapII.Entry e : stripe.entrySet()) {
+                MAP.put(dictionary.getTerm(e.getKey()), e.getValue());
+              }
+
+              dictionary.getTerm(key, KEY);
+              context.write(KEY, MAP);
+            }
+          });
+    }
+
+    @Override
+    public void map(LongWritable key, Text line, Context context)
+        throws IOException, InterruptedException {
+      // Term ids are only valid until the dictionary is cleared.
+      if (dictionary.size() > TermIdDictionary.DEFAULT_MAX_SIZE) {
+        combiner.flushAll();
+        dictionary.clear();
+      }
+
+      int n = tokenizer.tokenize(line, dictionary, terms);
+      for (int i = 0; i < n; i++) {
+        for (int j = Math.max(0, i - window); j < Math.min(n, i + window + 1); j++) {
+          if (j == i)
             continue;
 
-          MAP.increment(terms[j]);
+          combiner.increment(terms.get(i), terms.get(j));
         }
-
-        KEY.set(term);
-        context.write(KEY, MAP);
       }
+      combiner.checkMemory();
+    }
+
+    @Override
+    public void cleanup(Context context) throws IOException, InterruptedException {
+      combiner.close(context);
     }
   }
 
@@ -130,6 +187,8 @@ public class ComputeCooccurrenceMatrixStripes extends Configured implements Tool
   private static final String OUTPUT = "output";
   private static final String WINDOW = "window";
   private static final String NUM_REDUCERS = "numReducers";
+  private static final String INMAPPER_COMBINER = "useInMapperCombiner";
+  private static final String INMAPPER_MEMORY = "inMapperCombinerMemory";
 
   /**
    * Runs this tool.
@@ -146,6 +205,9 @@ public class ComputeCooccurrenceMatrixStripes extends Configured implements Tool
         .withDescription("window size").create(WINDOW));
     options.addOption(OptionBuilder.withArgName("num").hasArg()
         .withDescription("number of reducers").create(NUM_REDUCERS));
+    options.addOption(new Option(INMAPPER_COMBINER, "use in-mapper combiner"));
+    options.addOption(OptionBuilder.withArgName("MB").hasArg()
+        .withDescription("in-mapper combiner memory budget").create(INMAPPER_MEMORY));
 
     CommandLine cmdline;
     CommandLineParser parser = new GnuParser();
@@ -170,6 +232,7 @@ public class ComputeCooccurrenceMatrixStripes extends Configured implements Tool
     String outputPath = cmdline.getOptionValue(OUTPUT);
     int reduceTasks = cmdline.hasOption(NUM_REDUCERS) ?
         Integer.parseInt(cmdline.getOptionValue(NUM_REDUCERS)) : 1;
+    boolean useInMapperCombiner = cmdline.hasOption(INMAPPER_COMBINER);
     int window = cmdline.hasOption(WINDOW) ? Integer.parseInt(cmdline.getOptionValue(WINDOW)) : 2;
 
     LOG.info("Tool: " + ComputeCooccurrenceMatrixStripes.class.getSimpleName());
@@ -177,6 +240,12 @@ public class ComputeCooccurrenceMatrixStripes extends Configured implements Tool
     LOG.info(" - output path: " + outputPath);
     LOG.info(" - window: " + window);
     LOG.info(" - number of reducers: " + reduceTasks);
+    LOG.info(" - use in-mapper combiner: " + useInMapperCombiner);
+    if (cmdline.hasOption(INMAPPER_MEMORY)) {
+      getConf().setInt(InMapperCombiner.MEMORY_PROPERTY,
+          Integer.parseInt(cmdline.getOptionValue(INMAPPER_MEMORY)));
+      LOG.info(" - in-mapper combiner memory: " + cmdline.getOptionValue(INMAPPER_MEMORY) + " MB");
+    }
 
     Job job = Job.getInstance(getConf());
     job.setJobName(ComputeCooccurrenceMatrixStripes.class.getSimpleName());
@@ -198,7 +267,7 @@ public class ComputeCooccurrenceMatrixStripes extends Configured implements Tool
     job.setOutputKeyClass(Text.class);
     job.setOutputValueClass(HMapSIW.class);
 
-    job.setMapperClass(MyMapper.class);
+    job.setMapperClass(useInMapperCombiner ? MyMapperWithInMapperCombining.class : MyMapper.class);
     job.setCombinerClass(MyReducer.class);
     job.setReducerClass(MyReducer.class);
 
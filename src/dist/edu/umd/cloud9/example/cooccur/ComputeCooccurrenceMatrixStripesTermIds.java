@@ -0,0 +1,447 @@
+/*
+ * Cloud9: A Hadoop toolkit for working with big data
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.example.cooccur;
+
+import it.unimi.dsi.fastutil.objects.Object2IntAVLTreeMap;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Lists;
+
+import edu.umd.cloud9.io.map.HMapIIW;
+import edu.umd.cloud9.io.pair.PairOfStringInt;
+import edu.umd.cloud9.mapreduce.lib.combine.InMapperCombiner;
+import edu.umd.cloud9.mapreduce.lib.combine.Int2StripeCombiner;
+import edu.umd.cloud9.util.array.ArrayListOfInts;
+import edu.umd.cloud9.util.map.FrontCodedString2IntBidiMap;
+import edu.umd.cloud9.util.map.FrontCodedString2IntBidiMapBuilder;
+import edu.umd.cloud9.util.text.TermIdDictionary;
+import edu.umd.cloud9.util.text.WhitespaceTokenizer;
+
+/**
+ * <p>
+ * Implementation of the "stripes" algorithm for computing co-occurrence matrices that operates on
+ * integer term ids instead of strings. The computation proceeds in two phases:
+ * </p>
+ *
+ * <ol>
+ * <li>A word count job builds the vocabulary. Terms are assigned ids in decreasing order of
+ * frequency (so that frequent terms have small ids) and the vocabulary is stored as a
+ * {@link FrontCodedString2IntBidiMap} in {@code [output]/vocab.dat}.</li>
+ *
+ * <li>The co-occurrence job loads the vocabulary through the {@code DistributedCache} and emits
+ * {@link IntWritable} keys with {@link HMapIIW} stripes. Stripes are combined in the mapper across
+ * input records with an {@link Int2StripeCombiner}, which flushes stripes whenever their estimated
+ * size exceeds the memory budget. The reducer writes each row of the matrix as a {@link SparseRowWritable} in
+ * {@code [output]/matrix}.</li>
+ * </ol>
+ *
+ * <p>
+ * Use {@link DumpCooccurrenceMatrix} to map the term ids in the output back to strings.
+ * </p>
+ */
+public class ComputeCooccurrenceMatrixStripesTermIds extends Configured implements Tool {
+  private static final Logger LOG = Logger.getLogger(ComputeCooccurrenceMatrixStripesTermIds.class);
+
+  private static enum Stripes { UNKNOWN_TERMS };
+
+  private static final String VOCAB_COUNTS_DIR = "vocab";
+  private static final String VOCAB_FILE = "vocab.dat";
+  private static final String MATRIX_DIR = "matrix";
+
+  private static class VocabMapper extends Mapper<LongWritable, Text, Text, IntWritable> {
+    private static final Text KEY = new Text();
+    private static final IntWritable COUNT = new IntWritable();
+
+    private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    private final TermIdDictionary dictionary = new TermIdDictionary();
+    private final ArrayListOfInts terms = new ArrayListOfInts();
+    private final ArrayListOfInts counts = new ArrayListOfInts();
+
+    @Override
+    public void map(LongWritable key, Text line, Context context)
+        throws IOException, InterruptedException {
+      int n = tokenizer.tokenize(line, dictionary, terms);
+      for (int i = 0; i < n; i++) {
+        int id = terms.get(i);
+        while (counts.size() <= id) {
+          counts.add(0);
+        }
+        counts.set(id, counts.get(id) + 1);
+      }
+
+      if (dictionary.size() > TermIdDictionary.DEFAULT_MAX_SIZE) {
+        flush(context);
+      }
+    }
+
+    @Override
+    public void cleanup(Context context) throws IOException, InterruptedException {
+      flush(context);
+    }
+
+    private void flush(Context context) throws IOException, InterruptedException {
+      for (int id = 0; id < dictionary.size(); id++) {
+        dictionary.getTerm(id, KEY);
+        COUNT.set(counts.get(id));
+        context.write(KEY, COUNT);
+      }
+      dictionary.clear();
+      counts.clear();
+    }
+  }
+
+  private static class VocabReducer extends Reducer<Text, IntWritable, Text, IntWritable> {
+    private static final IntWritable SUM = new IntWritable();
+
+    @Override
+    public void reduce(Text key, Iterable<IntWritable> values, Context context)
+        throws IOException, InterruptedException {
+      int sum = 0;
+      Iterator<IntWritable> iter = values.iterator();
+      while (iter.hasNext()) {
+        sum += iter.next().get();
+      }
+      SUM.set(sum);
+      context.write(key, SUM);
+    }
+  }
+
+  private static class MyMapper extends Mapper<LongWritable, Text, IntWritable, HMapIIW> {
+    private static final IntWritable KEY = new IntWritable();
+
+    private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    private final TermIdDictionary dictionary = new TermIdDictionary();
+    private final ArrayListOfInts terms = new ArrayListOfInts();
+
+    // Maps ids in the per-task dictionary to ids in the global vocabulary.
+    private final ArrayListOfInts localToGlobal = new ArrayListOfInts();
+
+    private Int2StripeCombiner combiner;
+    private FrontCodedString2IntBidiMap vocab;
+    private int window = 2;
+
+    @Override
+    public void setup(final Context context) throws IOException {
+      Configuration conf = context.getConfiguration();
+      window = conf.getInt("window", 2);
+
+      // Simply assume that the vocabulary is the only file in the distributed cache.
+      Path[] localFiles = DistributedCache.getLocalCacheFiles(conf);
+      vocab = new FrontCodedString2IntBidiMap(FileSystem.getLocal(conf), localFiles[0]);
+
+      combiner = new Int2StripeCombiner(conf, new Int2StripeCombiner.Emitter() {
+        @Override
+        public void emit(int key, HMapIIW stripe) throws IOException, InterruptedException {
+          KEY.set(key);
+          context.write(KEY, stripe);
+        }
+      });
+    }
+
+    @Override
+    public void map(LongWritable key, Text line, Context context)
+        throws IOException, InterruptedException {
+      if (dictionary.clearIfLargerThan(TermIdDictionary.DEFAULT_MAX_SIZE)) {
+        localToGlobal.clear();
+      }
+
+      int n = tokenizer.tokenize(line, dictionary, terms);
+      for (int i = 0; i < n; i++) {
+        int local = terms.get(i);
+        while (localToGlobal.size() <= local) {
+          int global = vocab.get(dictionary.getTerm(localToGlobal.size()));
+          if (global < 0) {
+            context.getCounter(Stripes.UNKNOWN_TERMS).increment(1);
+          }
+          localToGlobal.add(global);
+        }
+        terms.set(i, localToGlobal.get(local));
+      }
+
+      for (int i = 0; i < n; i++) {
+        int term = terms.get(i);
+        if (term < 0)
+          continue;
+
+        for (int j = Math.max(0, i - window); j < Math.min(n, i + window + 1); j++) {
+          if (j == i || terms.get(j) < 0)
+            continue;
+
+          combiner.increment(term, terms.get(j));
+        }
+      }
+      combiner.checkMemory();
+    }
+
+    @Override
+    public void cleanup(Context context) throws IOException, InterruptedException {
+      combiner.close(context);
+    }
+  }
+
+  private static class MyCombiner extends Reducer<IntWritable, HMapIIW, IntWritable, HMapIIW> {
+    @Override
+    public void reduce(IntWritable key, Iterable<HMapIIW> values, Context context)
+        throws IOException, InterruptedException {
+      Iterator<HMapIIW> iter = values.iterator();
+      HMapIIW map = new HMapIIW();
+
+      while (iter.hasNext()) {
+        map.plus(iter.next());
+      }
+
+      context.write(key, map);
+    }
+  }
+
+  private static class MyReducer extends
+      Reducer<IntWritable, HMapIIW, IntWritable, SparseRowWritable> {
+    private static final SparseRowWritable ROW = new SparseRowWritable();
+
+    @Override
+    public void reduce(IntWritable key, Iterable<HMapIIW> values, Context context)
+        throws IOException, InterruptedException {
+      Iterator<HMapIIW> iter = values.iterator();
+      HMapIIW map = new HMapIIW();
+
+      while (iter.hasNext()) {
+        map.plus(iter.next());
+      }
+
+      ROW.set(map);
+      context.write(key, ROW);
+    }
+  }
+
+  /**
+   * Creates an instance of this tool.
+   */
+  public ComputeCooccurrenceMatrixStripesTermIds() {}
+
+  private static final String INPUT = "input";
+  private static final String OUTPUT = "output";
+  private static final String WINDOW = "window";
+  private static final String NUM_REDUCERS = "numReducers";
+  private static final String MEMORY_BUDGET = "memoryBudget";
+
+  /**
+   * Runs this tool.
+   */
+  @SuppressWarnings({ "static-access" })
+  public int run(String[] args) throws Exception {
+    Options options = new Options();
+
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("input path").create(INPUT));
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("output path").create(OUTPUT));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("window size").create(WINDOW));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of reducers").create(NUM_REDUCERS));
+    options.addOption(OptionBuilder.withArgName("MB").hasArg()
+        .withDescription("in-mapper combining memory budget").create(MEMORY_BUDGET));
+
+    CommandLine cmdline;
+    CommandLineParser parser = new GnuParser();
+
+    try {
+      cmdline = parser.parse(options, args);
+    } catch (ParseException exp) {
+      System.err.println("Error parsing command line: " + exp.getMessage());
+      return -1;
+    }
+
+    if (!cmdline.hasOption(INPUT) || !cmdline.hasOption(OUTPUT)) {
+      System.out.println("args: " + Arrays.toString(args));
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.setWidth(120);
+      formatter.printHelp(this.getClass().getName(), options);
+      ToolRunner.printGenericCommandUsage(System.out);
+      return -1;
+    }
+
+    String inputPath = cmdline.getOptionValue(INPUT);
+    String outputPath = cmdline.getOptionValue(OUTPUT);
+    int reduceTasks = cmdline.hasOption(NUM_REDUCERS) ?
+        Integer.parseInt(cmdline.getOptionValue(NUM_REDUCERS)) : 1;
+    int window = cmdline.hasOption(WINDOW) ? Integer.parseInt(cmdline.getOptionValue(WINDOW)) : 2;
+    int memoryBudget = cmdline.hasOption(MEMORY_BUDGET) ?
+        Integer.parseInt(cmdline.getOptionValue(MEMORY_BUDGET)) : 64;
+
+    LOG.info("Tool: " + ComputeCooccurrenceMatrixStripesTermIds.class.getSimpleName());
+    LOG.info(" - input path: " + inputPath);
+    LOG.info(" - output path: " + outputPath);
+    LOG.info(" - window: " + window);
+    LOG.info(" - number of reducers: " + reduceTasks);
+    LOG.info(" - memory budget: " + memoryBudget + " MB");
+
+    FileSystem fs = FileSystem.get(getConf());
+
+    // Delete the output directory if it exists already.
+    Path outputDir = new Path(outputPath);
+    fs.delete(outputDir, true);
+
+    Path countsDir = new Path(outputDir, VOCAB_COUNTS_DIR);
+    Path vocabFile = new Path(outputDir, VOCAB_FILE);
+    Path matrixDir = new Path(outputDir, MATRIX_DIR);
+
+    long startTime = System.currentTimeMillis();
+
+    // Phase 1: count terms and build the vocabulary.
+    Job job1 = Job.getInstance(getConf());
+    job1.setJobName(ComputeCooccurrenceMatrixStripesTermIds.class.getSimpleName() + ":vocab");
+    job1.setJarByClass(ComputeCooccurrenceMatrixStripesTermIds.class);
+
+    job1.setNumReduceTasks(reduceTasks);
+
+    FileInputFormat.setInputPaths(job1, new Path(inputPath));
+    FileOutputFormat.setOutputPath(job1, countsDir);
+    job1.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+    job1.setMapOutputKeyClass(Text.class);
+    job1.setMapOutputValueClass(IntWritable.class);
+    job1.setOutputKeyClass(Text.class);
+    job1.setOutputValueClass(IntWritable.class);
+
+    job1.setMapperClass(VocabMapper.class);
+    job1.setCombinerClass(VocabReducer.class);
+    job1.setReducerClass(VocabReducer.class);
+
+    if (!job1.waitForCompletion(true)) {
+      return -1;
+    }
+
+    int vocabSize = buildVocabulary(fs, countsDir, vocabFile);
+    LOG.info("Vocabulary size: " + vocabSize);
+
+    // Phase 2: compute co-occurrence stripes over term ids.
+    Job job2 = Job.getInstance(getConf());
+    job2.setJobName(ComputeCooccurrenceMatrixStripesTermIds.class.getSimpleName() + ":stripes");
+    job2.setJarByClass(ComputeCooccurrenceMatrixStripesTermIds.class);
+
+    job2.getConfiguration().setInt("window", window);
+    job2.getConfiguration().setInt(InMapperCombiner.MEMORY_PROPERTY, memoryBudget);
+    DistributedCache.addCacheFile(fs.makeQualified(vocabFile).toUri(), job2.getConfiguration());
+
+    job2.setNumReduceTasks(reduceTasks);
+
+    FileInputFormat.setInputPaths(job2, new Path(inputPath));
+    FileOutputFormat.setOutputPath(job2, matrixDir);
+    job2.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+    job2.setMapOutputKeyClass(IntWritable.class);
+    job2.setMapOutputValueClass(HMapIIW.class);
+    job2.setOutputKeyClass(IntWritable.class);
+    job2.setOutputValueClass(SparseRowWritable.class);
+
+    job2.setMapperClass(MyMapper.class);
+    job2.setCombinerClass(MyCombiner.class);
+    job2.setReducerClass(MyReducer.class);
+
+    if (!job2.waitForCompletion(true)) {
+      return -1;
+    }
+
+    System.out.println("Job Finished in " + (System.currentTimeMillis() - startTime) / 1000.0 + " seconds");
+
+    return 0;
+  }
+
+  /**
+   * Reads the term counts in {@code countsDir}, assigns term ids in decreasing order of frequency
+   * (ties broken lexicographically), and writes the vocabulary to {@code vocabFile}.
+   *
+   * @return size of the vocabulary
+   */
+  private static int buildVocabulary(FileSystem fs, Path countsDir, Path vocabFile)
+      throws IOException {
+    List<PairOfStringInt> counts = Lists.newArrayList();
+    Text term = new Text();
+    IntWritable count = new IntWritable();
+
+    for (FileStatus status : fs.listStatus(countsDir)) {
+      if (!status.getPath().getName().startsWith("part-")) {
+        continue;
+      }
+
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, status.getPath(), fs.getConf());
+      while (reader.next(term, count)) {
+        counts.add(new PairOfStringInt(term.toString(), count.get()));
+      }
+      reader.close();
+    }
+
+    Collections.sort(counts, new Comparator<PairOfStringInt>() {
+      public int compare(PairOfStringInt e1, PairOfStringInt e2) {
+        if (e1.getRightElement() != e2.getRightElement()) {
+          return e1.getRightElement() > e2.getRightElement() ? -1 : 1;
+        }
+        return e1.getLeftElement().compareTo(e2.getLeftElement());
+      }
+    });
+
+    Object2IntAVLTreeMap<String> vocab = new Object2IntAVLTreeMap<String>();
+    for (int i = 0; i < counts.size(); i++) {
+      vocab.put(counts.get(i).getLeftElement(), i);
+    }
+
+    FrontCodedString2IntBidiMapBuilder.build(vocab, fs, vocabFile);
+
+    return counts.size();
+  }
+
+  /**
+   * Dispatches command-line arguments to the tool via the {@code ToolRunner}.
+   */
+  public static void main(String[] args) throws Exception {
+    ToolRunner.run(new ComputeCooccurrenceMatrixStripesTermIds(), args);
+  }
+}
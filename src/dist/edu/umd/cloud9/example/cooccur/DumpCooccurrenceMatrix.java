@@ -0,0 +1,176 @@
+/*
+ * Cloud9: A Hadoop toolkit for working with big data
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.example.cooccur;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+import edu.umd.cloud9.util.map.FrontCodedString2IntBidiMap;
+
+/**
+ * Converts the term id co-occurrence matrix produced by
+ * {@link ComputeCooccurrenceMatrixStripesTermIds} into plain text, mapping term ids back to
+ * strings using the vocabulary. Each output line holds a term, a tab, and its co-occurring terms
+ * with counts.
+ */
+public class DumpCooccurrenceMatrix extends Configured implements Tool {
+  private static final Logger LOG = Logger.getLogger(DumpCooccurrenceMatrix.class);
+
+  private static class MyMapper extends Mapper<IntWritable, SparseRowWritable, Text, Text> {
+    private static final Text KEY = new Text();
+    private static final Text VALUE = new Text();
+
+    private final StringBuilder sb = new StringBuilder();
+    private FrontCodedString2IntBidiMap vocab;
+
+    @Override
+    public void setup(Context context) throws IOException {
+      Configuration conf = context.getConfiguration();
+
+      // Simply assume that the vocabulary is the only file in the distributed cache.
+      Path[] localFiles = DistributedCache.getLocalCacheFiles(conf);
+      vocab = new FrontCodedString2IntBidiMap(FileSystem.getLocal(conf), localFiles[0]);
+    }
+
+    @Override
+    public void map(IntWritable key, SparseRowWritable row, Context context)
+        throws IOException, InterruptedException {
+      sb.setLength(0);
+      for (int i = 0; i < row.size(); i++) {
+        if (i > 0) {
+          sb.append(' ');
+        }
+        sb.append(vocab.get(row.getColumn(i))).append(':').append(row.getValue(i));
+      }
+
+      KEY.set(vocab.get(key.get()));
+      VALUE.set(sb.toString());
+      context.write(KEY, VALUE);
+    }
+  }
+
+  /**
+   * Creates an instance of this tool.
+   */
+  public DumpCooccurrenceMatrix() {}
+
+  private static final String INPUT = "input";
+  private static final String OUTPUT = "output";
+  private static final String VOCAB = "vocab";
+
+  /**
+   * Runs this tool.
+   */
+  @SuppressWarnings({ "static-access" })
+  public int run(String[] args) throws Exception {
+    Options options = new Options();
+
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("input path").create(INPUT));
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("output path").create(OUTPUT));
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("vocabulary").create(VOCAB));
+
+    CommandLine cmdline;
+    CommandLineParser parser = new GnuParser();
+
+    try {
+      cmdline = parser.parse(options, args);
+    } catch (ParseException exp) {
+      System.err.println("Error parsing command line: " + exp.getMessage());
+      return -1;
+    }
+
+    if (!cmdline.hasOption(INPUT) || !cmdline.hasOption(OUTPUT) || !cmdline.hasOption(VOCAB)) {
+      System.out.println("args: " + Arrays.toString(args));
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.setWidth(120);
+      formatter.printHelp(this.getClass().getName(), options);
+      ToolRunner.printGenericCommandUsage(System.out);
+      return -1;
+    }
+
+    String inputPath = cmdline.getOptionValue(INPUT);
+    String outputPath = cmdline.getOptionValue(OUTPUT);
+    String vocabPath = cmdline.getOptionValue(VOCAB);
+
+    LOG.info("Tool name: " + DumpCooccurrenceMatrix.class.getSimpleName());
+    LOG.info(" - input: " + inputPath);
+    LOG.info(" - output: " + outputPath);
+    LOG.info(" - vocab: " + vocabPath);
+
+    Job job = Job.getInstance(getConf());
+    job.setJobName(DumpCooccurrenceMatrix.class.getSimpleName());
+    job.setJarByClass(DumpCooccurrenceMatrix.class);
+
+    FileSystem fs = FileSystem.get(getConf());
+    DistributedCache.addCacheFile(fs.makeQualified(new Path(vocabPath)).toUri(),
+        job.getConfiguration());
+
+    job.setNumReduceTasks(0);
+
+    FileInputFormat.addInputPath(job, new Path(inputPath));
+    FileOutputFormat.setOutputPath(job, new Path(outputPath));
+
+    job.setInputFormatClass(SequenceFileInputFormat.class);
+    job.setOutputFormatClass(TextOutputFormat.class);
+
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(Text.class);
+
+    job.setMapperClass(MyMapper.class);
+
+    // Delete the output directory if it exists already.
+    fs.delete(new Path(outputPath), true);
+
+    job.waitForCompletion(true);
+
+    return 0;
+  }
+
+  /**
+   * Dispatches command-line arguments to the tool via the {@code ToolRunner}.
+   */
+  public static void main(String[] args) throws Exception {
+    ToolRunner.run(new DumpCooccurrenceMatrix(), args);
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Cloud9: A Hadoop toolkit for working with big data
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.example.cooccur;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import edu.umd.cloud9.util.map.MapII;
+
+/**
+ * <p>
+ * Row of a sparse int matrix, stored as parallel arrays of columns (sorted ascending) and values.
+ * The serialized form is the number of entries followed by, for each entry, the gap from the
+ * previous column and the value, all as VInts. When columns are frequency-sorted term ids, most
+ * gaps and counts fit in one or two bytes, compared to eight bytes per entry for {@code HMapIIW}.
+ * </p>
+ */
+public class SparseRowWritable implements Writable {
+  private int[] columns = new int[0];
+  private int[] values = new int[0];
+  private int size = 0;
+
+  /**
+   * Creates an empty row.
+   */
+  public SparseRowWritable() {}
+
+  /**
+   * Sets the contents of this row to the entries of {@code map}.
+   */
+  public void set(MapII map) {
+    size = map.size();
+    if (columns.length < size) {
+      columns = new int[size];
+      values = new int[size];
+    }
+
+    int i = 0;
+    for (MapII.Entry e : map.entrySet()) {
+      columns[i++] = e.getKey();
+    }
+    Arrays.sort(columns, 0, size);
+    for (i = 0; i < size; i++) {
+      values[i] = map.get(columns[i]);
+    }
+  }
+
+  /**
+   * Returns the number of non-zero entries in this row.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the column of the {@code i}-th entry.
+   */
+  public int getColumn(int i) {
+    return columns[i];
+  }
+
+  /**
+   * Returns the value of the {@code i}-th entry.
+   */
+  public int getValue(int i) {
+    return values[i];
+  }
+
+  /**
+   * Deserializes this row.
+   *
+   * @param in source for raw byte representation
+   */
+  public void readFields(DataInput in) throws IOException {
+    size = WritableUtils.readVInt(in);
+    if (columns.length < size) {
+      columns = new int[size];
+      values = new int[size];
+    }
+
+    int col = 0;
+    for (int i = 0; i < size; i++) {
+      col += WritableUtils.readVInt(in);
+      columns[i] = col;
+      values[i] = WritableUtils.readVInt(in);
+    }
+  }
+
+  /**
+   * Serializes this row.
+   *
+   * @param out where to write the raw byte representation
+   */
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, size);
+
+    int prev = 0;
+    for (int i = 0; i < size; i++) {
+      WritableUtils.writeVInt(out, columns[i] - prev);
+      WritableUtils.writeVInt(out, values[i]);
+      prev = columns[i];
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("{");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(columns[i]).append('=').append(values[i]);
+    }
+    return sb.append('}').toString();
+  }
+}
@@ -47,39 +47,42 @@ import org.apache.log4j.Logger;
 import edu.umd.cloud9.io.array.ArrayListWritable;
 import edu.umd.cloud9.io.pair.PairOfInts;
 import edu.umd.cloud9.io.pair.PairOfWritables;
-import edu.umd.cloud9.util.fd.Object2IntFrequencyDistribution;
-import edu.umd.cloud9.util.fd.Object2IntFrequencyDistributionEntry;
-import edu.umd.cloud9.util.pair.PairOfObjectInt;
+import edu.umd.cloud9.util.array.ArrayListOfInts;
+import edu.umd.cloud9.util.fd.Int2IntFrequencyDistribution;
+import edu.umd.cloud9.util.fd.Int2IntFrequencyDistributionEntry;
+import edu.umd.cloud9.util.text.TermIdDictionary;
+import edu.umd.cloud9.util.text.WhitespaceTokenizer;
 
 public class BuildInvertedIndex extends Configured implements Tool {
   private static final Logger LOG = Logger.getLogger(BuildInvertedIndex.class);
 
   private static class MyMapper extends Mapper<LongWritable, Text, Text, PairOfInts> {
     private static final Text WORD = new Text();
-    private static final Object2IntFrequencyDistribution<String> COUNTS =
-        new Object2IntFrequencyDistributionEntry<String>();
+    private static final PairOfInts POSTING = new PairOfInts();
+    private static final Int2IntFrequencyDistribution COUNTS =
+        new Int2IntFrequencyDistributionEntry();
+
+    private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    private final TermIdDictionary dictionary = new TermIdDictionary();
+    private final ArrayListOfInts terms = new ArrayListOfInts();
 
     @Override
     public void map(LongWritable docno, Text doc, Context context)
         throws IOException, InterruptedException {
-      String text = doc.toString();
       COUNTS.clear();
-
-      String[] terms = text.split("\\s+");
+      dictionary.clearIfLargerThan(TermIdDictionary.DEFAULT_MAX_SIZE);
+      int n = tokenizer.tokenize(doc, dictionary, terms);
 
       // First build a histogram of the terms.
-      for (String term : terms) {
-        if (term == null || term.length() == 0) {
-          continue;
-        }
-
-        COUNTS.increment(term);
+      for (int i = 0; i < n; i++) {
+        COUNTS.increment(terms.get(i));
       }
 
       // Emit postings.
-      for (PairOfObjectInt<String> e : COUNTS) {
-        WORD.set(e.getLeftElement());
-        context.write(WORD, new PairOfInts((int) docno.get(), e.getRightElement()));
+      for (PairOfInts e : COUNTS) {
+        dictionary.getTerm(e.getLeftElement(), WORD);
+        POSTING.set((int) docno.get(), e.getRightElement());
+        context.write(WORD, POSTING);
       }
     }
   }
@@ -44,6 +44,7 @@ import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.Logger;
 
 import edu.umd.cloud9.io.array.ArrayListOfIntsWritable;
+import edu.umd.cloud9.webgraph.data.CsrGraphInputFormat;
 
 /**
  * <p>
@@ -51,6 +52,11 @@ import edu.umd.cloud9.io.array.ArrayListOfIntsWritable;
  * Hadoop structures for representing the graph.
  * </p>
  *
+ * <p>
+ * With <code>-csr</code>, the input is instead a binary graph written by
+ * <code>GenerateTabDelimitedWebGraph -binary</code>, which doesn't need to be parsed.
+ * </p>
+ *
  * @author Jimmy Lin
  * @author Michael Schatz
  */
@@ -59,18 +65,22 @@ public class BuildPageRankRecords extends Configured implements Tool {
 
   private static final String NODE_CNT_FIELD = "node.cnt";
 
+  private static void initNode(PageRankNode node, Configuration conf) {
+    int n = conf.getInt(NODE_CNT_FIELD, 0);
+    if (n == 0) {
+      throw new RuntimeException(NODE_CNT_FIELD + " cannot be 0!");
+    }
+    node.setType(PageRankNode.Type.Complete);
+    node.setPageRank((float) -StrictMath.log(n));
+  }
+
   private static class MyMapper extends Mapper<LongWritable, Text, IntWritable, PageRankNode> {
     private static final IntWritable nid = new IntWritable();
     private static final PageRankNode node = new PageRankNode();
 
     @Override
     public void setup(Mapper<LongWritable, Text, IntWritable, PageRankNode>.Context context) {
-      int n = context.getConfiguration().getInt(NODE_CNT_FIELD, 0);
-      if (n == 0) {
-        throw new RuntimeException(NODE_CNT_FIELD + " cannot be 0!");
-      }
-      node.setType(PageRankNode.Type.Complete);
-      node.setPageRank((float) -StrictMath.log(n));
+      initNode(node, context.getConfiguration());
     }
 
     @Override
@@ -105,11 +115,39 @@ public class BuildPageRankRecords extends Configured implements Tool {
     }
   }
 
+  // reads the nodes of a binary graph
+  private static class CsrMapper extends
+      Mapper<IntWritable, ArrayListOfIntsWritable, IntWritable, PageRankNode> {
+    private static final PageRankNode node = new PageRankNode();
+
+    @Override
+    public void setup(Context context) {
+      initNode(node, context.getConfiguration());
+    }
+
+    @Override
+    public void map(IntWritable nid, ArrayListOfIntsWritable neighbors, Context context)
+        throws IOException, InterruptedException {
+      node.setNodeId(nid.get());
+      node.setAdjacencyList(neighbors);
+
+      context.getCounter("graph", "numNodes").increment(1);
+      context.getCounter("graph", "numEdges").increment(neighbors.size());
+
+      if (neighbors.size() > 0) {
+        context.getCounter("graph", "numActiveNodes").increment(1);
+      }
+
+      context.write(nid, node);
+    }
+  }
+
   public BuildPageRankRecords() {}
 
   private static final String INPUT = "input";
   private static final String OUTPUT = "output";
   private static final String NUM_NODES = "numNodes";
+  private static final String CSR = "csr";
 
   /**
    * Runs this tool.
@@ -124,6 +162,8 @@ public class BuildPageRankRecords extends Configured implements Tool {
         .withDescription("output path").create(OUTPUT));
     options.addOption(OptionBuilder.withArgName("num").hasArg()
         .withDescription("number of nodes").create(NUM_NODES));
+    options.addOption(OptionBuilder
+        .withDescription("input is a binary (CSR) graph").create(CSR));
 
     CommandLine cmdline;
     CommandLineParser parser = new GnuParser();
@@ -152,6 +192,7 @@ public class BuildPageRankRecords extends Configured implements Tool {
     LOG.info(" - inputDir: " + inputPath);
     LOG.info(" - outputDir: " + outputPath);
     LOG.info(" - numNodes: " + n);
+    LOG.info(" - csr: " + cmdline.hasOption(CSR));
 
     Configuration conf = getConf();
     conf.setInt(NODE_CNT_FIELD, n);
@@ -166,7 +207,7 @@ public class BuildPageRankRecords extends Configured implements Tool {
     FileInputFormat.addInputPath(job, new Path(inputPath));
     FileOutputFormat.setOutputPath(job, new Path(outputPath));
 
-    job.setInputFormatClass(TextInputFormat.class);
+    job.setInputFormatClass(cmdline.hasOption(CSR) ? CsrGraphInputFormat.class : TextInputFormat.class);
     job.setOutputFormatClass(SequenceFileOutputFormat.class);
 
     job.setMapOutputKeyClass(IntWritable.class);
@@ -175,7 +216,7 @@ public class BuildPageRankRecords extends Configured implements Tool {
     job.setOutputKeyClass(IntWritable.class);
     job.setOutputValueClass(PageRankNode.class);
 
-    job.setMapperClass(MyMapper.class);
+    job.setMapperClass(cmdline.hasOption(CSR) ? CsrMapper.class : MyMapper.class);
 
     // Delete the output directory if it exists already.
     FileSystem.get(conf).delete(new Path(outputPath), true);
@@ -51,9 +51,9 @@ import org.apache.log4j.Logger;
 import com.google.common.base.Preconditions;
 
 import edu.umd.cloud9.io.array.ArrayListOfIntsWritable;
+import edu.umd.cloud9.mapreduce.lib.combine.InMapperCombiner;
+import edu.umd.cloud9.mapreduce.lib.combine.Long2FloatCombiner;
 import edu.umd.cloud9.mapreduce.lib.input.NonSplitableSequenceFileInputFormat;
-import edu.umd.cloud9.util.map.HMapIF;
-import edu.umd.cloud9.util.map.MapIF;
 
 /**
  * <p>
@@ -133,15 +133,36 @@ public class RunPageRankBasic extends Configured implements Tool {
     }
   }
 
-  // Mapper with in-mapper combiner optimization.
+  // Mapper with in-mapper combiner optimization. PageRank mass contributions are buffered up to
+  // the memory budget of the in-mapper combiner (see InMapperCombiner).
   private static class MapWithInMapperCombiningClass extends
       Mapper<IntWritable, PageRankNode, IntWritable, PageRankNode> {
     // For buffering PageRank mass contributes keyed by destination node.
-    private static final HMapIF map = new HMapIF();
+    private Long2FloatCombiner combiner;
 
     // For passing along node structure.
     private static final PageRankNode intermediateStructure = new PageRankNode();
 
+    @Override
+    public void setup(final Context context) {
+      final IntWritable k = new IntWritable();
+      final PageRankNode mass = new PageRankNode();
+
+      combiner = new Long2FloatCombiner(context.getConfiguration(),
+          Long2FloatCombiner.Operator.LOG_SUM, new Long2FloatCombiner.Emitter() {
+            @Override
+            public void emit(long key, float value) throws IOException, InterruptedException {
+              k.set((int) key);
+
+              mass.setNodeId((int) key);
+              mass.setType(PageRankNode.Type.Mass);
+              mass.setPageRank(value);
+
+              context.write(k, mass);
+            }
+          });
+    }
+
     @Override
     public void map(IntWritable nid, PageRankNode node, Context context)
         throws IOException, InterruptedException {
@@ -165,16 +186,12 @@ public class RunPageRankBasic extends Configured implements Tool {
 
         // Iterate over neighbors.
         for (int i = 0; i < list.size(); i++) {
-          int neighbor = list.get(i);
-
-          if (map.containsKey(neighbor)) {
-            // Already message destined for that node; add PageRank mass contribution.
+          if (combiner.add(list.get(i), mass)) {
+            // Already message destined for that node; PageRank mass contribution added.
             massMessagesSaved++;
-            map.put(neighbor, sumLogProbs(map.get(neighbor), mass));
           } else {
-            // New destination node; add new entry in map.
+            // New destination node; new entry in buffer.
             massMessages++;
-            map.put(neighbor, mass);
           }
         }
       }
@@ -187,19 +204,8 @@ public class RunPageRankBasic extends Configured implements Tool {
 
     @Override
     public void cleanup(Context context) throws IOException, InterruptedException {
-      // Now emit the messages all at once.
-      IntWritable k = new IntWritable();
-      PageRankNode mass = new PageRankNode();
-
-      for (MapIF.Entry e : map.entrySet()) {
-        k.set(e.getKey());
-
-        mass.setNodeId(e.getKey());
-        mass.setType(PageRankNode.Type.Mass);
-        mass.setPageRank(e.getValue());
-
-        context.write(k, mass);
-      }
+      // Now emit the remaining messages all at once.
+      combiner.close(context);
     }
   }
 
@@ -369,6 +375,7 @@ public class RunPageRankBasic extends Configured implements Tool {
   private static final String END = "end";
   private static final String COMBINER = "useCombiner";
   private static final String INMAPPER_COMBINER = "useInMapperCombiner";
+  private static final String INMAPPER_MEMORY = "inMapperCombinerMemory";
   private static final String RANGE = "range";
 
   /**
@@ -390,6 +397,8 @@ public class RunPageRankBasic extends Configured implements Tool {
         .withDescription("end iteration").create(END));
     options.addOption(OptionBuilder.withArgName("num").hasArg()
         .withDescription("number of nodes").create(NUM_NODES));
+    options.addOption(OptionBuilder.withArgName("MB").hasArg()
+        .withDescription("in-mapper combiner memory budget").create(INMAPPER_MEMORY));
 
     CommandLine cmdline;
     CommandLineParser parser = new GnuParser();
@@ -426,6 +435,11 @@ public class RunPageRankBasic extends Configured implements Tool {
     LOG.info(" - end iteration: " + e);
     LOG.info(" - use combiner: " + useCombiner);
     LOG.info(" - use in-mapper combiner: " + useInmapCombiner);
+    if (cmdline.hasOption(INMAPPER_MEMORY)) {
+      getConf().setInt(InMapperCombiner.MEMORY_PROPERTY,
+          Integer.parseInt(cmdline.getOptionValue(INMAPPER_MEMORY)));
+      LOG.info(" - in-mapper combiner memory: " + cmdline.getOptionValue(INMAPPER_MEMORY) + " MB");
+    }
     LOG.info(" - user range partitioner: " + useRange);
 
     // Iterate PageRank.
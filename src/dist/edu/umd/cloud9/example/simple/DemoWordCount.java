@@ -24,6 +24,7 @@ import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.GnuParser;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
@@ -45,6 +46,12 @@ import org.apache.log4j.Logger;
 
 import cern.colt.Arrays;
 
+import edu.umd.cloud9.mapreduce.lib.combine.InMapperCombiner;
+import edu.umd.cloud9.mapreduce.lib.combine.Long2IntSumCombiner;
+import edu.umd.cloud9.util.array.ArrayListOfInts;
+import edu.umd.cloud9.util.text.TermIdDictionary;
+import edu.umd.cloud9.util.text.WhitespaceTokenizer;
+
 /**
  * Simple word count demo.
  *
@@ -72,6 +79,52 @@ public class DemoWordCount extends Configured implements Tool {
     }
   }
 
+  // Mapper with in-mapper combining: buffers counts keyed by term id, up to the memory budget of
+  // the in-mapper combiner.
+  private static class MyMapperWithInMapperCombining extends
+      Mapper<LongWritable, Text, Text, IntWritable> {
+    private final static IntWritable COUNT = new IntWritable();
+    private final static Text WORD = new Text();
+
+    private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    private final TermIdDictionary dictionary = new TermIdDictionary();
+    private final ArrayListOfInts terms = new ArrayListOfInts();
+    private Long2IntSumCombiner combiner;
+
+    @Override
+    public void setup(final Context context) {
+      combiner = new Long2IntSumCombiner(context.getConfiguration(),
+          new Long2IntSumCombiner.Emitter() {
+            @Override
+            public void emit(long key, int value) throws IOException, InterruptedException {
+              dictionary.getTerm((int) key, WORD);
+              COUNT.set(value);
+              context.write(WORD, COUNT);
+            }
+          });
+    }
+
+    @Override
+    public void map(LongWritable key, Text value, Context context)
+        throws IOException, InterruptedException {
+      // Term ids are only valid until the dictionary is cleared.
+      if (dictionary.size() > TermIdDictionary.DEFAULT_MAX_SIZE) {
+        combiner.flushAll();
+        dictionary.clear();
+      }
+
+      int n = tokenizer.tokenize(value, dictionary, terms);
+      for (int i = 0; i < n; i++) {
+        combiner.add(terms.get(i), 1);
+      }
+    }
+
+    @Override
+    public void cleanup(Context context) throws IOException, InterruptedException {
+      combiner.close(context);
+    }
+  }
+
   // Reducer: sums up all the counts.
   private static class MyReducer extends Reducer<Text, IntWritable, Text, IntWritable> {
 
@@ -100,6 +153,8 @@ public class DemoWordCount extends Configured implements Tool {
   private static final String INPUT = "input";
   private static final String OUTPUT = "output";
   private static final String NUM_REDUCERS = "numReducers";
+  private static final String INMAPPER_COMBINER = "useInMapperCombiner";
+  private static final String INMAPPER_MEMORY = "inMapperCombinerMemory";
 
   /**
    * Runs this tool.
@@ -114,6 +169,9 @@ public class DemoWordCount extends Configured implements Tool {
         .withDescription("output path").create(OUTPUT));
     options.addOption(OptionBuilder.withArgName("num").hasArg()
         .withDescription("number of reducers").create(NUM_REDUCERS));
+    options.addOption(new Option(INMAPPER_COMBINER, "use in-mapper combiner"));
+    options.addOption(OptionBuilder.withArgName("MB").hasArg()
+        .withDescription("in-mapper combiner memory budget").create(INMAPPER_MEMORY));
 
     CommandLine cmdline;
     CommandLineParser parser = new GnuParser();
@@ -138,11 +196,18 @@ public class DemoWordCount extends Configured implements Tool {
     String outputPath = cmdline.getOptionValue(OUTPUT);
     int reduceTasks = cmdline.hasOption(NUM_REDUCERS) ?
         Integer.parseInt(cmdline.getOptionValue(NUM_REDUCERS)) : 1;
+    boolean useInMapperCombiner = cmdline.hasOption(INMAPPER_COMBINER);
 
     LOG.info("Tool: " + DemoWordCount.class.getSimpleName());
     LOG.info(" - input path: " + inputPath);
     LOG.info(" - output path: " + outputPath);
     LOG.info(" - number of reducers: " + reduceTasks);
+    LOG.info(" - use in-mapper combiner: " + useInMapperCombiner);
+    if (cmdline.hasOption(INMAPPER_MEMORY)) {
+      getConf().setInt(InMapperCombiner.MEMORY_PROPERTY,
+          Integer.parseInt(cmdline.getOptionValue(INMAPPER_MEMORY)));
+      LOG.info(" - in-mapper combiner memory: " + cmdline.getOptionValue(INMAPPER_MEMORY) + " MB");
+    }
 
     Configuration conf = getConf();
     Job job = Job.getInstance(conf);
@@ -157,7 +222,7 @@ public class DemoWordCount extends Configured implements Tool {
     job.setOutputKeyClass(Text.class);
     job.setOutputValueClass(IntWritable.class);
 
-    job.setMapperClass(MyMapper.class);
+    job.setMapperClass(useInMapperCombiner ? MyMapperWithInMapperCombining.class : MyMapper.class);
     job.setCombinerClass(MyReducer.class);
     job.setReducerClass(MyReducer.class);
 
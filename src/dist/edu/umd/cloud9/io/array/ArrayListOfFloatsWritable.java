@@ -21,6 +21,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.util.Arrays;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
 
 import edu.umd.cloud9.util.array.ArrayListOfFloats;
 
@@ -146,4 +147,41 @@ public class ArrayListOfFloatsWritable extends ArrayListOfFloats
       return 0;
     }
   }
+
+  /** Comparator optimized for {@code ArrayListOfFloatsWritable}. */
+  public static class Comparator extends WritableComparator {
+
+    /**
+     * Creates a new Comparator optimized for {@code ArrayListOfFloatsWritable}.
+     */
+    public Comparator() {
+      super(ArrayListOfFloatsWritable.class);
+    }
+
+    /**
+     * Optimization hook.
+     */
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      int thisSize = readInt(b1, s1);
+      int thatSize = readInt(b2, s2);
+
+      int n = Math.min(thisSize, thatSize);
+      for (int i = 0; i < n; i++) {
+        float thisValue = readFloat(b1, s1 + 4 + 4 * i);
+        float thatValue = readFloat(b2, s2 + 4 + 4 * i);
+
+        if (thisValue < thatValue) {
+          return -1;
+        } else if (thisValue > thatValue) {
+          return 1;
+        }
+      }
+
+      return thisSize < thatSize ? -1 : (thisSize == thatSize ? 0 : 1);
+    }
+  }
+
+  static { // register this comparator
+    WritableComparator.define(ArrayListOfFloatsWritable.class, new Comparator());
+  }
 }
@@ -19,9 +19,17 @@ package edu.umd.cloud9.io.array;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 
 /**
  * <p>
@@ -151,7 +159,8 @@ public class ArrayListWritableComparable<E extends WritableComparable> extends A
       }
     }
 
-    return 0;
+    // this list is empty: sort it before a non-empty list
+    return this.size() < that.size() ? -1 : 0;
   }
 
   /**
@@ -171,4 +180,135 @@ public class ArrayListWritableComparable<E extends WritableComparable> extends A
 
     return sb.toString();
   }
+
+  /**
+   * Comparator optimized for {@code ArrayListWritableComparable}. Lists of {@code IntWritable},
+   * {@code LongWritable}, {@code FloatWritable}, {@code DoubleWritable} and {@code Text} are
+   * compared directly on their serialized bytes. Since the serialized form does not record the
+   * length of each element, lists of any other element type are deserialized and compared with
+   * {@link ArrayListWritableComparable#compareTo}.
+   */
+  public static class Comparator extends WritableComparator {
+    private static final int INT = 0;
+    private static final int LONG = 1;
+    private static final int FLOAT = 2;
+    private static final int DOUBLE = 3;
+    private static final int TEXT = 4;
+
+    private static final byte[][] NAMES = new byte[][] {
+        getName(IntWritable.class), getName(LongWritable.class), getName(FloatWritable.class),
+        getName(DoubleWritable.class), getName(Text.class) };
+
+    /**
+     * Creates a new Comparator optimized for {@code ArrayListWritableComparable}.
+     */
+    public Comparator() {
+      super(ArrayListWritableComparable.class, true);
+    }
+
+    /**
+     * Optimization hook.
+     */
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      int thisSize = readInt(b1, s1);
+      int thatSize = readInt(b2, s2);
+
+      if (thisSize == 0 || thatSize == 0) {
+        return thisSize == thatSize ? 0 : (thisSize == 0 ? -1 : 1);
+      }
+
+      // Both lists must hold the same element type, otherwise fall back on deserialization.
+      int thisNameLength = readUnsignedShort(b1, s1 + 4);
+      int thatNameLength = readUnsignedShort(b2, s2 + 4);
+      if (compareBytes(b1, s1 + 6, thisNameLength, b2, s2 + 6, thatNameLength) != 0) {
+        return super.compare(b1, s1, l1, b2, s2, l2);
+      }
+
+      int type = getType(b1, s1 + 6, thisNameLength);
+      if (type < 0) {
+        return super.compare(b1, s1, l1, b2, s2, l2);
+      }
+
+      int p1 = s1 + 6 + thisNameLength;
+      int p2 = s2 + 6 + thatNameLength;
+      int n = Math.min(thisSize, thatSize);
+      try {
+        for (int i = 0; i < n; i++) {
+          int cmp;
+          switch (type) {
+          case INT:
+            cmp = compareInts(readInt(b1, p1), readInt(b2, p2));
+            p1 += 4;
+            p2 += 4;
+            break;
+          case LONG:
+            long thisLong = readLong(b1, p1);
+            long thatLong = readLong(b2, p2);
+            cmp = thisLong < thatLong ? -1 : (thisLong == thatLong ? 0 : 1);
+            p1 += 8;
+            p2 += 8;
+            break;
+          case FLOAT:
+            float thisFloat = readFloat(b1, p1);
+            float thatFloat = readFloat(b2, p2);
+            cmp = thisFloat < thatFloat ? -1 : (thisFloat == thatFloat ? 0 : 1);
+            p1 += 4;
+            p2 += 4;
+            break;
+          case DOUBLE:
+            double thisDouble = readDouble(b1, p1);
+            double thatDouble = readDouble(b2, p2);
+            cmp = thisDouble < thatDouble ? -1 : (thisDouble == thatDouble ? 0 : 1);
+            p1 += 8;
+            p2 += 8;
+            break;
+          default:
+            int thisVIntLength = WritableUtils.decodeVIntSize(b1[p1]);
+            int thatVIntLength = WritableUtils.decodeVIntSize(b2[p2]);
+            int thisLength = readVInt(b1, p1);
+            int thatLength = readVInt(b2, p2);
+            p1 += thisVIntLength;
+            p2 += thatVIntLength;
+            cmp = compareBytes(b1, p1, thisLength, b2, p2, thatLength);
+            p1 += thisLength;
+            p2 += thatLength;
+          }
+
+          if (cmp != 0) {
+            return cmp;
+          }
+        }
+      } catch (IOException e) {
+        throw new IllegalArgumentException(e);
+      }
+
+      return compareInts(thisSize, thatSize);
+    }
+
+    private static int compareInts(int a, int b) {
+      return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private static int getType(byte[] b, int s, int l) {
+      for (int i = 0; i < NAMES.length; i++) {
+        if (compareBytes(b, s, l, NAMES[i], 0, NAMES[i].length) == 0) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    // Element class names are serialized with writeUTF, which is plain UTF-8 for ASCII names.
+    private static byte[] getName(Class<?> c) {
+      try {
+        return c.getCanonicalName().getBytes("UTF-8");
+      } catch (UnsupportedEncodingException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  static { // register this comparator
+    WritableComparator.define(ArrayListWritableComparable.class, new Comparator());
+  }
 }
@@ -63,6 +63,15 @@ public class HMapIIW extends HMapII implements Writable {
 		super();
 	}
 
+	/**
+	 * Creates a <code>HMapIIW</code> object with the specified initial capacity.
+	 *
+	 * @param initialCapacity the initial capacity
+	 */
+	public HMapIIW(int initialCapacity) {
+		super(initialCapacity);
+	}
+
 	/**
 	 * Deserializes the map.
 	 *
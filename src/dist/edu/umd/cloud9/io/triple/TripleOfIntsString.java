@@ -195,11 +195,11 @@ public class TripleOfIntsString implements WritableComparable<TripleOfIntsString
 		return new TripleOfIntsString(this.leftElement, this.middleElement, this.rightElement);
 	}
 
-	/** Comparator optimized for <code>PairOfInts</code>. */
+	/** Comparator optimized for <code>TripleOfIntsString</code>. */
 	public static class Comparator extends WritableComparator {
 
 		/**
-		 * Creates a new Comparator optimized for <code>PairOfInts</code>.
+		 * Creates a new Comparator optimized for <code>TripleOfIntsString</code>.
 		 */
 		public Comparator() {
 			super(TripleOfIntsString.class);
@@ -224,15 +224,10 @@ public class TripleOfIntsString implements WritableComparable<TripleOfIntsString
 				} else if (thisMiddleValue > thatMiddleValue) {
 					return 1;
 				} else {
-					int thisRightValue = readInt(b1, s1 + 8);
-					int thatRightValue = readInt(b2, s2 + 8);
-					if (thisRightValue < thatRightValue) {
-						return -1;
-					} else if (thisRightValue > thatRightValue) {
-						return 1;
-					} else {
-						return 0;
-					}
+					// The string is serialized with writeUTF: an unsigned short length followed by the bytes.
+					int thisLength = readUnsignedShort(b1, s1 + 8);
+					int thatLength = readUnsignedShort(b2, s2 + 8);
+					return compareBytes(b1, s1 + 10, thisLength, b2, s2 + 10, thatLength);
 				}
 			}
 		}
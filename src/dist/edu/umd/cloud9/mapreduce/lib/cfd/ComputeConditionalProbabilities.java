@@ -0,0 +1,346 @@
+/*
+ * Cloud9: A Hadoop toolkit for working with big data
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.mapreduce.lib.cfd;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VLongWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+import edu.umd.cloud9.io.pair.PairOfInts;
+import edu.umd.cloud9.math.LogMath;
+import edu.umd.cloud9.util.text.WhitespaceTokenizer;
+
+/**
+ * <p>
+ * Computes conditional probabilities P(event | condition) from counts of (event, condition)
+ * pairs, using the "order inversion" design pattern of {@link
+ * edu.umd.cloud9.example.bigram.BigramRelativeFrequency} generalized to arbitrary int-encoded
+ * events, e.g., term | document class or link target | anchor term:
+ * </p>
+ *
+ * <ul>
+ * <li>Keys are {@link PairOfInts}, with the condition on the left and the event on the right.
+ * Along with the counts of the pairs, mappers emit the marginal count of each condition under the
+ * key {@code (condition, }{@link #MARGINAL}{@code )}.</li>
+ * <li>Since {@code MARGINAL} is negative, the raw comparator of {@code PairOfInts} sorts the
+ * marginal ahead of every event of the same condition.</li>
+ * <li>{@link ConditionPartitioner} partitions on the condition alone, so that the marginal and
+ * all events of a condition meet in the same reducer.</li>
+ * <li>{@link SumCombiner} sums partial counts, which are shuffled as {@code VLongWritable}s.</li>
+ * </ul>
+ *
+ * <p>
+ * Input is either SequenceFiles of ({@link PairOfInts}, {@link IntWritable}) pairs holding
+ * (condition, event) and count, or, with {@code -textInput}, lines of whitespace-separated
+ * "condition event [count]". Events and conditions must be non-negative. Output is SequenceFiles
+ * of ({@link PairOfInts}, {@link FloatWritable}) pairs holding (condition, event) and the
+ * probability, or its natural log with {@code -logProbabilities}. Custom jobs can reuse the
+ * partitioner, combiner and reducer by having their mappers extend
+ * {@link ConditionalEventMapper}.
+ * </p>
+ */
+public class ComputeConditionalProbabilities extends Configured implements Tool {
+  private static final Logger LOG = Logger.getLogger(ComputeConditionalProbabilities.class);
+
+  /**
+   * Event standing in for the marginal count of a condition.
+   */
+  public static final int MARGINAL = -1;
+
+  public static final String LOG_PROBABILITIES_PROPERTY =
+      "ComputeConditionalProbabilities.LogProbabilities";
+
+  public static enum Counts { CONDITIONS, EVENTS, MISSING_MARGINALS, UNNORMALIZED_CONDITIONS };
+
+  // Tolerance on the log of the total probability mass of a condition.
+  private static final double EPSILON = 1e-3;
+
+  // Reads (condition, event) keys and counts from SequenceFiles.
+  private static class SequenceFileMapper extends ConditionalEventMapper<PairOfInts, IntWritable> {
+    @Override
+    public void map(PairOfInts key, IntWritable value, Context context)
+        throws IOException, InterruptedException {
+      emit(key.getRightElement(), key.getLeftElement(), value.get());
+    }
+  }
+
+  // Reads "condition event [count]" lines.
+  private static class TextMapper extends ConditionalEventMapper<LongWritable, Text> {
+    private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+
+    @Override
+    public void map(LongWritable key, Text line, Context context)
+        throws IOException, InterruptedException {
+      tokenizer.reset(line);
+      if (!tokenizer.next()) {
+        return;
+      }
+      int condition = parseInt(tokenizer);
+      if (!tokenizer.next()) {
+        throw new IOException("Malformed line at offset " + key.get() + ": " + line);
+      }
+      int event = parseInt(tokenizer);
+      int count = tokenizer.next() ? parseInt(tokenizer) : 1;
+
+      emit(event, condition, count);
+    }
+
+    private static int parseInt(WhitespaceTokenizer tokenizer) throws IOException {
+      byte[] b = tokenizer.getBytes();
+      int end = tokenizer.getStart() + tokenizer.getLength();
+      long n = 0;
+      for (int i = tokenizer.getStart(); i < end; i++) {
+        int digit = b[i] - '0';
+        if (digit < 0 || digit > 9 || n > Integer.MAX_VALUE) {
+          throw new IOException("Not a non-negative int: " + tokenizer.getToken());
+        }
+        n = n * 10 + digit;
+      }
+      if (n > Integer.MAX_VALUE) {
+        throw new IOException("Not a non-negative int: " + tokenizer.getToken());
+      }
+      return (int) n;
+    }
+  }
+
+  /**
+   * Sums partial counts.
+   */
+  public static class SumCombiner extends
+      Reducer<PairOfInts, VLongWritable, PairOfInts, VLongWritable> {
+    private static final VLongWritable SUM = new VLongWritable();
+
+    @Override
+    public void reduce(PairOfInts key, Iterable<VLongWritable> values, Context context)
+        throws IOException, InterruptedException {
+      long sum = 0;
+      for (VLongWritable value : values) {
+        sum += value.get();
+      }
+      SUM.set(sum);
+      context.write(key, SUM);
+    }
+  }
+
+  /**
+   * Partitions on the condition, ignoring the event.
+   */
+  public static class ConditionPartitioner extends Partitioner<PairOfInts, VLongWritable> {
+    @Override
+    public int getPartition(PairOfInts key, VLongWritable value, int numReduceTasks) {
+      return (key.getLeftElement() & Integer.MAX_VALUE) % numReduceTasks;
+    }
+  }
+
+  /**
+   * Divides the count of each (condition, event) pair by the marginal count of the condition,
+   * which arrives first. The probability mass of each condition is accumulated in log space with
+   * {@link LogMath} as a sanity check on the partitioning and sort order.
+   */
+  public static class ProbabilityReducer extends
+      Reducer<PairOfInts, VLongWritable, PairOfInts, FloatWritable> {
+    private static final FloatWritable VALUE = new FloatWritable();
+
+    private boolean logProbabilities;
+    private int condition = MARGINAL;
+    private double logMarginal;
+    private double logMass;
+
+    @Override
+    public void setup(Context context) {
+      logProbabilities = context.getConfiguration().getBoolean(LOG_PROBABILITIES_PROPERTY, false);
+    }
+
+    @Override
+    public void reduce(PairOfInts key, Iterable<VLongWritable> values, Context context)
+        throws IOException, InterruptedException {
+      long sum = 0;
+      for (VLongWritable value : values) {
+        sum += value.get();
+      }
+
+      if (key.getRightElement() == MARGINAL) {
+        checkMass(context);
+        condition = key.getLeftElement();
+        logMarginal = Math.log(sum);
+        logMass = Double.NEGATIVE_INFINITY;
+        context.getCounter(Counts.CONDITIONS).increment(1);
+        return;
+      }
+
+      if (key.getLeftElement() != condition) {
+        context.getCounter(Counts.MISSING_MARGINALS).increment(1);
+        return;
+      }
+
+      double logProbability = Math.log(sum) - logMarginal;
+      logMass = LogMath.add(logMass, logProbability);
+
+      VALUE.set(logProbabilities ? (float) logProbability : (float) Math.exp(logProbability));
+      context.write(key, VALUE);
+      context.getCounter(Counts.EVENTS).increment(1);
+    }
+
+    @Override
+    public void cleanup(Context context) {
+      checkMass(context);
+    }
+
+    private void checkMass(Context context) {
+      if (condition != MARGINAL && Math.abs(logMass) > EPSILON) {
+        context.getCounter(Counts.UNNORMALIZED_CONDITIONS).increment(1);
+      }
+    }
+  }
+
+  /**
+   * Creates an instance of this tool.
+   */
+  public ComputeConditionalProbabilities() {}
+
+  private static final String INPUT = "input";
+  private static final String OUTPUT = "output";
+  private static final String NUM_REDUCERS = "numReducers";
+  private static final String TEXT_INPUT = "textInput";
+  private static final String LOG_PROBABILITIES = "logProbabilities";
+  private static final String MAX_ENTRIES = "maxEntries";
+
+  /**
+   * Runs this tool.
+   */
+  @SuppressWarnings({ "static-access" })
+  public int run(String[] args) throws Exception {
+    Options options = new Options();
+
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("input path").create(INPUT));
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("output path").create(OUTPUT));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of reducers").create(NUM_REDUCERS));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("distinct pairs buffered per mapper").create(MAX_ENTRIES));
+    options.addOption(new Option(TEXT_INPUT, "read \"condition event [count]\" lines"));
+    options.addOption(new Option(LOG_PROBABILITIES, "output natural log probabilities"));
+
+    CommandLine cmdline;
+    CommandLineParser parser = new GnuParser();
+
+    try {
+      cmdline = parser.parse(options, args);
+    } catch (ParseException exp) {
+      System.err.println("Error parsing command line: " + exp.getMessage());
+      return -1;
+    }
+
+    if (!cmdline.hasOption(INPUT) || !cmdline.hasOption(OUTPUT)) {
+      System.out.println("args: " + Arrays.toString(args));
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.setWidth(120);
+      formatter.printHelp(this.getClass().getName(), options);
+      ToolRunner.printGenericCommandUsage(System.out);
+      return -1;
+    }
+
+    String inputPath = cmdline.getOptionValue(INPUT);
+    String outputPath = cmdline.getOptionValue(OUTPUT);
+    int reduceTasks = cmdline.hasOption(NUM_REDUCERS) ?
+        Integer.parseInt(cmdline.getOptionValue(NUM_REDUCERS)) : 1;
+    boolean textInput = cmdline.hasOption(TEXT_INPUT);
+    boolean logProbabilities = cmdline.hasOption(LOG_PROBABILITIES);
+
+    LOG.info("Tool: " + ComputeConditionalProbabilities.class.getSimpleName());
+    LOG.info(" - input path: " + inputPath);
+    LOG.info(" - output path: " + outputPath);
+    LOG.info(" - number of reducers: " + reduceTasks);
+    LOG.info(" - text input: " + textInput);
+    LOG.info(" - log probabilities: " + logProbabilities);
+
+    getConf().setBoolean(LOG_PROBABILITIES_PROPERTY, logProbabilities);
+    if (cmdline.hasOption(MAX_ENTRIES)) {
+      getConf().setInt(ConditionalEventMapper.MAX_ENTRIES_PROPERTY,
+          Integer.parseInt(cmdline.getOptionValue(MAX_ENTRIES)));
+      LOG.info(" - max entries: " + cmdline.getOptionValue(MAX_ENTRIES));
+    }
+
+    Job job = Job.getInstance(getConf());
+    job.setJobName(ComputeConditionalProbabilities.class.getSimpleName());
+    job.setJarByClass(ComputeConditionalProbabilities.class);
+
+    job.setNumReduceTasks(reduceTasks);
+
+    FileInputFormat.setInputPaths(job, new Path(inputPath));
+    FileOutputFormat.setOutputPath(job, new Path(outputPath));
+
+    job.setInputFormatClass(textInput ? TextInputFormat.class : SequenceFileInputFormat.class);
+    job.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+    job.setMapOutputKeyClass(PairOfInts.class);
+    job.setMapOutputValueClass(VLongWritable.class);
+    job.setOutputKeyClass(PairOfInts.class);
+    job.setOutputValueClass(FloatWritable.class);
+
+    job.setMapperClass(textInput ? TextMapper.class : SequenceFileMapper.class);
+    job.setCombinerClass(SumCombiner.class);
+    job.setReducerClass(ProbabilityReducer.class);
+    job.setPartitionerClass(ConditionPartitioner.class);
+
+    // Delete the output directory if it exists already.
+    Path outputDir = new Path(outputPath);
+    FileSystem.get(getConf()).delete(outputDir, true);
+
+    long startTime = System.currentTimeMillis();
+    job.waitForCompletion(true);
+    System.out.println("Job Finished in " + (System.currentTimeMillis() - startTime) / 1000.0 + " seconds");
+
+    return 0;
+  }
+
+  /**
+   * Dispatches command-line arguments to the tool via the {@code ToolRunner}.
+   */
+  public static void main(String[] args) throws Exception {
+    ToolRunner.run(new ComputeConditionalProbabilities(), args);
+  }
+}
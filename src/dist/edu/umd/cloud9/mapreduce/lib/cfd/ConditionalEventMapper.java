@@ -0,0 +1,125 @@
+/*
+ * Cloud9: A Hadoop toolkit for working with big data
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.mapreduce.lib.cfd;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.VLongWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import edu.umd.cloud9.io.pair.PairOfInts;
+import edu.umd.cloud9.util.array.ArrayListOfInts;
+import edu.umd.cloud9.util.cfd.Int2IntConditionalFrequencyDistribution;
+import edu.umd.cloud9.util.cfd.Int2IntConditionalFrequencyDistributionEntry;
+import edu.umd.cloud9.util.fd.Int2IntFrequencyDistribution;
+
+/**
+ * <p>
+ * Base class for mappers that feed {@link ComputeConditionalProbabilities}. Subclasses call
+ * {@link #emit(int, int, int)} for each observed (event, condition) pair, where both are encoded as
+ * non-negative ints. Counts are aggregated in an {@link Int2IntConditionalFrequencyDistribution}
+ * and written out when the number of distinct pairs exceeds
+ * {@value #MAX_ENTRIES_PROPERTY} (default 2<sup>20</sup>), or at the end of the task.
+ * </p>
+ *
+ * <p>
+ * On each flush, the mapper emits a {@code (condition, event)} key for every pair and a single
+ * {@code (condition, }{@link ComputeConditionalProbabilities#MARGINAL}{@code )} key holding the
+ * marginal count of the condition. Since the marginal sentinel is negative, the marginal sorts
+ * before all events of the same condition and reaches the reducer first.
+ * </p>
+ *
+ * @param <KEYIN> type of input key
+ * @param <VALUEIN> type of input value
+ */
+public abstract class ConditionalEventMapper<KEYIN, VALUEIN> extends
+    Mapper<KEYIN, VALUEIN, PairOfInts, VLongWritable> {
+  public static final String MAX_ENTRIES_PROPERTY = "ConditionalEventMapper.MaxEntries";
+
+  // Keeps the int counts in the conditional distribution from overflowing.
+  private static final long MAX_SUM_OF_COUNTS = Integer.MAX_VALUE / 2;
+
+  private static final PairOfInts KEY = new PairOfInts();
+  private static final VLongWritable COUNT = new VLongWritable();
+
+  private Int2IntConditionalFrequencyDistribution cfd =
+      new Int2IntConditionalFrequencyDistributionEntry();
+  private final ArrayListOfInts conditions = new ArrayListOfInts();
+  private int entries = 0;
+  private int maxEntries;
+  private Context context;
+
+  @Override
+  public void setup(Context context) throws IOException, InterruptedException {
+    this.context = context;
+    maxEntries = context.getConfiguration().getInt(MAX_ENTRIES_PROPERTY, 1 << 20);
+  }
+
+  /**
+   * Records {@code count} occurrences of {@code event} conditioned on {@code condition}.
+   */
+  protected void emit(int event, int condition, int count)
+      throws IOException, InterruptedException {
+    if (event < 0 || condition < 0) {
+      throw new IllegalArgumentException("Events and conditions must be non-negative: (" + event
+          + ", " + condition + ")");
+    }
+
+    int cur = cfd.get(event, condition);
+    // A single large count could overflow the int count of the pair.
+    if (cur > 0 && (long) cur + count > MAX_SUM_OF_COUNTS) {
+      flush();
+      cur = 0;
+    }
+    if (cur == 0) {
+      if (cfd.getConditionalDistribution(condition).getNumberOfEvents() == 0) {
+        conditions.add(condition);
+      }
+      entries++;
+    }
+    cfd.set(event, condition, cur + count);
+
+    if (entries > maxEntries || cfd.getSumOfAllCounts() > MAX_SUM_OF_COUNTS) {
+      flush();
+    }
+  }
+
+  @Override
+  public void cleanup(Context context) throws IOException, InterruptedException {
+    flush();
+  }
+
+  private void flush() throws IOException, InterruptedException {
+    for (int i = 0; i < conditions.size(); i++) {
+      int condition = conditions.get(i);
+      Int2IntFrequencyDistribution fd = cfd.getConditionalDistribution(condition);
+      for (PairOfInts e : fd) {
+        KEY.set(condition, e.getLeftElement());
+        COUNT.set(e.getRightElement());
+        context.write(KEY, COUNT);
+      }
+
+      KEY.set(condition, ComputeConditionalProbabilities.MARGINAL);
+      COUNT.set(fd.getSumOfCounts());
+      context.write(KEY, COUNT);
+    }
+
+    cfd = new Int2IntConditionalFrequencyDistributionEntry();
+    conditions.clear();
+    entries = 0;
+  }
+}
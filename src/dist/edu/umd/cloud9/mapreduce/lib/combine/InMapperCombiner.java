@@ -0,0 +1,187 @@
+/*
+ * Cloud9: A Hadoop toolkit for working with big data
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.mapreduce.lib.combine;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * Base class for memory-bounded in-mapper combining. Subclasses buffer partial aggregates in
+ * primitive maps and estimate the heap they use from the number of buffered entries. When the
+ * estimate exceeds the memory budget, part of the buffer is flushed according to the
+ * {@link FlushPolicy}: everything, the oldest entries (in insertion order), or the heaviest
+ * entries (the ones with the largest values or stripes).
+ * </p>
+ *
+ * <p>
+ * The budget and policy are read from the job configuration:
+ * </p>
+ *
+ * <ul>
+ * <li>{@code InMapperCombiner.Memory}: memory budget in MB (default 64)</li>
+ * <li>{@code InMapperCombiner.FlushPolicy}: one of {@code ALL}, {@code OLDEST}, {@code HEAVIEST}
+ * (default {@code OLDEST})</li>
+ * <li>{@code InMapperCombiner.FlushFraction}: fraction of entries flushed by the {@code OLDEST}
+ * and {@code HEAVIEST} policies (default 0.5)</li>
+ * </ul>
+ *
+ * <p>
+ * Mappers call {@link #close(TaskInputOutputContext)} from {@code cleanup}, which flushes the
+ * remaining entries and reports the {@link Counters}. The combine ratio is the number of records
+ * added divided by the number of records emitted.
+ * </p>
+ */
+public abstract class InMapperCombiner {
+  private static final Logger LOG = Logger.getLogger(InMapperCombiner.class);
+
+  public static enum Counters { FLUSHES, FLUSHED_ENTRIES, RECORDS_IN, RECORDS_OUT };
+
+  public static enum FlushPolicy { ALL, OLDEST, HEAVIEST };
+
+  public static final String MEMORY_PROPERTY = "InMapperCombiner.Memory";
+  public static final String FLUSH_POLICY_PROPERTY = "InMapperCombiner.FlushPolicy";
+  public static final String FLUSH_FRACTION_PROPERTY = "InMapperCombiner.FlushFraction";
+
+  public static final int DEFAULT_MEMORY = 64;
+  public static final FlushPolicy DEFAULT_FLUSH_POLICY = FlushPolicy.OLDEST;
+  public static final float DEFAULT_FLUSH_FRACTION = 0.5f;
+
+  private final long memoryBudget;
+  private final FlushPolicy policy;
+  private final float flushFraction;
+
+  protected long recordsIn = 0;
+  protected long recordsOut = 0;
+  private long flushes = 0;
+  private long flushedEntries = 0;
+
+  /**
+   * Creates a combiner with the settings from the job configuration.
+   */
+  protected InMapperCombiner(Configuration conf) {
+    this(conf.getInt(MEMORY_PROPERTY, DEFAULT_MEMORY) * 1024L * 1024L,
+        FlushPolicy.valueOf(conf.get(FLUSH_POLICY_PROPERTY, DEFAULT_FLUSH_POLICY.name())),
+        conf.getFloat(FLUSH_FRACTION_PROPERTY, DEFAULT_FLUSH_FRACTION));
+  }
+
+  /**
+   * Creates a combiner.
+   *
+   * @param memoryBudget memory budget in bytes
+   * @param policy which entries to flush when the budget is exceeded
+   * @param flushFraction fraction of entries flushed by the {@code OLDEST} and {@code HEAVIEST}
+   *     policies
+   */
+  protected InMapperCombiner(long memoryBudget, FlushPolicy policy, float flushFraction) {
+    if (memoryBudget <= 0) {
+      throw new IllegalArgumentException("Illegal memory budget: " + memoryBudget);
+    }
+    if (flushFraction <= 0.0f || flushFraction > 1.0f) {
+      throw new IllegalArgumentException("Illegal flush fraction: " + flushFraction);
+    }
+    this.memoryBudget = memoryBudget;
+    this.policy = policy;
+    this.flushFraction = flushFraction;
+  }
+
+  /**
+   * Returns the number of buffered entries.
+   */
+  public abstract int size();
+
+  /**
+   * Returns the estimated number of bytes used by the buffered entries.
+   */
+  public abstract long getMemoryUsage();
+
+  /**
+   * Emits and removes all buffered entries.
+   */
+  public abstract void flushAll() throws IOException, InterruptedException;
+
+  /**
+   * Emits and removes the {@code n} oldest entries.
+   */
+  protected abstract void flushOldest(int n) throws IOException, InterruptedException;
+
+  /**
+   * Emits and removes (at least) the {@code n} heaviest entries.
+   */
+  protected abstract void flushHeaviest(int n) throws IOException, InterruptedException;
+
+  /**
+   * Flushes entries according to the flush policy if the memory budget has been exceeded.
+   * Subclasses call this after adding entries.
+   */
+  protected void checkMemory() throws IOException, InterruptedException {
+    if (getMemoryUsage() <= memoryBudget) {
+      return;
+    }
+
+    int size = size();
+    int n = Math.max(1, (int) (size * flushFraction));
+    flushes++;
+
+    if (policy == FlushPolicy.ALL || n >= size) {
+      flushAll();
+    } else if (policy == FlushPolicy.OLDEST) {
+      flushOldest(n);
+    } else {
+      flushHeaviest(n);
+    }
+    flushedEntries += size - size();
+  }
+
+  /**
+   * Returns the number of records added divided by the number of records emitted so far.
+   */
+  public float getCombineRatio() {
+    return recordsOut == 0 ? 0.0f : (float) recordsIn / recordsOut;
+  }
+
+  /**
+   * Returns the number of times the memory budget was exceeded.
+   */
+  public long getFlushCount() {
+    return flushes;
+  }
+
+  /**
+   * Flushes all remaining entries and reports counters.
+   */
+  public void close(TaskInputOutputContext<?, ?, ?, ?> context)
+      throws IOException, InterruptedException {
+    flushAll();
+
+    context.getCounter(Counters.FLUSHES).increment(flushes);
+    context.getCounter(Counters.FLUSHED_ENTRIES).increment(flushedEntries);
+    context.getCounter(Counters.RECORDS_IN).increment(recordsIn);
+    context.getCounter(Counters.RECORDS_OUT).increment(recordsOut);
+
+    LOG.info(String.format("In-mapper combining: %d records in, %d records out, " +
+        "combine ratio %.2f, %d flushes", recordsIn, recordsOut, getCombineRatio(), flushes));
+
+    flushes = 0;
+    flushedEntries = 0;
+    recordsIn = 0;
+    recordsOut = 0;
+  }
+}
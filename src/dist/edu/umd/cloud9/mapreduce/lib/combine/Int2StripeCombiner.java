@@ -0,0 +1,141 @@
+/*
+ * Cloud9: A Hadoop toolkit for working with big data
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.mapreduce.lib.combine;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+
+import edu.umd.cloud9.io.map.HMapIIW;
+
+/**
+ * In-mapper combiner for "stripes": for each {@code int} key, it buffers an {@link HMapIIW} of
+ * counts keyed by {@code int}. Memory is estimated from the number of stripes and the total number
+ * of cells in all stripes. The {@code HEAVIEST} policy flushes the largest stripes. Records in and
+ * out, for the purpose of computing the combine ratio, are cell increments and emitted cells,
+ * respectively.
+ */
+public class Int2StripeCombiner extends LongKeyCombiner {
+  // Rough estimates of the heap used by each stripe and each cell in a stripe.
+  private static final int BYTES_PER_STRIPE = 160;
+  private static final int BYTES_PER_CELL = 48;
+
+  /**
+   * Receives stripes flushed from the combiner. The stripe may be modified or retained by the
+   * emitter; it is no longer referenced by the combiner.
+   */
+  public static interface Emitter {
+    void emit(int key, HMapIIW stripe) throws IOException, InterruptedException;
+  }
+
+  private final Emitter emitter;
+  private HMapIIW[] stripes = new HMapIIW[keys.length];
+  private long cells = 0;
+
+  /**
+   * Creates a combiner with the settings from the job configuration.
+   */
+  public Int2StripeCombiner(Configuration conf, Emitter emitter) {
+    super(conf);
+    this.emitter = emitter;
+  }
+
+  /**
+   * Creates a combiner with the specified memory budget (in bytes) and flush policy.
+   */
+  public Int2StripeCombiner(long memoryBudget, FlushPolicy policy, float flushFraction,
+      Emitter emitter) {
+    super(memoryBudget, policy, flushFraction);
+    this.emitter = emitter;
+  }
+
+  /**
+   * Increments the count of {@code neighbor} in the stripe of {@code key}. Does not flush; call
+   * {@link #checkMemory()} after updating the stripes for a record.
+   */
+  public void increment(int key, int neighbor) {
+    increment(key, neighbor, 1);
+  }
+
+  /**
+   * Adds {@code count} to the count of {@code neighbor} in the stripe of {@code key}. Does not
+   * flush; call {@link #checkMemory()} after updating the stripes for a record.
+   */
+  public void increment(int key, int neighbor, int count) {
+    recordsIn++;
+    HMapIIW stripe = getStripe(key);
+    int size = stripe.size();
+    stripe.increment(neighbor, count);
+    if (stripe.size() > size) {
+      cells++;
+    }
+  }
+
+  /**
+   * Flushes stripes according to the flush policy if the memory budget has been exceeded. Mappers
+   * call this once they are done updating the stripes for a record.
+   */
+  @Override
+  public void checkMemory() throws IOException, InterruptedException {
+    super.checkMemory();
+  }
+
+  private HMapIIW getStripe(int key) {
+    int i = indexOf(key);
+    if (i >= 0) {
+      return stripes[i];
+    }
+
+    i = insert(key);
+    stripes[i] = new HMapIIW(16);
+    return stripes[i];
+  }
+
+  @Override
+  public long getMemoryUsage() {
+    return (long) size * BYTES_PER_STRIPE + cells * BYTES_PER_CELL;
+  }
+
+  @Override
+  protected void emit(int i) throws IOException, InterruptedException {
+    HMapIIW stripe = stripes[i];
+    cells -= stripe.size();
+    recordsOut += stripe.size();
+    emitter.emit((int) keys[i], stripe);
+  }
+
+  @Override
+  protected float weight(int i) {
+    return stripes[i].size();
+  }
+
+  @Override
+  protected void growValues(int capacity) {
+    stripes = Arrays.copyOf(stripes, capacity);
+  }
+
+  @Override
+  protected void moveValue(int from, int to) {
+    stripes[to] = stripes[from];
+  }
+
+  @Override
+  protected void clearValue(int i) {
+    stripes[i] = null;
+  }
+}
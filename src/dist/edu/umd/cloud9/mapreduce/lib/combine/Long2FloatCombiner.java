@@ -0,0 +1,136 @@
+/*
+ * Cloud9: A Hadoop toolkit for working with big data
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.mapreduce.lib.combine;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * In-mapper combiner that aggregates {@code float} values keyed by {@code long}, either by summing
+ * them or, for values that are log probabilities, by adding them in log space. The
+ * {@code HEAVIEST} policy flushes the entries with the largest values.
+ */
+public class Long2FloatCombiner extends LongKeyCombiner {
+  // Key, value, and two table slots.
+  private static final int BYTES_PER_ENTRY = 8 + 4 + 8;
+
+  /**
+   * How values for the same key are combined.
+   */
+  public static enum Operator {
+    SUM {
+      float combine(float a, float b) {
+        return a + b;
+      }
+    },
+    LOG_SUM {
+      float combine(float a, float b) {
+        if (a == Float.NEGATIVE_INFINITY)
+          return b;
+
+        if (b == Float.NEGATIVE_INFINITY)
+          return a;
+
+        if (a < b) {
+          return (float) (b + StrictMath.log1p(StrictMath.exp(a - b)));
+        }
+
+        return (float) (a + StrictMath.log1p(StrictMath.exp(b - a)));
+      }
+    };
+
+    abstract float combine(float a, float b);
+  }
+
+  /**
+   * Receives entries flushed from the combiner.
+   */
+  public static interface Emitter {
+    void emit(long key, float value) throws IOException, InterruptedException;
+  }
+
+  private final Operator operator;
+  private final Emitter emitter;
+  private float[] values = new float[keys.length];
+
+  /**
+   * Creates a combiner with the settings from the job configuration.
+   */
+  public Long2FloatCombiner(Configuration conf, Operator operator, Emitter emitter) {
+    super(conf);
+    this.operator = operator;
+    this.emitter = emitter;
+  }
+
+  /**
+   * Creates a combiner with the specified memory budget (in bytes) and flush policy.
+   */
+  public Long2FloatCombiner(long memoryBudget, FlushPolicy policy, float flushFraction,
+      Operator operator, Emitter emitter) {
+    super(memoryBudget, policy, flushFraction);
+    this.operator = operator;
+    this.emitter = emitter;
+  }
+
+  /**
+   * Combines {@code value} with the value of {@code key}, flushing entries if the memory budget is
+   * exceeded.
+   *
+   * @return {@code true} if the value was combined with an existing entry
+   */
+  public boolean add(long key, float value) throws IOException, InterruptedException {
+    recordsIn++;
+    int i = indexOf(key);
+    if (i >= 0) {
+      values[i] = operator.combine(values[i], value);
+      return true;
+    }
+
+    i = insert(key);
+    values[i] = value;
+    checkMemory();
+    return false;
+  }
+
+  @Override
+  public long getMemoryUsage() {
+    return (long) size * BYTES_PER_ENTRY;
+  }
+
+  @Override
+  protected void emit(int i) throws IOException, InterruptedException {
+    emitter.emit(keys[i], values[i]);
+    recordsOut++;
+  }
+
+  @Override
+  protected float weight(int i) {
+    return values[i];
+  }
+
+  @Override
+  protected void growValues(int capacity) {
+    values = Arrays.copyOf(values, capacity);
+  }
+
+  @Override
+  protected void moveValue(int from, int to) {
+    values[to] = values[from];
+  }
+}
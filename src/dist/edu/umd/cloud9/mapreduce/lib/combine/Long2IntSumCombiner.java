@@ -0,0 +1,126 @@
+/*
+ * Cloud9: A Hadoop toolkit for working with big data
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.mapreduce.lib.combine;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * In-mapper combiner that sums {@code int} counts keyed by {@code long}. Keys are typically term
+ * ids or pairs of term ids packed with {@link #pack(int, int)}. The {@code HEAVIEST} policy flushes
+ * the entries with the largest counts.
+ */
+public class Long2IntSumCombiner extends LongKeyCombiner {
+  // Key, value, and two table slots.
+  private static final int BYTES_PER_ENTRY = 8 + 4 + 8;
+
+  /**
+   * Receives entries flushed from the combiner.
+   */
+  public static interface Emitter {
+    void emit(long key, int value) throws IOException, InterruptedException;
+  }
+
+  private final Emitter emitter;
+  private int[] values = new int[keys.length];
+
+  /**
+   * Creates a combiner with the settings from the job configuration.
+   */
+  public Long2IntSumCombiner(Configuration conf, Emitter emitter) {
+    super(conf);
+    this.emitter = emitter;
+  }
+
+  /**
+   * Creates a combiner with the specified memory budget (in bytes) and flush policy.
+   */
+  public Long2IntSumCombiner(long memoryBudget, FlushPolicy policy, float flushFraction,
+      Emitter emitter) {
+    super(memoryBudget, policy, flushFraction);
+    this.emitter = emitter;
+  }
+
+  /**
+   * Adds {@code value} to the count of {@code key}, flushing entries if the memory budget is
+   * exceeded.
+   *
+   * @return {@code true} if the value was combined with an existing entry
+   */
+  public boolean add(long key, int value) throws IOException, InterruptedException {
+    recordsIn++;
+    int i = indexOf(key);
+    if (i >= 0) {
+      values[i] += value;
+      return true;
+    }
+
+    i = insert(key);
+    values[i] = value;
+    checkMemory();
+    return false;
+  }
+
+  /**
+   * Packs two ints into a {@code long} key.
+   */
+  public static long pack(int left, int right) {
+    return ((long) left << 32) | (right & 0xffffffffL);
+  }
+
+  /**
+   * Returns the left int of a key created by {@link #pack(int, int)}.
+   */
+  public static int getLeft(long key) {
+    return (int) (key >>> 32);
+  }
+
+  /**
+   * Returns the right int of a key created by {@link #pack(int, int)}.
+   */
+  public static int getRight(long key) {
+    return (int) key;
+  }
+
+  @Override
+  public long getMemoryUsage() {
+    return (long) size * BYTES_PER_ENTRY;
+  }
+
+  @Override
+  protected void emit(int i) throws IOException, InterruptedException {
+    emitter.emit(keys[i], values[i]);
+    recordsOut++;
+  }
+
+  @Override
+  protected float weight(int i) {
+    return values[i];
+  }
+
+  @Override
+  protected void growValues(int capacity) {
+    values = Arrays.copyOf(values, capacity);
+  }
+
+  @Override
+  protected void moveValue(int from, int to) {
+    values[to] = values[from];
+  }
+}
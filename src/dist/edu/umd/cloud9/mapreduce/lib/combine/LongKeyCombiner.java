@@ -0,0 +1,194 @@
+/*
+ * Cloud9: A Hadoop toolkit for working with big data
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.mapreduce.lib.combine;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Buffer of entries with {@code long} keys that backs the in-mapper combiners in this package.
+ * Keys are kept in an array in insertion order, and an open-addressing table maps keys to their
+ * positions in the array. Subclasses keep the values in parallel arrays. Flushing part of the
+ * buffer emits the selected entries, compacts the arrays and rebuilds the table.
+ */
+abstract class LongKeyCombiner extends InMapperCombiner {
+  private static final int INITIAL_CAPACITY = 1024;
+
+  protected long[] keys = new long[INITIAL_CAPACITY];
+  protected int size = 0;
+
+  // Holds position + 1 for occupied slots and 0 for empty slots; kept at most half full.
+  private int[] table = new int[2 * INITIAL_CAPACITY];
+  private int mask = table.length - 1;
+
+  protected LongKeyCombiner(Configuration conf) {
+    super(conf);
+  }
+
+  protected LongKeyCombiner(long memoryBudget, FlushPolicy policy, float flushFraction) {
+    super(memoryBudget, policy, flushFraction);
+  }
+
+  /**
+   * Emits the entry at position {@code i} and updates {@code recordsOut}.
+   */
+  protected abstract void emit(int i) throws IOException, InterruptedException;
+
+  /**
+   * Returns the weight of the entry at position {@code i}, used by the {@code HEAVIEST} policy.
+   */
+  protected abstract float weight(int i);
+
+  /**
+   * Grows the value arrays to hold {@code capacity} entries.
+   */
+  protected abstract void growValues(int capacity);
+
+  /**
+   * Moves the value at position {@code from} to position {@code to}.
+   */
+  protected abstract void moveValue(int from, int to);
+
+  /**
+   * Releases the value at position {@code i}, which is no longer in use.
+   */
+  protected void clearValue(int i) {}
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the position of {@code key}, or -1 if {@code key} is not buffered.
+   */
+  protected int indexOf(long key) {
+    int slot = hash(key) & mask;
+    int entry;
+    while ((entry = table[slot]) != 0) {
+      if (keys[entry - 1] == key) {
+        return entry - 1;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Appends {@code key}, which must not already be buffered, and returns its position. The caller
+   * is responsible for initializing the value at that position.
+   */
+  protected int insert(long key) {
+    if (size == keys.length) {
+      int capacity = keys.length * 2;
+      keys = Arrays.copyOf(keys, capacity);
+      growValues(capacity);
+      table = new int[2 * capacity];
+      mask = table.length - 1;
+      rehash();
+    }
+
+    int i = size++;
+    keys[i] = key;
+    put(key, i);
+    return i;
+  }
+
+  @Override
+  public void flushAll() throws IOException, InterruptedException {
+    for (int i = 0; i < size; i++) {
+      emit(i);
+      clearValue(i);
+    }
+    size = 0;
+    Arrays.fill(table, 0);
+  }
+
+  @Override
+  protected void flushOldest(int n) throws IOException, InterruptedException {
+    n = Math.min(n, size);
+    for (int i = 0; i < n; i++) {
+      emit(i);
+    }
+
+    for (int i = n; i < size; i++) {
+      keys[i - n] = keys[i];
+      moveValue(i, i - n);
+    }
+    for (int i = size - n; i < size; i++) {
+      clearValue(i);
+    }
+    size -= n;
+    rehash();
+  }
+
+  @Override
+  protected void flushHeaviest(int n) throws IOException, InterruptedException {
+    n = Math.min(n, size);
+    float[] weights = new float[size];
+    for (int i = 0; i < size; i++) {
+      weights[i] = weight(i);
+    }
+    float[] sorted = Arrays.copyOf(weights, size);
+    Arrays.sort(sorted);
+    float threshold = sorted[size - n];
+
+    int j = 0;
+    for (int i = 0; i < size; i++) {
+      if (weights[i] >= threshold) {
+        emit(i);
+      } else {
+        if (i != j) {
+          keys[j] = keys[i];
+          moveValue(i, j);
+        }
+        j++;
+      }
+    }
+    for (int i = j; i < size; i++) {
+      clearValue(i);
+    }
+    size = j;
+    rehash();
+  }
+
+  private void put(long key, int i) {
+    int slot = hash(key) & mask;
+    while (table[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = i + 1;
+  }
+
+  private void rehash() {
+    Arrays.fill(table, 0);
+    for (int i = 0; i < size; i++) {
+      put(keys[i], i);
+    }
+  }
+
+  private static int hash(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+}
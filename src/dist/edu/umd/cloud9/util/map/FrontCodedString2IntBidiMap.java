@@ -61,8 +61,19 @@ public class FrontCodedString2IntBidiMap {
     in.close();
   }
 
+  /**
+   * Returns the int associated with string {@code s}, or -1 if {@code s} is not in the map.
+   */
   public int get(String s) {
-    return intList.getInt((int) stringHash.getLong(s));
+    long pos = stringHash.getLong(s);
+    return pos < 0 ? -1 : intList.getInt((int) pos);
+  }
+
+  /**
+   * Returns the number of entries in the map.
+   */
+  public int size() {
+    return intList.size();
   }
 
   public String get(int i) {
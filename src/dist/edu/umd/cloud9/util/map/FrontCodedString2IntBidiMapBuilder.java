@@ -4,6 +4,7 @@ import it.unimi.dsi.bits.TransformationStrategies;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.objects.Object2IntAVLTreeMap;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntSortedMap;
 import it.unimi.dsi.sux4j.mph.TwoStepsLcpMonotoneMinimalPerfectHashFunction;
 import it.unimi.dsi.util.FrontCodedStringList;
 import it.unimi.dsi.util.ShiftAddXorSignedStringMap;
@@ -11,8 +12,10 @@ import it.unimi.dsi.util.ShiftAddXorSignedStringMap;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
@@ -68,9 +71,6 @@ public class FrontCodedString2IntBidiMapBuilder {
     String input = cmdline.getOptionValue(INPUT);
     String output = cmdline.getOptionValue(OUTPUT);
 
-    List<String> stringList = Lists.newArrayList();
-    IntArrayList intList = new IntArrayList();
-
     // First read lines into sorted map to sort input.
     Object2IntAVLTreeMap<String> tree = new Object2IntAVLTreeMap<String>();
     BufferedReader br = new BufferedReader(new FileReader(input));
@@ -84,24 +84,65 @@ public class FrontCodedString2IntBidiMapBuilder {
     }
     br.close();
 
-    // Extracted sorted strings and ints.
-    for (Object2IntMap.Entry<String> map : tree.object2IntEntrySet()) {
-      stringList.add(map.getKey());
-      intList.add(map.getIntValue());
-    }
-    
     Configuration conf = new Configuration();
     FileSystem fs = FileSystem.get(conf);
 
-    FSDataOutputStream os = fs.create(new Path(output), true);
+    build(tree, fs, new Path(output));
+  }
+
+  /**
+   * Serializes the string to int mappings in {@code map} in the format read by
+   * {@link FrontCodedString2IntBidiMap}.
+   *
+   * @param map mappings, sorted by string
+   * @param fs file system to write to
+   * @param output output path
+   * @throws IOException
+   */
+  public static void build(Object2IntSortedMap<String> map, FileSystem fs, Path output)
+      throws IOException {
+    List<String> stringList = Lists.newArrayList();
+    IntArrayList intList = new IntArrayList();
+
+    // Extracted sorted strings and ints.
+    for (Object2IntMap.Entry<String> entry : map.object2IntEntrySet()) {
+      stringList.add(entry.getKey());
+      intList.add(entry.getIntValue());
+    }
+
+    write(new FrontCodedStringList(stringList, 8, true), intList, fs, output);
+  }
+
+  /**
+   * Serializes strings, mapped to their positions, in the format read by
+   * {@link FrontCodedString2IntBidiMap}. Unlike {@link #build(Object2IntSortedMap, FileSystem,
+   * Path)}, the strings are only held front-coded, so they can be streamed from sorted input.
+   *
+   * @param strings distinct strings, sorted; the i-th one is mapped to i
+   * @param fs file system to write to
+   * @param output output path
+   * @throws IOException
+   */
+  public static void build(Iterator<? extends CharSequence> strings, FileSystem fs, Path output)
+      throws IOException {
+    FrontCodedStringList frontcodedList = new FrontCodedStringList(strings, 8, true);
+    IntArrayList intList = new IntArrayList(frontcodedList.size());
+    for (int i = 0; i < frontcodedList.size(); i++) {
+      intList.add(i);
+    }
+
+    write(frontcodedList, intList, fs, output);
+  }
+
+  private static void write(FrontCodedStringList frontcodedList, IntArrayList intList,
+      FileSystem fs, Path output) throws IOException {
+    FSDataOutputStream os = fs.create(output, true);
 
     ByteArrayOutputStream bytesOut;
     ObjectOutputStream objOut;
     byte[] bytes;
 
     // Serialize the front-coded dictionary
-    FrontCodedStringList frontcodedList = new FrontCodedStringList(stringList, 8, true);
-
     bytesOut = new ByteArrayOutputStream();
     objOut = new ObjectOutputStream(bytesOut);
     objOut.writeObject(frontcodedList);
@@ -112,8 +153,8 @@ public class FrontCodedString2IntBidiMapBuilder {
     os.write(bytes);
 
     // Serialize the hash function
-    ShiftAddXorSignedStringMap dict = new ShiftAddXorSignedStringMap(stringList.iterator(),
-        new TwoStepsLcpMonotoneMinimalPerfectHashFunction<CharSequence>(stringList,
+    ShiftAddXorSignedStringMap dict = new ShiftAddXorSignedStringMap(frontcodedList.iterator(),
+        new TwoStepsLcpMonotoneMinimalPerfectHashFunction<CharSequence>(frontcodedList,
             TransformationStrategies.prefixFreeUtf16()));
 
     bytesOut = new ByteArrayOutputStream();
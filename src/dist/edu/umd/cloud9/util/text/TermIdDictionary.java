@@ -0,0 +1,311 @@
+/*
+ * Cloud9: A Hadoop toolkit for working with big data
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.util.text;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * <p>
+ * Dictionary that maps UTF-8 byte sequences to dense term ids (0, 1, 2, ...), in order of first
+ * appearance. Terms are copied into a single byte arena and looked up through an open-addressing
+ * table of ints, so lookups of previously seen terms do not allocate. The dictionary also keeps an
+ * interned {@code String} for each term, created lazily the first time it is requested via
+ * {@link #getTerm(int)}, which lets code that needs {@code String}s (e.g., {@code HMapSIW} stripes)
+ * decode each distinct term only once per task.
+ * </p>
+ *
+ * <p>
+ * This class is meant to be held by a single mapper (i.e., it is not thread-safe), and ids are
+ * only meaningful with respect to the instance that assigned them.
+ * </p>
+ */
+public class TermIdDictionary {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Default bound on the number of terms a mapper interns before clearing the dictionary, for use
+   * with {@link #clearIfLargerThan(int)}.
+   */
+  public static final int DEFAULT_MAX_SIZE = 1 << 20;
+
+  private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+  private static final float LOAD_FACTOR = 0.5f;
+
+  // Concatenated bytes of all terms.
+  private byte[] arena;
+  private int arenaSize;
+
+  // Start offset of each term in the arena; offsets[id + 1] is the end of term id.
+  private int[] offsets;
+  private int[] hashes;
+  private String[] strings;
+  private int size;
+
+  // Open-addressing table holding id + 1 for occupied slots and 0 for empty slots.
+  private int[] table;
+  private int mask;
+  private int threshold;
+
+  /**
+   * Creates an empty dictionary.
+   */
+  public TermIdDictionary() {
+    this(DEFAULT_INITIAL_CAPACITY);
+  }
+
+  /**
+   * Creates an empty dictionary sized to hold {@code initialCapacity} terms without rehashing.
+   */
+  public TermIdDictionary(int initialCapacity) {
+    if (initialCapacity < 0) {
+      throw new IllegalArgumentException("Illegal initial capacity: " + initialCapacity);
+    }
+
+    int capacity = 16;
+    while (capacity * LOAD_FACTOR < initialCapacity) {
+      capacity <<= 1;
+    }
+
+    table = new int[capacity];
+    mask = capacity - 1;
+    threshold = (int) (capacity * LOAD_FACTOR);
+
+    int n = Math.max(initialCapacity, 16);
+    offsets = new int[n + 1];
+    hashes = new int[n];
+    strings = new String[n];
+    arena = new byte[n * 8];
+  }
+
+  /**
+   * Returns the id of the term stored in {@code len} bytes of {@code b} starting at {@code off},
+   * adding it to the dictionary if it hasn't been seen before.
+   */
+  public int addOrGet(byte[] b, int off, int len) {
+    int h = hash(b, off, len);
+    int slot = h & mask;
+    int entry;
+    while ((entry = table[slot]) != 0) {
+      int id = entry - 1;
+      if (hashes[id] == h && matches(id, b, off, len)) {
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    int id = size;
+    append(b, off, len, h);
+    table[slot] = id + 1;
+
+    if (size > threshold) {
+      rehash();
+    }
+
+    return id;
+  }
+
+  /**
+   * Returns the id of {@code text}, adding it to the dictionary if it hasn't been seen before.
+   */
+  public int addOrGet(Text text) {
+    return addOrGet(text.getBytes(), 0, text.getLength());
+  }
+
+  /**
+   * Returns the id of {@code term}, adding it to the dictionary if it hasn't been seen before.
+   */
+  public int addOrGet(String term) {
+    byte[] b = term.getBytes(UTF8);
+    return addOrGet(b, 0, b.length);
+  }
+
+  /**
+   * Returns the id of the term stored in {@code len} bytes of {@code b} starting at {@code off},
+   * or -1 if the term is not in the dictionary.
+   */
+  public int get(byte[] b, int off, int len) {
+    int h = hash(b, off, len);
+    int slot = h & mask;
+    int entry;
+    while ((entry = table[slot]) != 0) {
+      int id = entry - 1;
+      if (hashes[id] == h && matches(id, b, off, len)) {
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the id of {@code text}, or -1 if it is not in the dictionary.
+   */
+  public int get(Text text) {
+    return get(text.getBytes(), 0, text.getLength());
+  }
+
+  /**
+   * Returns the interned {@code String} for term {@code id}.
+   */
+  public String getTerm(int id) {
+    checkId(id);
+    String s = strings[id];
+    if (s == null) {
+      s = decode(arena, offsets[id], offsets[id + 1] - offsets[id]);
+      strings[id] = s;
+    }
+    return s;
+  }
+
+  /**
+   * Copies the bytes of term {@code id} into {@code text}.
+   */
+  public void getTerm(int id, Text text) {
+    checkId(id);
+    text.set(arena, offsets[id], offsets[id + 1] - offsets[id]);
+  }
+
+  /**
+   * Returns the length in bytes of term {@code id}.
+   */
+  public int getTermLength(int id) {
+    checkId(id);
+    return offsets[id + 1] - offsets[id];
+  }
+
+  /**
+   * Returns the number of terms in this dictionary.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the approximate number of bytes used by this dictionary, not counting interned
+   * {@code String}s.
+   */
+  public long getMemoryUsage() {
+    return arena.length + 4L * (offsets.length + hashes.length + strings.length + table.length);
+  }
+
+  /**
+   * Removes all terms from this dictionary. Ids handed out before become invalid.
+   */
+  public void clear() {
+    Arrays.fill(table, 0);
+    Arrays.fill(strings, 0, size, null);
+    size = 0;
+    arenaSize = 0;
+  }
+
+  /**
+   * Clears this dictionary if it holds more than {@code maxTerms} terms. Mappers call this between
+   * records to bound memory on splits with very large vocabularies.
+   *
+   * @return {@code true} if the dictionary was cleared
+   */
+  public boolean clearIfLargerThan(int maxTerms) {
+    if (size > maxTerms) {
+      clear();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Decodes {@code len} bytes of UTF-8 starting at {@code off}. Malformed input is replaced, as in
+   * {@link Text#toString()}.
+   */
+  static String decode(byte[] b, int off, int len) {
+    return new String(b, off, len, UTF8);
+  }
+
+  // Murmur3-style hash of a byte sequence.
+  static int hash(byte[] b, int off, int len) {
+    int h = 0x9747b28c;
+    int end = off + len;
+    for (int i = off; i < end; i++) {
+      h ^= b[i] & 0xff;
+      h *= 0x5bd1e995;
+      h ^= h >>> 15;
+    }
+    h ^= len;
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  private boolean matches(int id, byte[] b, int off, int len) {
+    int start = offsets[id];
+    if (offsets[id + 1] - start != len) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      if (arena[start + i] != b[off + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void append(byte[] b, int off, int len, int h) {
+    if (size + 1 >= offsets.length) {
+      int n = offsets.length * 2;
+      offsets = Arrays.copyOf(offsets, n);
+      hashes = Arrays.copyOf(hashes, n);
+      strings = Arrays.copyOf(strings, n);
+    }
+    if (arenaSize + len > arena.length) {
+      arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + len));
+    }
+
+    System.arraycopy(b, off, arena, arenaSize, len);
+    hashes[size] = h;
+    offsets[size] = arenaSize;
+    arenaSize += len;
+    size++;
+    offsets[size] = arenaSize;
+  }
+
+  private void rehash() {
+    int capacity = table.length * 2;
+    int[] newTable = new int[capacity];
+    int newMask = capacity - 1;
+    for (int id = 0; id < size; id++) {
+      int slot = hashes[id] & newMask;
+      while (newTable[slot] != 0) {
+        slot = (slot + 1) & newMask;
+      }
+      newTable[slot] = id + 1;
+    }
+    table = newTable;
+    mask = newMask;
+    threshold = (int) (capacity * LOAD_FACTOR);
+  }
+
+  private void checkId(int id) {
+    if (id < 0 || id >= size) {
+      throw new IndexOutOfBoundsException("Term id: " + id + ", size: " + size);
+    }
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Cloud9: A Hadoop toolkit for working with big data
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.util.text;
+
+import org.apache.hadoop.io.Text;
+
+import edu.umd.cloud9.util.array.ArrayListOfInts;
+
+/**
+ * <p>
+ * Allocation-free whitespace tokenizer that operates directly on the UTF-8 bytes of a {@link Text}
+ * (or any byte array). Tokens are reported as spans (offset and length) into the underlying
+ * buffer, so no {@code String} is created per token. Whitespace is the same set of characters
+ * matched by the regular expression {@code \s}, i.e., space, tab, newline, vertical tab, form feed
+ * and carriage return. Since none of these bytes can occur inside a multi-byte UTF-8 sequence, the
+ * tokens are always valid character boundaries.
+ * </p>
+ *
+ * <p>
+ * Typical usage:
+ * </p>
+ *
+ * <pre>
+ * tokenizer.reset(text);
+ * while (tokenizer.next()) {
+ *   // token is tokenizer.getBytes()[tokenizer.getStart() ... tokenizer.getStart() + tokenizer.getLength()]
+ * }
+ * </pre>
+ *
+ * <p>
+ * Optionally, tokens can be truncated to a maximum number of UTF-16 code units, which mirrors
+ * {@code String.substring(0, n)} on the decoded token (except that a surrogate pair is never
+ * split). A tokenizer instance is not thread-safe; mappers should hold one per task.
+ * </p>
+ */
+public class WhitespaceTokenizer {
+  private final int maxTokenChars;
+
+  private byte[] bytes;
+  private int pos;
+  private int end;
+
+  private int start;
+  private int length;
+
+  /**
+   * Creates a tokenizer that does not truncate tokens.
+   */
+  public WhitespaceTokenizer() {
+    this(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Creates a tokenizer that truncates tokens to at most {@code maxTokenChars} UTF-16 code units.
+   *
+   * @param maxTokenChars maximum token length in characters
+   */
+  public WhitespaceTokenizer(int maxTokenChars) {
+    if (maxTokenChars <= 0) {
+      throw new IllegalArgumentException("Illegal maximum token length: " + maxTokenChars);
+    }
+    this.maxTokenChars = maxTokenChars;
+  }
+
+  /**
+   * Resets this tokenizer to scan the contents of {@code text}. The tokenizer holds a reference to
+   * the backing array of {@code text}, so the text must not be modified while tokenizing.
+   */
+  public void reset(Text text) {
+    reset(text.getBytes(), 0, text.getLength());
+  }
+
+  /**
+   * Resets this tokenizer to scan {@code len} bytes of {@code b} starting at {@code off}.
+   */
+  public void reset(byte[] b, int off, int len) {
+    bytes = b;
+    pos = off;
+    end = off + len;
+    start = off;
+    length = 0;
+  }
+
+  /**
+   * Advances to the next token.
+   *
+   * @return {@code true} if there is another token, {@code false} if the input is exhausted
+   */
+  public boolean next() {
+    byte[] b = bytes;
+    int p = pos;
+    int e = end;
+
+    while (p < e && isWhitespace(b[p])) {
+      p++;
+    }
+
+    if (p == e) {
+      pos = e;
+      length = 0;
+      return false;
+    }
+
+    start = p;
+    while (p < e && !isWhitespace(b[p])) {
+      p++;
+    }
+    pos = p;
+    length = p - start;
+
+    if (maxTokenChars != Integer.MAX_VALUE && length > maxTokenChars) {
+      length = truncate(b, start, length, maxTokenChars);
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the buffer that tokens refer to.
+   */
+  public byte[] getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Returns the offset of the current token in {@link #getBytes()}.
+   */
+  public int getStart() {
+    return start;
+  }
+
+  /**
+   * Returns the length in bytes of the current token.
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Copies the current token into {@code text}.
+   */
+  public void getToken(Text text) {
+    text.set(bytes, start, length);
+  }
+
+  /**
+   * Returns the current token as a {@code String}. This allocates, and is intended for debugging
+   * and testing.
+   */
+  public String getToken() {
+    return TermIdDictionary.decode(bytes, start, length);
+  }
+
+  /**
+   * Tokenizes {@code text} and stores the token spans in {@code spans} as consecutive
+   * (offset, length) pairs. The list is cleared first.
+   *
+   * @return number of tokens
+   */
+  public int tokenize(Text text, ArrayListOfInts spans) {
+    reset(text);
+    spans.clear();
+
+    int n = 0;
+    while (next()) {
+      spans.add(start);
+      spans.add(length);
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Tokenizes {@code text}, maps each token to a term id through {@code dictionary} (adding
+   * previously unseen terms), and stores the term ids in {@code termIds}. The list is cleared
+   * first.
+   *
+   * @return number of tokens
+   */
+  public int tokenize(Text text, TermIdDictionary dictionary, ArrayListOfInts termIds) {
+    reset(text);
+    termIds.clear();
+
+    while (next()) {
+      termIds.add(dictionary.addOrGet(bytes, start, length));
+    }
+    return termIds.size();
+  }
+
+  /**
+   * Returns {@code true} if {@code b} is one of the whitespace characters matched by {@code \s}.
+   */
+  public static boolean isWhitespace(byte b) {
+    return b == ' ' || (b >= '\t' && b <= '\r');
+  }
+
+  // Returns the number of bytes occupied by the first maxChars UTF-16 code units of the token.
+  private static int truncate(byte[] b, int off, int len, int maxChars) {
+    int chars = 0;
+    int i = off;
+    int e = off + len;
+    while (i < e) {
+      int lead = b[i] & 0xff;
+      int seqBytes;
+      int seqChars;
+      if (lead < 0x80) {
+        seqBytes = 1;
+        seqChars = 1;
+      } else if ((lead & 0xe0) == 0xc0) {
+        seqBytes = 2;
+        seqChars = 1;
+      } else if ((lead & 0xf0) == 0xe0) {
+        seqBytes = 3;
+        seqChars = 1;
+      } else if ((lead & 0xf8) == 0xf0) {
+        seqBytes = 4;
+        seqChars = 2;
+      } else {
+        // Malformed lead byte; decodes as a single replacement character.
+        seqBytes = 1;
+        seqChars = 1;
+      }
+
+      if (chars + seqChars > maxChars) {
+        break;
+      }
+      chars += seqChars;
+      i = Math.min(i + seqBytes, e);
+    }
+    return i - off;
+  }
+}
@@ -0,0 +1,518 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Partitioner;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
+import org.apache.hadoop.mapred.lib.IdentityReducer;
+import org.apache.hadoop.mapred.lib.MultipleInputs;
+import org.apache.log4j.Logger;
+
+import bak.pcj.IntIterator;
+import bak.pcj.set.IntOpenHashSet;
+
+import edu.umd.cloud9.io.array.ArrayListWritable;
+import edu.umd.cloud9.io.pair.PairOfInts;
+import edu.umd.cloud9.util.PowerTool;
+import edu.umd.cloud9.util.map.FrontCodedString2IntBidiMap;
+import edu.umd.cloud9.util.map.FrontCodedString2IntBidiMapBuilder;
+import edu.umd.cloud9.webgraph.data.AnchorText;
+import edu.umd.cloud9.webgraph.data.HostIdMapping;
+
+/**
+ * <p>
+ * Assigns dense ids to the hosts of a web graph and builds the host graph. The following are
+ * written under the output path:
+ * </p>
+ *
+ * <ul>
+ * <li>{@link #HOSTS}: (hostname, docno) pairs, sorted by hostname</li>
+ * <li>{@link #HOST_DICTIONARY}: the hostnames, front-coded, readable with
+ * {@link FrontCodedString2IntBidiMap}. The id of a host is its position in the sorted list
+ * of hostnames.</li>
+ * <li>{@link #HOST_ID_MAPPING}: the host id of each docno, readable with
+ * {@link HostIdMapping}</li>
+ * <li>{@link #HOST_GRAPH}: the host graph, as ((source host, target host), number of links)
+ * records. Each file holds all the edges of the source hosts it covers, sorted.</li>
+ * </ul>
+ *
+ * <p>
+ * Only external links are counted in the host graph, so it has no self loops. The dictionary
+ * and the docno to host id mapping are built by the driver, in one pass that merges the sorted
+ * (hostname, docno) files; the hostnames are only held front-coded, and the mapping takes four
+ * bytes per document, as it does in the mappers that build the host graph.
+ * </p>
+ *
+ * <p>
+ * To add new documents to the host ids of a collection, set <code>Cloud9.PreviousHostGraph</code>
+ * to the output of an earlier run and <code>Cloud9.InputPath</code> to the extracted links of the
+ * new documents, whose docno and URL fields give their URLs. The hosts are numbered again, and only the
+ * host graph isn't written.
+ * </p>
+ */
+public class BuildHostGraph extends PowerTool {
+	private static final Logger LOG = Logger.getLogger(BuildHostGraph.class);
+
+	public static final String HOSTS = "hosts";
+	public static final String HOST_DICTIONARY = "host-dictionary.dat";
+	public static final String HOST_ID_MAPPING = "host-ids.dat";
+	public static final String HOST_GRAPH = "graph";
+
+	public static enum Counters {
+		DOCUMENTS, INVALID_URL, LINKS
+	};
+
+	public static class HostMap extends MapReduceBase implements
+	Mapper<IntWritable, ArrayListWritable<AnchorText>, Text, IntWritable> {
+
+		private static final Text keyWord = new Text();
+
+		public void map(IntWritable key, ArrayListWritable<AnchorText> anchors,
+				OutputCollector<Text, IntWritable> output, Reporter reporter) throws IOException {
+
+			for(AnchorText data : anchors) {
+				if(!data.isURL())
+					continue;
+
+				String host = getHost(data.getText());
+				if(host == null) {
+					reporter.incrCounter(Counters.INVALID_URL, 1);
+				} else {
+					keyWord.set(host);
+					output.collect(keyWord, key);
+					reporter.incrCounter(Counters.DOCUMENTS, 1);
+				}
+				return;
+			}
+		}
+	}
+
+	//the (hostname, docno) pairs of the documents of extracted links, read from their docno and
+	//url fields
+	public static class ExtractedHostMap extends MapReduceBase implements
+	Mapper<LongWritable, ArrayListWritable<AnchorText>, Text, IntWritable> {
+
+		private static final Text keyWord = new Text();
+		private static final IntWritable valueWord = new IntWritable();
+
+		public void map(LongWritable key, ArrayListWritable<AnchorText> packet,
+				OutputCollector<Text, IntWritable> output, Reporter reporter) throws IOException {
+
+			String url = null;
+			for(AnchorText data : packet) {
+				if(data.isURL()) {
+					url = data.getText();
+					break;
+				}
+			}
+
+			for(AnchorText data : packet) {
+				if(!data.isDocnoField())
+					continue;
+
+				String host = url == null ? null : getHost(url);
+				if(host == null) {
+					reporter.incrCounter(Counters.INVALID_URL, 1);
+					return;
+				}
+
+				keyWord.set(host);
+				for(int docno : data) {
+					valueWord.set(docno);
+					output.collect(keyWord, valueWord);
+					reporter.incrCounter(Counters.DOCUMENTS, 1);
+				}
+			}
+		}
+	}
+
+	private static String getHost(String url) {
+		try {
+			return new URI(url).getHost();
+		} catch(Exception e) {
+			return null;
+		}
+	}
+
+	public static class GraphMap extends MapReduceBase implements
+	Mapper<IntWritable, ArrayListWritable<AnchorText>, PairOfInts, IntWritable> {
+
+		private static final PairOfInts keyWord = new PairOfInts();
+		private static final IntWritable valueWord = new IntWritable(1);
+		private static final HostIdMapping hostIds = new HostIdMapping();
+		private static final IntOpenHashSet targets = new IntOpenHashSet();
+
+		public void configure(JobConf job) {
+			Path[] localFiles;
+			try {
+				localFiles = DistributedCache.getLocalCacheFiles(job);
+			} catch (IOException e) {
+				throw new RuntimeException("Local cache files not read properly.");
+			}
+
+			try {
+				hostIds.loadMapping(localFiles[0], FileSystem.getLocal(job));
+			} catch (Exception e) {
+				e.printStackTrace();
+				throw new RuntimeException("Error initializing HostIdMapping!");
+			}
+		}
+
+		public void map(IntWritable key, ArrayListWritable<AnchorText> anchors,
+				OutputCollector<PairOfInts, IntWritable> output, Reporter reporter) throws IOException {
+
+			int source = hostIds.getHostId(key.get());
+			if(source == HostIdMapping.NO_HOST)
+				return;
+
+			//a document counts once for each document it links to
+			targets.clear();
+			for(AnchorText data : anchors) {
+				if(!data.isExternalOutLink())
+					continue;
+
+				for(int target : data) {
+					int host = hostIds.getHostId(target);
+					if(host != HostIdMapping.NO_HOST && host != source)
+						targets.add(target);
+				}
+			}
+
+			IntIterator iterator = targets.iterator();
+			while(iterator.hasNext()) {
+				keyWord.set(source, hostIds.getHostId(iterator.next()));
+				output.collect(keyWord, valueWord);
+			}
+			reporter.incrCounter(Counters.LINKS, targets.size());
+		}
+	}
+
+	protected static class Partition implements Partitioner<PairOfInts, IntWritable> {
+		public void configure(JobConf job) {
+		}
+
+		public int getPartition(PairOfInts key, IntWritable value, int numReduceTasks) {
+			return Math.abs(key.getLeftElement() % numReduceTasks);
+		}
+	}
+
+	public static class GraphReduce extends MapReduceBase implements
+	Reducer<PairOfInts, IntWritable, PairOfInts, IntWritable> {
+
+		private static final IntWritable valueWord = new IntWritable();
+
+		public void reduce(PairOfInts key, Iterator<IntWritable> values,
+				OutputCollector<PairOfInts, IntWritable> output, Reporter reporter) throws IOException {
+
+			int sum = 0;
+			while(values.hasNext())
+				sum += values.next().get();
+
+			valueWord.set(sum);
+			output.collect(key, valueWord);
+		}
+	}
+
+	public static final String[] RequiredParameters = {
+		"Cloud9.InputPath",
+		"Cloud9.OutputPath",
+		"Cloud9.Mappers",
+		"Cloud9.Reducers"
+	};
+
+	public String[] getRequiredParameters() {
+		return RequiredParameters;
+	}
+
+	public BuildHostGraph(Configuration conf) {
+		super(conf);
+	}
+
+	public int runTool() throws Exception {
+
+		JobConf conf = new JobConf(getConf(), BuildHostGraph.class);
+		FileSystem fs = FileSystem.get(conf);
+
+		int numMappers = conf.getInt("Cloud9.Mappers", 1);
+		int numReducers = conf.getInt("Cloud9.Reducers", 200);
+
+		String inputPath = conf.get("Cloud9.InputPath");
+		String outputPath = conf.get("Cloud9.OutputPath");
+		String previousPath = conf.get("Cloud9.PreviousHostGraph");
+
+		Path hostsPath = new Path(outputPath, HOSTS);
+		Path dictionaryPath = new Path(outputPath, HOST_DICTIONARY);
+		Path mappingPath = new Path(outputPath, HOST_ID_MAPPING);
+		Path graphPath = new Path(outputPath, HOST_GRAPH);
+
+		LOG.info("BuildHostGraph");
+		LOG.info(" - input path: " + inputPath);
+		LOG.info(" - output path: " + outputPath);
+		LOG.info(" - previous host graph: " + previousPath);
+
+		if(!fs.exists(hostsPath)) {
+			JobConf hostsConf = new JobConf(conf);
+			hostsConf.setJobName("BuildHostGraph:Hosts");
+			hostsConf.set("mapred.child.java.opts", "-Xmx2048m");
+			hostsConf.setInt("mapred.task.timeout", 60000000);
+
+			hostsConf.setNumMapTasks(numMappers);
+			hostsConf.setNumReduceTasks(numReducers);
+
+			hostsConf.setReducerClass(IdentityReducer.class);
+
+			hostsConf.setOutputKeyClass(Text.class);
+			hostsConf.setOutputValueClass(IntWritable.class);
+
+			hostsConf.setOutputFormat(SequenceFileOutputFormat.class);
+
+			SequenceFileOutputFormat.setCompressOutput(hostsConf, true);
+			SequenceFileOutputFormat.setOutputCompressionType(hostsConf, SequenceFile.CompressionType.BLOCK);
+
+			if(previousPath == null) {
+				hostsConf.setMapperClass(HostMap.class);
+				hostsConf.setInputFormat(SequenceFileInputFormat.class);
+				SequenceFileInputFormat.setInputPaths(hostsConf, inputPath);
+			} else {
+				//the hosts of the previous graph, and those of the new documents
+				MultipleInputs.addInputPath(hostsConf, new Path(previousPath, HOSTS),
+						SequenceFileInputFormat.class, IdentityMapper.class);
+				for(String path : inputPath.split(","))
+					MultipleInputs.addInputPath(hostsConf, new Path(path),
+							SequenceFileInputFormat.class, ExtractedHostMap.class);
+			}
+			FileOutputFormat.setOutputPath(hostsConf, hostsPath);
+
+			JobClient.runJob(hostsConf);
+		} else {
+			LOG.info(hostsPath + " already exists! Skipping this step...");
+		}
+
+		if(!fs.exists(mappingPath)) {
+			buildHostIds(fs, hostsPath, dictionaryPath, mappingPath, conf);
+		} else {
+			LOG.info(mappingPath + " already exists! Skipping this step...");
+		}
+
+		if(previousPath != null) {
+			LOG.info("Updating the host ids only; the host graph is built from a web graph.");
+		} else if(!fs.exists(graphPath)) {
+			JobConf graphConf = new JobConf(conf);
+			DistributedCache.addCacheFile(mappingPath.toUri(), graphConf);
+
+			graphConf.setJobName("BuildHostGraph:Graph");
+			graphConf.set("mapred.child.java.opts", "-Xmx4096m");
+			graphConf.setInt("mapred.task.timeout", 60000000);
+
+			graphConf.setNumMapTasks(numMappers);
+			graphConf.setNumReduceTasks(numReducers);
+
+			graphConf.setMapperClass(GraphMap.class);
+			graphConf.setCombinerClass(GraphReduce.class);
+			graphConf.setPartitionerClass(Partition.class);
+			graphConf.setReducerClass(GraphReduce.class);
+
+			graphConf.setOutputKeyClass(PairOfInts.class);
+			graphConf.setOutputValueClass(IntWritable.class);
+
+			graphConf.setInputFormat(SequenceFileInputFormat.class);
+			graphConf.setOutputFormat(SequenceFileOutputFormat.class);
+
+			SequenceFileOutputFormat.setCompressOutput(graphConf, true);
+			SequenceFileOutputFormat.setOutputCompressionType(graphConf, SequenceFile.CompressionType.BLOCK);
+
+			SequenceFileInputFormat.setInputPaths(graphConf, inputPath);
+			FileOutputFormat.setOutputPath(graphConf, graphPath);
+
+			JobClient.runJob(graphConf);
+		} else {
+			LOG.info(graphPath + " already exists! Skipping this step...");
+		}
+
+		return 0;
+	}
+
+	//numbers the hosts in sorted order, and writes the dictionary and the docno to host id mapping,
+	//in one pass over the (hostname, docno) pairs: each file is sorted by hostname, so merging
+	//them gives the hosts in order, and only the front-coded dictionary and the mapping, which
+	//is as large as what GraphMap loads, are kept in memory
+	private static void buildHostIds(FileSystem fs, Path hostsPath, Path dictionaryPath,
+			Path mappingPath, Configuration conf) throws IOException {
+		HostMerger merger = new HostMerger(fs, listFiles(fs, hostsPath), conf);
+		HostIdAssigner hosts = new HostIdAssigner(merger);
+		try {
+			FrontCodedString2IntBidiMapBuilder.build(hosts, fs, dictionaryPath);
+		} finally {
+			merger.close();
+		}
+
+		LOG.info(" - number of hosts: " + hosts.getNumHosts());
+		new HostIdMapping(hosts.getHostIds()).writeMapping(mappingPath, fs);
+	}
+
+	//the hostnames of a merged stream, each given once, while the docnos of each host are given
+	//its id, its position in the stream
+	private static class HostIdAssigner implements Iterator<String> {
+		private final HostMerger merger;
+		private final Text host = new Text();
+		private int[] hostIds = new int[1 << 10];
+		private int numDocs = 0;
+		private int numHosts = 0;
+
+		HostIdAssigner(HostMerger merger) {
+			this.merger = merger;
+			Arrays.fill(hostIds, HostIdMapping.NO_HOST);
+		}
+
+		public boolean hasNext() {
+			return merger.host() != null;
+		}
+
+		public String next() {
+			host.set(merger.host());
+			try {
+				do {
+					setHostId(merger.docno(), numHosts);
+				} while(merger.next() && merger.host().equals(host));
+			} catch(IOException e) {
+				throw new RuntimeException("Error reading the hosts!", e);
+			}
+			numHosts++;
+			return host.toString();
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void setHostId(int docno, int id) {
+			if(docno < 0)
+				return;
+			if(docno >= hostIds.length) {
+				int length = Math.max(docno + 1, 2 * hostIds.length);
+				int oldLength = hostIds.length;
+				hostIds = Arrays.copyOf(hostIds, length);
+				Arrays.fill(hostIds, oldLength, length, HostIdMapping.NO_HOST);
+			}
+			hostIds[docno] = id;
+			numDocs = Math.max(numDocs, docno + 1);
+		}
+
+		int getNumHosts() {
+			return numHosts;
+		}
+
+		//the host id of each docno, once all the hosts were read
+		int[] getHostIds() {
+			return hostIds.length == numDocs ? hostIds : Arrays.copyOf(hostIds, numDocs);
+		}
+	}
+
+	//merges (hostname, docno) files sorted by hostname into a single stream sorted by hostname
+	private static class HostMerger {
+		private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+		private Entry current;
+
+		private static class Entry implements Comparable<Entry> {
+			final SequenceFile.Reader reader;
+			final Text host = new Text();
+			final IntWritable docno = new IntWritable();
+
+			Entry(SequenceFile.Reader reader) {
+				this.reader = reader;
+			}
+
+			//hostnames are ASCII, so the order of their bytes is that of the strings
+			public int compareTo(Entry other) {
+				return host.compareTo(other.host);
+			}
+		}
+
+		HostMerger(FileSystem fs, Path[] files, Configuration conf) throws IOException {
+			for(Path file : files) {
+				Entry entry = new Entry(new SequenceFile.Reader(fs, file, conf));
+				if(entry.reader.next(entry.host, entry.docno))
+					queue.add(entry);
+				else
+					entry.reader.close();
+			}
+			current = queue.poll();
+		}
+
+		//the hostname of the current pair, or null once all the pairs were read
+		Text host() {
+			return current == null ? null : current.host;
+		}
+
+		int docno() {
+			return current.docno.get();
+		}
+
+		//moves to the next pair, and returns false if there is none
+		boolean next() throws IOException {
+			if(current.reader.next(current.host, current.docno))
+				queue.add(current);
+			else
+				current.reader.close();
+			current = queue.poll();
+			return current != null;
+		}
+
+		void close() throws IOException {
+			if(current != null)
+				current.reader.close();
+			for(Entry entry : queue)
+				entry.reader.close();
+		}
+	}
+
+	private static Path[] listFiles(FileSystem fs, Path path) throws IOException {
+		FileStatus[] status = fs.listStatus(path);
+		Path[] files = new Path[status.length];
+		int n = 0;
+		for(FileStatus file : status) {
+			if(!file.isDir() && !file.getPath().getName().startsWith("_"))
+				files[n++] = file.getPath();
+		}
+		return Arrays.copyOf(files, n);
+	}
+}
@@ -24,7 +24,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
@@ -43,8 +43,14 @@ import edu.umd.cloud9.util.PowerTool;
 import edu.umd.cloud9.util.array.ArrayListOfInts;
 import edu.umd.cloud9.webgraph.data.AnchorText;
 import edu.umd.cloud9.webgraph.data.AnchorTextConstants;
+import edu.umd.cloud9.webgraph.data.AnchorTextMerger;
 
 /**
+ * <p>
+ * Groups the extracted links by the fingerprints of the URLs they point to (see
+ * {@link ClueExtractLinks}), and writes the record of each document under its docno, with the
+ * URL the document came with.
+ * </p>
  *
  * @author Nima Asadi
  *
@@ -52,23 +58,44 @@ import edu.umd.cloud9.webgraph.data.AnchorTextConstants;
 public class BuildReverseWebGraph extends PowerTool {
   private static final Logger LOG = Logger.getLogger(BuildReverseWebGraph.class);
 
+  /**
+   * If true, documents without incoming links are left out instead of being written with an
+   * in-degree of zero.
+   */
+  public static final String SKIP_UNLINKED = "Cloud9.SkipUnlinkedDocuments";
+
   public static class Reduce extends MapReduceBase implements
-      Reducer<Text, ArrayListWritable<AnchorText>, IntWritable,
+      Reducer<LongWritable, ArrayListWritable<AnchorText>, IntWritable,
       ArrayListWritable<AnchorText>> {
+
+    public static enum Counters {
+      // number of links to documents outside the collection, which are dropped; with a url
+      // filter (see ClueExtractLinks), the links that got through it falsely
+      OUT_OF_COLLECTION_LINKS
+    };
+
     private static final IntWritable keyWord = new IntWritable();
     private static final ArrayListWritable<AnchorText> arrayList =
       new ArrayListWritable<AnchorText>();
     private static final ArrayListOfInts docnos = new ArrayListOfInts();
     private static ArrayListWritable<AnchorText> packet;
-    private static boolean pushed;
+    private static AnchorTextMerger merger;
     private int indegree;
+    private String url;
+    private boolean skipUnlinked;
 
-    public void reduce(Text key, Iterator<ArrayListWritable<AnchorText>> values,
+    public void configure(JobConf job) {
+      merger = new AnchorTextMerger(arrayList, job.getInt(AnchorTextMerger.MAX_SOURCES, 0));
+      skipUnlinked = job.getBoolean(SKIP_UNLINKED, false);
+    }
+
+    public void reduce(LongWritable key, Iterator<ArrayListWritable<AnchorText>> values,
         OutputCollector<IntWritable, ArrayListWritable<AnchorText>> output,
         Reporter reporter) throws IOException {
       docnos.clear();
-      arrayList.clear();
+      merger.clear();
       indegree = 0;
+      url = null;
 
       while(values.hasNext()) {
         packet = values.next();
@@ -84,27 +111,33 @@ public class BuildReverseWebGraph extends PowerTool {
             continue;
           }
 
-          pushed = false;
-          indegree += data.getSize();
-
-          for(int i = 0; i < arrayList.size(); i++) {
-            if(arrayList.get(i).equalsIgnoreSources(data)) {
-              arrayList.get(i).addDocumentsFrom(data);
-              pushed = true;
-              break;
+          //the url of the document, which comes with its docno
+          if(data.isURL()) {
+            if(url == null) {
+              url = data.getText();
             }
+            continue;
           }
 
-          if(!pushed) {
-            arrayList.add(data.clone());
-          }
+          indegree += data.getSize();
+          merger.add(data);
         }
       }
+      merger.finish();
+      if(docnos.size() == 0) {
+        reporter.incrCounter(Counters.OUT_OF_COLLECTION_LINKS, indegree);
+      }
+      if(skipUnlinked && indegree == 0) {
+        return;
+      }
+      reporter.incrCounter(AnchorTextMerger.Counters.MERGED, merger.getMerged());
+      reporter.incrCounter(AnchorTextMerger.Counters.SAMPLED, merger.getSampled());
 
       arrayList.add(new AnchorText(AnchorTextConstants.Type.IN_DEGREE.val,
                                    null, indegree));
-      arrayList.add(new AnchorText(AnchorTextConstants.Type.URL_FIELD.val,
-                                   key.toString()));
+      if(url != null) {
+        arrayList.add(new AnchorText(AnchorTextConstants.Type.URL_FIELD.val, url));
+      }
       Collections.sort(arrayList);
 
       //if there was no document number detected,
@@ -157,7 +190,7 @@ public class BuildReverseWebGraph extends PowerTool {
     conf.setReducerClass(Reduce.class);
     conf.setOutputKeyClass(IntWritable.class);
     conf.setOutputValueClass(ArrayListWritable.class);
-    conf.setMapOutputKeyClass(Text.class);
+    conf.setMapOutputKeyClass(LongWritable.class);
     conf.setMapOutputValueClass(ArrayListWritable.class);
 
     conf.setInputFormat(SequenceFileInputFormat.class);
@@ -42,6 +42,7 @@ import edu.umd.cloud9.io.array.ArrayListWritable;
 import edu.umd.cloud9.util.PowerTool;
 import edu.umd.cloud9.webgraph.data.AnchorText;
 import edu.umd.cloud9.webgraph.data.AnchorTextConstants;
+import edu.umd.cloud9.webgraph.data.AnchorTextMerger;
 
 /**
  *
@@ -96,15 +97,19 @@ public class BuildWebGraph extends PowerTool {
     private static final ArrayListWritable<AnchorText> arrayList =
       new ArrayListWritable<AnchorText>();
     private static ArrayListWritable<AnchorText> packet;
-    private static boolean pushed;
+    private static AnchorTextMerger merger;
     private static int outdegree;
 
+    public void configure(JobConf job) {
+      merger = new AnchorTextMerger(arrayList, job.getInt(AnchorTextMerger.MAX_SOURCES, 0));
+    }
+
     public void reduce(IntWritable key,
         Iterator<ArrayListWritable<AnchorText>> values,
         OutputCollector<IntWritable,
         ArrayListWritable<AnchorText>> output,
         Reporter reporter) throws IOException {
-      arrayList.clear();
+      merger.clear();
       outdegree = 0;
 
       while(values.hasNext()) {
@@ -112,20 +117,12 @@ public class BuildWebGraph extends PowerTool {
 
         for(AnchorText data : packet) {
           outdegree += data.getSize();
-          pushed = false;
-
-          for(int i = 0; i < arrayList.size(); i++) {
-            if(arrayList.get(i).equalsIgnoreSources(data)) {
-              arrayList.get(i).addDocumentsFrom(data);
-              pushed = true;
-              break;
-            }
-          }
-          if(!pushed) {
-            arrayList.add(data.clone());
-          }
+          merger.add(data);
         }
       }
+      merger.finish();
+      reporter.incrCounter(AnchorTextMerger.Counters.MERGED, merger.getMerged());
+      reporter.incrCounter(AnchorTextMerger.Counters.SAMPLED, merger.getSampled());
 
       arrayList.add(new AnchorText(
           AnchorTextConstants.Type.OUT_DEGREE.val, null, outdegree));
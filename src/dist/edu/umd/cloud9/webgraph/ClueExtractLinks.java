@@ -22,10 +22,13 @@ import java.net.URI;
 import java.util.Iterator;
 
 import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.mapred.FileOutputFormat;
@@ -36,8 +39,10 @@ import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.lib.MultipleOutputs;
 import org.apache.log4j.Logger;
 
 import edu.umd.cloud9.collection.clue.ClueWarcDocnoMapping;
@@ -45,18 +50,34 @@ import edu.umd.cloud9.collection.clue.ClueWarcRecord;
 import edu.umd.cloud9.io.array.ArrayListWritable;
 import edu.umd.cloud9.util.PowerTool;
 import edu.umd.cloud9.webgraph.data.AnchorText;
+import edu.umd.cloud9.webgraph.data.AnchorTextMerger;
 import edu.umd.cloud9.webgraph.data.AnchorTextConstants;
+import edu.umd.cloud9.webgraph.data.UrlFilter;
+import edu.umd.cloud9.webgraph.html.LinkScanner;
+import edu.umd.cloud9.webgraph.html.UrlCanonicalizer;
 import edu.umd.cloud9.webgraph.normalizer.AnchorTextNormalizer;
 
-import org.htmlparser.NodeFilter;
-import org.htmlparser.Parser;
-import org.htmlparser.filters.NodeClassFilter;
-import org.htmlparser.tags.LinkTag;
-import org.htmlparser.tags.BaseHrefTag;
-import org.htmlparser.util.NodeList;
-import org.htmlparser.util.ParserException;
-
 /**
+ * <p>
+ * The output is keyed by the 64-bit fingerprint of the canonical URL of the target document
+ * (see {@link UrlCanonicalizer}), which is cheaper to shuffle than the URL:
+ * <code>LongWritable</code> keys are sorted by a raw comparator, without being deserialized.
+ * The URL of a document goes along with its docno, in a <code>URL_FIELD</code> line. If
+ * <code>Cloud9.UrlsOutputPath</code> is set, the fingerprints of all the URLs emitted, links
+ * included, are also written there with their canonical URLs, as
+ * <code>(LongWritable, Text)</code> pairs, once each: the URL goes along with the records in an
+ * <code>OTHER_TYPES</code> line, which the reducers write out and drop.
+ * </p>
+ *
+ * <p>
+ * If <code>Cloud9.UrlFilterFile</code> is set, the links to documents outside the collection
+ * are dropped before they are shuffled: a first pass builds a {@link UrlFilter} of the URLs of
+ * the documents in <code>Cloud9.UrlFilterInputPath</code> (the input path if not set) into that
+ * file, unless it exists, and the mappers only emit the links to URLs in the filter. The
+ * counters <code>OUTPUT_LINKS</code> and <code>FILTERED_LINKS</code> give the reduction of the
+ * shuffle; the links that get through but are to documents outside the collection (the false
+ * positives) are counted by {@link BuildReverseWebGraph}.
+ * </p>
  *
  * @author Nima Asadi
  *
@@ -64,8 +85,11 @@ import org.htmlparser.util.ParserException;
 public class ClueExtractLinks extends PowerTool {
   private static final Logger LOG = Logger.getLogger(ClueExtractLinks.class);
 
+  // named output of the fingerprints of the urls
+  private static final String URLS = "urls";
+
   public static class Map extends MapReduceBase implements
-      Mapper<IntWritable, ClueWarcRecord, Text, ArrayListWritable<AnchorText>> {
+      Mapper<IntWritable, ClueWarcRecord, LongWritable, ArrayListWritable<AnchorText>> {
 
     public static enum LinkCounter {
       // number of input documents
@@ -79,15 +103,20 @@ public class ClueExtractLinks extends PowerTool {
         // number of lines of anchor text that are too long
       TEXT_TOO_LONG,
         // number of times the HTML parser fails
-      PARSER_FAILED
+      PARSER_FAILED,
+        // number of links emitted
+      OUTPUT_LINKS,
+        // number of links dropped by the url filter
+      FILTERED_LINKS
     };
 
     private static String base; // base URL for current document
     private static String baseHost;
+    private static long baseFingerprint;
     private static int docno; // docno of current document
 
      // output key for the mappers
-    private static final Text keyWord = new Text();
+    private static final LongWritable keyWord = new LongWritable();
     // output value for the mappers
     private static final ArrayListWritable<AnchorText> arrayList =
       new ArrayListWritable<AnchorText>();
@@ -96,11 +125,12 @@ public class ClueExtractLinks extends PowerTool {
     private static final ClueWarcDocnoMapping docnoMapping =
       new ClueWarcDocnoMapping();
 
-    private static final Parser parser = new Parser();
-    private static final NodeFilter filter = new NodeClassFilter(LinkTag.class);;
-    private static NodeList list;
+    private static final LinkScanner scanner = new LinkScanner();
+    private static final UrlCanonicalizer canonicalizer = new UrlCanonicalizer();
     private static boolean includeInternalLinks;
     private static AnchorTextNormalizer normalizer;
+    private static UrlFilter urlFilter;
+    private static boolean writeUrls;
 
     public void configure(JobConf job) {
       Path[] localFiles;
@@ -117,6 +147,17 @@ public class ClueExtractLinks extends PowerTool {
         throw new RuntimeException("Error initializing DocnoMapping!");
       }
 
+      urlFilter = null;
+      if(job.get("Cloud9.UrlFilterFile") != null) {
+        try {
+          urlFilter = new UrlFilter();
+          urlFilter.loadFilter(localFiles[1], FileSystem.getLocal(job));
+        } catch (Exception e) {
+          e.printStackTrace();
+          throw new RuntimeException("Error initializing UrlFilter!");
+        }
+      }
+
       includeInternalLinks = job.getBoolean("Cloud9.IncludeInternalLinks", false);
 
       try {
@@ -126,10 +167,12 @@ public class ClueExtractLinks extends PowerTool {
         e.printStackTrace();
         throw new RuntimeException("Error initializing AnchorTextNormalizer");
       }
+
+      writeUrls = job.get("Cloud9.UrlsOutputPath") != null;
     }
 
     public void map(IntWritable key, ClueWarcRecord doc,
-        OutputCollector<Text, ArrayListWritable<AnchorText>> output, Reporter reporter)
+        OutputCollector<LongWritable, ArrayListWritable<AnchorText>> output, Reporter reporter)
         throws IOException {
       reporter.incrCounter(LinkCounter.INPUT_DOCS, 1);
 
@@ -154,9 +197,20 @@ public class ClueExtractLinks extends PowerTool {
         return;
       }
 
+      // the document is written even if its URL isn't a valid one, as before, under the
+      // fingerprint of the URL as it is
+      String canonicalBase = canonicalizer.canonicalize(base);
+      baseHost = canonicalizer.getHost();
+      if(canonicalBase == null) {
+        canonicalBase = base;
+      }
+      baseFingerprint = UrlCanonicalizer.fingerprint(canonicalBase);
+
       arrayList.clear();
       arrayList.add(new AnchorText(AnchorTextConstants.Type.DOCNO_FIELD.val, null, docno));
-      keyWord.set(base);
+      arrayList.add(new AnchorText(AnchorTextConstants.Type.URL_FIELD.val, base));
+      addUrl(canonicalBase);
+      keyWord.set(baseFingerprint);
       output.collect(keyWord, arrayList);
       arrayList.clear();
 
@@ -164,64 +218,34 @@ public class ClueExtractLinks extends PowerTool {
       // processed
       reporter.incrCounter(LinkCounter.OUTPUT_DOCS, 1);
 
-      try {
-        baseHost = new URI(base).getHost();
-      } catch (Exception e) {
-        reporter.incrCounter(LinkCounter.INVALID_URL, 1);
-        return;
-      }
-
       if(baseHost == null) {
         reporter.incrCounter(LinkCounter.INVALID_URL, 1);
         return;
       }
 
-      try {
-        // initializing the parser with new content
-        parser.setInputHTML(doc.getContent());
-
-        // Setting base URL for the current document
-        NodeList nl = parser.parse(null);
-        BaseHrefTag baseTag = new BaseHrefTag();
-        baseTag.setBaseUrl(base);
-        nl.add(baseTag);
-
-        // re-initializing the parser with the correct content
-        parser.setInputHTML(nl.toHtml());
-
-        // listing all LinkTag nodes
-        list = parser.extractAllNodesThatMatch(filter);
-      } catch (ParserException e) {
-        reporter.incrCounter(LinkCounter.PARSER_FAILED, 1);
-        return;
-      } catch (StackOverflowError e) {
-        reporter.incrCounter(LinkCounter.PARSER_FAILED, 1);
-        return;
-      }
+      byte[] content = doc.getByteContent();
+      int start = getContentStart(content);
+      scanner.reset(content, start, content.length - start, base);
 
-      for(int i = 0; i < list.size(); i++) {
-        LinkTag link = (LinkTag) list.elementAt(i);
-        String anchor = link.getLinkText();
-        String url = link.extractLink();
+      while(scanner.next()) {
+        String anchor = scanner.getAnchorText();
+        String url = canonicalizer.canonicalize(scanner.getUrl());
 
         if(url == null) {
           continue;
         }
 
-        if(url.equals(base)) {// discard self links
+        long fingerprint = UrlCanonicalizer.fingerprint(url);
+        if(fingerprint == baseFingerprint) {// discard self links
           continue;
         }
 
-        String host = null;
-        try {
-          host = new URI(url).getHost();
-        } catch (Exception e) {
+        if(urlFilter != null && !urlFilter.mightContain(fingerprint)) {
+          reporter.incrCounter(LinkCounter.FILTERED_LINKS, 1);
           continue;
         }
 
-        if(host == null) {
-          continue;
-        }
+        String host = canonicalizer.getHost();
 
         if(anchor == null) {
           anchor = "";
@@ -243,53 +267,188 @@ public class ClueExtractLinks extends PowerTool {
               AnchorTextConstants.Type.EXTERNAL_IN_LINK.val, anchor, docno));
         }
 
+        addUrl(url);
+
+        reporter.incrCounter(LinkCounter.OUTPUT_LINKS, 1);
+        keyWord.set(fingerprint);
         try {
-          keyWord.set(url);
           output.collect(keyWord, arrayList);
         } catch (UTFDataFormatException e) {
           reporter.incrCounter(LinkCounter.TEXT_TOO_LONG, 1);
 
-          keyWord.set(url);
           byte flag = arrayList.get(0).getType();
           arrayList.clear();
           arrayList.add(new AnchorText(flag, AnchorTextConstants.EMPTY_STRING, docno));
+          addUrl(url);
           output.collect(keyWord, arrayList);
         }
       }
     }
+
+    // adds the url of the key to the record, for the reducer to write to the side file, if
+    // asked to
+    private static void addUrl(String url) {
+      if(writeUrls) {
+        arrayList.add(new AnchorText(AnchorTextConstants.Type.OTHER_TYPES.val, url));
+      }
+    }
+
+    /**
+     * Returns where the HTML starts in the bytes of a record, the same place as in
+     * {@link ClueWarcRecord#getContent()}: after the line with the Content-Length header.
+     */
+    static int getContentStart(byte[] content) {
+      int i = indexOf(content, CONTENT_LENGTH, 0);
+      for(int j = Math.max(i, 0); j < content.length; j++) {
+        if(content[j] == '\n') {
+          return j + 1;
+        }
+      }
+      return 0;
+    }
+
+    private static final byte[] CONTENT_LENGTH = { 'C', 'o', 'n', 't', 'e', 'n', 't', '-',
+      'L', 'e', 'n', 'g', 't', 'h', ':' };
+
+    private static int indexOf(byte[] b, byte[] s, int from) {
+      for(int i = from; i + s.length <= b.length; i++) {
+        int j = 0;
+        while(j < s.length && b[i + j] == s[j]) {
+          j++;
+        }
+        if(j == s.length) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * Writes the fingerprints of the URLs of the documents, for building a {@link UrlFilter}.
+   */
+  public static class UrlMap extends MapReduceBase implements
+      Mapper<IntWritable, ClueWarcRecord, LongWritable, NullWritable> {
+
+    public static enum Counters {
+      // number of urls written
+      URLS
+    };
+
+    private static final LongWritable fingerprint = new LongWritable();
+    private static final UrlCanonicalizer canonicalizer = new UrlCanonicalizer();
+    private static final ClueWarcDocnoMapping docnoMapping =
+      new ClueWarcDocnoMapping();
+
+    public void configure(JobConf job) {
+      try {
+        docnoMapping.loadMapping(DistributedCache.getLocalCacheFiles(job)[0],
+                                 FileSystem.getLocal(job));
+      } catch (Exception e) {
+        e.printStackTrace();
+        throw new RuntimeException("Error initializing DocnoMapping!");
+      }
+    }
+
+    public void map(IntWritable key, ClueWarcRecord doc,
+        OutputCollector<LongWritable, NullWritable> output, Reporter reporter)
+        throws IOException {
+      // the documents Map writes a docno field for
+      String url;
+      try {
+        docnoMapping.getDocno(doc.getHeaderMetadataItem("WARC-TREC-ID"));
+        url = doc.getHeaderMetadataItem("WARC-Target-URI");
+      } catch (NullPointerException e) {
+        return;
+      }
+
+      if(url == null) {
+        return;
+      }
+
+      String canonicalUrl = canonicalizer.canonicalize(url);
+      if(canonicalUrl == null) {
+        canonicalUrl = url;
+      }
+      fingerprint.set(UrlCanonicalizer.fingerprint(canonicalUrl));
+      output.collect(fingerprint, NullWritable.get());
+      reporter.incrCounter(Counters.URLS, 1);
+    }
   }
 
   public static class Reduce extends MapReduceBase implements
-      Reducer<Text, ArrayListWritable<AnchorText>, Text, ArrayListWritable<AnchorText>> {
+      Reducer<LongWritable, ArrayListWritable<AnchorText>, LongWritable,
+      ArrayListWritable<AnchorText>> {
     private static final ArrayListWritable<AnchorText> arrayList =
       new ArrayListWritable<AnchorText>();
+    private static final Text urlText = new Text();
     private static ArrayListWritable<AnchorText> packet;
-    private static boolean pushed;
+    private static AnchorTextMerger merger;
+    private MultipleOutputs urlOutputs;
+
+    public void configure(JobConf job) {
+      merger = new AnchorTextMerger(arrayList, job.getInt(AnchorTextMerger.MAX_SOURCES, 0));
+
+      urlOutputs = null;
+      if(writesUrls() && job.get("Cloud9.UrlsOutputPath") != null) {
+        urlOutputs = new MultipleOutputs(job);
+      }
+    }
+
+    // whether the urls of the keys are written to the side file, rather than left in the records
+    protected boolean writesUrls() {
+      return true;
+    }
 
-    public void reduce(Text key, Iterator<ArrayListWritable<AnchorText>> values,
-        OutputCollector<Text, ArrayListWritable<AnchorText>> output, Reporter reporter)
+    public void reduce(LongWritable key, Iterator<ArrayListWritable<AnchorText>> values,
+        OutputCollector<LongWritable, ArrayListWritable<AnchorText>> output, Reporter reporter)
         throws IOException {
-      arrayList.clear();
+      merger.clear();
 
       while (values.hasNext()) {
         packet = values.next();
         for (AnchorText data : packet) {
-          pushed = false;
-
-          for (int i = 0; i < arrayList.size(); i++) {
-            if (arrayList.get(i).equalsIgnoreSources(data)) {
-              arrayList.get(i).addDocumentsFrom(data);
-              pushed = true;
-              break;
-            }
-          }
-          if (!pushed) {
-            arrayList.add(data.clone());
-          }
+          merger.add(data);
         }
       }
+      merger.finish();
+      reporter.incrCounter(AnchorTextMerger.Counters.MERGED, merger.getMerged());
+      reporter.incrCounter(AnchorTextMerger.Counters.SAMPLED, merger.getSampled());
+      if(urlOutputs != null) {
+        collectUrls(key, reporter);
+      }
       output.collect(key, arrayList);
     }
+
+    // writes the url of a key to the side file, once, and drops it from the record
+    @SuppressWarnings("unchecked")
+    private void collectUrls(LongWritable key, Reporter reporter) throws IOException {
+      Iterator<AnchorText> iterator = arrayList.iterator();
+      while(iterator.hasNext()) {
+        AnchorText data = iterator.next();
+        if(data.isOfOtherTypes()) {
+          urlText.set(data.getText());
+          urlOutputs.getCollector(URLS, reporter).collect(key, urlText);
+          iterator.remove();
+        }
+      }
+    }
+
+    public void close() throws IOException {
+      if(urlOutputs != null) {
+        urlOutputs.close();
+      }
+    }
+  }
+
+  /**
+   * Merges the records of a key, as {@link Reduce} does, leaving their urls in them.
+   */
+  public static class Combine extends Reduce {
+    @Override
+    protected boolean writesUrls() {
+      return false;
+    }
   }
 
   public static final String[] RequiredParameters = {
@@ -328,6 +487,12 @@ public class ClueExtractLinks extends PowerTool {
 
     DistributedCache.addCacheFile(new URI(mappingFile), conf);
 
+    String filterFile = conf.get("Cloud9.UrlFilterFile");
+    if(filterFile != null) {
+      buildUrlFilter(filterFile);
+      DistributedCache.addCacheFile(new URI(filterFile), conf);
+    }
+
     conf.setJobName("ClueExtractLinks");
     conf.set("mapred.child.java.opts", "-Xmx2048m");
     conf.setInt("mapred.task.timeout", 60000000);
@@ -341,9 +506,9 @@ public class ClueExtractLinks extends PowerTool {
     conf.setNumReduceTasks(numReducers);
     // TODO: to read!!
     conf.setMapperClass(Map.class);
-    conf.setCombinerClass(Reduce.class);
+    conf.setCombinerClass(Combine.class);
     conf.setReducerClass(Reduce.class);
-    conf.setOutputKeyClass(Text.class);
+    conf.setOutputKeyClass(LongWritable.class);
     conf.setOutputValueClass(ArrayListWritable.class);
     conf.setInputFormat(SequenceFileInputFormat.class);
     conf.setOutputFormat(SequenceFileOutputFormat.class);
@@ -353,18 +518,84 @@ public class ClueExtractLinks extends PowerTool {
     SequenceFileInputFormat.setInputPaths(conf, inputPath);
     FileOutputFormat.setOutputPath(conf, new Path(outputPath));
 
+    String urlsPath = conf.get("Cloud9.UrlsOutputPath");
+    if(urlsPath != null) {
+      MultipleOutputs.addNamedOutput(conf, URLS, SequenceFileOutputFormat.class,
+                                     LongWritable.class, Text.class);
+    }
+
     LOG.info("ClueExtractLinks");
     LOG.info(" - input path: " + inputPath);
     LOG.info(" - output path: " + outputPath);
     LOG.info(" - mapping file: " + mappingFile);
     LOG.info(" - include internal links? " +
              conf.getBoolean("Cloud9.IncludeInternalLinks", false));
+    LOG.info(" - url filter file: " + filterFile);
+    LOG.info(" - urls output path: " + urlsPath);
 
     if(!fs.exists(new Path(outputPath))) {
       JobClient.runJob(conf);
+
+      if(urlsPath != null) {
+        // urls-r-00000 and so on, out of the way of the jobs that read the links
+        fs.mkdirs(new Path(urlsPath));
+        for(FileStatus file : fs.listStatus(new Path(outputPath))) {
+          String name = file.getPath().getName();
+          if(name.startsWith(URLS + "-")) {
+            fs.rename(file.getPath(), new Path(urlsPath,
+                "part-r-" + name.substring(name.lastIndexOf('-') + 1)));
+          }
+        }
+      }
     } else {
       LOG.info(outputPath + " already exists! Skipping this step...");
     }
     return 0;
   }
+
+  // the first pass: writes the fingerprints of the urls, and builds the filter from them
+  private void buildUrlFilter(String filterFile) throws Exception {
+    JobConf conf = new JobConf(getConf(), ClueExtractLinks.class);
+    FileSystem fs = FileSystem.get(conf);
+
+    String inputPath = conf.get("Cloud9.UrlFilterInputPath", conf.get("Cloud9.InputPath"));
+    Path fingerprintPath = new Path(filterFile + ".fingerprints");
+    double falsePositiveRate = conf.getFloat("Cloud9.UrlFilterFalsePositiveRate",
+                                             (float) UrlFilter.DEFAULT_FALSE_POSITIVE_RATE);
+
+    LOG.info("ClueExtractLinks: UrlFilter");
+    LOG.info(" - input path: " + inputPath);
+    LOG.info(" - url filter file: " + filterFile);
+    LOG.info(" - false positive rate: " + falsePositiveRate);
+
+    if(fs.exists(new Path(filterFile))) {
+      LOG.info(filterFile + " already exists! Skipping this step...");
+      return;
+    }
+
+    DistributedCache.addCacheFile(new URI(conf.get("Cloud9.DocnoMappingFile")), conf);
+
+    conf.setJobName("ClueExtractLinks.UrlFilter");
+    conf.setNumMapTasks(conf.getInt("Cloud9.Mappers", 1));
+    conf.setNumReduceTasks(0);
+    conf.setMapperClass(UrlMap.class);
+    conf.setOutputKeyClass(LongWritable.class);
+    conf.setOutputValueClass(NullWritable.class);
+    conf.setInputFormat(SequenceFileInputFormat.class);
+    conf.setOutputFormat(SequenceFileOutputFormat.class);
+    SequenceFileInputFormat.setInputPaths(conf, inputPath);
+    FileOutputFormat.setOutputPath(conf, fingerprintPath);
+
+    fs.delete(fingerprintPath, true);
+    RunningJob job = JobClient.runJob(conf);
+    long urls = job.getCounters().getCounter(UrlMap.Counters.URLS);
+
+    UrlFilter filter = UrlFilter.build(fingerprintPath, fs, urls, falsePositiveRate);
+    filter.writeFilter(new Path(filterFile), fs);
+    fs.delete(fingerprintPath, true);
+
+    LOG.info(" - urls: " + filter.size());
+    LOG.info(" - bits: " + filter.getNumBits());
+    LOG.info(" - expected false positive rate: " + filter.getFalsePositiveRate());
+  }
 }
@@ -17,10 +17,12 @@
 package edu.umd.cloud9.webgraph;
 
 import java.io.IOException;
-import java.util.HashSet;
+import java.net.URI;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
@@ -42,9 +44,26 @@ import edu.umd.cloud9.io.array.ArrayListWritable;
 import edu.umd.cloud9.io.pair.PairOfInts;
 import edu.umd.cloud9.util.PowerTool;
 import edu.umd.cloud9.webgraph.data.AnchorText;
+import edu.umd.cloud9.webgraph.data.HostIdMapping;
+import edu.umd.cloud9.webgraph.driver.SortWebGraph;
+
+import bak.pcj.IntIterator;
+import bak.pcj.set.IntOpenHashSet;
 
 /**
- * 
+ * <p>
+ * Computes the default weights of the lines of external anchor text of a reverse web graph.
+ * The hosts linking to each document are either read from the output of
+ * {@link CollectHostnames}, given as an additional input, or, if
+ * <code>Cloud9.HostIdMappingFile</code> points to the docno to host id mapping written by
+ * {@link BuildHostGraph}, looked up from the sources of the lines of anchor text themselves.
+ * </p>
+ *
+ * <p>
+ * If <code>Cloud9.NumberOfDocuments</code> is set, the documents are partitioned into ranges of
+ * docnos as {@link SortWebGraph} does, and the output is sorted.
+ * </p>
+ *
  * @author Nima Asadi
  *
  */
@@ -82,11 +101,19 @@ public class ComputeWeight extends PowerTool {
 		}
 	}
 	
+	//with Cloud9.NumberOfDocuments, partitions by ranges of docnos like SortWebGraph does, so the
+	//output is sorted and can be merged with a sorted collection
 	protected static class Partition implements Partitioner<PairOfInts, ArrayListWritable<AnchorText>> {
+		private int totalDocuments;
+
 		public void configure(JobConf job) {
+			totalDocuments = job.getInt("Cloud9.NumberOfDocuments", 0);
 		}
 
 		public int getPartition(PairOfInts key, ArrayListWritable<AnchorText> value, int numReduceTasks) {
+			if(totalDocuments > 0)
+				return SortWebGraph.Partition.getPartition(key.getLeftElement(), totalDocuments, numReduceTasks);
+
 			return Math.abs(key.getLeftElement() % numReduceTasks);
 		}
 	}
@@ -105,10 +132,38 @@ public class ComputeWeight extends PowerTool {
 		private static int currentDocument, linkCounter;
 		private static boolean firstTime = true;
 		private static String lastHost;
-		private static HashSet<Integer> intersects = new HashSet<Integer>();
+		private static IntOpenHashSet intersects = new IntOpenHashSet();
 		
 		private static int[] simMap;
-		
+		//(source document, line number in simMap) pairs of the external lines of anchor text, sorted,
+		//or (source host, line number in simMap) pairs when the host ids are known
+		private static long[] sources = new long[1024];
+		private static int numSources;
+
+		private static HostIdMapping hostIds;
+
+		public void configure(JobConf job) {
+			if(job.get("Cloud9.HostIdMappingFile") == null) {
+				hostIds = null;
+				return;
+			}
+
+			Path[] localFiles;
+			try {
+				localFiles = DistributedCache.getLocalCacheFiles(job);
+			} catch (IOException e) {
+				throw new RuntimeException("Local cache files not read properly.");
+			}
+
+			try {
+				hostIds = new HostIdMapping();
+				hostIds.loadMapping(localFiles[0], FileSystem.getLocal(job));
+			} catch (Exception e) {
+				e.printStackTrace();
+				throw new RuntimeException("Error initializing HostIdMapping!");
+			}
+		}
+
 		public void reduce(PairOfInts key, Iterator<ArrayListWritable<AnchorText>> values,
 				OutputCollector<IntWritable, ArrayListWritable<AnchorText>> output, Reporter reporter) throws IOException {
 			
@@ -134,78 +189,142 @@ public class ComputeWeight extends PowerTool {
 					for(AnchorText data : packet)
 						arrayList.add(data);
 				}
-				
-			} else {
-				
-				//in case there are multiple packets for each line of anchor text, 
-				//we build a table that maps each packet to a number. If two packets 
-				//have the same anchor text, their numbers will be equal.
-				linkCounter = 0;
-				simMap = new int[arrayList.size()];
-				for(int i = 1; i < arrayList.size(); i++) {
-					if(arrayList.get(i).equalsIgnoreSources(arrayList.get(i - 1))) {
-						simMap[i] = simMap[i-1];
-					} else {
-						simMap[i] = i;
-						
-						if(arrayList.get(i).isExternalInLink())
-							linkCounter++;
-					}
+
+				if(hostIds != null) {
+					buildSimMap();
+					addHostWeights();
 				}
+
+			} else {
+
+				buildSimMap();
+				indexSources();
+
 				lastHost = "";
 				intersects.clear();
-				
 				while(values.hasNext()) {
 					packet = values.next();
-					
 					for(AnchorText data : packet) {	//should run only once (refer to the mapper class)
-						
 						if(!data.getText().equals(lastHost)) {
-							
-							if(intersects.size() > 0) {
-								for(int i = 0; i < simMap.length; i++) {
-									if(intersects.contains(simMap[i])) {
-										arrayList.get(i).setWeight(arrayList.get(i).getWeight() + (1.0f / intersects.size()));
-									}
-								}
-							}
-							
-							intersects.clear();
+							addWeights();
 						}
-						
 						lastHost = data.getText();
-						
-						for(int i = 0; i < arrayList.size(); i++) {
-							if(!arrayList.get(i).isExternalInLink())
-								continue;
-							
-							if(intersects.contains(simMap[i]))
-								continue;
-						
-							//if there is only one line of anchor text, then definitely it intersects 
-							//with any host map associated with this object
-							if(linkCounter == 1) {
-								intersects.add(simMap[i]);
-							} else if(data.intersects(arrayList.get(i))) {
-								intersects.add(simMap[i]);
+
+						//if there is only one line of anchor text, then definitely it intersects
+						//with any host map associated with this object
+						if(linkCounter == 1) {
+							for(int i = 0; i < arrayList.size(); i++) {
+								if(arrayList.get(i).isExternalInLink())
+									intersects.add(simMap[i]);
+							}
+						} else {
+							for(int docno : data.getDocuments()) {
+								for(int j = firstSource(docno); j < numSources && (int) (sources[j] >> 32) == docno; j++)
+									intersects.add((int) sources[j]);
 							}
 						}
 					}
 				}
-				
-				if(intersects.size() > 0) {
-					for(int i = 0; i < simMap.length; i++) {
-						if(intersects.contains(simMap[i])) {
-							arrayList.get(i).setWeight(arrayList.get(i).getWeight() + (1.0f / intersects.size()));
-						}
+				addWeights();
+			}
+		}
+
+		//in case there are multiple packets for each line of anchor text,
+		//we build a table that maps each packet to a number. If two packets
+		//have the same anchor text, their numbers will be equal.
+		private static void buildSimMap() {
+			linkCounter = 0;
+			simMap = new int[arrayList.size()];
+			for(int i = 1; i < arrayList.size(); i++) {
+				if(arrayList.get(i).equalsIgnoreSources(arrayList.get(i - 1))) {
+					simMap[i] = simMap[i-1];
+				} else {
+					simMap[i] = i;
+
+					if(arrayList.get(i).isExternalInLink())
+						linkCounter++;
+				}
+			}
+		}
+
+		//indexes the external lines of anchor text by source document, so that finding the lines
+		//a host intersects with takes a lookup per document of the host, rather than a pass over
+		//all the lines of anchor text
+		private static void indexSources() {
+			numSources = 0;
+			for(int i = 0; i < arrayList.size(); i++) {
+				if(!arrayList.get(i).isExternalInLink())
+					continue;
+				for(int docno : arrayList.get(i).getDocuments())
+					addSource(docno, simMap[i]);
+			}
+			Arrays.sort(sources, 0, numSources);
+		}
+
+		//with host ids, the hosts linking to the current document are those of the sources of its
+		//external lines of anchor text, so sorting (host, line) pairs groups the lines each host
+		//intersects with, and no host map is needed
+		private static void addHostWeights() {
+			numSources = 0;
+			for(int i = 0; i < arrayList.size(); i++) {
+				if(!arrayList.get(i).isExternalInLink())
+					continue;
+				for(int docno : arrayList.get(i).getDocuments()) {
+					int host = hostIds.getHostId(docno);
+					if(host != HostIdMapping.NO_HOST)
+						addSource(host, simMap[i]);
+				}
+			}
+			Arrays.sort(sources, 0, numSources);
+
+			intersects.clear();
+			for(int j = 0; j < numSources; j++) {
+				if(j > 0 && (int) (sources[j] >> 32) != (int) (sources[j - 1] >> 32))
+					addWeights();
+				intersects.add((int) sources[j]);
+			}
+			addWeights();
+		}
+
+		private static void addSource(int key, int line) {
+			if(numSources == sources.length)
+				sources = Arrays.copyOf(sources, sources.length * 2);
+			sources[numSources++] = ((long) key << 32) | line;
+		}
+
+		private static int firstSource(int docno) {
+			long key = (long) docno << 32;
+			int low = 0, high = numSources;
+			while(low < high) {
+				int mid = (low + high) >>> 1;
+				if(sources[mid] < key)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			return low;
+		}
+
+		//shares a unit of weight among the lines of anchor text the last host intersects with
+		private static void addWeights() {
+			if(intersects.size() > 0) {
+				float weight = 1.0f / intersects.size();
+				IntIterator iterator = intersects.iterator();
+				while(iterator.hasNext()) {
+					int line = iterator.next();
+					for(int i = line; i < simMap.length && simMap[i] == line; i++) {
+						arrayList.get(i).setWeight(arrayList.get(i).getWeight() + weight);
 					}
 				}
-				
-				intersects.clear();
 			}
+			intersects.clear();
 		}
-		
+
 		public void close() throws IOException {
+			//a reducer may get no documents, especially with ranges of docnos
+			if(firstTime)
+				return;
+
 			keyWord.set(currentDocument);
 			outputCollector.collect(keyWord, arrayList);
 		}
@@ -237,7 +356,16 @@ public class ComputeWeight extends PowerTool {
 
 		String inputPath = conf.get("Cloud9.InputPath");
 		String outputPath = conf.get("Cloud9.OutputPath");
-		
+		String mappingFile = conf.get("Cloud9.HostIdMappingFile");
+
+		if(mappingFile != null) {
+			if(!fs.exists(new Path(mappingFile))) {
+				throw new RuntimeException("Error: Host id mapping file " + mappingFile
+						+ " doesn't exist!");
+			}
+			DistributedCache.addCacheFile(new URI(mappingFile), conf);
+		}
+
 		conf.setJobName("ComputeWeights");
 		conf.set("mapred.child.java.opts", "-Xmx4096m");
 		conf.setInt("mapred.task.timeout", 60000000);
@@ -266,7 +394,9 @@ public class ComputeWeight extends PowerTool {
 
 		LOG.info("ComputeWeight");
 		LOG.info(" - input path: " + inputPath);
-		LOG.info(" - output path: " + outputPath);		
+		LOG.info(" - output path: " + outputPath);
+		LOG.info(" - host id mapping file: " + mappingFile);
+		LOG.info(" - number of documents: " + conf.getInt("Cloud9.NumberOfDocuments", 0));
 
 		if(!fs.exists(new Path(outputPath))) {
 			JobClient.runJob(conf);
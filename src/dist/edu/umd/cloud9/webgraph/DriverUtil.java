@@ -15,10 +15,27 @@ public class DriverUtil {
   // /base/path/hostnames
   public static final String OUTPUT_HOST_NAMES = "hostnames";
 
+  // host ids, the docno to host id mapping and the host graph are stored at
+  // /base/path/hostGraph
+  public static final String OUTPUT_HOST_GRAPH = "hostGraph";
+
   // reverse web graph w/ weighted lines of anchor text is stored at
   // /base/path/weightedReverseWebGraph
   public static final String OUTPUT_WEGIHTED_REVERSE_WEBGRAPH = "weightedReverseWebGraph";
 
+  // reverse web graph sorted by docno, kept up to date by incremental updates, is stored at
+  // /base/path/sortedReverseWebGraph
+  public static final String OUTPUT_SORTED_REVERSE_WEBGRAPH = "sortedReverseWebGraph";
+
+  // the output of each incremental update is stored at /base/path/updates/update-name
+  public static final String OUTPUT_UPDATES = "updates";
+
+  // Bloom filter of the urls of the collection is stored at /base/path/urlFilter
+  public static final String OUTPUT_URL_FILTER = "urlFilter";
+
+  // the urls of the fingerprints the extracted links are keyed by are stored at /base/path/urls
+  public static final String OUTPUT_URLS = "urls";
+
   /**
    * Default number of reducers
    */
@@ -37,6 +54,11 @@ public class DriverUtil {
   public static final String CL_DOCNO_MAPPING = "-docno";
   public static final String CL_MAX_LENGTH = "-maxLength";
   public static final String CL_NUMBER_OF_REDUCERS = "-numReducers";
+  public static final String CL_MAX_ANCHOR_SOURCES = "-maxSources";
+  public static final String CL_HOST_GRAPH = "-hg";
+  public static final String CL_UPDATE = "-update";
+  public static final String CL_URL_FILTER = "-urlFilter";
+  public static final String CL_URLS = "-urls";
 
   public static String argValue(String[] args, String option) throws IllegalArgumentException {
     for(int i = 0; i < args.length - 1; i++) {
@@ -0,0 +1,291 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.join.CompositeInputFormat;
+import org.apache.hadoop.mapred.join.TupleWritable;
+import org.apache.hadoop.mapred.lib.MultipleOutputs;
+import org.apache.log4j.Logger;
+
+import edu.umd.cloud9.io.array.ArrayListWritable;
+import edu.umd.cloud9.mapred.NoSplitSequenceFileInputFormat;
+import edu.umd.cloud9.util.PowerTool;
+import edu.umd.cloud9.webgraph.data.AnchorText;
+import edu.umd.cloud9.webgraph.data.AnchorTextConstants;
+import edu.umd.cloud9.webgraph.data.AnchorTextMerger;
+
+/**
+ * <p>
+ * Merges reverse web graphs that are sorted and partitioned the same way (e.g., by
+ * {@link edu.umd.cloud9.webgraph.driver.SortWebGraph} with the same number of documents and
+ * reducers) with a map-side merge join on the docnos: the i-th map task reads the i-th part
+ * file of each graph in order, so nothing is shuffled and the output is partitioned and sorted
+ * like the input. The graphs are given oldest first in <code>Cloud9.InputPath</code>.
+ * </p>
+ *
+ * <p>
+ * The records of a document found in several graphs are merged: lines of anchor text are merged
+ * by {@link AnchorTextMerger}, and in-degrees are added up, which is right as long as the graphs
+ * hold disjoint sets of links. With <code>Cloud9.ReplaceRecords</code>, the record of the newest
+ * graph is kept instead, e.g., to fold the weighted records of the updated documents into a
+ * weighted reverse web graph. If <code>Cloud9.ChangedOutputPath</code> is set, the output records
+ * of the documents found in any graph but the first are also written there.
+ * </p>
+ */
+public class MergeReverseWebGraph extends PowerTool {
+  private static final Logger LOG = Logger.getLogger(MergeReverseWebGraph.class);
+
+  private static final String CHANGED = "changed";
+
+  public static enum Counters {
+    DOCUMENTS, // documents written
+    MERGED,    // documents found in more than one graph
+    CHANGED    // documents found in any graph but the first
+  }
+
+  public static class Map extends MapReduceBase implements
+      Mapper<IntWritable, TupleWritable, IntWritable, ArrayListWritable<AnchorText>> {
+    private static final ArrayListWritable<AnchorText> arrayList =
+      new ArrayListWritable<AnchorText>();
+    private static AnchorTextMerger merger;
+    private boolean replace;
+    private MultipleOutputs changedOutputs;
+
+    public void configure(JobConf job) {
+      merger = new AnchorTextMerger(arrayList, job.getInt(AnchorTextMerger.MAX_SOURCES, 0));
+      replace = job.getBoolean("Cloud9.ReplaceRecords", false);
+      if(job.get("Cloud9.ChangedOutputPath") != null) {
+        changedOutputs = new MultipleOutputs(job);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void map(IntWritable key, TupleWritable records,
+        OutputCollector<IntWritable, ArrayListWritable<AnchorText>> output,
+        Reporter reporter) throws IOException {
+      int found = 0;
+      int newest = -1;
+      for(int i = 0; i < records.size(); i++) {
+        if(records.has(i)) {
+          found++;
+          newest = i;
+        }
+      }
+
+      ArrayListWritable<AnchorText> record =
+        (ArrayListWritable<AnchorText>) records.get(newest);
+      if(found > 1) {
+        reporter.incrCounter(Counters.MERGED, 1);
+        if(!replace) {
+          merger.clear();
+          int indegree = 0;
+          for(int i = 0; i < records.size(); i++) {
+            if(records.has(i)) {
+              indegree += merge((ArrayListWritable<AnchorText>) records.get(i), merger);
+            }
+          }
+          finish(merger, arrayList, indegree);
+          record = arrayList;
+        }
+      }
+
+      output.collect(key, record);
+      reporter.incrCounter(Counters.DOCUMENTS, 1);
+
+      if(newest > 0) {
+        reporter.incrCounter(Counters.CHANGED, 1);
+        if(changedOutputs != null) {
+          changedOutputs.getCollector(CHANGED, reporter).collect(key, record);
+        }
+      }
+    }
+
+    public void close() throws IOException {
+      if(changedOutputs != null) {
+        changedOutputs.close();
+      }
+    }
+  }
+
+  /**
+   * Adds the lines of anchor text of a record to a merger, except for its in-degree, which is
+   * returned. Call {@link #finish(AnchorTextMerger, List, int)} once all the records of a
+   * document are added.
+   *
+   * @param record record of a reverse web graph
+   * @param merger merger the lines of anchor text are added to
+   * @return the in-degree of the record, or 0 if it has none
+   */
+  public static int merge(List<AnchorText> record, AnchorTextMerger merger) {
+    int indegree = 0;
+    for(AnchorText data : record) {
+      if(data.isInDegree()) {
+        // the in-degree is kept as the single "document" of the line
+        for(int degree : data) {
+          indegree += degree;
+        }
+        continue;
+      }
+      merger.add(data);
+    }
+    return indegree;
+  }
+
+  /**
+   * Finishes the merged record of a document, with its lines of anchor text, its in-degree and
+   * its URL, sorted as {@link BuildReverseWebGraph} writes them.
+   *
+   * @param merger merger the records of the document were added to
+   * @param list list the merger adds the lines of anchor text to
+   * @param indegree sum of the in-degrees of the records
+   */
+  public static void finish(AnchorTextMerger merger, List<AnchorText> list, int indegree) {
+    merger.finish();
+    list.add(new AnchorText(AnchorTextConstants.Type.IN_DEGREE.val, null, indegree));
+    Collections.sort(list);
+  }
+
+  public static final String[] RequiredParameters = {
+    "Cloud9.InputPath",
+    "Cloud9.OutputPath"
+  };
+
+  public String[] getRequiredParameters() {
+    return RequiredParameters;
+  }
+
+  public MergeReverseWebGraph(Configuration conf) {
+    super(conf);
+  }
+
+  public int runTool() throws Exception {
+    JobConf conf = new JobConf(getConf(), MergeReverseWebGraph.class);
+    FileSystem fs = FileSystem.get(conf);
+
+    String inputPath = conf.get("Cloud9.InputPath");
+    String outputPath = conf.get("Cloud9.OutputPath");
+    String changedPath = conf.get("Cloud9.ChangedOutputPath");
+
+    String[] graphs = inputPath.split(",");
+    Path[] paths = new Path[graphs.length];
+    int partitions = -1;
+    for(int i = 0; i < graphs.length; i++) {
+      paths[i] = new Path(graphs[i]);
+      int n = listParts(fs, paths[i]).length;
+      if(partitions >= 0 && n != partitions) {
+        throw new RuntimeException("Error: " + paths[i] + " has " + n + " part files, " +
+                                   paths[0] + " has " + partitions + "!");
+      }
+      partitions = n;
+    }
+
+    conf.setJobName("MergeReverseWebGraph");
+    conf.set("mapred.child.java.opts", "-Xmx2048m");
+    conf.setInt("mapred.task.timeout", 60000000);
+    conf.set("mapreduce.map.memory.mb", "2048");
+    conf.set("mapreduce.map.java.opts", "-Xmx2048m");
+    conf.set("mapreduce.task.timeout", "60000000");
+
+    // one map task per partition, which joins the part files of the partition
+    conf.setInputFormat(CompositeInputFormat.class);
+    conf.set("mapred.join.expr",
+             CompositeInputFormat.compose("outer", NoSplitSequenceFileInputFormat.class, paths));
+    conf.setNumMapTasks(partitions);
+    conf.setNumReduceTasks(0);
+    conf.setMapperClass(Map.class);
+    conf.setOutputKeyClass(IntWritable.class);
+    conf.setOutputValueClass(ArrayListWritable.class);
+    conf.setOutputFormat(SequenceFileOutputFormat.class);
+
+    SequenceFileOutputFormat.setCompressOutput(conf, true);
+    SequenceFileOutputFormat.setOutputCompressionType(conf,
+        SequenceFile.CompressionType.BLOCK);
+    FileOutputFormat.setOutputPath(conf, new Path(outputPath));
+
+    if(changedPath != null) {
+      MultipleOutputs.addNamedOutput(conf, CHANGED, SequenceFileOutputFormat.class,
+                                     IntWritable.class, ArrayListWritable.class);
+    }
+
+    LOG.info("MergeReverseWebGraph");
+    LOG.info(" - input path: " + inputPath);
+    LOG.info(" - output path: " + outputPath);
+    LOG.info(" - changed output path: " + changedPath);
+    LOG.info(" - replace records: " + conf.getBoolean("Cloud9.ReplaceRecords", false));
+    LOG.info(" - number of partitions: " + partitions);
+
+    if(!fs.exists(new Path(outputPath))) {
+      JobClient.runJob(conf);
+
+      if(changedPath != null) {
+        // changed-m-00000 and so on, named like the part files they go with
+        fs.mkdirs(new Path(changedPath));
+        for(FileStatus file : fs.listStatus(new Path(outputPath))) {
+          String name = file.getPath().getName();
+          if(name.startsWith(CHANGED + "-")) {
+            fs.rename(file.getPath(), new Path(changedPath,
+                "part-" + name.substring(name.lastIndexOf('-') + 1)));
+          }
+        }
+      }
+    } else {
+      LOG.info(outputPath + " already exists! Skipping this step...");
+    }
+
+    return 0;
+  }
+
+  /**
+   * Lists the part files of a graph, in order.
+   */
+  public static Path[] listParts(FileSystem fs, Path path) throws IOException {
+    FileStatus[] status = fs.listStatus(path);
+    if(status == null) {
+      throw new RuntimeException("Error: " + path + " doesn't exist!");
+    }
+
+    int n = 0;
+    Path[] parts = new Path[status.length];
+    for(FileStatus file : status) {
+      if(file.getPath().getName().startsWith("part-")) {
+        parts[n++] = file.getPath();
+      }
+    }
+    parts = Arrays.copyOf(parts, n);
+    Arrays.sort(parts);
+    return parts;
+  }
+}
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.UTFDataFormatException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Iterator;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.filecache.DistributedCache;
@@ -27,6 +28,7 @@ import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
@@ -34,15 +36,9 @@ import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.log4j.Logger;
-import org.htmlparser.NodeFilter;
-import org.htmlparser.Parser;
-import org.htmlparser.filters.NodeClassFilter;
-import org.htmlparser.tags.BaseHrefTag;
-import org.htmlparser.tags.LinkTag;
-import org.htmlparser.util.NodeList;
-import org.htmlparser.util.ParserException;
 
 import edu.umd.cloud9.collection.DocnoMapping;
 import edu.umd.cloud9.collection.WebDocument;
@@ -50,10 +46,28 @@ import edu.umd.cloud9.io.array.ArrayListWritable;
 import edu.umd.cloud9.util.PowerTool;
 import edu.umd.cloud9.webgraph.data.AnchorText;
 import edu.umd.cloud9.webgraph.data.AnchorTextConstants;
+import edu.umd.cloud9.webgraph.data.AnchorTextMerger;
+import edu.umd.cloud9.webgraph.data.UrlFilter;
+import edu.umd.cloud9.webgraph.html.LinkScanner;
+import edu.umd.cloud9.webgraph.html.UrlCanonicalizer;
 import edu.umd.cloud9.webgraph.normalizer.AnchorTextNormalizer;
 
 /**
- * 
+ * <p>
+ * URLs are put in canonical form without their query (see {@link UrlCanonicalizer}), and the
+ * output is keyed by their 64-bit fingerprints, as in {@link ClueExtractLinks}, with the URL of
+ * a document in a <code>URL_FIELD</code> line next to its docno. If
+ * <code>Cloud9.UrlsOutputPath</code> is set, the fingerprints of all the URLs emitted are also
+ * written there with the URLs, once each, by the reducers, as in {@link ClueExtractLinks}.
+ * </p>
+ *
+ * <p>
+ * If <code>Cloud9.UrlFilterFile</code> is set, the links to documents outside the collection
+ * are dropped before they are shuffled, as in {@link ClueExtractLinks}: a first pass builds a
+ * {@link UrlFilter} of the URLs of the documents in <code>Cloud9.UrlFilterInputPath</code> (the
+ * input path if not set) into that file, unless it exists.
+ * </p>
+ *
  * @author Nima Asadi
  * @author Fangyue Wang
  * @author metzler
@@ -65,9 +79,12 @@ public class TrecExtractLinks extends PowerTool
   private static final Logger LOG = Logger
       .getLogger(TrecExtractLinks.class);
 
+  // named output of the fingerprints of the urls
+  private static final String URLS = "urls";
+
   public static class Map
       extends
-      Mapper<LongWritable, WebDocument, Text, ArrayListWritable<AnchorText>>
+      Mapper<LongWritable, WebDocument, LongWritable, ArrayListWritable<AnchorText>>
   {
 
     public static enum LinkCounter
@@ -78,33 +95,38 @@ public class TrecExtractLinks extends PowerTool
       INVALID_URL, // number of malformed URLs
       TEXT_TOO_LONG, // number of lines of anchor text that are abnormally
       // long
-      PARSER_FAILED
-      // number of times the HTML parser fails
+      PARSER_FAILED, // number of times the HTML parser fails
+      OUTPUT_LINKS, // number of links emitted
+      FILTERED_LINKS // number of links dropped by the url filter
     };
 
     private static String base; // base URL for current document
     private static String baseHost;
+    private static long baseFingerprint;
     private static int docno; // docno of current document
 
-    private static final Text keyWord = new Text(); // output key for the
-    // mappers
+    private static final LongWritable keyWord = new LongWritable(); // output
+    // key for the mappers
     private static final ArrayListWritable<AnchorText> arrayList = new ArrayListWritable<AnchorText>();
     // output value for the mappers
 
     private static DocnoMapping docnoMapping = null;
 
-    private static final Parser parser = new Parser();
-    private static final NodeFilter filter = new NodeClassFilter(
-        LinkTag.class);
-    private static NodeList list;
+    private static final LinkScanner scanner = new LinkScanner();
+
+    private static final UrlCanonicalizer canonicalizer = new UrlCanonicalizer(false);
 
     private static boolean includeInternalLinks;
 
     private static AnchorTextNormalizer normalizer;
 
+    private static UrlFilter urlFilter;
+
+    private static boolean writeUrls;
+
     @Override
     public void setup(
-        Mapper<LongWritable, WebDocument, Text, ArrayListWritable<AnchorText>>.Context context)
+        Mapper<LongWritable, WebDocument, LongWritable, ArrayListWritable<AnchorText>>.Context context)
         throws IOException
     {
       Configuration conf = context.getConfiguration();
@@ -158,6 +180,30 @@ public class TrecExtractLinks extends PowerTool
         }
       }
 
+      urlFilter = null;
+      String urlFilterFile = conf.get("Cloud9.UrlFilterFile", null);
+      if (urlFilterFile != null)
+      {
+        try
+        {
+          Path[] localFiles = DistributedCache.getLocalCacheFiles(conf);
+          urlFilter = new UrlFilter();
+          if (localFiles != null)
+          {
+            urlFilter.loadFilter(localFiles[1], FileSystem.getLocal(conf));
+          }
+          else
+          {
+            urlFilter.loadFilter(new Path(urlFilterFile), FileSystem.get(conf));
+          }
+        }
+        catch (Exception e)
+        {
+          e.printStackTrace();
+          throw new RuntimeException("Error initializing UrlFilter!");
+        }
+      }
+
       includeInternalLinks = conf.getBoolean(
           "Cloud9.IncludeInternalLinks", false);
 
@@ -172,13 +218,15 @@ public class TrecExtractLinks extends PowerTool
         throw new RuntimeException(
             "Error initializing AnchorTextNormalizer");
       }
+
+      writeUrls = conf.get("Cloud9.UrlsOutputPath") != null;
     }
 
     @Override
     public void map(
         LongWritable key,
         WebDocument doc,
-        Mapper<LongWritable, WebDocument, Text, ArrayListWritable<AnchorText>>.Context context)
+        Mapper<LongWritable, WebDocument, LongWritable, ArrayListWritable<AnchorText>>.Context context)
         throws IOException, InterruptedException
     {
       context.getCounter(LinkCounter.INPUT_DOCS).increment(1);
@@ -198,7 +246,7 @@ public class TrecExtractLinks extends PowerTool
       {
         String url = doc.getURL().split("\n")[0];
         LOG.info("URI: " + url);
-        base = normalizeURL(url);
+        base = canonicalizer.canonicalize(url);
       }
       catch (Exception e)
       {
@@ -213,92 +261,49 @@ public class TrecExtractLinks extends PowerTool
         return;
       }
 
+      baseHost = canonicalizer.getHost();
+      baseFingerprint = UrlCanonicalizer.fingerprint(base);
+
       arrayList.clear();
       arrayList.add(new AnchorText(
           AnchorTextConstants.Type.DOCNO_FIELD.val,
           AnchorTextConstants.EMPTY_STRING, docno));
-      keyWord.set(base);
+      arrayList.add(new AnchorText(
+          AnchorTextConstants.Type.URL_FIELD.val, base));
+      addUrl(base);
+      keyWord.set(baseFingerprint);
       context.write(keyWord, arrayList);
 
       // keeping track of the number of documents that have actually been
       // processed
       context.getCounter(LinkCounter.OUTPUT_DOCS).increment(1);
 
-      try
-      {
-        baseHost = new URI(base).getHost();
-      }
-      catch (Exception e)
-      {
-        context.getCounter(LinkCounter.INVALID_URL).increment(1);
-        return;
-      }
-
-      if (baseHost == null)
-      {
-        context.getCounter(LinkCounter.INVALID_URL).increment(1);
-        return;
-      }
-
-      try
-      {
-        parser.setInputHTML(doc.getContent()); // initializing the
-        // parser with new HTML
-        // content
-
-        // Setting base URL for the current document
-        NodeList nl = parser.parse(null);
-        BaseHrefTag baseTag = new BaseHrefTag();
-        baseTag.setBaseUrl(base);
-        nl.add(baseTag);
-
-        // re-initializing the parser with the fixed content
-        parser.setInputHTML(nl.toHtml());
-
-        // listing all LinkTag nodes
-        list = parser.extractAllNodesThatMatch(filter);
-      }
-      catch (ParserException e)
-      {
-        context.getCounter(LinkCounter.PARSER_FAILED).increment(1);
-        return;
-      }
-      catch (StackOverflowError e)
-      {
-        context.getCounter(LinkCounter.PARSER_FAILED).increment(1);
-        return;
-      }
+      byte[] content = doc.getContent().getBytes("UTF-8");
+      scanner.reset(content, 0, content.length, base);
 
-      for (int i = 0; i < list.size(); i++)
+      while (scanner.next())
       {
-        LinkTag link = (LinkTag) list.elementAt(i);
-        String anchor = link.getLinkText();
-        String url = normalizeURL(link.extractLink());
+        String anchor = scanner.getAnchorText();
+        String url = canonicalizer.canonicalize(scanner.getUrl());
 
         if (url == null)
         {
           continue;
         }
 
-        if (url.equals(base))
+        long fingerprint = UrlCanonicalizer.fingerprint(url);
+        if (fingerprint == baseFingerprint)
         { // discard self links
           continue;
         }
 
-        String host = null;
-        try
-        {
-          host = new URI(url).getHost();
-        }
-        catch (Exception e)
+        if (urlFilter != null && !urlFilter.mightContain(fingerprint))
         {
+          context.getCounter(LinkCounter.FILTERED_LINKS).increment(1);
           continue;
         }
 
-        if (host == null)
-        {
-          continue;
-        }
+        String host = canonicalizer.getHost();
 
         if (anchor == null)
         {
@@ -327,87 +332,214 @@ public class TrecExtractLinks extends PowerTool
               anchor, docno));
         }
 
+        addUrl(url);
+
+        context.getCounter(LinkCounter.OUTPUT_LINKS).increment(1);
+        keyWord.set(fingerprint);
         try
         {
-          keyWord.set(url);
           context.write(keyWord, arrayList);
         }
         catch (UTFDataFormatException e)
         {
           context.getCounter(LinkCounter.TEXT_TOO_LONG).increment(1);
 
-          keyWord.set(url);
           byte flag = arrayList.get(0).getType();
           arrayList.clear();
           arrayList.add(new AnchorText(flag,
               AnchorTextConstants.EMPTY_STRING, docno));
+          addUrl(url);
           context.write(keyWord, arrayList);
         }
+      }
+    }
 
+    // adds the url of the key to the record, for the reducer to write to
+    // the side file, if asked to
+    private static void addUrl(String url)
+    {
+      if (writeUrls)
+      {
+        arrayList.add(new AnchorText(
+            AnchorTextConstants.Type.OTHER_TYPES.val, url));
       }
     }
+  }
+
+  /**
+   * Writes the fingerprints of the URLs of the documents, for building a
+   * {@link UrlFilter}.
+   */
+  public static class UrlMap
+      extends
+      Mapper<LongWritable, WebDocument, LongWritable, NullWritable>
+  {
+
+    public static enum Counters
+    {
+      URLS // number of urls written
+    };
+
+    private static final LongWritable fingerprint = new LongWritable();
+
+    private static final UrlCanonicalizer canonicalizer = new UrlCanonicalizer(false);
 
-    private static String normalizeURL(String url)
+    private static DocnoMapping docnoMapping = null;
+
+    @Override
+    public void setup(
+        Mapper<LongWritable, WebDocument, LongWritable, NullWritable>.Context context)
+        throws IOException
     {
+      Configuration conf = context.getConfiguration();
+
       try
       {
-        URI uri = new URI(url).normalize(); // first apply built-in normalizer
-        String scheme = uri.getScheme().toLowerCase(); // schemes are not case sensitive
-        String host = uri.getHost().toLowerCase(); // hosts are not case sensitive
-        String path = uri.getPath();
-        while(path != null && path.length() > 0 && path.charAt(path.length()-1) == '/') { // remove trailing forward slashes from path
-          path = path.substring(0, path.length()-1);
-        }
-        return (new URI(scheme, host, path, null)).toString();
+        docnoMapping = (DocnoMapping) Class.forName(
+            conf.get("Cloud9.DocnoMappingClass")).newInstance();
+
+        Path[] localFiles = DistributedCache.getLocalCacheFiles(conf);
+        docnoMapping.loadMapping(localFiles != null ? localFiles[0]
+            : new Path(conf.get("Cloud9.DocnoMappingFile")),
+            FileSystem.getLocal(conf));
       }
       catch (Exception e)
       {
-        return null;
+        e.printStackTrace();
+        throw new RuntimeException("Error initializing DocnoMapping!");
       }
     }
+
+    @Override
+    public void map(
+        LongWritable key,
+        WebDocument doc,
+        Mapper<LongWritable, WebDocument, LongWritable, NullWritable>.Context context)
+        throws IOException, InterruptedException
+    {
+      // the documents Map writes a docno field for
+      String url;
+      try
+      {
+        docnoMapping.getDocno(doc.getDocid());
+        url = canonicalizer.canonicalize(doc.getURL().split("\n")[0]);
+      }
+      catch (Exception e)
+      {
+        return;
+      }
+
+      if (url == null)
+      {
+        return;
+      }
+
+      fingerprint.set(UrlCanonicalizer.fingerprint(url));
+      context.write(fingerprint, NullWritable.get());
+      context.getCounter(Counters.URLS).increment(1);
+    }
   }
 
   public static class Reduce
       extends
-      Reducer<Text, ArrayListWritable<AnchorText>, Text, ArrayListWritable<AnchorText>>
+      Reducer<LongWritable, ArrayListWritable<AnchorText>, LongWritable, ArrayListWritable<AnchorText>>
   {
 
     private static final ArrayListWritable<AnchorText> arrayList = new ArrayListWritable<AnchorText>();
-    private static boolean pushed;
+    private static final Text urlText = new Text();
+    private static AnchorTextMerger merger;
+
+    private MultipleOutputs<LongWritable, ArrayListWritable<AnchorText>> urlOutputs;
+
+    @Override
+    public void setup(
+        Reducer<LongWritable, ArrayListWritable<AnchorText>, LongWritable, ArrayListWritable<AnchorText>>.Context context)
+    {
+      merger = new AnchorTextMerger(arrayList,
+          context.getConfiguration().getInt(AnchorTextMerger.MAX_SOURCES, 0));
+
+      urlOutputs = null;
+      if (writesUrls()
+          && context.getConfiguration().get("Cloud9.UrlsOutputPath") != null)
+      {
+        urlOutputs = new MultipleOutputs<LongWritable, ArrayListWritable<AnchorText>>(
+            context);
+      }
+    }
+
+    // whether the urls of the keys are written to the side file, rather
+    // than left in the records
+    protected boolean writesUrls()
+    {
+      return true;
+    }
 
     @Override
     public void reduce(
-        Text key,
+        LongWritable key,
         Iterable<ArrayListWritable<AnchorText>> values,
-        Reducer<Text, ArrayListWritable<AnchorText>, Text, ArrayListWritable<AnchorText>>.Context context)
+        Reducer<LongWritable, ArrayListWritable<AnchorText>, LongWritable, ArrayListWritable<AnchorText>>.Context context)
         throws IOException, InterruptedException
     {
 
-      arrayList.clear();
+      merger.clear();
 
       for (ArrayListWritable<AnchorText> packet : values)
       {
         for (AnchorText data : packet)
-        {
-
-          pushed = false;
+          merger.add(data);
+      }
+      merger.finish();
+      context.getCounter(AnchorTextMerger.Counters.MERGED).increment(merger.getMerged());
+      context.getCounter(AnchorTextMerger.Counters.SAMPLED).increment(merger.getSampled());
 
-          for (int i = 0; i < arrayList.size(); i++)
-          {
-            if (arrayList.get(i).equalsIgnoreSources(data))
-            {
-              arrayList.get(i).addDocumentsFrom(data);
-              pushed = true;
-              break;
-            }
-          }
+      if (urlOutputs != null)
+      {
+        writeUrls(key);
+      }
+      context.write(key, arrayList);
+    }
 
-          if (!pushed)
-            arrayList.add(data.clone());
+    // writes the url of a key to the side file, once, and drops it from the
+    // record
+    private void writeUrls(LongWritable key)
+        throws IOException, InterruptedException
+    {
+      Iterator<AnchorText> iterator = arrayList.iterator();
+      while (iterator.hasNext())
+      {
+        AnchorText data = iterator.next();
+        if (data.isOfOtherTypes())
+        {
+          urlText.set(data.getText());
+          urlOutputs.write(URLS, key, urlText);
+          iterator.remove();
         }
       }
+    }
 
-      context.write(key, arrayList);
+    @Override
+    public void cleanup(
+        Reducer<LongWritable, ArrayListWritable<AnchorText>, LongWritable, ArrayListWritable<AnchorText>>.Context context)
+        throws IOException, InterruptedException
+    {
+      if (urlOutputs != null)
+      {
+        urlOutputs.close();
+      }
+    }
+  }
+
+  /**
+   * Merges the records of a key, as {@link Reduce} does, leaving their urls
+   * in them.
+   */
+  public static class Combine extends Reduce
+  {
+    @Override
+    protected boolean writesUrls()
+    {
+      return false;
     }
   }
 
@@ -460,15 +592,22 @@ public class TrecExtractLinks extends PowerTool
 
     DistributedCache.addCacheFile(new Path(mappingFile).toUri(), job.getConfiguration());
 
+    String filterFile = conf.get("Cloud9.UrlFilterFile");
+    if (filterFile != null)
+    {
+      buildUrlFilter(filterFile);
+      DistributedCache.addCacheFile(new Path(filterFile).toUri(), job.getConfiguration());
+    }
+
     job.setJobName("ExtractLinks");
     job.setNumReduceTasks(numReducers);
 
     job.setJarByClass(TrecExtractLinks.class);
     job.setMapperClass(TrecExtractLinks.Map.class);
-    job.setCombinerClass(TrecExtractLinks.Reduce.class);
+    job.setCombinerClass(TrecExtractLinks.Combine.class);
     job.setReducerClass(TrecExtractLinks.Reduce.class);
 
-    job.setOutputKeyClass(Text.class);
+    job.setOutputKeyClass(LongWritable.class);
     job.setOutputValueClass(ArrayListWritable.class);
 
     configer.applyJobConfig(job);
@@ -482,16 +621,105 @@ public class TrecExtractLinks extends PowerTool
 
     FileOutputFormat.setOutputPath(job, new Path(outputPath));
 
+    String urlsPath = conf.get("Cloud9.UrlsOutputPath");
+    if (urlsPath != null)
+    {
+      MultipleOutputs.addNamedOutput(job, URLS, SequenceFileOutputFormat.class,
+          LongWritable.class, Text.class);
+    }
+
     LOG.info("ExtractLinks");
     LOG.info(" - input path: " + inputPath);
     LOG.info(" - output path: " + outputPath);
     LOG.info(" - mapping file: " + mappingFile);
     LOG.info(" - include internal links? "
         + conf.getBoolean("Cloud9.IncludeInternalLinks", false));
+    LOG.info(" - url filter file: " + filterFile);
+    LOG.info(" - urls output path: " + urlsPath);
 
     job.waitForCompletion(true);
+
+    if (urlsPath != null)
+    {
+      // urls-r-00000 and so on, out of the way of the jobs that read the
+      // links
+      fs.mkdirs(new Path(urlsPath));
+      for (FileStatus file : fs.listStatus(new Path(outputPath)))
+      {
+        String name = file.getPath().getName();
+        if (name.startsWith(URLS + "-"))
+        {
+          fs.rename(file.getPath(), new Path(urlsPath,
+              "part-r-" + name.substring(name.lastIndexOf('-') + 1)));
+        }
+      }
+    }
     return 0;
   }
+
+  // the first pass: writes the fingerprints of the urls, and builds the
+  // filter from them
+  private void buildUrlFilter(String filterFile) throws Exception
+  {
+    Configuration conf = getConf();
+    FileSystem fs = FileSystem.get(conf);
+
+    String inputPath = conf.get("Cloud9.UrlFilterInputPath",
+        conf.get("Cloud9.InputPath"));
+    Path fingerprintPath = new Path(filterFile + ".fingerprints");
+    double falsePositiveRate = conf.getFloat(
+        "Cloud9.UrlFilterFalsePositiveRate",
+        (float) UrlFilter.DEFAULT_FALSE_POSITIVE_RATE);
+
+    LOG.info("ExtractLinks: UrlFilter");
+    LOG.info(" - input path: " + inputPath);
+    LOG.info(" - url filter file: " + filterFile);
+    LOG.info(" - false positive rate: " + falsePositiveRate);
+
+    if (fs.exists(new Path(filterFile)))
+    {
+      LOG.info(filterFile + " already exists! Skipping this step...");
+      return;
+    }
+
+    Job job = new Job(conf);
+    DistributedCache.addCacheFile(
+        new Path(conf.get("Cloud9.DocnoMappingFile")).toUri(),
+        job.getConfiguration());
+
+    job.setJobName("ExtractLinks.UrlFilter");
+    job.setNumReduceTasks(0);
+
+    job.setJarByClass(TrecExtractLinks.class);
+    job.setMapperClass(TrecExtractLinks.UrlMap.class);
+
+    job.setOutputKeyClass(LongWritable.class);
+    job.setOutputValueClass(NullWritable.class);
+
+    configer.applyJobConfig(job);
+    job.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+    recursivelyAddInputPaths(job, inputPath);
+
+    FileOutputFormat.setOutputPath(job, fingerprintPath);
+
+    fs.delete(fingerprintPath, true);
+    if (!job.waitForCompletion(true))
+    {
+      throw new RuntimeException("Error building UrlFilter!");
+    }
+    long urls = job.getCounters().findCounter(UrlMap.Counters.URLS).getValue();
+
+    UrlFilter filter = UrlFilter.build(fingerprintPath, fs, urls,
+        falsePositiveRate);
+    filter.writeFilter(new Path(filterFile), fs);
+    fs.delete(fingerprintPath, true);
+
+    LOG.info(" - urls: " + filter.size());
+    LOG.info(" - bits: " + filter.getNumBits());
+    LOG.info(" - expected false positive rate: "
+        + filter.getFalsePositiveRate());
+  }
   
    public static void recursivelyAddInputPaths(Job job, String path) throws IOException {
       FileSystem fs;
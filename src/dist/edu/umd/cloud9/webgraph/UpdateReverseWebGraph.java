@@ -0,0 +1,291 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
+import org.apache.hadoop.mapred.lib.MultipleInputs;
+import org.apache.log4j.Logger;
+
+import edu.umd.cloud9.io.array.ArrayListWritable;
+import edu.umd.cloud9.util.PowerTool;
+import edu.umd.cloud9.webgraph.data.AnchorText;
+import edu.umd.cloud9.webgraph.data.AnchorTextMerger;
+import edu.umd.cloud9.webgraph.driver.SortWebGraph;
+
+/**
+ * <p>
+ * Updates a reverse web graph, sorted by docno, with the links extracted from new segments of
+ * a collection, without building the whole graph again. The following are written under
+ * <code>Cloud9.OutputPath</code>:
+ * </p>
+ *
+ * <ul>
+ * <li>{@link #LINKS_FROM_NEW}: the reverse web graph of the links from the new documents, to
+ * any document</li>
+ * <li>{@link #LINKS_TO_NEW}: the reverse web graph of the links from the documents already in
+ * the graph to the new documents, with a record for every new document</li>
+ * <li>{@link #DELTA}: the two above, merged, sorted and partitioned like the graph</li>
+ * <li>{@link #REVERSE_WEBGRAPH}: the updated reverse web graph, merged with the delta by
+ * {@link MergeReverseWebGraph}</li>
+ * <li>{@link #CHANGED}: the updated records of the documents whose incoming links changed, the
+ * only ones whose weights need to be computed again</li>
+ * </ul>
+ *
+ * <p>
+ * The links from the documents already in the graph are read again from their extracted links
+ * (<code>Cloud9.InputPath</code>), but only those to new documents make it into the delta: the
+ * new documents are the only ones with docno fields in <code>Cloud9.UpdateInputPath</code>.
+ * The graph (<code>Cloud9.ReverseWebGraph</code>) must be sorted by {@link SortWebGraph}, with
+ * the same <code>Cloud9.NumberOfDocuments</code> as given here; its number of part files is
+ * kept.
+ * </p>
+ */
+public class UpdateReverseWebGraph extends PowerTool {
+  private static final Logger LOG = Logger.getLogger(UpdateReverseWebGraph.class);
+
+  public static final String LINKS_FROM_NEW = "linksFromNew";
+  public static final String LINKS_TO_NEW = "linksToNew";
+  public static final String DELTA = "delta";
+  public static final String REVERSE_WEBGRAPH = "reverseWebGraph";
+  public static final String CHANGED = "changed";
+
+  // keeps the docno and url fields of extracted links, which say what documents a URL belongs to
+  public static class DocnoMap extends MapReduceBase implements
+      Mapper<LongWritable, ArrayListWritable<AnchorText>, LongWritable,
+      ArrayListWritable<AnchorText>> {
+    private static final ArrayListWritable<AnchorText> arrayList =
+      new ArrayListWritable<AnchorText>();
+
+    public void map(LongWritable key, ArrayListWritable<AnchorText> packet,
+        OutputCollector<LongWritable, ArrayListWritable<AnchorText>> output,
+        Reporter reporter) throws IOException {
+      arrayList.clear();
+      for(AnchorText data : packet) {
+        if(data.isDocnoField() || data.isURL()) {
+          arrayList.add(data);
+        }
+      }
+
+      if(arrayList.size() > 0) {
+        output.collect(key, arrayList);
+      }
+    }
+  }
+
+  // keeps the links of extracted links
+  public static class LinkMap extends MapReduceBase implements
+      Mapper<LongWritable, ArrayListWritable<AnchorText>, LongWritable,
+      ArrayListWritable<AnchorText>> {
+    private static final ArrayListWritable<AnchorText> arrayList =
+      new ArrayListWritable<AnchorText>();
+
+    public void map(LongWritable key, ArrayListWritable<AnchorText> packet,
+        OutputCollector<LongWritable, ArrayListWritable<AnchorText>> output,
+        Reporter reporter) throws IOException {
+      arrayList.clear();
+      for(AnchorText data : packet) {
+        if(!data.isDocnoField() && !data.isURL()) {
+          arrayList.add(data);
+        }
+      }
+
+      if(arrayList.size() > 0) {
+        output.collect(key, arrayList);
+      }
+    }
+  }
+
+  // merges the records of a document from the two reverse web graphs of new links
+  public static class MergeReduce extends MapReduceBase implements
+      Reducer<IntWritable, ArrayListWritable<AnchorText>, IntWritable,
+      ArrayListWritable<AnchorText>> {
+    private static final ArrayListWritable<AnchorText> arrayList =
+      new ArrayListWritable<AnchorText>();
+    private static AnchorTextMerger merger;
+
+    public void configure(JobConf job) {
+      merger = new AnchorTextMerger(arrayList, job.getInt(AnchorTextMerger.MAX_SOURCES, 0));
+    }
+
+    public void reduce(IntWritable key, Iterator<ArrayListWritable<AnchorText>> values,
+        OutputCollector<IntWritable, ArrayListWritable<AnchorText>> output,
+        Reporter reporter) throws IOException {
+      ArrayListWritable<AnchorText> record = values.next();
+      if(!values.hasNext()) {
+        output.collect(key, record);
+        return;
+      }
+
+      merger.clear();
+      int indegree = MergeReverseWebGraph.merge(record, merger);
+      while(values.hasNext()) {
+        indegree += MergeReverseWebGraph.merge(values.next(), merger);
+      }
+      MergeReverseWebGraph.finish(merger, arrayList, indegree);
+      output.collect(key, arrayList);
+    }
+  }
+
+  public static final String[] RequiredParameters = {
+    "Cloud9.InputPath",
+    "Cloud9.UpdateInputPath",
+    "Cloud9.ReverseWebGraph",
+    "Cloud9.OutputPath",
+    "Cloud9.Mappers",
+    "Cloud9.Reducers"
+  };
+
+  public String[] getRequiredParameters() {
+    return RequiredParameters;
+  }
+
+  public UpdateReverseWebGraph(Configuration conf) {
+    super(conf);
+  }
+
+  public int runTool() throws Exception {
+    JobConf conf = new JobConf(getConf(), UpdateReverseWebGraph.class);
+    FileSystem fs = FileSystem.get(conf);
+
+    String oldLinks = conf.get("Cloud9.InputPath");
+    String newLinks = conf.get("Cloud9.UpdateInputPath");
+    String graphPath = conf.get("Cloud9.ReverseWebGraph");
+    Path outputPath = new Path(conf.get("Cloud9.OutputPath"));
+    int partitions = MergeReverseWebGraph.listParts(fs, new Path(graphPath)).length;
+
+    LOG.info("UpdateReverseWebGraph");
+    LOG.info(" - input path: " + oldLinks);
+    LOG.info(" - update input path: " + newLinks);
+    LOG.info(" - reverse web graph: " + graphPath);
+    LOG.info(" - output path: " + outputPath);
+    LOG.info(" - number of partitions: " + partitions);
+
+    // links from the new documents: all the new links, and the docno fields of the old
+    // documents, which they may link to
+    Path fromNew = new Path(outputPath, LINKS_FROM_NEW);
+    if(!fs.exists(fromNew)) {
+      JobConf linksConf = createLinksJob(conf, "UpdateReverseWebGraph:LinksFromNew", fromNew);
+      addInputs(linksConf, newLinks, IdentityMapper.class);
+      addInputs(linksConf, oldLinks, DocnoMap.class);
+      // otherwise every old document would be in the delta
+      linksConf.setBoolean(BuildReverseWebGraph.SKIP_UNLINKED, true);
+      JobClient.runJob(linksConf);
+    } else {
+      LOG.info(fromNew + " already exists! Skipping this step...");
+    }
+
+    // links to the new documents from the old ones; only the URLs of new documents have
+    // docno fields, so every other link is dropped by the reducers
+    Path toNew = new Path(outputPath, LINKS_TO_NEW);
+    if(!fs.exists(toNew)) {
+      JobConf linksConf = createLinksJob(conf, "UpdateReverseWebGraph:LinksToNew", toNew);
+      addInputs(linksConf, oldLinks, LinkMap.class);
+      addInputs(linksConf, newLinks, DocnoMap.class);
+      JobClient.runJob(linksConf);
+    } else {
+      LOG.info(toNew + " already exists! Skipping this step...");
+    }
+
+    // a new document may be in both, linked to from new and old documents
+    Path delta = new Path(outputPath, DELTA);
+    if(!fs.exists(delta)) {
+      JobConf deltaConf = new JobConf(conf);
+      deltaConf.setJobName("UpdateReverseWebGraph:Delta");
+      deltaConf.set("mapred.child.java.opts", "-Xmx2048m");
+      deltaConf.setInt("mapred.task.timeout", 60000000);
+
+      deltaConf.setNumMapTasks(conf.getInt("Cloud9.Mappers", 1));
+      deltaConf.setNumReduceTasks(partitions);
+      deltaConf.setMapperClass(IdentityMapper.class);
+      deltaConf.setPartitionerClass(SortWebGraph.Partition.class);
+      deltaConf.setReducerClass(MergeReduce.class);
+      deltaConf.setOutputKeyClass(IntWritable.class);
+      deltaConf.setOutputValueClass(ArrayListWritable.class);
+
+      deltaConf.setInputFormat(SequenceFileInputFormat.class);
+      deltaConf.setOutputFormat(SequenceFileOutputFormat.class);
+      SequenceFileOutputFormat.setCompressOutput(deltaConf, true);
+      SequenceFileOutputFormat.setOutputCompressionType(deltaConf,
+          SequenceFile.CompressionType.BLOCK);
+
+      SequenceFileInputFormat.setInputPaths(deltaConf, fromNew + "," + toNew);
+      FileOutputFormat.setOutputPath(deltaConf, delta);
+
+      JobClient.runJob(deltaConf);
+    } else {
+      LOG.info(delta + " already exists! Skipping this step...");
+    }
+
+    Configuration mergeConf = new Configuration(conf);
+    mergeConf.set("Cloud9.InputPath", graphPath + "," + delta);
+    mergeConf.set("Cloud9.OutputPath", new Path(outputPath, REVERSE_WEBGRAPH).toString());
+    mergeConf.set("Cloud9.ChangedOutputPath", new Path(outputPath, CHANGED).toString());
+    mergeConf.setBoolean("Cloud9.ReplaceRecords", false);
+    return new MergeReverseWebGraph(mergeConf).run();
+  }
+
+  // a job like BuildReverseWebGraph's, with its inputs yet to be added
+  private static JobConf createLinksJob(JobConf conf, String name, Path output) {
+    JobConf linksConf = new JobConf(conf);
+    linksConf.setJobName(name);
+    linksConf.set("mapred.child.java.opts", "-Xmx2048m");
+    linksConf.setInt("mapred.task.timeout", 60000000);
+
+    linksConf.setNumMapTasks(conf.getInt("Cloud9.Mappers", 1));
+    linksConf.setNumReduceTasks(conf.getInt("Cloud9.Reducers", 200));
+    linksConf.setReducerClass(BuildReverseWebGraph.Reduce.class);
+    linksConf.setOutputKeyClass(IntWritable.class);
+    linksConf.setOutputValueClass(ArrayListWritable.class);
+    linksConf.setMapOutputKeyClass(LongWritable.class);
+    linksConf.setMapOutputValueClass(ArrayListWritable.class);
+
+    linksConf.setOutputFormat(SequenceFileOutputFormat.class);
+    SequenceFileOutputFormat.setCompressOutput(linksConf, true);
+    SequenceFileOutputFormat.setOutputCompressionType(linksConf,
+        SequenceFile.CompressionType.BLOCK);
+    FileOutputFormat.setOutputPath(linksConf, output);
+    return linksConf;
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static void addInputs(JobConf conf, String paths,
+      Class<? extends Mapper> mapperClass) {
+    for(String path : paths.split(",")) {
+      MultipleInputs.addInputPath(conf, new Path(path), SequenceFileInputFormat.class,
+                                  mapperClass);
+    }
+  }
+}
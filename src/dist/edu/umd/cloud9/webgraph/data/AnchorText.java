@@ -19,9 +19,12 @@ package edu.umd.cloud9.webgraph.data;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
 
 import bak.pcj.IntIterator;
 import bak.pcj.set.IntOpenHashSet;
@@ -57,6 +60,10 @@ public class AnchorText implements WritableComparable<AnchorText>,
   //sources (or targets in case the underlying link is an outgoing one)
   private IntOpenHashSet documentList;
 
+  //sources/targets read in the compact format and not decoded yet (see readCompact)
+  private byte[] encodedDocuments;
+  private int encodedSize;
+
   //weight for a line of anchor text, if defined
   private float weight;
 
@@ -140,8 +147,8 @@ public class AnchorText implements WritableComparable<AnchorText>,
     }
 
     if(hasValidDocumentList()) {
-      out.writeInt(documentList.size());
-      IntIterator iterator = documentList.iterator();
+      out.writeInt(getSize());
+      IntIterator iterator = documents().iterator();
       while(iterator.hasNext()) {
         out.writeInt(iterator.next());
       }
@@ -152,6 +159,117 @@ public class AnchorText implements WritableComparable<AnchorText>,
     }
   }
 
+  /**
+   * Deserializes an AnchorText object written by {@link #writeCompact(DataOutput)}. The
+   * sources/targets are only decoded when they are first used.
+   *
+   * @param in Input Stream
+   */
+  void readCompact(DataInput in) throws IOException {
+    this.type = in.readByte();
+    resetToType(this.type);
+
+    if(hasValidText()) {
+      this.text = Text.readString(in);
+    }
+
+    if(hasValidDocumentList()) {
+      int size = WritableUtils.readVInt(in);
+      byte[] bytes = new byte[WritableUtils.readVInt(in)];
+      in.readFully(bytes);
+      if(size > 0) {
+        encodedDocuments = bytes;
+        encodedSize = size;
+      }
+    }
+
+    if(hasValidWeight()) {
+      this.weight = in.readFloat();
+    }
+  }
+
+  /**
+   * Serializes an AnchorText object in the compact format used by {@link AnchorTextList}:
+   * the text is written as a VInt length followed by its UTF-8 bytes, and the sources/targets
+   * are sorted and written as VInt gaps, preceded by their number and the length of their
+   * encoding in bytes, so that they can be read without being decoded.
+   *
+   * @param out
+   *         Output Stream
+   */
+  void writeCompact(DataOutput out) throws IOException {
+    out.writeByte(type);
+
+    if(hasValidText()) {
+      Text.writeString(out, text);
+    }
+
+    if(hasValidDocumentList()) {
+      if(encodedDocuments != null) {
+        WritableUtils.writeVInt(out, encodedSize);
+        WritableUtils.writeVInt(out, encodedDocuments.length);
+        out.write(encodedDocuments);
+      } else {
+        int[] documents = documentList.toArray();
+        Arrays.sort(documents);
+        int length = 0;
+        for(int i = 0; i < documents.length; i++) {
+          length += WritableUtils.getVIntSize(gap(documents, i));
+        }
+        WritableUtils.writeVInt(out, documents.length);
+        WritableUtils.writeVInt(out, length);
+        for(int i = 0; i < documents.length; i++) {
+          WritableUtils.writeVLong(out, gap(documents, i));
+        }
+      }
+    }
+
+    if(hasValidWeight()) {
+      out.writeFloat(weight);
+    }
+  }
+
+  //the first document, or the distance from the previous one
+  private static long gap(int[] documents, int i) {
+    return i == 0 ? documents[0] : (long) documents[i] - documents[i - 1];
+  }
+
+  //decodes the sources/targets read by readCompact, if they haven't been already
+  private IntOpenHashSet documents() {
+    if(encodedDocuments != null) {
+      byte[] bytes = encodedDocuments;
+      encodedDocuments = null;
+
+      int pos = 0;
+      long docno = 0;
+      for(int i = 0; i < encodedSize; i++) {
+        int length = WritableUtils.decodeVIntSize(bytes[pos]);
+        long value = bytes[pos];
+        if(length > 1) {
+          value = 0;
+          for(int j = 1; j < length; j++) {
+            value = (value << 8) | (bytes[pos + j] & 0xff);
+          }
+          if(WritableUtils.isNegativeVInt(bytes[pos])) {
+            value = ~value;
+          }
+        }
+        pos += length;
+        docno = i == 0 ? value : docno + value;
+        documentList.add((int) docno);
+      }
+    }
+    return documentList;
+  }
+
+  /**
+   * Decodes the sources/targets read in the compact format, if they haven't been already, so
+   * that the object can be shared by threads that only read it.
+   */
+  void decode() {
+    documents();
+  }
+
   /**
    * @return the type of this AnchorText
    */
@@ -175,6 +293,7 @@ public class AnchorText implements WritableComparable<AnchorText>,
     }
 
     weight = 0;
+    encodedDocuments = null;
     documentList.clear();
   }
 
@@ -220,7 +339,7 @@ public class AnchorText implements WritableComparable<AnchorText>,
    * @return the cardinality of the set of sources/targets
    */
   public int getSize() {
-    return documentList.size();
+    return encodedDocuments != null ? encodedSize : documentList.size();
   }
 
   /**
@@ -230,7 +349,7 @@ public class AnchorText implements WritableComparable<AnchorText>,
    *         sources/targets of the current object
    */
   public int[] getDocuments() {
-    return documentList.toArray();
+    return documents().toArray();
   }
 
   /**
@@ -242,7 +361,15 @@ public class AnchorText implements WritableComparable<AnchorText>,
     if(!hasValidDocumentList()) {
       return;
     }
-    documentList.add(docno);
+    documents().add(docno);
+  }
+
+  /**
+   * Removes all the sources/targets of this anchor text.
+   */
+  public void clearDocuments() {
+    encodedDocuments = null;
+    documentList.clear();
   }
 
   /**
@@ -256,7 +383,7 @@ public class AnchorText implements WritableComparable<AnchorText>,
       return;
     }
 
-    IntIterator iterator = other.documentList.iterator();
+    IntIterator iterator = other.documents().iterator();
     while(iterator.hasNext()) {
       addDocument(iterator.next());
     }
@@ -272,7 +399,7 @@ public class AnchorText implements WritableComparable<AnchorText>,
     if(!hasValidDocumentList()) {
       return false;
     }
-    return documentList.contains(docno);
+    return documents().contains(docno);
   }
 
   /**
@@ -287,16 +414,16 @@ public class AnchorText implements WritableComparable<AnchorText>,
       return false;
     }
     if(getSize() < other.getSize()) {
-      IntIterator iterator = documentList.iterator();
+      IntIterator iterator = documents().iterator();
       while(iterator.hasNext()) {
         if(other.containsDocument(iterator.next())) {
           return true;
         }
       }
     } else {
-      IntIterator iterator = other.documentList.iterator();
+      IntIterator iterator = other.documents().iterator();
       while(iterator.hasNext()) {
-        if(documentList.contains(iterator.next())) {
+        if(documents().contains(iterator.next())) {
           return true;
         }
       }
@@ -333,10 +460,10 @@ public class AnchorText implements WritableComparable<AnchorText>,
     AnchorText other = (AnchorText) obj;
 
     if(hasValidDocumentList() && other.hasValidDocumentList()) {
-      if(documentList.size() != other.documentList.size()) {
+      if(getSize() != other.getSize()) {
         return false;
       }
-      IntIterator iterator = documentList.iterator();
+      IntIterator iterator = documents().iterator();
       while(iterator.hasNext()) {
         if(!other.containsDocument(iterator.next())) {
           return false;
@@ -400,7 +527,7 @@ public class AnchorText implements WritableComparable<AnchorText>,
       builder.append(", " + text);
     }
     if(hasValidDocumentList()) {
-      builder.append(", " + documentList.toString());
+      builder.append(", " + documents().toString());
     }
     if(hasValidWeight()) {
       builder.append(", w:" + weight);
@@ -532,7 +659,7 @@ public class AnchorText implements WritableComparable<AnchorText>,
    */
   public Iterator<Integer> iterator() {
     return new Iterator<Integer>() {
-      IntIterator iterator = documentList.iterator();
+      IntIterator iterator = documents().iterator();
 
       public boolean hasNext() {
         return iterator.hasNext();
@@ -0,0 +1,109 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.data;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.apache.hadoop.io.WritableUtils;
+
+import edu.umd.cloud9.io.array.ArrayListWritable;
+
+/**
+ * <p>
+ * A list of lines of anchor text with a compact serialized form. Where an
+ * {@link ArrayListWritable} of {@link AnchorText} objects writes the element class name,
+ * a 4-byte count, the text with <code>writeUTF</code> (which is limited to 64KB) and a 4-byte
+ * int for every source/target, this list writes a one byte header and a VInt count, and each
+ * line of anchor text is written with {@link AnchorText#writeCompact(DataOutput)}: the text
+ * as a VInt length followed by its UTF-8 bytes, and the sources/targets sorted and coded as
+ * VInt gaps.
+ * </p>
+ *
+ * <p>
+ * The sources/targets of a line of anchor text are decoded the first time they are used, so
+ * reading a list only for its text, or copying it to the output unchanged, doesn't pay for
+ * decoding them.
+ * </p>
+ *
+ * <p>
+ * Since this class extends {@link ArrayListWritable}, code that reads anchor text collections
+ * through the value class of the SequenceFile works on either format. Existing collections can
+ * be rewritten with {@link edu.umd.cloud9.webgraph.driver.CompactAnchorTextCollection}.
+ * </p>
+ */
+public class AnchorTextList extends ArrayListWritable<AnchorText> {
+  private static final long serialVersionUID = 2812487106349871053L;
+
+  //written ahead of each list, so the format can be changed later
+  private static final byte FORMAT = 1;
+
+  /**
+   * Creates an empty AnchorTextList object.
+   */
+  public AnchorTextList() {
+    super();
+  }
+
+  /**
+   * Creates an AnchorTextList object from an ArrayList.
+   */
+  public AnchorTextList(ArrayList<AnchorText> array) {
+    super(array);
+  }
+
+  /**
+   * Deserializes the list.
+   *
+   * @param in source for raw byte representation
+   */
+  public void readFields(DataInput in) throws IOException {
+    this.clear();
+
+    byte format = in.readByte();
+    if (format != FORMAT) {
+      throw new IOException("Unknown AnchorTextList format: " + format);
+    }
+
+    int size = WritableUtils.readVInt(in);
+    ensureCapacity(size);
+    for (int i = 0; i < size; i++) {
+      AnchorText anchor = new AnchorText();
+      anchor.readCompact(in);
+      add(anchor);
+    }
+  }
+
+  /**
+   * Serializes this list.
+   *
+   * @param out where to write the raw byte representation
+   */
+  public void write(DataOutput out) throws IOException {
+    out.writeByte(FORMAT);
+    WritableUtils.writeVInt(out, size());
+    for (int i = 0; i < size(); i++) {
+      AnchorText anchor = get(i);
+      if (anchor == null) {
+        throw new IOException("Cannot serialize null fields!");
+      }
+      anchor.writeCompact(out);
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.data;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ * Merges lines of anchor text that are equal regardless of their sources/targets (see
+ * {@link AnchorText#equalsIgnoreSources(AnchorText)}) into a list, by way of a hash index over
+ * the lines merged so far. Merging a record costs the same whether the list holds ten lines or a
+ * million, which matters for popular pages with millions of incoming links.
+ * </p>
+ *
+ * <p>
+ * Optionally, the number of sources/targets kept for each line of link anchor text can be capped.
+ * A line over the cap keeps the documents with the smallest hash values, which is a uniform sample
+ * that doesn't depend on the order records arrive in, or on whether they went through a combiner
+ * first. The documents of docno, URL and degree records are never sampled.
+ * </p>
+ *
+ * <p>
+ * A merger is meant to be reused across keys:
+ * </p>
+ *
+ * <pre>
+ * merger.clear();
+ * for (AnchorText data : packet)
+ *   merger.add(data);
+ * merger.finish();
+ * </pre>
+ */
+public class AnchorTextMerger {
+  /**
+   * Configuration key for the maximum number of sources/targets kept for a line of anchor text;
+   * 0, the default, keeps all of them.
+   */
+  public static final String MAX_SOURCES = "Cloud9.MaxAnchorSources";
+
+  public static enum Counters {
+    MERGED,   // records merged into a line of anchor text seen before
+    SAMPLED   // lines of anchor text whose sources/targets were sampled
+  }
+
+  private final List<AnchorText> list;
+  private final int maxSources;
+
+  // open addressing; 1 + the index in list of each line, or 0 for an empty slot
+  private int[] table = new int[64];
+  private boolean[] sampled = new boolean[32];
+
+  private long merged;
+  private long sampledLines;
+
+  /**
+   * Creates a merger that adds lines of anchor text to <code>list</code>.
+   *
+   * @param list List of merged lines of anchor text
+   * @param maxSources Maximum number of sources/targets kept for each line of anchor text,
+   *        or 0 to keep them all
+   */
+  public AnchorTextMerger(List<AnchorText> list, int maxSources) {
+    this.list = list;
+    this.maxSources = maxSources;
+  }
+
+  /**
+   * Clears the list and the index, and resets the counts.
+   */
+  public void clear() {
+    list.clear();
+    // don't carry the index of a very popular page over to every key after it
+    if (table.length > 1024)
+      table = new int[64];
+    else
+      Arrays.fill(table, 0);
+    merged = 0;
+    sampledLines = 0;
+  }
+
+  /**
+   * Merges a line of anchor text into the list, adding a copy of it if there's no equal line.
+   *
+   * @param data Line of anchor text to be merged
+   * @return True if data was merged into a line already in the list
+   */
+  public boolean add(AnchorText data) {
+    int mask = table.length - 1;
+    int slot = hash(data) & mask;
+    while (table[slot] != 0) {
+      int i = table[slot] - 1;
+      AnchorText line = list.get(i);
+      if (line.equalsIgnoreSources(data)) {
+        line.addDocumentsFrom(data);
+        // keeps the line at no more than twice the cap until finish()
+        if (isSampled(line) && line.getSize() > 2 * maxSources) {
+          sample(line);
+          sampled[i] = true;
+        }
+        merged++;
+        return true;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    int i = list.size();
+    list.add(data.clone());
+    table[slot] = i + 1;
+    if (i >= sampled.length)
+      sampled = Arrays.copyOf(sampled, sampled.length * 2);
+    sampled[i] = false;
+    if (2 * list.size() > table.length)
+      rehash();
+    return false;
+  }
+
+  /**
+   * Caps the lines of anchor text that are over the maximum number of sources/targets.
+   */
+  public void finish() {
+    for (int i = 0; i < list.size(); i++) {
+      AnchorText line = list.get(i);
+      if (isSampled(line) && line.getSize() > maxSources) {
+        sample(line);
+        sampled[i] = true;
+      }
+      if (sampled[i])
+        sampledLines++;
+    }
+  }
+
+  /**
+   * @return the number of records merged into a line seen before, since the last clear
+   */
+  public long getMerged() {
+    return merged;
+  }
+
+  /**
+   * @return the number of lines sampled by the last finish
+   */
+  public long getSampled() {
+    return sampledLines;
+  }
+
+  private boolean isSampled(AnchorText line) {
+    return maxSources > 0 && (line.isExternalInLink() || line.isInternalInLink() ||
+        line.isExternalOutLink() || line.isInternalOutLink());
+  }
+
+  // Keeps the maxSources documents with the smallest hash values.
+  private void sample(AnchorText line) {
+    int[] docs = line.getDocuments();
+    long[] keys = new long[docs.length];
+    for (int i = 0; i < docs.length; i++)
+      keys[i] = ((long) mix(docs[i]) << 32) | (docs[i] & 0xffffffffL);
+    Arrays.sort(keys);
+    line.clearDocuments();
+    for (int i = 0; i < maxSources; i++)
+      line.addDocument((int) keys[i]);
+  }
+
+  private void rehash() {
+    table = new int[table.length * 2];
+    int mask = table.length - 1;
+    for (int i = 0; i < list.size(); i++) {
+      int slot = hash(list.get(i)) & mask;
+      while (table[slot] != 0)
+        slot = (slot + 1) & mask;
+      table[slot] = i + 1;
+    }
+  }
+
+  // consistent with equalsIgnoreSources: the weight is 0 unless the line is weighted
+  private static int hash(AnchorText data) {
+    float weight = data.getWeight();
+    return mix(data.hashCode() * 31 + (weight == 0 ? 0 : Float.floatToIntBits(weight)));
+  }
+
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+}
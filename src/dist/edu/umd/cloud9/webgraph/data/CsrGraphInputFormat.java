@@ -0,0 +1,182 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.data;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import edu.umd.cloud9.io.array.ArrayListOfIntsWritable;
+
+/**
+ * <p>
+ * Reads the nodes of graphs written by {@link CsrGraphWriter}, with their neighbors, including
+ * the nodes without neighbors. Files are split by bytes: a split reads the nodes whose neighbor
+ * lists start in it.
+ * </p>
+ */
+public class CsrGraphInputFormat extends FileInputFormat<IntWritable, ArrayListOfIntsWritable> {
+
+  @Override
+  public RecordReader<IntWritable, ArrayListOfIntsWritable> createRecordReader(InputSplit split,
+      TaskAttemptContext context) throws IOException, InterruptedException {
+    return new CsrGraphRecordReader();
+  }
+
+  public static class CsrGraphRecordReader extends RecordReader<IntWritable, ArrayListOfIntsWritable> {
+    private final IntWritable key = new IntWritable();
+    private final ArrayListOfIntsWritable value = new ArrayListOfIntsWritable();
+
+    private FSDataInputStream offsetsFile;
+    private FSDataInputStream neighborsFile;
+    private DataInputStream offsets;
+    private DataInputStream neighbors;
+
+    private boolean gaps;
+    private int firstNode;
+    private long neighborsStart;
+
+    private long start;
+    private long end;
+    private boolean lastSplit;
+
+    // next node to read, one past the last node to read, and where its neighbor list starts
+    private int node;
+    private int endNode;
+    private long offset;
+
+    @Override
+    public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException,
+        InterruptedException {
+      FileSplit split = (FileSplit) genericSplit;
+      Path path = split.getPath();
+      FileSystem fs = path.getFileSystem(context.getConfiguration());
+      long fileLength = fs.getFileStatus(path).getLen();
+
+      offsetsFile = fs.open(path);
+      if (offsetsFile.readInt() != CsrGraphWriter.MAGIC
+          || offsetsFile.readInt() != CsrGraphWriter.VERSION) {
+        throw new IOException("Not a graph file: " + path);
+      }
+      gaps = (offsetsFile.readInt() & CsrGraphWriter.GAPS) != 0;
+      firstNode = offsetsFile.readInt();
+      int numNodes = offsetsFile.readInt();
+      neighborsStart = CsrGraphWriter.HEADER_SIZE + 8L * (numNodes + 1);
+
+      start = split.getStart();
+      end = start + split.getLength();
+      lastSplit = end >= fileLength;
+
+      // first and last node whose neighbor lists start in this split
+      node = findNode(start, numNodes);
+      endNode = lastSplit ? numNodes : findNode(end, numNodes);
+
+      offsetsFile.seek(CsrGraphWriter.HEADER_SIZE + 8L * node);
+      offsets = new DataInputStream(new BufferedInputStream(offsetsFile, 1 << 16));
+      offset = offsets.readLong();
+
+      neighborsFile = fs.open(path);
+      neighborsFile.seek(neighborsStart + offset);
+      neighbors = new DataInputStream(new BufferedInputStream(neighborsFile, 1 << 16));
+    }
+
+    // returns the first node whose neighbor list starts at or after pos, or numNodes
+    private int findNode(long pos, int numNodes) throws IOException {
+      int low = 0;
+      int high = numNodes;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        offsetsFile.seek(CsrGraphWriter.HEADER_SIZE + 8L * mid);
+        if (neighborsStart + offsetsFile.readLong() < pos) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException, InterruptedException {
+      if (node >= endNode) {
+        return false;
+      }
+
+      long nextOffset = offsets.readLong();
+      key.set(firstNode + node);
+      // keeps the array, which clear() doesn't
+      value.setSize(0);
+
+      if (gaps) {
+        if (nextOffset > offset) {
+          int n = CsrGraphWriter.readVInt(neighbors);
+          int last = 0;
+          for (int i = 0; i < n; i++) {
+            last += CsrGraphWriter.readVInt(neighbors);
+            value.add(last);
+          }
+        }
+      } else {
+        for (long i = offset; i < nextOffset; i += 4) {
+          value.add(neighbors.readInt());
+        }
+      }
+
+      offset = nextOffset;
+      node++;
+      return true;
+    }
+
+    @Override
+    public IntWritable getCurrentKey() throws IOException, InterruptedException {
+      return key;
+    }
+
+    @Override
+    public ArrayListOfIntsWritable getCurrentValue() throws IOException, InterruptedException {
+      return value;
+    }
+
+    @Override
+    public float getProgress() throws IOException, InterruptedException {
+      if (end == start) {
+        return 1.0f;
+      }
+      return Math.min(1.0f, Math.max(0, neighborsStart + offset - start) / (float) (end - start));
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (offsets != null) {
+        offsets.close();
+      }
+      if (neighbors != null) {
+        neighbors.close();
+      }
+    }
+  }
+}
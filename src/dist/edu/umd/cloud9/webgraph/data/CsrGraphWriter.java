@@ -0,0 +1,197 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.data;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Writes a graph in compressed sparse row (CSR) form, to be read by {@link MappedCsrGraph} or
+ * {@link CsrGraphInputFormat}. The file is laid out as follows (big-endian):
+ * </p>
+ *
+ * <ul>
+ * <li>a header: the int {@link #MAGIC}, the int {@link #VERSION}, an int of flags
+ * ({@link #GAPS} if the neighbor lists are gap coded), the first node id, the number of nodes
+ * <code>n</code> and the long number of edges</li>
+ * <li><code>n + 1</code> longs: where the neighbor list of each node starts, in bytes from the
+ * start of the neighbor lists, followed by their total length</li>
+ * <li>the neighbor lists: either ints, or, if gap coded, the number of neighbors followed by the
+ * first neighbor and the differences between consecutive neighbors, all as varints (seven bits
+ * per byte, low bits first, high bit set on all bytes but the last)</li>
+ * </ul>
+ *
+ * <p>
+ * Nodes must be added in increasing order; the nodes skipped between two added nodes get empty
+ * neighbor lists. Gap coded neighbor lists must be sorted. The offsets and the neighbor lists are
+ * written to temporary files next to the output until the writer is closed.
+ * </p>
+ */
+public class CsrGraphWriter {
+  public static final int MAGIC = 0x43535247;
+  public static final int VERSION = 1;
+
+  /**
+   * Flag set when the neighbor lists are gap coded.
+   */
+  public static final int GAPS = 1;
+
+  /**
+   * Size in bytes of the header.
+   */
+  public static final int HEADER_SIZE = 28;
+
+  private final FileSystem fs;
+  private final Path path;
+  private final Path offsetsPath;
+  private final Path neighborsPath;
+  private final boolean gaps;
+
+  private final DataOutputStream offsets;
+  private final DataOutputStream neighbors;
+
+  private boolean empty = true;
+  private int firstNode;
+  private int nextNode;
+  private long numEdges;
+  // bytes of neighbor lists written so far (DataOutputStream.size() is an int)
+  private long length;
+
+  /**
+   * @param path path of the graph file
+   * @param fs appropriate FileSystem
+   * @param gaps whether to gap code the neighbor lists
+   * @throws IOException
+   */
+  public CsrGraphWriter(Path path, FileSystem fs, boolean gaps) throws IOException {
+    this.fs = Preconditions.checkNotNull(fs);
+    this.path = Preconditions.checkNotNull(path);
+    this.gaps = gaps;
+
+    offsetsPath = new Path(path + ".offsets.tmp");
+    neighborsPath = new Path(path + ".neighbors.tmp");
+    offsets = fs.create(offsetsPath, true);
+    neighbors = fs.create(neighborsPath, true);
+  }
+
+  /**
+   * Adds the neighbors of a node.
+   *
+   * @param node the node, greater than the nodes added so far
+   * @param list the neighbors of the node, sorted if the graph is gap coded
+   * @param n number of neighbors in <code>list</code>
+   * @throws IOException
+   */
+  public void add(int node, int[] list, int n) throws IOException {
+    if (empty) {
+      firstNode = nextNode = node;
+      empty = false;
+    }
+    Preconditions.checkArgument(node >= nextNode, "nodes must be added in increasing order");
+
+    // nodes without neighbors
+    for (; nextNode < node; nextNode++) {
+      offsets.writeLong(length);
+    }
+    offsets.writeLong(length);
+    nextNode++;
+
+    if (gaps) {
+      length += writeVInt(neighbors, n);
+      for (int i = 0; i < n; i++) {
+        Preconditions.checkArgument(i == 0 || list[i] >= list[i - 1], "neighbor lists must be sorted");
+        length += writeVInt(neighbors, i == 0 ? list[i] : list[i] - list[i - 1]);
+      }
+    } else {
+      for (int i = 0; i < n; i++) {
+        neighbors.writeInt(list[i]);
+      }
+      length += 4L * n;
+    }
+    numEdges += n;
+  }
+
+  /**
+   * Writes the graph and removes the temporary files.
+   *
+   * @throws IOException
+   */
+  public void close() throws IOException {
+    offsets.close();
+    neighbors.close();
+
+    FSDataOutputStream out = fs.create(path, true);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(gaps ? GAPS : 0);
+    out.writeInt(firstNode);
+    out.writeInt(nextNode - firstNode);
+    out.writeLong(numEdges);
+    copy(fs.open(offsetsPath), out);
+    out.writeLong(length);
+    copy(fs.open(neighborsPath), out);
+    out.close();
+
+    fs.delete(offsetsPath, true);
+    fs.delete(neighborsPath, true);
+  }
+
+  private static void copy(FSDataInputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[1 << 16];
+    int n;
+    while ((n = in.read(buffer)) > 0) {
+      out.write(buffer, 0, n);
+    }
+    in.close();
+  }
+
+  // returns the number of bytes written
+  static int writeVInt(DataOutputStream out, int value) throws IOException {
+    int bytes = 1;
+    while ((value & ~0x7f) != 0) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+      bytes++;
+    }
+    out.write(value);
+    return bytes;
+  }
+
+  static int readVInt(InputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0;; shift += 7) {
+      int b = in.read();
+      if (b < 0) {
+        throw new IOException("Unexpected end of neighbor list");
+      }
+      value |= (b & 0x7f) << shift;
+      if (b < 0x80) {
+        return value;
+      }
+    }
+  }
+}
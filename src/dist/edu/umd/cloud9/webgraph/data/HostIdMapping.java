@@ -0,0 +1,142 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Maps docnos to the ids of their hosts. Host ids are dense, and are the positions of the
+ * hostnames in the dictionary written by {@link edu.umd.cloud9.webgraph.BuildHostGraph}, so
+ * two documents are on the same host exactly when they have the same host id.
+ * </p>
+ *
+ * <p>
+ * The mapping is stored as the number of docnos <code>n</code>, followed by <code>n</code>
+ * ints: the host id of each docno from 0 to <code>n - 1</code>, or {@link #NO_HOST} for docnos
+ * without a (valid) URL. It takes four bytes per document in memory.
+ * </p>
+ */
+public class HostIdMapping {
+  /**
+   * Host id of the documents that don't have one.
+   */
+  public static final int NO_HOST = -1;
+
+  //number of ints read or written at a time
+  private static final int BUFFER_SIZE = 1 << 14;
+
+  private int[] hostIds;
+
+  /**
+   * Creates an empty mapping.
+   */
+  public HostIdMapping() {
+    hostIds = new int[0];
+  }
+
+  /**
+   * Creates a mapping from an array of host ids, indexed by docno.
+   */
+  public HostIdMapping(int[] hostIds) {
+    this.hostIds = Preconditions.checkNotNull(hostIds);
+  }
+
+  /**
+   * Loads a mapping written by {@link #writeMapping(Path, FileSystem)}.
+   *
+   * @param p path to the mapping file
+   * @param fs appropriate FileSystem
+   * @throws IOException
+   */
+  public void loadMapping(Path p, FileSystem fs) throws IOException {
+    Preconditions.checkNotNull(p);
+    Preconditions.checkNotNull(fs);
+
+    FSDataInputStream in = fs.open(p);
+    hostIds = new int[in.readInt()];
+
+    byte[] bytes = new byte[BUFFER_SIZE * 4];
+    IntBuffer buffer = ByteBuffer.wrap(bytes).asIntBuffer();
+    for(int i = 0; i < hostIds.length; i += BUFFER_SIZE) {
+      int length = Math.min(BUFFER_SIZE, hostIds.length - i);
+      in.readFully(bytes, 0, length * 4);
+      buffer.rewind();
+      buffer.get(hostIds, i, length);
+    }
+    in.close();
+  }
+
+  /**
+   * Writes this mapping to a file.
+   *
+   * @param p path to the mapping file
+   * @param fs appropriate FileSystem
+   * @throws IOException
+   */
+  public void writeMapping(Path p, FileSystem fs) throws IOException {
+    Preconditions.checkNotNull(p);
+    Preconditions.checkNotNull(fs);
+
+    FSDataOutputStream out = fs.create(p, true);
+    out.writeInt(hostIds.length);
+
+    byte[] bytes = new byte[BUFFER_SIZE * 4];
+    IntBuffer buffer = ByteBuffer.wrap(bytes).asIntBuffer();
+    for(int i = 0; i < hostIds.length; i += BUFFER_SIZE) {
+      int length = Math.min(BUFFER_SIZE, hostIds.length - i);
+      buffer.rewind();
+      buffer.put(hostIds, i, length);
+      out.write(bytes, 0, length * 4);
+    }
+    out.close();
+  }
+
+  /**
+   * Returns the host id of a document, or {@link #NO_HOST} if it doesn't have one.
+   */
+  public int getHostId(int docno) {
+    if(docno < 0 || docno >= hostIds.length) {
+      return NO_HOST;
+    }
+    return hostIds[docno];
+  }
+
+  /**
+   * Returns true if two documents are known to be on the same host.
+   */
+  public boolean sameHost(int docno1, int docno2) {
+    int host = getHostId(docno1);
+    return host != NO_HOST && host == getHostId(docno2);
+  }
+
+  /**
+   * Returns the number of docnos in this mapping.
+   */
+  public int size() {
+    return hostIds.length;
+  }
+}
@@ -18,7 +18,13 @@ package edu.umd.cloud9.webgraph.data;
 
 import java.io.IOException;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
@@ -26,15 +32,42 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
 
 import edu.umd.cloud9.collection.DocnoMapping;
 import edu.umd.cloud9.collection.DocumentForwardIndex;
 import edu.umd.cloud9.io.array.ArrayListWritable;
 
+/**
+ * <p>
+ * Forward index for an anchor text collection, built by
+ * {@link edu.umd.cloud9.webgraph.driver.BuildAnchorTextForwardIndex}. The index can be shared
+ * by threads: the readers of each part file are pooled rather than opened for every lookup, and
+ * the lines of anchor text of recently fetched documents are kept, decoded, in an LRU cache
+ * bounded by an estimate of their size in memory.
+ * </p>
+ *
+ * <p>
+ * Several documents can be fetched at once with {@link #getAnchors(int[])}, which reads the
+ * documents of each part file in order, with a single reader.
+ * </p>
+ *
+ * <p>
+ * The index may have updates appended to it (see
+ * {@link edu.umd.cloud9.webgraph.driver.BuildAnchorTextForwardIndex}): collections holding the
+ * new records of some documents, which are looked up first, newest first. The index holds the
+ * docnos of each update, so that a lookup only reads the updates that have the document.
+ * </p>
+ */
 public class IndexableAnchorTextForwardIndex implements DocumentForwardIndex<IndexableAnchorText> {
-	
-	private static final IndexableAnchorText indexableAnchorText = new IndexableAnchorText();
-	private static final DecimalFormat df = new DecimalFormat("00000");
+
+	public static final long DEFAULT_CACHE_BYTES = 256L * 1024 * 1024;
+	public static final int DEFAULT_READERS_PER_FILE = 4;
 
 	private Configuration conf;
 	private FileSystem fs;
@@ -42,37 +75,129 @@ public class IndexableAnchorTextForwardIndex implements DocumentForwardIndex<Ind
 	private int[] docnos;
 	private int[] offsets;
 	private short[] filenos;
+	//the blocks of the i-th layer are layerStarts[i] to layerStarts[i + 1]; the first layer is
+	//the collection, and the others the updates to it, newest last
+	private int[] layerStarts;
+	//the sorted docnos held by each update; null for the collection
+	private int[][] layerMembers;
 	private String collectionPath;
+	private Path[] files;
 
 	private DocnoMapping docnoMapping;
 
+	private final long cacheBytes;
+	private final int readersPerFile;
+
+	//idle readers of each part file
+	private List<Queue<SequenceFile.Reader>> readers;
+	private final AtomicLong openedReaders = new AtomicLong();
+	private Cache<Integer, ArrayListWritable<AnchorText>> cache;
+
 	public IndexableAnchorTextForwardIndex(DocnoMapping docnoMapping) {
-		this.docnoMapping = docnoMapping; 
+		this(docnoMapping, DEFAULT_CACHE_BYTES, DEFAULT_READERS_PER_FILE);
+	}
+
+	/**
+	 * @param docnoMapping docno mapping of the collection
+	 * @param cacheBytes about how many bytes the cached lines of anchor text may take
+	 * @param readersPerFile how many idle readers are kept open for each part file
+	 */
+	public IndexableAnchorTextForwardIndex(DocnoMapping docnoMapping, long cacheBytes, int readersPerFile) {
+		this.docnoMapping = docnoMapping;
+		this.cacheBytes = cacheBytes;
+		this.readersPerFile = readersPerFile;
 	}
 
 	@Override
 	public void loadIndex(Path index, Path mapping, FileSystem fs) throws IOException {
+		this.fs = fs;
+		this.conf = fs.getConf();
+
 		docnoMapping.loadMapping(mapping, fs);
 
+		long length = fs.getFileStatus(index).getLen();
 		FSDataInputStream in = fs.open(index);
 
 		// class name; throw away
 		in.readUTF();
-		collectionPath = in.readUTF();
 
-		int blocks = in.readInt();
+		// the collection, followed by the updates appended to the index, if any
+		List<String> collections = new ArrayList<String>();
+		List<int[]> layerDocnos = new ArrayList<int[]>();
+		List<int[]> layerOffsets = new ArrayList<int[]>();
+		List<short[]> layerFilenos = new ArrayList<short[]>();
+		List<int[]> members = new ArrayList<int[]>();
+		int totalBlocks = 0;
+		do {
+			collections.add(in.readUTF());
+
+			int blocks = in.readInt();
+			int[] d = new int[blocks];
+			int[] o = new int[blocks];
+			short[] f = new short[blocks];
+			for (int i = 0; i < blocks; i++) {
+				d[i] = in.readInt();
+				o[i] = in.readInt();
+				f[i] = in.readShort();
+			}
 
-		docnos = new int[blocks];
-		offsets = new int[blocks];
-		filenos = new short[blocks];
+			// an update is followed by its docnos
+			int[] m = null;
+			if (!layerDocnos.isEmpty()) {
+				m = new int[in.readInt()];
+				for (int i = 0; i < m.length; i++)
+					m[i] = in.readInt();
+			}
 
-		for (int i = 0; i < blocks; i++) {
-			docnos[i] = in.readInt();
-			offsets[i] = in.readInt();
-			filenos[i] = in.readShort();
-		}
+			layerDocnos.add(d);
+			layerOffsets.add(o);
+			layerFilenos.add(f);
+			members.add(m);
+			totalBlocks += blocks;
+		} while (in.getPos() < length);
 
 		in.close();
+
+		collectionPath = collections.get(0);
+		docnos = new int[totalBlocks];
+		offsets = new int[totalBlocks];
+		filenos = new short[totalBlocks];
+		layerStarts = new int[collections.size() + 1];
+		layerMembers = members.toArray(new int[members.size()][]);
+
+		DecimalFormat df = new DecimalFormat("00000");
+		List<Path> paths = new ArrayList<Path>();
+		for (int layer = 0; layer < collections.size(); layer++) {
+			int start = layerStarts[layer];
+			int[] d = layerDocnos.get(layer);
+			int numFiles = 0;
+			for (int i = 0; i < d.length; i++) {
+				docnos[start + i] = d[i];
+				offsets[start + i] = layerOffsets.get(layer)[i];
+				// numbered across the part files of all the layers
+				filenos[start + i] = (short) (paths.size() + layerFilenos.get(layer)[i]);
+				numFiles = Math.max(numFiles, layerFilenos.get(layer)[i] + 1);
+			}
+			layerStarts[layer + 1] = start + d.length;
+
+			for (int i = 0; i < numFiles; i++)
+				paths.add(new Path(collections.get(layer) + "/part-" + df.format(i)));
+		}
+
+		files = paths.toArray(new Path[paths.size()]);
+		readers = new ArrayList<Queue<SequenceFile.Reader>>(files.length);
+		for (int i = 0; i < files.length; i++)
+			readers.add(new ConcurrentLinkedQueue<SequenceFile.Reader>());
+
+		cache = CacheBuilder.newBuilder()
+			.maximumWeight(cacheBytes)
+			.weigher(new Weigher<Integer, ArrayListWritable<AnchorText>>() {
+				public int weigh(Integer docno, ArrayListWritable<AnchorText> anchors) {
+					return estimateSize(anchors);
+				}
+			})
+			.recordStats()
+			.build();
 	}
 
 	public String getCollectionPath() {
@@ -80,42 +205,222 @@ public class IndexableAnchorTextForwardIndex implements DocumentForwardIndex<Ind
 	}
 
 	public IndexableAnchorText getDocument(int docno) {
-		int idx = Arrays.binarySearch(docnos, docno);
+		try {
+			ArrayListWritable<AnchorText> anchors = getAnchors(docno);
+			if (anchors == null)
+				return null;
 
-		if (idx < 0)
-			idx = -idx - 2;
+			IndexableAnchorText indexableAnchorText = new IndexableAnchorText();
+			indexableAnchorText.createHTML(anchors);
+			return indexableAnchorText;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 
-		DecimalFormat df = new DecimalFormat("00000");
-		String file = collectionPath + "/part-" + df.format(filenos[idx]);
-		
-		try {
+		return null;
+	}
 
-			SequenceFile.Reader reader = new SequenceFile.Reader(fs, new Path(file), conf);
+	public IndexableAnchorText getDocument(String docid) {
+		return getDocument(docnoMapping.getDocno(docid));
+	}
 
-			IntWritable key = new IntWritable();
-			ArrayListWritable<AnchorText> value = new ArrayListWritable<AnchorText>();
+	/**
+	 * Returns the lines of anchor text of a document, or null if the document is not in the
+	 * collection. The list may be shared with other threads, and must not be modified.
+	 */
+	public ArrayListWritable<AnchorText> getAnchors(int docno) throws IOException {
+		return getAnchors(new int[] { docno }).get(0);
+	}
 
-			reader.seek(offsets[idx]);
+	/**
+	 * Returns the lines of anchor text of several documents, in the order of
+	 * <code>docnos</code>, with null for the documents that are not in the collection. The
+	 * documents that aren't cached are grouped by part file, and read in order with one reader
+	 * per file, seeking only when they are in different blocks. The lists may be shared with
+	 * other threads, and must not be modified.
+	 */
+	public List<ArrayListWritable<AnchorText>> getAnchors(int[] docnos) throws IOException {
+		List<ArrayListWritable<AnchorText>> results = new ArrayList<ArrayListWritable<AnchorText>>(docnos.length);
+
+		List<Integer> misses = new ArrayList<Integer>();
+		for (int i = 0; i < docnos.length; i++) {
+			results.add(cache.getIfPresent(docnos[i]));
+			if (results.get(i) == null)
+				misses.add(i);
+		}
+
+		// an update holds the whole record of the documents it has, so the newest one wins
+		for (int layer = layerStarts.length - 2; layer >= 0 && !misses.isEmpty(); layer--) {
+			readAnchors(layer, docnos, misses, results);
 
-			while (reader.next(key)) {
-				if (key.get() == docno)
-					break;
+			List<Integer> left = new ArrayList<Integer>();
+			for (int i : misses) {
+				if (results.get(i) == null)
+					left.add(i);
 			}
+			misses = left;
+		}
+
+		return results;
+	}
 
-			reader.getCurrentValue(value);
+	//reads the documents docnos[i] of a layer, for i in misses, into results
+	private void readAnchors(int layer, final int[] docnos, List<Integer> misses,
+			List<ArrayListWritable<AnchorText>> results) throws IOException {
+		final int[] blocks = new int[docnos.length];
+
+		List<Integer> found = new ArrayList<Integer>();
+		for (int i : misses) {
+			blocks[i] = findBlock(layer, docnos[i]);
+			if (blocks[i] >= 0)
+				found.add(i);
+		}
+
+		Integer[] order = found.toArray(new Integer[found.size()]);
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if (filenos[blocks[a]] != filenos[blocks[b]])
+					return filenos[blocks[a]] < filenos[blocks[b]] ? -1 : 1;
+				return docnos[a] < docnos[b] ? -1 : (docnos[a] == docnos[b] ? 0 : 1);
+			}
+		});
+
+		IntWritable key = new IntWritable();
+		int j = 0;
+		while (j < order.length) {
+			int fileno = filenos[blocks[order[j]]];
+			SequenceFile.Reader reader = borrowReader(fileno);
+
+			try {
+				int currentBlock = -1;
+				//whether the value of the last key read is still to be read
+				boolean pending = false;
+
+				for (; j < order.length && filenos[blocks[order[j]]] == fileno; j++) {
+					int i = order[j];
+					if (j > 0 && docnos[order[j - 1]] == docnos[i]) {
+						results.set(i, results.get(order[j - 1]));
+						continue;
+					}
+
+					if (blocks[i] != currentBlock) {
+						reader.seek(offsets[blocks[i]]);
+						currentBlock = blocks[i];
+						pending = false;
+					}
+
+					if (!pending || key.get() < docnos[i]) {
+						pending = false;
+						while (reader.next(key)) {
+							if (key.get() >= docnos[i]) {
+								pending = true;
+								break;
+							}
+						}
+					}
+
+					if (pending && key.get() == docnos[i]) {
+						results.set(i, readValue(reader));
+						cache.put(docnos[i], results.get(i));
+						pending = false;
+					}
+				}
+			} catch (IOException e) {
+				reader.close();
+				throw e;
+			}
+
+			returnReader(fileno, reader);
+		}
+	}
+
+	//returns the block of a layer a document would be in, or -1 if it comes before the first
+	//block of the layer, or the layer is an update that doesn't have it
+	private int findBlock(int layer, int docno) {
+		if (layerMembers[layer] != null && Arrays.binarySearch(layerMembers[layer], docno) < 0)
+			return -1;
+
+		int from = layerStarts[layer];
+		int idx = Arrays.binarySearch(docnos, from, layerStarts[layer + 1], docno);
+
+		if (idx < 0)
+			idx = -idx - 2;
+
+		return idx >= from ? idx : -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	private ArrayListWritable<AnchorText> readValue(SequenceFile.Reader reader) throws IOException {
+		// either an ArrayListWritable or an AnchorTextList
+		ArrayListWritable<AnchorText> value = (ArrayListWritable<AnchorText>)
+			ReflectionUtils.newInstance(reader.getValueClass(), conf);
+		reader.getCurrentValue(value);
+
+		// the list is going to be shared, so nothing may be left to decode lazily
+		for (AnchorText anchor : value)
+			anchor.decode();
+		return value;
+	}
+
+	private SequenceFile.Reader borrowReader(int fileno) throws IOException {
+		SequenceFile.Reader reader = readers.get(fileno).poll();
+		if (reader == null) {
+			reader = new SequenceFile.Reader(fs, files[fileno], conf);
+			openedReaders.incrementAndGet();
+		}
+		return reader;
+	}
+
+	private void returnReader(int fileno, SequenceFile.Reader reader) throws IOException {
+		// the pools are small, so size() doesn't cost much
+		Queue<SequenceFile.Reader> pool = readers.get(fileno);
+		if (pool.size() < readersPerFile)
+			pool.offer(reader);
+		else
 			reader.close();
-			
-			indexableAnchorText.createHTML(value);
-			return indexableAnchorText;
-		} catch (IOException e) {
-			e.printStackTrace();
+	}
+
+	//rough size in memory of a list of anchor text: the text, and the sets of sources/targets
+	private static int estimateSize(ArrayListWritable<AnchorText> anchors) {
+		long size = 64;
+		for (AnchorText anchor : anchors) {
+			size += 64 + 8L * anchor.getSize();
+			if (anchor.getText() != null)
+				size += 2L * anchor.getText().length();
 		}
+		return (int) Math.min(size, Integer.MAX_VALUE);
+	}
 
-		return null;
+	/**
+	 * Returns the statistics of the cache of lines of anchor text.
+	 */
+	public CacheStats getCacheStats() {
+		return cache.stats();
 	}
 
-	public IndexableAnchorText getDocument(String docid) {
-		return getDocument(docnoMapping.getDocno(docid));
+	/**
+	 * Returns the number of documents in the cache.
+	 */
+	public long getCacheSize() {
+		return cache.size();
+	}
+
+	/**
+	 * Returns the number of readers opened so far.
+	 */
+	public long getOpenedReaders() {
+		return openedReaders.get();
+	}
+
+	/**
+	 * Closes the idle readers.
+	 */
+	public void close() throws IOException {
+		for (Queue<SequenceFile.Reader> pool : readers) {
+			SequenceFile.Reader reader;
+			while ((reader = pool.poll()) != null)
+				reader.close();
+		}
 	}
 
 	public int getDocno(String docid) {
@@ -127,30 +432,39 @@ public class IndexableAnchorTextForwardIndex implements DocumentForwardIndex<Ind
 	}
 
 	public int getFirstDocno() {
-		return docnos[0];
+		int first = Integer.MAX_VALUE;
+		for (int layer = 0; layer < layerStarts.length - 1; layer++) {
+			if (layerStarts[layer] < layerStarts[layer + 1])
+				first = Math.min(first, docnos[layerStarts[layer]]);
+		}
+		return first;
 	}
 
-	private int mLastDocno = -1;
+	private volatile int mLastDocno = -1;
 
 	public int getLastDocno() {
 		if (mLastDocno != -1)
 			return mLastDocno;
 
-		// find the last entry, and then see all the way to the end of the
+		// find the last entry of each layer, and then see all the way to the end of its
 		// collection
-		int idx = docnos.length - 1;
-
-		String file = collectionPath + "/part-" + df.format(filenos[idx]);
-
+		int last = -1;
 		try {
-			SequenceFile.Reader reader = new SequenceFile.Reader(fs, new Path(file), conf);
 			IntWritable key = new IntWritable();
-
-			reader.seek(offsets[idx]);
-
-			while (reader.next(key))
-				;
-			mLastDocno = key.get();
+			for (int layer = 0; layer < layerStarts.length - 1; layer++) {
+				int idx = layerStarts[layer + 1] - 1;
+				if (idx < layerStarts[layer])
+					continue;
+
+				SequenceFile.Reader reader = borrowReader(filenos[idx]);
+				reader.seek(offsets[idx]);
+
+				while (reader.next(key))
+					;
+				last = Math.max(last, key.get());
+				returnReader(filenos[idx], reader);
+			}
+			mLastDocno = last;
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -0,0 +1,248 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * A graph written by {@link CsrGraphWriter}, memory-mapped from a local file. Files larger than
+ * 2GB are mapped in several pieces. Neighbors are read with a {@link Cursor}, which can be reused
+ * for any number of nodes:
+ * </p>
+ *
+ * <pre>
+ * MappedCsrGraph graph = new MappedCsrGraph(new File(&quot;graph.csr&quot;));
+ * MappedCsrGraph.Cursor cursor = graph.cursor();
+ * cursor.reset(node);
+ * while (cursor.hasNext()) {
+ *   int neighbor = cursor.next();
+ *   ...
+ * }
+ * </pre>
+ *
+ * <p>
+ * The graph can be read by several threads, each with its own cursors.
+ * </p>
+ */
+public class MappedCsrGraph {
+  private static final int SEGMENT_BITS = 30;
+  private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+  // each piece also maps the first bytes of the next, so that no value straddles two pieces
+  private static final int OVERLAP = 16;
+
+  private final MappedByteBuffer[] segments;
+
+  private final boolean gaps;
+  private final int firstNode;
+  private final int numNodes;
+  private final long numEdges;
+  private final long neighborsStart;
+
+  /**
+   * Maps a graph file.
+   *
+   * @param file the graph file
+   * @throws IOException
+   */
+  public MappedCsrGraph(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      if (size < CsrGraphWriter.HEADER_SIZE) {
+        throw new IOException("Not a graph file: " + file);
+      }
+
+      segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+      for (int i = 0; i < segments.length; i++) {
+        long start = (long) i << SEGMENT_BITS;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+            Math.min(SEGMENT_MASK + 1 + OVERLAP, size - start));
+      }
+    } finally {
+      raf.close();
+    }
+
+    if (getInt(0) != CsrGraphWriter.MAGIC || getInt(4) != CsrGraphWriter.VERSION) {
+      throw new IOException("Not a graph file: " + file);
+    }
+    gaps = (getInt(8) & CsrGraphWriter.GAPS) != 0;
+    firstNode = getInt(12);
+    numNodes = getInt(16);
+    numEdges = getLong(20);
+    neighborsStart = CsrGraphWriter.HEADER_SIZE + 8L * (numNodes + 1);
+  }
+
+  private byte get(long pos) {
+    return segments[(int) (pos >>> SEGMENT_BITS)].get((int) (pos & SEGMENT_MASK));
+  }
+
+  private int getInt(long pos) {
+    return segments[(int) (pos >>> SEGMENT_BITS)].getInt((int) (pos & SEGMENT_MASK));
+  }
+
+  private long getLong(long pos) {
+    return segments[(int) (pos >>> SEGMENT_BITS)].getLong((int) (pos & SEGMENT_MASK));
+  }
+
+  /**
+   * Returns the first node of the graph.
+   */
+  public int getFirstNode() {
+    return firstNode;
+  }
+
+  /**
+   * Returns the number of nodes of the graph, including those without neighbors.
+   */
+  public int getNumNodes() {
+    return numNodes;
+  }
+
+  /**
+   * Returns the number of edges of the graph.
+   */
+  public long getNumEdges() {
+    return numEdges;
+  }
+
+  /**
+   * Returns true if the neighbor lists are gap coded.
+   */
+  public boolean isGapCoded() {
+    return gaps;
+  }
+
+  /**
+   * Returns true if a node is in the graph.
+   */
+  public boolean contains(int node) {
+    return node >= firstNode && node - firstNode < numNodes;
+  }
+
+  // not Preconditions.checkArgument, which would box the node on every call
+  private void checkNode(int node) {
+    if (!contains(node)) {
+      throw new IllegalArgumentException("node not in graph: " + node);
+    }
+  }
+
+  // start of the neighbor list of the i-th node
+  private long offset(int i) {
+    return neighborsStart + getLong(CsrGraphWriter.HEADER_SIZE + 8L * i);
+  }
+
+  /**
+   * Returns the number of neighbors of a node.
+   */
+  public int getDegree(int node) {
+    checkNode(node);
+
+    int i = node - firstNode;
+    long start = offset(i);
+    if (!gaps) {
+      return (int) ((offset(i + 1) - start) >>> 2);
+    }
+    return start == offset(i + 1) ? 0 : readVInt(start, null);
+  }
+
+  // reads a varint; stores the position after it in end[0] if end isn't null
+  private int readVInt(long pos, long[] end) {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = get(pos++);
+      value |= (b & 0x7f) << shift;
+      shift += 7;
+    } while (b < 0);
+
+    if (end != null) {
+      end[0] = pos;
+    }
+    return value;
+  }
+
+  /**
+   * Returns a new cursor over the neighbors of nodes of this graph.
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Iterates over the neighbors of a node, without allocating objects.
+   */
+  public class Cursor {
+    private final long[] pos = new long[1];
+    private int remaining;
+    private int last;
+
+    private Cursor() {
+    }
+
+    /**
+     * Moves this cursor to the first neighbor of a node.
+     *
+     * @return the number of neighbors of the node
+     */
+    public int reset(int node) {
+      checkNode(node);
+
+      int i = node - firstNode;
+      pos[0] = offset(i);
+      long end = offset(i + 1);
+      last = 0;
+      if (!gaps) {
+        remaining = (int) ((end - pos[0]) >>> 2);
+      } else {
+        remaining = pos[0] == end ? 0 : readVInt(pos[0], pos);
+      }
+      return remaining;
+    }
+
+    /**
+     * Returns true if the node has more neighbors.
+     */
+    public boolean hasNext() {
+      return remaining > 0;
+    }
+
+    /**
+     * Returns the next neighbor of the node.
+     */
+    public int next() {
+      Preconditions.checkState(remaining > 0, "no more neighbors");
+      remaining--;
+
+      if (!gaps) {
+        int neighbor = getInt(pos[0]);
+        pos[0] += 4;
+        return neighbor;
+      }
+      last += readVInt(pos[0], pos);
+      return last;
+    }
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+
+import com.google.common.base.Preconditions;
+
+import edu.umd.cloud9.webgraph.html.UrlCanonicalizer;
+
+/**
+ * <p>
+ * A Bloom filter of the URLs of the documents in a collection, which lets link extraction drop
+ * the links to documents outside the collection before they are shuffled. A URL that was added
+ * is always found; a URL that wasn't is found with about the false positive rate the filter was
+ * created with.
+ * </p>
+ *
+ * <p>
+ * URLs are hashed once, to a 64-bit fingerprint (see {@link UrlCanonicalizer#fingerprint}), from which
+ * the positions of its bits are derived by double hashing. The filter is stored as the number of
+ * URLs, the number of bits and the number of hash functions, followed by the bits as longs. It
+ * takes about 9.6 bits per URL in memory for a false positive rate of 1%.
+ * </p>
+ */
+public class UrlFilter {
+  /**
+   * Default false positive rate.
+   */
+  public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+  //number of longs read or written at a time
+  private static final int BUFFER_SIZE = 1 << 13;
+
+  private long[] bits;
+  private long numBits;
+  private int numHashes;
+  private long size;
+
+  /**
+   * Creates an empty filter, which contains no URL.
+   */
+  public UrlFilter() {
+    bits = new long[0];
+  }
+
+  /**
+   * Creates a filter for a number of URLs.
+   *
+   * @param expectedUrls number of URLs that will be added
+   * @param falsePositiveRate false positive rate once they are, between 0 and 1
+   */
+  public UrlFilter(long expectedUrls, double falsePositiveRate) {
+    Preconditions.checkArgument(expectedUrls >= 0, "negative number of urls");
+    Preconditions.checkArgument(falsePositiveRate > 0 && falsePositiveRate < 1,
+        "false positive rate not between 0 and 1");
+
+    long n = Math.max(expectedUrls, 1);
+    numBits = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+    numBits = Math.max(numBits, 64);
+    numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+    bits = new long[(int) ((numBits + 63) >>> 6)];
+  }
+
+  /**
+   * Adds a URL to this filter.
+   */
+  public void add(String url) {
+    add(UrlCanonicalizer.fingerprint(url));
+  }
+
+  /**
+   * Adds a URL to this filter, given its fingerprint.
+   */
+  public void add(long fingerprint) {
+    Preconditions.checkState(numBits > 0, "empty filter");
+
+    int h1 = (int) fingerprint;
+    int h2 = (int) (fingerprint >>> 32);
+    for(int i = 1; i <= numHashes; i++) {
+      long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+      bits[(int) (bit >>> 6)] |= 1L << bit;
+    }
+    size++;
+  }
+
+  /**
+   * Returns true if a URL might have been added to this filter, and false if it was not.
+   */
+  public boolean mightContain(String url) {
+    return mightContain(UrlCanonicalizer.fingerprint(url));
+  }
+
+  /**
+   * Returns true if a URL might have been added to this filter, given its fingerprint, and false
+   * if it was not.
+   */
+  public boolean mightContain(long fingerprint) {
+    if(numBits == 0) {
+      return false;
+    }
+
+    int h1 = (int) fingerprint;
+    int h2 = (int) (fingerprint >>> 32);
+    for(int i = 1; i <= numHashes; i++) {
+      long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+      if((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of URLs added to this filter.
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of bits of this filter.
+   */
+  public long getNumBits() {
+    return numBits;
+  }
+
+  /**
+   * Returns the expected false positive rate of this filter, for the URLs added to it so far.
+   */
+  public double getFalsePositiveRate() {
+    if(numBits == 0) {
+      return 0;
+    }
+    return Math.pow(1 - Math.exp(-(double) numHashes * size / numBits), numHashes);
+  }
+
+  /**
+   * Builds a filter from the fingerprints of URLs, stored as the keys of the
+   * <code>LongWritable</code> SequenceFiles of a directory.
+   *
+   * @param p path to the directory
+   * @param fs appropriate FileSystem
+   * @param expectedUrls number of fingerprints in the directory
+   * @param falsePositiveRate false positive rate of the filter
+   * @throws IOException
+   */
+  public static UrlFilter build(Path p, FileSystem fs, long expectedUrls,
+      double falsePositiveRate) throws IOException {
+    Preconditions.checkNotNull(p);
+    Preconditions.checkNotNull(fs);
+
+    UrlFilter filter = new UrlFilter(expectedUrls, falsePositiveRate);
+    LongWritable key = new LongWritable();
+    for(FileStatus status : fs.listStatus(p)) {
+      if(!status.getPath().getName().startsWith("part-")) {
+        continue;
+      }
+
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, status.getPath(),
+          new Configuration());
+      while(reader.next(key)) {
+        filter.add(key.get());
+      }
+      reader.close();
+    }
+    return filter;
+  }
+
+  /**
+   * Loads a filter written by {@link #writeFilter(Path, FileSystem)}.
+   *
+   * @param p path to the filter file
+   * @param fs appropriate FileSystem
+   * @throws IOException
+   */
+  public void loadFilter(Path p, FileSystem fs) throws IOException {
+    Preconditions.checkNotNull(p);
+    Preconditions.checkNotNull(fs);
+
+    FSDataInputStream in = fs.open(p);
+    size = in.readLong();
+    numBits = in.readLong();
+    numHashes = in.readInt();
+    bits = new long[(int) ((numBits + 63) >>> 6)];
+
+    byte[] bytes = new byte[BUFFER_SIZE * 8];
+    LongBuffer buffer = ByteBuffer.wrap(bytes).asLongBuffer();
+    for(int i = 0; i < bits.length; i += BUFFER_SIZE) {
+      int length = Math.min(BUFFER_SIZE, bits.length - i);
+      in.readFully(bytes, 0, length * 8);
+      buffer.rewind();
+      buffer.get(bits, i, length);
+    }
+    in.close();
+  }
+
+  /**
+   * Writes this filter to a file.
+   *
+   * @param p path to the filter file
+   * @param fs appropriate FileSystem
+   * @throws IOException
+   */
+  public void writeFilter(Path p, FileSystem fs) throws IOException {
+    Preconditions.checkNotNull(p);
+    Preconditions.checkNotNull(fs);
+
+    FSDataOutputStream out = fs.create(p, true);
+    out.writeLong(size);
+    out.writeLong(numBits);
+    out.writeInt(numHashes);
+
+    byte[] bytes = new byte[BUFFER_SIZE * 8];
+    LongBuffer buffer = ByteBuffer.wrap(bytes).asLongBuffer();
+    for(int i = 0; i < bits.length; i += BUFFER_SIZE) {
+      int length = Math.min(BUFFER_SIZE, bits.length - i);
+      buffer.rewind();
+      buffer.put(bits, i, length);
+      out.write(bytes, 0, length * 8);
+    }
+    out.close();
+  }
+}
@@ -21,9 +21,11 @@ import java.io.IOException;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.Counters;
@@ -56,8 +58,17 @@ import edu.umd.cloud9.webgraph.data.IndexableAnchorTextForwardIndex;
  * <li>[collection-path]: the path to the anchor text collection (i.e., web graph)</li>
  * <li>[output-path]: the output path</li>
  * <li>[index-file]: the file to which the final index is stored</li>
+ * <li>[previous-index-file]: (optional) the index of a collection that [collection-path]
+ * updates</li>
  * </ul>
  * 
+ * <p>With a previous index, the new index is the previous one with the blocks of
+ * [collection-path] appended, so an update to an anchor text collection, holding the new
+ * records of some of its documents, is indexed without indexing the whole collection again.
+ * Lookups try the newest collection first. The docnos held by an update are written after its
+ * blocks, so that lookups skip the updates that don't have a document.
+ * </p>
+ * 
  * <p>Please sort the anchor text/web graph before running this program.
  * @see SortWebGraph
  * </p>
@@ -72,24 +83,31 @@ public class BuildAnchorTextForwardIndex extends Configured implements Tool {
 		Total
 	};
 
+	private static enum Documents {
+		Total
+	};
+
 	private static class MyMapRunner implements
 			MapRunnable<IntWritable, ArrayListWritable<AnchorText>, IntWritable, Text> {
 
 		private static int fileno;
+		private static boolean writeDocnos;
 
 		private static final IntWritable sOutputKey = new IntWritable();
 		private static final Text sOutputValue = new Text();
+		private static final Text EMPTY = new Text();
 
 		public void configure(JobConf job) {
 			String file = job.get("map.input.file");
 			fileno = Integer.parseInt(file.substring(file.indexOf("part-") + 5));
+			writeDocnos = job.getBoolean("Cloud9.WriteDocnos", false);
 		}
 
 		public void run(RecordReader<IntWritable, ArrayListWritable<AnchorText>> input,
 				OutputCollector<IntWritable, Text> output, Reporter reporter) throws IOException {
 
 			IntWritable key = new IntWritable();
-			ArrayListWritable<AnchorText> value = new ArrayListWritable<AnchorText>();
+			ArrayListWritable<AnchorText> value = input.createValue();
 
 			long pos = -1;
 			long prevPos = -1;
@@ -107,6 +125,13 @@ public class BuildAnchorTextForwardIndex extends Configured implements Tool {
 					reporter.incrCounter(Blocks.Total, 1);
 				}
 
+				if (writeDocnos) {
+					// a docno with no offset
+					sOutputKey.set(key.get());
+					output.collect(sOutputKey, EMPTY);
+					reporter.incrCounter(Documents.Total, 1);
+				}
+
 				prevPos = pos;
 				pos = input.getPos();
 				prevDocno = key.get();
@@ -118,7 +143,7 @@ public class BuildAnchorTextForwardIndex extends Configured implements Tool {
 	}
 
 	private static int printUsage() {
-		System.out.println("usage: [collection-path] [output-path] [index-file]");
+		System.out.println("usage: [collection-path] [output-path] [index-file] [previous-index-file]");
 		ToolRunner.printGenericCommandUsage(System.out);
 		return -1;
 	}
@@ -127,7 +152,7 @@ public class BuildAnchorTextForwardIndex extends Configured implements Tool {
 	 * Runs this tool.
 	 */
 	public int run(String[] args) throws Exception {
-		if (args.length != 3) {
+		if (args.length != 3 && args.length != 4) {
 			printUsage();
 			return -1;
 		}
@@ -138,11 +163,13 @@ public class BuildAnchorTextForwardIndex extends Configured implements Tool {
 		String collectionPath = args[0];
 		String outputPath = args[1];
 		String indexFile = args[2];
+		String previousIndexFile = args.length > 3 ? args[3] : null;
 
 		LOG.info("Tool name: BuildAnchorTextForwardIndex");
 		LOG.info(" - collection path: " + collectionPath);
 		LOG.info(" - output path: " + outputPath);
 		LOG.info(" - index file: " + indexFile);
+		LOG.info(" - previous index file: " + previousIndexFile);
 		LOG.info("Note: This tool only works on block-compressed SequenceFiles!");
 
 		conf.set("mapred.child.java.opts", "-Xmx2048m");
@@ -161,6 +188,7 @@ public class BuildAnchorTextForwardIndex extends Configured implements Tool {
 		conf.setOutputValueClass(Text.class);
 
 		conf.setMapRunnerClass(MyMapRunner.class);
+		conf.setBoolean("Cloud9.WriteDocnos", previousIndexFile != null);
 		conf.setReducerClass(IdentityReducer.class);
 
 		// delete the output directory if it exists already
@@ -170,23 +198,44 @@ public class BuildAnchorTextForwardIndex extends Configured implements Tool {
 
 		Counters counters = job.getCounters();
 		int blocks = (int) counters.findCounter(Blocks.Total).getCounter();
+		int documents = (int) counters.findCounter(Documents.Total).getCounter();
 
 		LOG.info("number of blocks: " + blocks);
+		LOG.info("number of documents: " + documents);
 
 		LOG.info("Writing index file...");
 		LineReader reader = new LineReader(fs.open(new Path(outputPath + "/part-00000")));
-		FSDataOutputStream out = fs.create(new Path(indexFile), true);
-
-		out.writeUTF(IndexableAnchorTextForwardIndex.class.getName());
+		// written next to the index file and renamed at the end, as the previous index may be
+		// the index file itself
+		Path tmpIndexFile = new Path(indexFile + ".tmp");
+		FSDataOutputStream out = fs.create(tmpIndexFile, true);
+
+		if (previousIndexFile == null) {
+			out.writeUTF(IndexableAnchorTextForwardIndex.class.getName());
+		} else {
+			// the previous index, with its own updates, if any
+			FSDataInputStream previous = fs.open(new Path(previousIndexFile));
+			IOUtils.copyBytes(previous, out, conf, false);
+			previous.close();
+		}
 		out.writeUTF(collectionPath);
 		out.writeInt(blocks);
 
 		int cnt = 0;
+		int[] docnos = new int[documents];
+		int numDocnos = 0;
 		Text line = new Text();
 		while (reader.readLine(line) > 0) {
 			String[] arr = line.toString().split("\\s+");
 
 			int docno = Integer.parseInt(arr[0]);
+			if (arr.length == 1) {
+				// a docno of an update, written after the blocks
+				if (numDocnos < documents)
+					docnos[numDocnos] = docno;
+				numDocnos++;
+				continue;
+			}
 			int offset = Integer.parseInt(arr[1]);
 			short fileno = Short.parseShort(arr[2]);
 
@@ -202,13 +251,26 @@ public class BuildAnchorTextForwardIndex extends Configured implements Tool {
 
 		}
 
+		if (previousIndexFile != null) {
+			// sorted, as the output of the reducer is
+			out.writeInt(documents);
+			for (int i = 0; i < documents; i++)
+				out.writeInt(docnos[i]);
+		}
+
 		reader.close();
 		out.close();
 
-		if (cnt != blocks) {
+		if (cnt != blocks || numDocnos != documents) {
+			fs.delete(tmpIndexFile, false);
 			throw new RuntimeException("Error: mismatch in block count!");
 		}
 
+		fs.delete(new Path(indexFile), false);
+		if (!fs.rename(tmpIndexFile, new Path(indexFile))) {
+			throw new RuntimeException("Error: unable to rename " + tmpIndexFile + " to " + indexFile);
+		}
+
 		return 0;
 	}
 
@@ -20,7 +20,13 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -41,12 +47,16 @@ import org.mortbay.jetty.Server;
 import org.mortbay.jetty.servlet.Context;
 import org.mortbay.jetty.servlet.ServletHolder;
 
+import com.google.common.cache.CacheStats;
+
 import edu.umd.cloud9.collection.DocumentForwardIndex;
 import edu.umd.cloud9.collection.Indexable;
 import edu.umd.cloud9.collection.clue.ClueWarcDocnoMapping;
+import edu.umd.cloud9.io.array.ArrayListWritable;
 import edu.umd.cloud9.mapred.NullInputFormat;
 import edu.umd.cloud9.mapred.NullMapper;
 import edu.umd.cloud9.mapred.NullOutputFormat;
+import edu.umd.cloud9.webgraph.data.AnchorText;
 import edu.umd.cloud9.webgraph.data.IndexableAnchorTextForwardIndex;
 
 /**
@@ -65,6 +75,14 @@ import edu.umd.cloud9.webgraph.data.IndexableAnchorTextForwardIndex;
  * ClueWeb09 forward indexes should be stored at <code>[ClueWeb09-index-files-base]/findex.en.XX</code>, 
  * where <code>XX</code> is the segment number.
  * </p>
+ *
+ * <p>
+ * Anchor text is cached by the forward index; the size of the cache (in bytes) and the number
+ * of idle readers kept for each part file can be set with <code>-DAnchorCacheBytes</code> and
+ * <code>-DReadersPerFile</code>. Besides the pages for single documents, the server answers
+ * <code>/fetch_docnos?docnos=1,2,3</code> with the anchor text of several documents as plain
+ * text, and <code>/stats</code> shows the latencies of each page and the hit rate of the cache.
+ * </p>
  * 
  * @author Nima Asadi
  * 
@@ -105,7 +123,9 @@ public class ClueWebAnchorTextForwardIndexHttpServer {
 			LOG.info("index class: " + indexClass);
 
 			try {
-				sForwardIndex = new IndexableAnchorTextForwardIndex(new ClueWarcDocnoMapping());
+				sForwardIndex = new IndexableAnchorTextForwardIndex(new ClueWarcDocnoMapping(),
+						conf.getLong("AnchorCacheBytes", IndexableAnchorTextForwardIndex.DEFAULT_CACHE_BYTES),
+						conf.getInt("ReadersPerFile", IndexableAnchorTextForwardIndex.DEFAULT_READERS_PER_FILE));
 				sForwardIndex.loadIndex(new Path(indexFile), new Path(mappingFile), FileSystem.get(conf));
 			} catch (Exception e) {
 				e.printStackTrace();
@@ -138,6 +158,8 @@ public class ClueWebAnchorTextForwardIndexHttpServer {
 			root.addServlet(new ServletHolder(new FetchDocidServlet()), "/fetch_docid");
 			root.addServlet(new ServletHolder(new FetchDocnoServlet()), "/fetch_docno");
 			root.addServlet(new ServletHolder(new FetchDocContentServlet()), "/fetch_content");
+			root.addServlet(new ServletHolder(new FetchDocnosServlet()), "/fetch_docnos");
+			root.addServlet(new ServletHolder(new StatsServlet()), "/stats");
 			root.addServlet(new ServletHolder(new HomeServlet()), "/");
 
 			FSDataOutputStream out = FileSystem.get(conf).create(tmpPath, true);
@@ -146,24 +168,101 @@ public class ClueWebAnchorTextForwardIndexHttpServer {
 
 			try {
 				server.start();
+				server.join();
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
+		}
+	}
 
-			while (true)
+	private ClueWebAnchorTextForwardIndexHttpServer() {
+	}
+
+	/**
+	 * Histogram of latencies, in buckets of powers of two microseconds. Can be updated by
+	 * several threads at once.
+	 */
+	private static class LatencyHistogram {
+		private final AtomicLongArray buckets = new AtomicLongArray(64);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong total = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		public void add(long micros) {
+			micros = Math.max(micros, 0);
+			buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(micros));
+			count.incrementAndGet();
+			total.addAndGet(micros);
+
+			long m;
+			while ((m = max.get()) < micros && !max.compareAndSet(m, micros))
 				;
 		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getMean() {
+			long n = count.get();
+			return n == 0 ? 0 : total.get() / n;
+		}
+
+		public long getMax() {
+			return max.get();
+		}
+
+		// upper bound of the bucket the given quantile falls in
+		public long getQuantile(double q) {
+			long n = count.get();
+			long rank = (long) Math.ceil(q * n);
+			long seen = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				seen += buckets.get(i);
+				if (seen >= rank && seen > 0)
+					return i == 0 ? 0 : Math.min(1L << i, max.get());
+			}
+			return max.get();
+		}
 	}
 
-	private ClueWebAnchorTextForwardIndexHttpServer() {
+	// latencies of each page, by path
+	private static final Map<String, LatencyHistogram> latencies =
+		Collections.synchronizedMap(new LinkedHashMap<String, LatencyHistogram>());
+
+	/**
+	 * Servlet that records how long it takes to answer each request.
+	 */
+	public static abstract class TimedServlet extends HttpServlet {
+		static final long serialVersionUID = 1209417385L;
+
+		private final LatencyHistogram histogram = new LatencyHistogram();
+
+		protected TimedServlet(String path) {
+			latencies.put(path, histogram);
+		}
+
+		protected void service(HttpServletRequest req, HttpServletResponse res) throws ServletException,
+				IOException {
+			long start = System.nanoTime();
+			try {
+				super.service(req, res);
+			} finally {
+				histogram.add((System.nanoTime() - start) / 1000);
+			}
+		}
 	}
 
 	// this has to be public
-	public static class HomeServlet extends HttpServlet {
+	public static class HomeServlet extends TimedServlet {
 
 		static final long serialVersionUID = 8253865405L;
 		static final Random r = new Random();
 
+		public HomeServlet() {
+			super("/");
+		}
+
 		public void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException,
 				IOException {
 			res.setContentType("text/html");
@@ -245,15 +344,21 @@ public class ClueWebAnchorTextForwardIndexHttpServer {
 			out.println("</form>");
 			out.println("</p>");
 
+			out.println("<p><a href=\"/stats\">Server statistics</a></p>");
+
 			out.print("</body></html>\n");
 
 			out.close();
 		}
 	}
 	
-	public static class FetchDocContentServlet extends HttpServlet {
+	public static class FetchDocContentServlet extends TimedServlet {
 		static final long serialVersionUID = 5970126341L;
 
+		public FetchDocContentServlet() {
+			super("/fetch_content");
+		}
+
 		public void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException,
 				IOException {
 			doPost(req, res);
@@ -305,9 +410,13 @@ public class ClueWebAnchorTextForwardIndexHttpServer {
 	}
 
 	// this has to be public
-	public static class FetchDocidServlet extends HttpServlet {
+	public static class FetchDocidServlet extends TimedServlet {
 		static final long serialVersionUID = 3986721097L;
 
+		public FetchDocidServlet() {
+			super("/fetch_docid");
+		}
+
 		public void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException,
 				IOException {
 			doPost(req, res);
@@ -354,9 +463,13 @@ public class ClueWebAnchorTextForwardIndexHttpServer {
 	}
 
 	// this has to be public
-	public static class FetchDocnoServlet extends HttpServlet {
+	public static class FetchDocnoServlet extends TimedServlet {
 		static final long serialVersionUID = 5970126341L;
 
+		public FetchDocnoServlet() {
+			super("/fetch_docno");
+		}
+
 		public void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException,
 				IOException {
 			doPost(req, res);
@@ -399,7 +512,96 @@ public class ClueWebAnchorTextForwardIndexHttpServer {
 			}
 		}
 	}
-	
+
+	// this has to be public
+	public static class FetchDocnosServlet extends TimedServlet {
+		static final long serialVersionUID = 7403985216L;
+
+		public FetchDocnosServlet() {
+			super("/fetch_docnos");
+		}
+
+		public void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException,
+				IOException {
+			doPost(req, res);
+		}
+
+		public void doPost(HttpServletRequest req, HttpServletResponse res)
+				throws ServletException, IOException {
+			String param = req.getParameter("docnos");
+			int[] docnos;
+			try {
+				String[] values = param.split(SEPARATOR);
+				docnos = new int[values.length];
+				for (int i = 0; i < values.length; i++)
+					docnos[i] = Integer.parseInt(values[i].trim());
+			} catch (Exception e) {
+				res.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid docnos: " + param);
+				return;
+			}
+
+			LOG.info("triggered servlet for fetching " + docnos.length + " documents by docno");
+
+			// one line per line of anchor text: docno, then the line itself
+			List<ArrayListWritable<AnchorText>> anchors = sForwardIndex.getAnchors(docnos);
+			res.setContentType("text/plain");
+			PrintWriter out = res.getWriter();
+			for (int i = 0; i < docnos.length; i++) {
+				if (anchors.get(i) == null)
+					continue;
+				for (AnchorText anchor : anchors.get(i))
+					out.println(docnos[i] + "\t" + anchor);
+			}
+			out.close();
+		}
+	}
+
+	// this has to be public
+	public static class StatsServlet extends TimedServlet {
+		static final long serialVersionUID = 2649105738L;
+
+		public StatsServlet() {
+			super("/stats");
+		}
+
+		public void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException,
+				IOException {
+			res.setContentType("text/html");
+			PrintWriter out = res.getWriter();
+
+			out.println("<html><head><title>Server Statistics</title><head>");
+			out.println("<body>");
+
+			out.println("<h3>Latencies (microseconds)</h3>");
+			out.println("<table border=\"1\">");
+			out.println("<tr><th>page</th><th>requests</th><th>mean</th><th>p50</th><th>p90</th><th>p99</th><th>max</th></tr>");
+			synchronized (latencies) {
+				for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+					LatencyHistogram h = entry.getValue();
+					out.println("<tr><td>" + entry.getKey() + "</td><td>" + h.getCount() + "</td><td>"
+							+ h.getMean() + "</td><td>" + h.getQuantile(0.5) + "</td><td>" + h.getQuantile(0.9)
+							+ "</td><td>" + h.getQuantile(0.99) + "</td><td>" + h.getMax() + "</td></tr>");
+				}
+			}
+			out.println("</table>");
+			out.println("<p>Percentiles are rounded up to a power of two.</p>");
+
+			CacheStats stats = sForwardIndex.getCacheStats();
+			out.println("<h3>Anchor text cache</h3>");
+			out.println("<p>");
+			out.println("Documents cached: " + sForwardIndex.getCacheSize() + "<br/>");
+			out.println("Hits: " + stats.hitCount() + "<br/>");
+			out.println("Misses: " + stats.missCount() + "<br/>");
+			out.println("Hit rate: " + String.format("%.3f", stats.hitRate()) + "<br/>");
+			out.println("Evictions: " + stats.evictionCount() + "<br/>");
+			out.println("Readers opened: " + sForwardIndex.getOpenedReaders());
+			out.println("</p>");
+
+			out.print("</body></html>\n");
+			out.close();
+		}
+	}
+
 	public static void main(String[] args) throws Exception {
 		Configuration conf = new Configuration();
 		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
@@ -18,15 +18,19 @@ package edu.umd.cloud9.webgraph.driver;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
+import edu.umd.cloud9.webgraph.BuildHostGraph;
 import edu.umd.cloud9.webgraph.BuildReverseWebGraph;
 import edu.umd.cloud9.webgraph.BuildWebGraph;
-import edu.umd.cloud9.webgraph.CollectHostnames;
 import edu.umd.cloud9.webgraph.ComputeWeight;
 import edu.umd.cloud9.webgraph.ClueExtractLinks;
 import edu.umd.cloud9.webgraph.DriverUtil;
+import edu.umd.cloud9.webgraph.data.AnchorTextMerger;
 
 /**
  * <p>
@@ -43,6 +47,16 @@ import edu.umd.cloud9.webgraph.DriverUtil;
  * <li>[-end to-segment]: ending segment number</li>
  * <li>[-il]: include internal links (i.e., links within a domain)</li>
  * <li>[-caw]: compute the default weights for lines of external anchor text</li>
+ * <li>[-hg]: assign ids to the hosts and build the host graph (done anyway with -caw)</li>
+ * <li>[-maxSources n]: keep a uniform sample of at most n sources/targets for each line
+ * of anchor text</li>
+ * <li>[-update]: add segments from-segment to to-segment to the collection already built under
+ * output-base-path, instead of building it from scratch (see {@link IncrementalUpdate})</li>
+ * <li>[-urlFilter]: drop the links to documents outside the collection during link extraction,
+ * with a Bloom filter of the URLs of the segments (see {@link ClueExtractLinks}); links to the
+ * documents of later updates are dropped too, so not for use with -update</li>
+ * <li>[-urls]: write the URLs of the fingerprints the extracted links are keyed by, for each
+ * segment (see {@link ClueExtractLinks})</li>
  * <li>[-normalizer normalizer] A normalizer class used to normalize the lines of anchor
  * text, must extend edu.umd.cloud9.webgraph.normalize.AnchorTextNormalizer.</li>
  * </ul>
@@ -77,6 +91,11 @@ public class ClueWebDriver extends Configured implements Tool {
                        "-end end_segment" +
                        "[-il] " +
                        "[-caw] " +
+                       "[-hg] " +
+                       "[-maxSources n] " +
+                       "[-update] " +
+                       "[-urlFilter] " +
+                       "[-urls] " +
                        "-normalizer normalizerClass");
 
     System.out.println("Help:");
@@ -92,6 +111,21 @@ public class ClueWebDriver extends Configured implements Tool {
     System.out.println(DriverUtil.CL_COMPUTE_WEIGHTS +
                        "\n\tcompute default anchor weights, without this " +
                        "option we will not compute default anchor weights");
+    System.out.println(DriverUtil.CL_HOST_GRAPH +
+                       "\n\tassign ids to the hosts and build the host graph," +
+                       " which is also done when computing default anchor weights");
+    System.out.println(DriverUtil.CL_MAX_ANCHOR_SOURCES +
+                       " n\n\tkeep a uniform sample of at most n sources/targets for" +
+                       " each line of anchor text, without this option we keep all of them");
+    System.out.println(DriverUtil.CL_UPDATE +
+                       "\n\tadd the segments to the collection already built under" +
+                       " output-base, extracting links only from them");
+    System.out.println(DriverUtil.CL_URL_FILTER +
+                       "\n\tdrop the links to documents outside the segments before" +
+                       " shuffling them, with a Bloom filter of their urls");
+    System.out.println(DriverUtil.CL_URLS +
+                       "\n\twrite the urls of the fingerprints the extracted links" +
+                       " are keyed by");
     System.out.println(DriverUtil.CL_NORMALIZER +
                        " normalizerClass\n\ta normalizer class" +
                        " used to normalize the lines of anchor text," +
@@ -117,6 +151,10 @@ public class ClueWebDriver extends Configured implements Tool {
     final int toSegment = Integer.parseInt(DriverUtil.argValue(args, DriverUtil.CL_END_SEGMENT));
     final boolean includeInternalLinks = DriverUtil.argExists(args, DriverUtil.CL_INCLUDE_INTERNAL_LINKS);
     final boolean computeAnchorWeights = DriverUtil.argExists(args, DriverUtil.CL_COMPUTE_WEIGHTS);
+    final boolean buildHostGraph = DriverUtil.argExists(args, DriverUtil.CL_HOST_GRAPH);
+    final boolean update = DriverUtil.argExists(args, DriverUtil.CL_UPDATE);
+    final boolean urlFilter = DriverUtil.argExists(args, DriverUtil.CL_URL_FILTER);
+    final boolean urls = DriverUtil.argExists(args, DriverUtil.CL_URLS);
     final String normalizer = DriverUtil.argValue(args, DriverUtil.CL_NORMALIZER);
 
     conf.setInt("Cloud9.Mappers", 2000);
@@ -124,6 +162,27 @@ public class ClueWebDriver extends Configured implements Tool {
     conf.set("Cloud9.DocnoMappingFile", docnoMapping);
     conf.setBoolean("Cloud9.IncludeInternalLinks", includeInternalLinks);
     conf.set("Cloud9.AnchorTextNormalizer", normalizer);
+    if (DriverUtil.argExists(args, DriverUtil.CL_MAX_ANCHOR_SOURCES)) {
+      conf.setInt(AnchorTextMerger.MAX_SOURCES,
+          Integer.parseInt(DriverUtil.argValue(args, DriverUtil.CL_MAX_ANCHOR_SOURCES)));
+    }
+
+    if (urlFilter) {
+      if (update) {
+        System.out.println("Error: " + DriverUtil.CL_URL_FILTER + " can't be used with " +
+                           DriverUtil.CL_UPDATE);
+        return -1;
+      }
+
+      // the links of a segment can be to the documents of any of them
+      String filterInputPath = "";
+      for (int i = fromSegment; i <= toSegment; i++) {
+        filterInputPath += (i > fromSegment ? "," : "") + inputBase + "en." +
+          (i == 10 ? "10" : ("0" + i));
+      }
+      conf.set("Cloud9.UrlFilterFile", outputBase + DriverUtil.OUTPUT_URL_FILTER);
+      conf.set("Cloud9.UrlFilterInputPath", filterInputPath);
+    }
 
     // Extract link information for each segment separately
     for (int i = fromSegment; i <= toSegment; i++) {
@@ -132,12 +191,20 @@ public class ClueWebDriver extends Configured implements Tool {
         (i == 10 ? "10" : ("0" + i));
       conf.set("Cloud9.InputPath", inputPath);
       conf.set("Cloud9.OutputPath", outputPath);
+      if (urls) {
+        conf.set("Cloud9.UrlsOutputPath", outputBase + DriverUtil.OUTPUT_URLS + "/en." +
+                 (i == 10 ? "10" : ("0" + i)));
+      }
       int r = new ClueExtractLinks(conf).run();
       if (r != 0) {
         return -1;
       }
     }
 
+    if (update) {
+      return update(conf, outputBase, fromSegment, toSegment, computeAnchorWeights);
+    }
+
     // Construct the reverse web graph (i.e., collect incoming link
     // information)
     String inputPath = "";
@@ -176,25 +243,29 @@ public class ClueWebDriver extends Configured implements Tool {
       return -1;
     }
 
-    if (computeAnchorWeights) {
-      // Propagating domain names in order to compute anchor weights
+    if (computeAnchorWeights || buildHostGraph) {
+      // Assign ids to the hosts, which are needed to compute anchor weights
       inputPath = outputBase + DriverUtil.OUTPUT_WEBGRAPH + "/";
-      outputPath = outputBase + DriverUtil.OUTPUT_HOST_NAMES + "/";
+      outputPath = outputBase + DriverUtil.OUTPUT_HOST_GRAPH + "/";
       conf.set("Cloud9.InputPath", inputPath);
       conf.set("Cloud9.OutputPath", outputPath);
       conf.setInt("Cloud9.Mappers", 1);
       conf.setInt("Cloud9.Reducers", DriverUtil.DEFAULT_REDUCERS *
                   (toSegment - fromSegment + 1));
-      r = new CollectHostnames(conf).run();
+      r = new BuildHostGraph(conf).run();
       if (r != 0) {
         return -1;
       }
+    }
 
+    if (computeAnchorWeights) {
       // Compute the weights
-      inputPath = outputBase + DriverUtil.OUTPUT_REVERSE_WEBGRAPH + "/," + outputBase + DriverUtil.OUTPUT_HOST_NAMES + "/";
+      inputPath = outputBase + DriverUtil.OUTPUT_REVERSE_WEBGRAPH + "/";
       outputPath = outputBase + DriverUtil.OUTPUT_WEGIHTED_REVERSE_WEBGRAPH + "/";
       conf.set("Cloud9.InputPath", inputPath);
       conf.set("Cloud9.OutputPath", outputPath);
+      conf.set("Cloud9.HostIdMappingFile", outputBase + DriverUtil.OUTPUT_HOST_GRAPH + "/" +
+               BuildHostGraph.HOST_ID_MAPPING);
       conf.setInt("Cloud9.Mappers", 1);
       conf.setInt("Cloud9.Reducers", DriverUtil.DEFAULT_REDUCERS *
                   (toSegment - fromSegment + 1));
@@ -207,6 +278,33 @@ public class ClueWebDriver extends Configured implements Tool {
     return 0;
   }
 
+  // merges the links of the segments into the collection, with those of the other segments
+  private static int update(Configuration conf, String outputBase, int fromSegment,
+      int toSegment, boolean computeAnchorWeights) throws Exception {
+    FileSystem fs = FileSystem.get(conf);
+    String oldLinks = "";
+    String newLinks = "";
+    Path linksPath = new Path(outputBase + DriverUtil.OUTPUT_EXTRACT_LINKS);
+    for (FileStatus status : fs.listStatus(linksPath)) {
+      String name = status.getPath().getName();
+      if (!name.startsWith("en.")) {
+        continue;
+      }
+
+      int segment = Integer.parseInt(name.substring(3));
+      if (segment >= fromSegment && segment <= toSegment) {
+        newLinks += (newLinks.length() > 0 ? "," : "") + status.getPath();
+      } else {
+        oldLinks += (oldLinks.length() > 0 ? "," : "") + status.getPath();
+      }
+    }
+
+    String updateName = "en." + (fromSegment == 10 ? "10" : ("0" + fromSegment)) + "-en." +
+      (toSegment == 10 ? "10" : ("0" + toSegment));
+    return IncrementalUpdate.run(conf, outputBase, updateName, oldLinks, newLinks,
+        computeAnchorWeights, DriverUtil.DEFAULT_REDUCERS * (toSegment - fromSegment + 1));
+  }
+
   public static void main(String[] args) throws Exception {
     int res = ToolRunner
       .run(new Configuration(), new ClueWebDriver(), args);
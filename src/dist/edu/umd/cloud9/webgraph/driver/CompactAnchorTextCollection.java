@@ -0,0 +1,164 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.driver;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+import edu.umd.cloud9.io.array.ArrayListWritable;
+import edu.umd.cloud9.mapred.NoSplitSequenceFileInputFormat;
+import edu.umd.cloud9.webgraph.data.AnchorText;
+import edu.umd.cloud9.webgraph.data.AnchorTextList;
+
+/**
+ * <p>
+ * Rewrites an anchor text collection (extracted links, a web graph, a (weighted) reverse web
+ * graph, etc.) stored as {@link ArrayListWritable}s of {@link AnchorText} objects, in the compact
+ * format of {@link AnchorTextList}. Command-line arguments are as follows:
+ * </p>
+ *
+ * <ul>
+ * <li>[input-path]: the anchor text collection</li>
+ * <li>[output-path]: the output path</li>
+ * </ul>
+ *
+ * <p>
+ * Each file of the collection is rewritten by a single mapper, so a sorted collection stays
+ * sorted. The part numbers of the output files may differ from those of the input files, so a
+ * forward index over the collection has to be rebuilt with
+ * {@link BuildAnchorTextForwardIndex}.
+ * </p>
+ *
+ * <p>
+ * The MapReduce jobs that build the web graph expect the anchor text they read to be in the
+ * format they write, so a collection should only be rewritten once it has been built.
+ * </p>
+ */
+@SuppressWarnings("deprecation")
+public class CompactAnchorTextCollection extends Configured implements Tool {
+  private static final Logger LOG = Logger.getLogger(CompactAnchorTextCollection.class);
+
+  private static enum Records {
+    TOTAL, LINES
+  }
+
+  public static class Map extends MapReduceBase implements
+      Mapper<WritableComparable<?>, ArrayListWritable<AnchorText>,
+      WritableComparable<?>, AnchorTextList> {
+    private static final AnchorTextList list = new AnchorTextList();
+
+    public void map(WritableComparable<?> key, ArrayListWritable<AnchorText> anchors,
+        OutputCollector<WritableComparable<?>, AnchorTextList> output,
+        Reporter reporter) throws IOException {
+      list.clear();
+      list.addAll(anchors);
+      output.collect(key, list);
+
+      reporter.incrCounter(Records.TOTAL, 1);
+      reporter.incrCounter(Records.LINES, anchors.size());
+    }
+  }
+
+  /**
+   * Opens the first SequenceFile under <code>path</code>, or <code>path</code> itself if it is
+   * a file, so that the key and value classes of a collection can be checked.
+   */
+  public static SequenceFile.Reader openFirstFile(FileSystem fs, Path path, Configuration conf)
+      throws IOException {
+    if (fs.getFileStatus(path).isDir()) {
+      for (FileStatus status : fs.listStatus(path)) {
+        if (!status.isDir() && !status.getPath().getName().startsWith("_")) {
+          return new SequenceFile.Reader(fs, status.getPath(), conf);
+        }
+      }
+      throw new IOException("No SequenceFiles found under " + path);
+    }
+    return new SequenceFile.Reader(fs, path, conf);
+  }
+
+  private static int printUsage() {
+    System.out.println("usage: [input-path] [output-path]");
+    ToolRunner.printGenericCommandUsage(System.out);
+    return -1;
+  }
+
+  public int run(String[] args) throws Exception {
+    if (args.length != 2) {
+      printUsage();
+      return -1;
+    }
+
+    JobConf conf = new JobConf(getConf(), CompactAnchorTextCollection.class);
+    FileSystem fs = FileSystem.get(conf);
+
+    String inputPath = args[0];
+    String outputPath = args[1];
+
+    SequenceFile.Reader reader = openFirstFile(fs, new Path(inputPath), conf);
+    Class<?> keyClass = reader.getKeyClass();
+    reader.close();
+
+    conf.setJobName("CompactAnchorTextCollection");
+    conf.set("mapred.child.java.opts", "-Xmx2048m");
+    conf.setInt("mapred.task.timeout", 60000000);
+
+    conf.setNumReduceTasks(0);
+    conf.setMapperClass(Map.class);
+    conf.setOutputKeyClass(keyClass);
+    conf.setOutputValueClass(AnchorTextList.class);
+    conf.setInputFormat(NoSplitSequenceFileInputFormat.class);
+    conf.setOutputFormat(SequenceFileOutputFormat.class);
+    SequenceFileOutputFormat.setCompressOutput(conf, true);
+    SequenceFileOutputFormat.setOutputCompressionType(conf,
+        SequenceFile.CompressionType.BLOCK);
+    SequenceFileInputFormat.setInputPaths(conf, inputPath);
+    FileOutputFormat.setOutputPath(conf, new Path(outputPath));
+
+    LOG.info("CompactAnchorTextCollection");
+    LOG.info(" - input path: " + inputPath);
+    LOG.info(" - output path: " + outputPath);
+    LOG.info(" - key class: " + keyClass.getName());
+
+    fs.delete(new Path(outputPath), true);
+    JobClient.runJob(conf);
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(new Configuration(), new CompactAnchorTextCollection(), args);
+    System.exit(res);
+  }
+}
@@ -17,12 +17,15 @@
 package edu.umd.cloud9.webgraph.driver;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
@@ -31,14 +34,18 @@ import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.MapReduceBase;
 import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.TextOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
+import edu.umd.cloud9.io.array.ArrayListOfIntsWritable;
 import edu.umd.cloud9.io.array.ArrayListWritable;
+import edu.umd.cloud9.mapred.NullOutputFormat;
 import edu.umd.cloud9.webgraph.data.AnchorText;
+import edu.umd.cloud9.webgraph.data.CsrGraphWriter;
 import edu.umd.cloud9.webgraph.DriverUtil;
 
 
@@ -53,6 +60,12 @@ import edu.umd.cloud9.webgraph.DriverUtil;
  * <ul>
  * <li>[input-path]: the base path to the webgraph</li>
  * <li>[output-path]: the output path</li>
+ * <li>[-binary]: write the graph in binary instead, as a CSR file (see {@link CsrGraphWriter})
+ * named <code>graph.csr</code>, which can be memory-mapped with
+ * {@link edu.umd.cloud9.webgraph.data.MappedCsrGraph}</li>
+ * <li>[-gaps]: gap code the neighbor lists of the binary graph</li>
+ * <li>[-transposed]: also write the in-links of each page, from the reverse web graph, as
+ * <code>transposed.csr</code></li>
  * </ul>
  *
  * @author Nima Asadi
@@ -86,8 +99,75 @@ public class GenerateTabDelimitedWebGraph extends Configured implements Tool {
     }
   }
 
+  private static class BinaryMapper extends MapReduceBase implements
+  Mapper<IntWritable, ArrayListWritable<AnchorText>, IntWritable, ArrayListOfIntsWritable> {
+    private static final ArrayListOfIntsWritable valueOutput = new ArrayListOfIntsWritable();
+    private boolean inLinks;
+
+    public void configure(JobConf job) {
+      inLinks = job.getBoolean("Cloud9.CsrInLinks", false);
+    }
+
+    public void map(IntWritable key, ArrayListWritable<AnchorText> anchors,
+        OutputCollector<IntWritable, ArrayListOfIntsWritable> output, Reporter reporter)
+        throws IOException {
+      valueOutput.setSize(0);
+
+      for(AnchorText p : anchors) {
+        if(inLinks ? !p.isExternalInLink() && !p.isInternalInLink()
+            : !p.isExternalOutLink() && !p.isInternalOutLink()) {
+          continue;
+        }
+        for(int doc : p) {
+          valueOutput.add(doc);
+        }
+      }
+
+      output.collect(key, valueOutput);
+    }
+  }
+
+  // writes the neighbor lists, which arrive sorted by node, to a single CSR file
+  private static class CsrReducer extends MapReduceBase implements
+  Reducer<IntWritable, ArrayListOfIntsWritable, NullWritable, NullWritable> {
+    private CsrGraphWriter writer;
+    private int[] neighbors = new int[1024];
+
+    public void configure(JobConf job) {
+      try {
+        writer = new CsrGraphWriter(new Path(job.get("Cloud9.CsrGraphFile")),
+            FileSystem.get(job), job.getBoolean("Cloud9.CsrGapCoded", false));
+      } catch (IOException e) {
+        e.printStackTrace();
+        throw new RuntimeException("Error opening the graph file");
+      }
+    }
+
+    public void reduce(IntWritable key, Iterator<ArrayListOfIntsWritable> values,
+        OutputCollector<NullWritable, NullWritable> output, Reporter reporter)
+        throws IOException {
+      int n = 0;
+      while(values.hasNext()) {
+        ArrayListOfIntsWritable list = values.next();
+        if(n + list.size() > neighbors.length) {
+          neighbors = Arrays.copyOf(neighbors, Math.max(n + list.size(), 2 * neighbors.length));
+        }
+        System.arraycopy(list.getArray(), 0, neighbors, n, list.size());
+        n += list.size();
+      }
+
+      Arrays.sort(neighbors, 0, n);
+      writer.add(key.get(), neighbors, n);
+    }
+
+    public void close() throws IOException {
+      writer.close();
+    }
+  }
+
   private static int printUsage() {
-    System.out.println("usage: -webgraph [WebGraph-base-path] -output [output-path]");
+    System.out.println("usage: -webgraph [WebGraph-base-path] -output [output-path]" +
+        " [-binary [-gaps] [-transposed]]");
     ToolRunner.printGenericCommandUsage(System.out);
     return -1;
   }
@@ -105,6 +185,22 @@ public class GenerateTabDelimitedWebGraph extends Configured implements Tool {
       DriverUtil.OUTPUT_WEBGRAPH;
     String outPath = DriverUtil.argValue(args, "-output");
 
+    if (DriverUtil.argExists(args, "-binary")) {
+      boolean gaps = DriverUtil.argExists(args, "-gaps");
+      Path outputPath = new Path(outPath);
+      if (fs.exists(outputPath)) {
+        fs.delete(outputPath);
+      }
+      fs.mkdirs(outputPath);
+
+      runBinary(inPath, outPath + "/" + GRAPH, false, gaps);
+      if (DriverUtil.argExists(args, "-transposed")) {
+        runBinary(DriverUtil.argValue(args, "-webgraph") + "/" + DriverUtil.OUTPUT_REVERSE_WEBGRAPH,
+            outPath + "/" + TRANSPOSED_GRAPH, true, gaps);
+      }
+      return 0;
+    }
+
     Path inputPath = new Path(inPath);
     Path outputPath = new Path(outPath);
 
@@ -136,6 +232,51 @@ public class GenerateTabDelimitedWebGraph extends Configured implements Tool {
     return 0;
   }
 
+  /**
+   * Name of the binary graph in the output directory.
+   */
+  public static final String GRAPH = "graph.csr";
+
+  /**
+   * Name of the binary transposed graph (the in-links of each page) in the output directory.
+   */
+  public static final String TRANSPOSED_GRAPH = "transposed.csr";
+
+  // the neighbor lists are sorted by node in a single reducer, which writes the CSR file
+  private void runBinary(String inPath, String graphFile, boolean inLinks, boolean gaps)
+      throws IOException {
+    JobConf conf = new JobConf(getConf(), GenerateTabDelimitedWebGraph.class);
+
+    conf.setJobName("BinaryWebGraph");
+    conf.set("mapred.child.java.opts", "-Xmx2048m");
+    conf.set("mapreduce.map.memory.mb", "2048");
+    conf.set("mapreduce.map.java.opts", "-Xmx2048m");
+    conf.set("mapreduce.reduce.memory.mb", "2048");
+    conf.set("mapreduce.reduce.java.opts", "-Xmx2048m");
+    conf.set("mapreduce.task.timeout", "60000000");
+
+    conf.set("Cloud9.CsrGraphFile", graphFile);
+    conf.setBoolean("Cloud9.CsrGapCoded", gaps);
+    conf.setBoolean("Cloud9.CsrInLinks", inLinks);
+    // the reducer writes the graph file itself
+    conf.setReduceSpeculativeExecution(false);
+
+    conf.setNumReduceTasks(1);
+
+    FileInputFormat.setInputPaths(conf, new Path(inPath));
+
+    conf.setInputFormat(SequenceFileInputFormat.class);
+    conf.setOutputFormat(NullOutputFormat.class);
+    conf.setMapOutputKeyClass(IntWritable.class);
+    conf.setMapOutputValueClass(ArrayListOfIntsWritable.class);
+    conf.setOutputKeyClass(NullWritable.class);
+    conf.setOutputValueClass(NullWritable.class);
+    conf.setMapperClass(BinaryMapper.class);
+    conf.setReducerClass(CsrReducer.class);
+
+    JobClient.runJob(conf);
+  }
+
   public static void main(String[] args) throws Exception {
     int res = ToolRunner.run(new Configuration(),
         new GenerateTabDelimitedWebGraph(), args);
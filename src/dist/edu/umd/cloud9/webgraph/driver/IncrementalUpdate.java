@@ -0,0 +1,211 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.driver;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+import edu.umd.cloud9.webgraph.BuildHostGraph;
+import edu.umd.cloud9.webgraph.ComputeWeight;
+import edu.umd.cloud9.webgraph.DriverUtil;
+import edu.umd.cloud9.webgraph.MergeReverseWebGraph;
+import edu.umd.cloud9.webgraph.UpdateReverseWebGraph;
+
+/**
+ * <p>
+ * Adds the links extracted from new documents to an anchor text collection built by
+ * {@link ClueWebDriver} or {@link TrecDriver}, for their <code>-update</code> option. The
+ * following are written under <code>/base/path/updates/update-name</code>:
+ * </p>
+ *
+ * <ul>
+ * <li>the output of {@link UpdateReverseWebGraph}, including the updated records of the
+ * documents whose incoming links changed, in <code>changed</code></li>
+ * <li><code>hostGraph</code>: the host ids with the new documents (with <code>-caw</code>)</li>
+ * <li><code>weightedReverseWebGraph</code>: the weighted records of the documents whose
+ * incoming links changed (with <code>-caw</code>)</li>
+ * </ul>
+ *
+ * <p>
+ * The weighted records (or the changed ones, without weights) are sorted by docno, and can be
+ * appended to the forward index of the collection with {@link BuildAnchorTextForwardIndex}. The
+ * first update sorts the reverse web graph into <code>/base/path/sortedReverseWebGraph</code>;
+ * each update then replaces it, and the host ids in <code>/base/path/hostGraph</code>, with its
+ * own, and moves the ones it replaces to <code>previous.*</code> in its directory. The web graph
+ * and the host graph are not updated. <code>Cloud9.NumberOfDocuments</code> must be the same for
+ * every update; it defaults to the number of documents of ClueWeb09, so {@link TrecDriver}
+ * requires it.
+ * </p>
+ */
+public class IncrementalUpdate {
+  private static final Logger LOG = Logger.getLogger(IncrementalUpdate.class);
+
+  private IncrementalUpdate() {
+  }
+
+  /**
+   * Updates the collection under <code>outputBase</code>.
+   *
+   * @param conf configuration of the driver
+   * @param outputBase the base path of the collection
+   * @param updateName name of the update, e.g., the segments it adds
+   * @param oldLinks the extracted links of the documents already in the collection
+   * @param newLinks the extracted links of the new documents
+   * @param computeAnchorWeights whether the collection has weights
+   * @param numReducers number of reducers for the links of the new documents
+   * @return 0 on success
+   */
+  public static int run(Configuration conf, String outputBase, String updateName,
+      String oldLinks, String newLinks, boolean computeAnchorWeights, int numReducers)
+      throws Exception {
+    FileSystem fs = FileSystem.get(conf);
+    Path base = new Path(outputBase);
+    Path graph = new Path(base, DriverUtil.OUTPUT_SORTED_REVERSE_WEBGRAPH);
+    Path hostGraph = new Path(base, DriverUtil.OUTPUT_HOST_GRAPH);
+    Path updateDir = new Path(new Path(base, DriverUtil.OUTPUT_UPDATES), updateName);
+
+    if(conf.get("Cloud9.NumberOfDocuments") == null) {
+      LOG.warn("Cloud9.NumberOfDocuments not set, using the number of documents of ClueWeb09: " +
+               SortWebGraph.DEFAULT_NUMBER_OF_DOCUMENTS);
+    }
+    int numberOfDocuments = conf.getInt("Cloud9.NumberOfDocuments",
+                                        SortWebGraph.DEFAULT_NUMBER_OF_DOCUMENTS);
+    conf.setInt("Cloud9.NumberOfDocuments", numberOfDocuments);
+
+    LOG.info("IncrementalUpdate");
+    LOG.info(" - update: " + updateDir);
+    LOG.info(" - number of documents: " + numberOfDocuments);
+
+    Path updatedGraph = new Path(updateDir, UpdateReverseWebGraph.REVERSE_WEBGRAPH);
+    Path previousGraph = new Path(updateDir, "previous." + graph.getName());
+    Path updatedHostGraph = new Path(updateDir, DriverUtil.OUTPUT_HOST_GRAPH);
+    Path previousHostGraph = new Path(updateDir, "previous." + hostGraph.getName());
+
+    // a run that failed between the two renames of replace() left the graph (or the host ids)
+    // in previous.*, and the updated one in its place in the update; finish moving it
+    finishReplace(fs, hostGraph, updatedHostGraph, previousHostGraph);
+    finishReplace(fs, graph, updatedGraph, previousGraph);
+    if(fs.exists(previousGraph)) {
+      // the graph is replaced last, so the update is complete
+      LOG.info("Update " + updateName + " has already been applied");
+      return 0;
+    }
+
+    // merging needs the graph sorted by docno, as all the updates after the first leave it
+    if(!fs.exists(graph)) {
+      // sorting the unsorted graph again would drop all the updates
+      Path updates = new Path(base, DriverUtil.OUTPUT_UPDATES);
+      if(fs.exists(updates)) {
+        for(FileStatus status : fs.listStatus(updates)) {
+          Path previous = new Path(status.getPath(), "previous." + graph.getName());
+          if(fs.exists(previous)) {
+            throw new RuntimeException("Error: " + graph + " is missing but " + previous +
+                                       " exists; move the graph of the latest update back to " +
+                                       graph);
+          }
+        }
+      }
+      Path unsorted = new Path(base, DriverUtil.OUTPUT_REVERSE_WEBGRAPH);
+      int partitions = MergeReverseWebGraph.listParts(fs, unsorted).length;
+      int r = ToolRunner.run(conf, new SortWebGraph(), new String[] {
+          unsorted.toString(), graph.toString(), String.valueOf(numberOfDocuments),
+          String.valueOf(partitions) });
+      if(r != 0) {
+        return -1;
+      }
+    }
+    int partitions = MergeReverseWebGraph.listParts(fs, graph).length;
+
+    conf.set("Cloud9.InputPath", oldLinks);
+    conf.set("Cloud9.UpdateInputPath", newLinks);
+    conf.set("Cloud9.ReverseWebGraph", graph.toString());
+    conf.set("Cloud9.OutputPath", updateDir.toString());
+    conf.setInt("Cloud9.Mappers", 1);
+    conf.setInt("Cloud9.Reducers", numReducers);
+    if(new UpdateReverseWebGraph(conf).run() != 0) {
+      return -1;
+    }
+
+    if(computeAnchorWeights) {
+      if(!fs.exists(previousHostGraph)) {
+        // the new documents need host ids for the weights of the links from them
+        Configuration hostConf = new Configuration(conf);
+        hostConf.set("Cloud9.InputPath", newLinks);
+        hostConf.set("Cloud9.OutputPath", updatedHostGraph.toString());
+        hostConf.set("Cloud9.PreviousHostGraph", hostGraph.toString());
+        hostConf.setInt("Cloud9.Mappers", 1);
+        hostConf.setInt("Cloud9.Reducers", numReducers);
+        int r = new BuildHostGraph(hostConf).run();
+        if(r != 0) {
+          return -1;
+        }
+      }
+
+      // weights only depend on the incoming links of a document, so only the documents whose
+      // incoming links changed get new weights; ranges of docnos keep the output sorted
+      conf.set("Cloud9.InputPath", new Path(updateDir, UpdateReverseWebGraph.CHANGED).toString());
+      conf.set("Cloud9.OutputPath",
+               new Path(updateDir, DriverUtil.OUTPUT_WEGIHTED_REVERSE_WEBGRAPH).toString());
+      conf.set("Cloud9.HostIdMappingFile",
+               new Path(fs.exists(previousHostGraph) ? hostGraph : updatedHostGraph,
+                        BuildHostGraph.HOST_ID_MAPPING).toString());
+      conf.setInt("Cloud9.Mappers", 1);
+      conf.setInt("Cloud9.Reducers", partitions);
+      int r = new ComputeWeight(conf).run();
+      if(r != 0) {
+        return -1;
+      }
+
+      replace(fs, hostGraph, updatedHostGraph, previousHostGraph);
+    }
+
+    replace(fs, graph, updatedGraph, previousGraph);
+    return 0;
+  }
+
+  // completes a replace() that moved current to previous but failed before moving updated
+  private static void finishReplace(FileSystem fs, Path current, Path updated, Path previous)
+      throws Exception {
+    if(fs.exists(previous) && !fs.exists(current)) {
+      LOG.info("Moving " + updated + " to " + current + " (left by an earlier run)");
+      if(!fs.rename(updated, current)) {
+        throw new RuntimeException("Error: cannot move " + updated + " to " + current);
+      }
+    }
+  }
+
+  // moves current to previous and updated to current, unless an earlier run did already
+  private static void replace(FileSystem fs, Path current, Path updated, Path previous)
+      throws Exception {
+    if(!fs.exists(previous)) {
+      LOG.info("Moving " + current + " to " + previous);
+      if(!fs.rename(current, previous)) {
+        throw new RuntimeException("Error: cannot move " + current + " to " + previous);
+      }
+    }
+    if(!fs.exists(current)) {
+      LOG.info("Moving " + updated + " to " + current);
+      if(!fs.rename(updated, current)) {
+        throw new RuntimeException("Error: cannot move " + updated + " to " + current);
+      }
+    }
+  }
+}
@@ -56,9 +56,13 @@ import edu.umd.cloud9.webgraph.data.AnchorText;
 @SuppressWarnings("deprecation")
 public class SortWebGraph extends Configured implements Tool {
   private static final Logger LOG = Logger.getLogger(SortWebGraph.class);
-  private static final int DEFAULT_NUMBER_OF_DOCUMENTS = 503903810;
+  public static final int DEFAULT_NUMBER_OF_DOCUMENTS = 503903810;
 
-  protected static class Partition implements
+  /**
+   * Partitions documents into ranges of docnos, so that the part files of the output, read in
+   * order, are sorted by docno.
+   */
+  public static class Partition implements
       Partitioner<IntWritable, ArrayListWritable<AnchorText>> {
     int totalDocuments;
 
@@ -69,7 +73,15 @@ public class SortWebGraph extends Configured implements Tool {
 
     public int getPartition(IntWritable key,
         ArrayListWritable<AnchorText> value, int numReduceTasks) {
-      int i = (key.get() / (totalDocuments / numReduceTasks));
+      return getPartition(key.get(), totalDocuments, numReduceTasks);
+    }
+
+    /**
+     * Returns the range a docno falls in; docnos past the estimated number of documents all go
+     * to the last range.
+     */
+    public static int getPartition(int docno, int totalDocuments, int numReduceTasks) {
+      int i = (docno / (totalDocuments / numReduceTasks));
       if(i >= numReduceTasks) {
         i = numReduceTasks - 1;
       }
@@ -108,6 +120,12 @@ public class SortWebGraph extends Configured implements Tool {
     conf.set("mapreduce.reduce.java.opts", "-Xmx2048m");
     conf.set("mapreduce.task.timeout", "60000000");
 
+    // the output is in the format of the input, ArrayListWritable or AnchorTextList
+    SequenceFile.Reader reader =
+      CompactAnchorTextCollection.openFirstFile(fs, new Path(inputPath), conf);
+    Class<?> valueClass = reader.getValueClass();
+    reader.close();
+
     if(numberOfDocuments == 0) {
       numberOfDocuments = DEFAULT_NUMBER_OF_DOCUMENTS;
     }
@@ -118,9 +136,9 @@ public class SortWebGraph extends Configured implements Tool {
     conf.setPartitionerClass(Partition.class);
     conf.setReducerClass(IdentityReducer.class);
     conf.setOutputKeyClass(IntWritable.class);
-    conf.setOutputValueClass(ArrayListWritable.class);
+    conf.setOutputValueClass(valueClass);
     conf.setMapOutputKeyClass(IntWritable.class);
-    conf.setMapOutputValueClass(ArrayListWritable.class);
+    conf.setMapOutputValueClass(valueClass);
     conf.setInputFormat(SequenceFileInputFormat.class);
     conf.setOutputFormat(SequenceFileOutputFormat.class);
     SequenceFileOutputFormat.setCompressOutput(conf, true);
@@ -20,16 +20,20 @@ import java.io.File;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
+import edu.umd.cloud9.webgraph.BuildHostGraph;
 import edu.umd.cloud9.webgraph.BuildReverseWebGraph;
 import edu.umd.cloud9.webgraph.BuildWebGraph;
 import edu.umd.cloud9.webgraph.CollectionConfigurationManager;
-import edu.umd.cloud9.webgraph.CollectHostnames;
 import edu.umd.cloud9.webgraph.ComputeWeight;
 import edu.umd.cloud9.webgraph.DriverUtil;
 import edu.umd.cloud9.webgraph.TrecExtractLinks;
+import edu.umd.cloud9.webgraph.data.AnchorTextMerger;
 import edu.umd.cloud9.webgraph.normalizer.AnchorTextNormalizer;
 
 /**
@@ -50,6 +54,19 @@ import edu.umd.cloud9.webgraph.normalizer.AnchorTextNormalizer;
  * domain) remove for not</li>
  * <li>[-caw]: use this to compute the default weights for lines of external
  * anchor text, remove for not</li>
+ * <li>[-hg]: use this to assign ids to the hosts and build the host graph, which is done
+ * anyway with -caw</li>
+ * <li>[-maxSources n]: keep a uniform sample of at most n sources/targets for each
+ * line of anchor text</li>
+ * <li>[-update]: add the documents of collection_base_path, which must have docnos of their
+ * own in the docno mapping, to the collection already built under output-base-path, instead of
+ * building it from scratch (see {@link IncrementalUpdate}); needs the number of documents of the
+ * collection, set with <code>-D Cloud9.NumberOfDocuments=n</code></li>
+ * <li>[-urlFilter]: drop the links to documents outside the collection during link extraction,
+ * with a Bloom filter of the URLs of the collection (see {@link TrecExtractLinks}); links to
+ * the documents of later updates are dropped too, so not for use with -update</li>
+ * <li>[-urls]: write the URLs of the fingerprints the extracted links are keyed by (see
+ * {@link TrecExtractLinks})</li>
  * <li>[-normalizer normalizer] A normalizer class used to normalize the lines of anchor
  * text, must extend *.anchor.normalize.AnchorTextNormalizer.</li>
  * <li>[<key:value> ..]: key-value pairs to put in configuration files. It shall
@@ -75,6 +92,10 @@ public class TrecDriver extends Configured implements Tool {
   private String outputBase;
   private boolean includeInternalLinks = false;
   private boolean computeAnchorWeights = false;
+  private boolean buildHostGraph = false;
+  private boolean update = false;
+  private boolean urlFilter = false;
+  private boolean urls = false;
   private String normalizer = "edu.umd.cloud9.webgraph.normalizer.AnchorTextBasicNormalizer";
   private String filtername = null;
   private Configuration conf;
@@ -98,14 +119,44 @@ public class TrecDriver extends Configured implements Tool {
     // Extract link information for each segment separately
     String inputPath = inputBase;
     String outputPath = outputBase + "/" + DriverUtil.OUTPUT_EXTRACT_LINKS;
+    String updateName = new File(inputBase).getName();
+    String urlsPath = outputBase + "/" + DriverUtil.OUTPUT_URLS;
+    if (update) {
+      outputPath = outputBase + "/" + DriverUtil.OUTPUT_UPDATES + "/" + updateName + "/" +
+        DriverUtil.OUTPUT_EXTRACT_LINKS;
+      urlsPath = outputBase + "/" + DriverUtil.OUTPUT_UPDATES + "/" + updateName + "/" +
+        DriverUtil.OUTPUT_URLS;
+    }
 
     conf.set("Cloud9.InputPath", inputPath);
     conf.set("Cloud9.OutputPath", outputPath);
+    if (urlFilter) {
+      conf.set("Cloud9.UrlFilterFile", outputBase + "/" + DriverUtil.OUTPUT_URL_FILTER);
+    }
+    if (urls) {
+      conf.set("Cloud9.UrlsOutputPath", urlsPath);
+    }
     int r = new TrecExtractLinks(conf, configer).run();
     if (r != 0) {
       return -1;
     }
 
+    if (update) {
+      // the links of the documents added by the earlier updates are with them
+      String oldLinks = outputBase + "/" + DriverUtil.OUTPUT_EXTRACT_LINKS;
+      FileSystem fs = FileSystem.get(conf);
+      Path updates = new Path(outputBase, DriverUtil.OUTPUT_UPDATES);
+      for (FileStatus status : fs.listStatus(updates)) {
+        Path links = new Path(status.getPath(), DriverUtil.OUTPUT_EXTRACT_LINKS);
+        if (!status.getPath().getName().equals(updateName) && fs.exists(links)) {
+          oldLinks += "," + links;
+        }
+      }
+
+      return IncrementalUpdate.run(conf, outputBase, updateName, oldLinks, outputPath,
+          computeAnchorWeights, DriverUtil.DEFAULT_REDUCERS);
+    }
+
     // Job 2:
     // Construct the reverse web graph (i.e., collect incoming link
     // information)
@@ -132,25 +183,28 @@ public class TrecDriver extends Configured implements Tool {
       return -1;
     }
 
-    if (computeAnchorWeights) {
-      // Propagating domain names in order to compute anchor weights
+    if (computeAnchorWeights || buildHostGraph) {
+      // Assign ids to the hosts, which are needed to compute anchor weights
       inputPath = outputBase + "/" + DriverUtil.OUTPUT_WEBGRAPH + "/";
-      outputPath = outputBase + "/" + DriverUtil.OUTPUT_HOST_NAMES + "/";
+      outputPath = outputBase + "/" + DriverUtil.OUTPUT_HOST_GRAPH + "/";
       conf.set("Cloud9.InputPath", inputPath);
       conf.set("Cloud9.OutputPath", outputPath);
       conf.setInt("Cloud9.Mappers", 1);
       conf.setInt("Cloud9.Reducers", DriverUtil.DEFAULT_REDUCERS);
-      r = new CollectHostnames(conf).run();
+      r = new BuildHostGraph(conf).run();
       if (r != 0) {
         return -1;
       }
+    }
 
+    if (computeAnchorWeights) {
       // Compute the weights
-      inputPath = outputBase + "/" + DriverUtil.OUTPUT_REVERSE_WEBGRAPH + "/," +
-        outputBase + "/" + DriverUtil.OUTPUT_HOST_NAMES + "/";
+      inputPath = outputBase + "/" + DriverUtil.OUTPUT_REVERSE_WEBGRAPH + "/";
       outputPath = outputBase + "/" + DriverUtil.OUTPUT_WEGIHTED_REVERSE_WEBGRAPH + "/";
       conf.set("Cloud9.InputPath", inputPath);
       conf.set("Cloud9.OutputPath", outputPath);
+      conf.set("Cloud9.HostIdMappingFile", outputBase + "/" + DriverUtil.OUTPUT_HOST_GRAPH + "/" +
+               BuildHostGraph.HOST_ID_MAPPING);
       conf.setInt("Cloud9.Mappers", 1);
       conf.setInt("Cloud9.Reducers", DriverUtil.DEFAULT_REDUCERS);
       r = new ComputeWeight(conf).run();
@@ -177,6 +231,11 @@ public class TrecDriver extends Configured implements Tool {
                        "-docno userSpecifiedDocnoMappingFile " +
                        "[-il] " +
                        "[-caw] " +
+                       "[-hg] " +
+                       "[-maxSources n] " +
+                       "[-update] " +
+                       "[-urlFilter] " +
+                       "[-urls] " +
                        "[-normalizer normalizerClass] ");
     System.out.println("Help:");
     System.out.println("[" + DriverUtil.CL_INPUT + " collection-path]\n\tinput directory");
@@ -195,6 +254,19 @@ public class TrecDriver extends Configured implements Tool {
       .println(DriverUtil.CL_INCLUDE_INTERNAL_LINKS + "\n\tinclude internal links, without this option we will not include internal links");
     System.out
       .println(DriverUtil.CL_COMPUTE_WEIGHTS + "\n\tcompute default anchor weights, without this option we will not compute default anchor weights");
+    System.out
+      .println(DriverUtil.CL_HOST_GRAPH + "\n\tassign ids to the hosts and build the host graph, which is also done when computing default anchor weights");
+    System.out
+      .println(DriverUtil.CL_MAX_ANCHOR_SOURCES + " n\n\tkeep a uniform sample of at most n sources/targets for each line of anchor text," +
+               " without this option we keep all of them");
+    System.out
+      .println(DriverUtil.CL_UPDATE + "\n\tadd the documents to the collection already built under output-base," +
+               " extracting links only from them");
+    System.out
+      .println(DriverUtil.CL_URL_FILTER + "\n\tdrop the links to documents outside the collection before shuffling them," +
+               " with a Bloom filter of their urls");
+    System.out
+      .println(DriverUtil.CL_URLS + "\n\twrite the urls of the fingerprints the extracted links are keyed by");
     System.out
       .println(DriverUtil.CL_NORMALIZER + " normalizerClass\n\ta normalizer class used to normalize the lines of anchor text," +
                " must extend edu.umd.cloud9.webgraph.normalize.AnchorTextNormalizer.");
@@ -240,6 +312,25 @@ public class TrecDriver extends Configured implements Tool {
     conf.set("Cloud9.DocnoMappingFile", DriverUtil.argValue(args, DriverUtil.CL_DOCNO_MAPPING));
     includeInternalLinks = DriverUtil.argExists(args, DriverUtil.CL_INCLUDE_INTERNAL_LINKS);
     computeAnchorWeights = DriverUtil.argExists(args, DriverUtil.CL_COMPUTE_WEIGHTS);
+    buildHostGraph = DriverUtil.argExists(args, DriverUtil.CL_HOST_GRAPH);
+    update = DriverUtil.argExists(args, DriverUtil.CL_UPDATE);
+    urlFilter = DriverUtil.argExists(args, DriverUtil.CL_URL_FILTER);
+    urls = DriverUtil.argExists(args, DriverUtil.CL_URLS);
+    if (update && urlFilter) {
+      System.out.println(DriverUtil.CL_URL_FILTER + " can't be used with " + DriverUtil.CL_UPDATE);
+      return false;
+    }
+    // the default is the number of documents of ClueWeb09, which would put every docno of a
+    // smaller collection in the first partition of the sorted graph
+    if (update && conf.get("Cloud9.NumberOfDocuments") == null) {
+      System.out.println(DriverUtil.CL_UPDATE + " needs the number of documents of the collection," +
+                         " set with -D Cloud9.NumberOfDocuments=n");
+      return false;
+    }
+    if (DriverUtil.argExists(args, DriverUtil.CL_MAX_ANCHOR_SOURCES)) {
+      conf.setInt(AnchorTextMerger.MAX_SOURCES,
+          Integer.parseInt(DriverUtil.argValue(args, DriverUtil.CL_MAX_ANCHOR_SOURCES)));
+    }
 
     String nm = DriverUtil.argValue(args, DriverUtil.CL_NORMALIZER);
     try {
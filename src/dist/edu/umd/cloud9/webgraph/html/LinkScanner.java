@@ -0,0 +1,328 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.html;
+
+import java.nio.charset.Charset;
+
+/**
+ * Finds the links of an HTML document in a single pass over its UTF-8 bytes, without building a
+ * DOM and without recursion, so deeply nested or broken markup can't overflow the stack. For each
+ * <code>&lt;a&gt;</code> tag, {@link #next()} gives the <code>href</code>, resolved against the
+ * document URL or a preceding <code>&lt;base href&gt;</code>, and the anchor text.
+ *
+ * The anchor text follows htmlparser's <code>LinkTag.getLinkText()</code>: the raw text of
+ * everything inside the link, without tags, comments, scripts or styles, and with entities left
+ * as they are. A link ends at <code>&lt;/a&gt;</code>, at the next <code>&lt;a&gt;</code>, or at
+ * the start or end of a <code>p</code>, <code>div</code>, <code>td</code>, <code>tr</code>,
+ * <code>form</code>, <code>li</code>, <code>body</code> or <code>html</code> element.
+ *
+ * A scanner is meant to be reused across documents:
+ *
+ * <pre>
+ * scanner.reset(content, offset, length, url);
+ * while (scanner.next()) {
+ *   String link = scanner.getUrl();
+ *   String text = scanner.getAnchorText();
+ * }
+ * </pre>
+ */
+public class LinkScanner {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  // tags that end a link when they start or end
+  private static final String[] LINK_ENDERS =
+    { "p", "div", "td", "tr", "form", "li", "body", "html" };
+
+  private final UrlResolver resolver = new UrlResolver();
+
+  private byte[] buf;
+  private int pos;
+  private int end;
+
+  // the tag being looked at
+  private int nameStart;
+  private int nameLength;
+  private int hrefStart;
+  private int hrefLength;
+
+  private String url;
+  private byte[] text = new byte[256];
+  private int textLength;
+  private String anchorText;
+
+  /**
+   * Starts scanning <code>length</code> bytes of <code>content</code> from <code>offset</code>,
+   * the HTML of the document at <code>documentUrl</code>.
+   */
+  public void reset(byte[] content, int offset, int length, String documentUrl) {
+    buf = content;
+    pos = offset;
+    end = offset + length;
+    resolver.setBase(documentUrl);
+  }
+
+  /**
+   * Moves on to the next link, returning false if there are none left.
+   */
+  public boolean next() {
+    while (pos < end) {
+      int lt = indexOf((byte) '<', pos);
+      if (lt < 0) {
+        pos = end;
+        return false;
+      }
+      pos = lt;
+      if (!isStartTag(pos)) {
+        skipMarkup();
+        continue;
+      }
+      readStartTag();
+      if (nameIs("a")) {
+        url = resolver.resolve(hrefLength < 0 ? null : new String(buf, hrefStart, hrefLength, UTF8));
+        readLinkText();
+        return true;
+      } else if (nameIs("base")) {
+        if (hrefLength > 0)
+          resolver.setBase(resolver.resolve(new String(buf, hrefStart, hrefLength, UTF8)));
+      } else if (nameIs("script") || nameIs("style")) {
+        skipRawText();
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the URL of the current link, or the empty string if it has no <code>href</code>.
+   */
+  public String getUrl() {
+    return url;
+  }
+
+  public String getAnchorText() {
+    if (anchorText == null)
+      anchorText = new String(text, 0, textLength, UTF8);
+    return anchorText;
+  }
+
+  /**
+   * Returns the URL that relative links are currently resolved against.
+   */
+  public String getBase() {
+    return resolver.getBase();
+  }
+
+  private void readLinkText() {
+    textLength = 0;
+    anchorText = null;
+    while (pos < end) {
+      int lt = indexOf((byte) '<', pos);
+      if (lt < 0)
+        lt = end;
+      appendText(pos, lt);
+      pos = lt;
+      if (pos == end)
+        return;
+      if (isStartTag(pos)) {
+        int tag = pos;
+        readStartTag();
+        if (nameIs("a") || isLinkEnder()) {
+          pos = tag;
+          return;
+        }
+        if (nameIs("script") || nameIs("style"))
+          skipRawText();
+      } else if (isEndTag(pos)) {
+        skipMarkup();
+        if (nameIs("a") || isLinkEnder())
+          return;
+      } else if (isMarkup(pos)) {
+        skipMarkup();
+      } else {
+        appendText(pos, pos + 1);
+        pos++;
+      }
+    }
+  }
+
+  private boolean isLinkEnder() {
+    for (String s : LINK_ENDERS)
+      if (nameIs(s))
+        return true;
+    return false;
+  }
+
+  private void appendText(int from, int to) {
+    int n = to - from;
+    if (textLength + n > text.length) {
+      byte[] b = new byte[Math.max(text.length * 2, textLength + n)];
+      System.arraycopy(text, 0, b, 0, textLength);
+      text = b;
+    }
+    System.arraycopy(buf, from, text, textLength, n);
+    textLength += n;
+  }
+
+  private static boolean isSpace(byte b) {
+    return b >= 0 && b <= ' ';
+  }
+
+  private static boolean isLetter(byte b) {
+    return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+  }
+
+  private boolean isStartTag(int i) {
+    return i + 1 < end && isLetter(buf[i + 1]);
+  }
+
+  private boolean isEndTag(int i) {
+    return i + 2 < end && buf[i + 1] == '/' && isLetter(buf[i + 2]);
+  }
+
+  // Tags, end tags, comments, declarations and processing instructions; anything else is text.
+  private boolean isMarkup(int i) {
+    if (i + 1 >= end)
+      return false;
+    byte b = buf[i + 1];
+    return isLetter(b) || b == '!' || b == '?' || isEndTag(i);
+  }
+
+  private int indexOf(byte b, int from) {
+    for (int i = from; i < end; i++)
+      if (buf[i] == b)
+        return i;
+    return -1;
+  }
+
+  private boolean startsWithIgnoreCase(int i, String s) {
+    if (i + s.length() > end)
+      return false;
+    for (int j = 0; j < s.length(); j++) {
+      int b = buf[i + j];
+      if (b >= 'A' && b <= 'Z')
+        b += 'a' - 'A';
+      if (b != s.charAt(j))
+        return false;
+    }
+    return true;
+  }
+
+  private boolean nameIs(String s) {
+    return nameLength == s.length() && startsWithIgnoreCase(nameStart, s);
+  }
+
+  private int readName(int i) {
+    nameStart = i;
+    while (i < end) {
+      byte b = buf[i];
+      if (b == '>' || b == '/' || isSpace(b))
+        break;
+      i++;
+    }
+    nameLength = i - nameStart;
+    return i;
+  }
+
+  /**
+   * Reads the start tag at pos, noting its name and href, and moves pos past it.
+   */
+  private void readStartTag() {
+    int i = readName(pos + 1);
+    hrefLength = -1;
+    while (i < end) {
+      byte b = buf[i];
+      if (b == '>') {
+        i++;
+        break;
+      }
+      if (isSpace(b) || b == '/') {
+        i++;
+        continue;
+      }
+      int attrStart = i;
+      while (i < end && buf[i] != '=' && buf[i] != '>' && !isSpace(buf[i]))
+        i++;
+      int attrLength = i - attrStart;
+      while (i < end && isSpace(buf[i]))
+        i++;
+      if (i == end || buf[i] != '=')
+        continue;
+      i++;
+      while (i < end && isSpace(buf[i]))
+        i++;
+      int valueStart;
+      int valueEnd;
+      if (i < end && (buf[i] == '"' || buf[i] == '\'')) {
+        byte quote = buf[i++];
+        valueStart = i;
+        int close = indexOf(quote, i);
+        if (close < 0) {
+          close = indexOf((byte) '>', i);
+          if (close < 0)
+            close = end;
+          i = close;
+        } else {
+          i = close + 1;
+        }
+        valueEnd = close;
+      } else {
+        valueStart = i;
+        while (i < end && buf[i] != '>' && !isSpace(buf[i]))
+          i++;
+        valueEnd = i;
+      }
+      if (hrefLength < 0 && attrLength == 4 && startsWithIgnoreCase(attrStart, "href")) {
+        hrefStart = valueStart;
+        hrefLength = valueEnd - valueStart;
+      }
+    }
+    pos = i;
+  }
+
+  /**
+   * Moves pos past the end tag, comment or other markup at pos, or past a lone '&lt;'.
+   */
+  private void skipMarkup() {
+    if (startsWithIgnoreCase(pos, "<!--")) {
+      int i = pos + 4;
+      while (i < end && !startsWithIgnoreCase(i, "-->"))
+        i++;
+      pos = Math.min(end, i + 3);
+      return;
+    }
+    if (!isMarkup(pos)) {
+      pos++;
+      return;
+    }
+    if (isEndTag(pos))
+      readName(pos + 2);
+    else
+      nameLength = 0;
+    int gt = indexOf((byte) '>', pos);
+    pos = gt < 0 ? end : gt + 1;
+  }
+
+  /**
+   * Moves pos to the end tag of the script or style whose start tag was just read.
+   */
+  private void skipRawText() {
+    String close = nameIs("script") ? "</script" : "</style";
+    int i = pos;
+    while (i < end && !startsWithIgnoreCase(i, close))
+      i++;
+    pos = i;
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.html;
+
+/**
+ * <p>
+ * Puts absolute URLs in a canonical form, so that the different ways of writing the URL of a
+ * document all get the same key: the scheme and the host are lowercased, user info, the default
+ * port of the scheme, the fragment and trailing slashes are removed, and <code>.</code> and
+ * <code>..</code> segments of the path are resolved. For example,
+ * <code>HTTP://www.Example.com:80/a/./b/../c/#top</code> becomes
+ * <code>http://www.example.com/a/c</code>. The query is kept unless asked otherwise.
+ * </p>
+ *
+ * <p>
+ * URLs are scanned once, without {@link java.net.URI}, and no exception is thrown: URLs without
+ * a scheme and a host (relative URLs, <code>mailto:</code> and <code>javascript:</code> links)
+ * and hosts with characters other than letters, digits, <code>-</code>, <code>.</code> and
+ * <code>_</code> are rejected, and anything else, such as characters that should be
+ * percent-encoded, is left alone. An instance is meant to be reused, by one thread.
+ * </p>
+ *
+ * <p>
+ * {@link #fingerprint(CharSequence)} gives 64-bit keys for canonical URLs, which are cheaper to
+ * shuffle and compare than the URLs themselves.
+ * </p>
+ */
+public class UrlCanonicalizer {
+  private final boolean keepQuery;
+  private final StringBuilder buffer = new StringBuilder();
+  private String url;       // the last canonical URL
+  private int hostStart;    // the host in url
+  private int hostEnd;
+
+  /**
+   * Creates a canonicalizer that keeps queries.
+   */
+  public UrlCanonicalizer() {
+    this(true);
+  }
+
+  /**
+   * Creates a canonicalizer.
+   *
+   * @param keepQuery whether to keep the query of URLs, or remove it
+   */
+  public UrlCanonicalizer(boolean keepQuery) {
+    this.keepQuery = keepQuery;
+  }
+
+  /**
+   * Returns the canonical form of an absolute URL, or null if it isn't one. The URL itself is
+   * returned if it is already canonical.
+   */
+  public String canonicalize(String s) {
+    url = null;
+    if (s == null)
+      return null;
+
+    int start = 0;
+    int end = s.length();
+    while (start < end && s.charAt(start) <= ' ')
+      start++;
+    while (end > start && s.charAt(end - 1) <= ' ')
+      end--;
+
+    buffer.setLength(0);
+
+    // scheme
+    int i = start;
+    if (i == end || !isLetter(s.charAt(i)))
+      return null;
+    while (i < end && s.charAt(i) != ':') {
+      char c = s.charAt(i);
+      if (!isLetter(c) && !(c >= '0' && c <= '9') && c != '+' && c != '-' && c != '.')
+        return null;
+      buffer.append(toLowerCase(c));
+      i++;
+    }
+    if (i + 2 >= end || s.charAt(i + 1) != '/' || s.charAt(i + 2) != '/')
+      return null;
+    int defaultPort = defaultPort(buffer);
+    buffer.append("://");
+    i += 3;
+
+    // authority, without user info
+    int authorityEnd = i;
+    while (authorityEnd < end && "/?#".indexOf(s.charAt(authorityEnd)) < 0)
+      authorityEnd++;
+    int at = s.lastIndexOf('@', authorityEnd - 1);
+    if (at >= i)
+      i = at + 1;
+
+    int hostEndInUrl;
+    hostStart = buffer.length();
+    if (i < authorityEnd && s.charAt(i) == '[') {
+      // IPv6 address
+      hostEndInUrl = s.indexOf(']', i);
+      if (hostEndInUrl < 0 || hostEndInUrl >= authorityEnd)
+        return null;
+      hostEndInUrl++;
+      for (int j = i; j < hostEndInUrl; j++)
+        buffer.append(toLowerCase(s.charAt(j)));
+    } else {
+      hostEndInUrl = i;
+      while (hostEndInUrl < authorityEnd && s.charAt(hostEndInUrl) != ':') {
+        char c = s.charAt(hostEndInUrl);
+        if (!isLetter(c) && !(c >= '0' && c <= '9') && c != '-' && c != '.' && c != '_')
+          return null;
+        buffer.append(toLowerCase(c));
+        hostEndInUrl++;
+      }
+      // www.example.com. is www.example.com
+      while (buffer.length() > hostStart && buffer.charAt(buffer.length() - 1) == '.')
+        buffer.setLength(buffer.length() - 1);
+    }
+    hostEnd = buffer.length();
+    if (hostEnd == hostStart)
+      return null;
+
+    // port
+    if (hostEndInUrl < authorityEnd) {
+      if (s.charAt(hostEndInUrl) != ':')
+        return null;
+      int port = 0;
+      for (int j = hostEndInUrl + 1; j < authorityEnd; j++) {
+        char c = s.charAt(j);
+        if (c < '0' || c > '9')
+          return null;
+        port = port * 10 + (c - '0');
+        if (port > 65535)
+          return null;
+      }
+      // an empty port is the default one
+      if (hostEndInUrl + 1 < authorityEnd && port != defaultPort)
+        buffer.append(':').append(port);
+    }
+
+    // path, with its dot segments resolved
+    int pathStart = buffer.length();
+    int pathEnd = authorityEnd;
+    while (pathEnd < end && s.charAt(pathEnd) != '?' && s.charAt(pathEnd) != '#')
+      pathEnd++;
+    i = authorityEnd;
+    while (i < pathEnd) {
+      // s.charAt(i) is a '/'
+      int next = i + 1;
+      while (next < pathEnd && s.charAt(next) != '/')
+        next++;
+
+      int length = next - i - 1;
+      if (length == 2 && s.charAt(i + 1) == '.' && s.charAt(i + 2) == '.') {
+        int slash = buffer.lastIndexOf("/");
+        buffer.setLength(slash >= pathStart ? slash : pathStart);
+      } else if (length != 1 || s.charAt(i + 1) != '.') {
+        buffer.append(s, i, next);
+      }
+      i = next;
+    }
+    while (buffer.length() > pathStart && buffer.charAt(buffer.length() - 1) == '/')
+      buffer.setLength(buffer.length() - 1);
+
+    // query, without the fragment
+    if (keepQuery && pathEnd < end && s.charAt(pathEnd) == '?') {
+      int queryEnd = s.indexOf('#', pathEnd);
+      if (queryEnd < 0 || queryEnd > end)
+        queryEnd = end;
+      if (queryEnd > pathEnd + 1)
+        buffer.append(s, pathEnd, queryEnd);
+    }
+
+    url = s.contentEquals(buffer) ? s : buffer.toString();
+    return url;
+  }
+
+  /**
+   * Returns the host of the last URL canonicalized, lowercased, or null if it wasn't an
+   * absolute URL.
+   */
+  public String getHost() {
+    return url == null ? null : url.substring(hostStart, hostEnd);
+  }
+
+  /**
+   * Returns a 64-bit fingerprint of a URL: FNV-1a over its chars, with the bits mixed by the
+   * finalizer of MurmurHash3. Different URLs may share a fingerprint, but with 64 bits, that
+   * is rare enough to be ignored in practice.
+   */
+  public static long fingerprint(CharSequence s) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < s.length(); i++) {
+      h ^= s.charAt(i);
+      h *= 0x100000001b3L;
+    }
+
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static boolean isLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static char toLowerCase(char c) {
+    return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+  }
+
+  private static int defaultPort(CharSequence scheme) {
+    if (equals(scheme, "http"))
+      return 80;
+    if (equals(scheme, "https"))
+      return 443;
+    if (equals(scheme, "ftp"))
+      return 21;
+    return -1;
+  }
+
+  private static boolean equals(CharSequence a, String b) {
+    if (a.length() != b.length())
+      return false;
+    for (int i = 0; i < b.length(); i++) {
+      if (a.charAt(i) != b.charAt(i))
+        return false;
+    }
+    return true;
+  }
+}
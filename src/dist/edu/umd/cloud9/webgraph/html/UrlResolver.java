@@ -0,0 +1,206 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.html;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Resolves the <code>href</code>s of a document against its base URL the way htmlparser's
+ * <code>LinkTag.extractLink()</code> does. The base is parsed once per document, and the common
+ * cases (absolute http(s) links, host-relative paths, plain relative paths, queries and fragments)
+ * are resolved by string concatenation. Anything else, such as dot segments, backslashes, other
+ * schemes, user info or an odd base, goes through {@link java.net.URL} exactly as htmlparser does.
+ * An instance is meant to be reused across documents.
+ */
+public class UrlResolver {
+  private String base;
+  private URL baseUrl;
+  private boolean simpleBase;
+  private int authorityEnd; // index of the path in base
+  private int dirEnd;       // index after the last '/' of the path of base
+  private int queryStart;   // index of the first '?' in base, or -1
+
+  /**
+   * Sets the URL that links are resolved against.
+   */
+  public void setBase(String base) {
+    this.base = base;
+    baseUrl = null;
+    simpleBase = false;
+    if (base == null)
+      return;
+
+    int scheme = httpSchemeLength(base);
+    if (scheme < 0 || base.indexOf('#') >= 0 || base.indexOf('\\') >= 0
+        || base.charAt(base.length() - 1) <= ' ')
+      return;
+    authorityEnd = authorityEnd(base, scheme);
+    if (authorityEnd < 0 || base.indexOf("/.", authorityEnd) >= 0)
+      return;
+    queryStart = base.indexOf('?', authorityEnd);
+    int pathEnd = queryStart < 0 ? base.length() : queryStart;
+    dirEnd = base.lastIndexOf('/', pathEnd - 1) + 1;
+    simpleBase = dirEnd > authorityEnd;
+    if (!base.regionMatches(0, base.toLowerCase(), 0, scheme))
+      simpleBase = false;
+  }
+
+  public String getBase() {
+    return base;
+  }
+
+  /**
+   * Returns <code>href</code> resolved against the base, the empty string for an empty
+   * <code>href</code>, and <code>href</code> itself if it can't be resolved.
+   */
+  public String resolve(String href) {
+    if (href == null)
+      return "";
+    if (href.indexOf('\n') >= 0 || href.indexOf('\r') >= 0)
+      href = href.replace("\n", "").replace("\r", "");
+    if (href.length() == 0)
+      return "";
+    if (base == null)
+      return href;
+
+    String res = simpleBase ? resolveSimple(href) : null;
+    return res != null ? res : resolveWithURL(href);
+  }
+
+  private String resolveSimple(String href) {
+    if (href.charAt(0) <= ' ' || href.charAt(href.length() - 1) <= ' ' || href.indexOf('\\') >= 0)
+      return null;
+    char c = href.charAt(0);
+    String res;
+    int pathStart;
+    if (c == '/') {
+      if (href.length() > 1 && href.charAt(1) == '/')
+        return null;
+      res = base.substring(0, authorityEnd).concat(href);
+      pathStart = authorityEnd;
+    } else if (c == '?') {
+      int q = base.lastIndexOf('?');
+      res = (q < 0 ? base : base.substring(0, q)).concat(href);
+      pathStart = authorityEnd;
+    } else if (c == '#') {
+      res = base.concat(href);
+      pathStart = authorityEnd;
+    } else {
+      int colon = href.indexOf(':');
+      if (colon >= 0 && colon < firstOf(href, '/', '?', '#')) {
+        int scheme = httpSchemeLength(href);
+        if (scheme < 0)
+          return null;
+        pathStart = authorityEnd(href, scheme);
+        if (pathStart < 0)
+          return null;
+        res = href.substring(0, scheme).toLowerCase().concat(href.substring(scheme));
+      } else {
+        res = base.substring(0, dirEnd).concat(href);
+        pathStart = authorityEnd;
+      }
+    }
+    // dot segments, and paths htmlparser rewrites
+    if (res.indexOf("/.", pathStart) >= 0)
+      return null;
+    return res;
+  }
+
+  // Same as htmlparser's Page.constructUrl with strict set to false.
+  private String resolveWithURL(String link) {
+    try {
+      if (baseUrl == null)
+        baseUrl = new URL(base);
+      URL url;
+      if (link.charAt(0) == '?') {
+        int index = base.lastIndexOf('?');
+        url = new URL(index == -1 ? base + link : base.substring(0, index) + link);
+      } else {
+        url = new URL(baseUrl, link);
+      }
+      String path = url.getFile();
+      boolean modified = false;
+      if (!link.startsWith("/")) {
+        while (path.startsWith("/.")) {
+          if (path.startsWith("/../")) {
+            path = path.substring(3);
+            modified = true;
+          } else if (path.startsWith("/./") || path.startsWith("/.")) {
+            path = path.substring(2);
+            modified = true;
+          } else {
+            break;
+          }
+        }
+      }
+      int index;
+      while (-1 != (index = path.indexOf("/\\"))) {
+        path = path.substring(0, index + 1) + path.substring(index + 2);
+        modified = true;
+      }
+      if (modified)
+        url = new URL(url, path);
+      return url.toExternalForm();
+    } catch (MalformedURLException e) {
+      return link;
+    }
+  }
+
+  private static int firstOf(String s, char a, char b, char c) {
+    for (int i = 0; i < s.length(); i++) {
+      char x = s.charAt(i);
+      if (x == a || x == b || x == c)
+        return i;
+    }
+    return s.length();
+  }
+
+  // Returns the length of "http://" or "https://", in any case, at the start of s, or -1.
+  private static int httpSchemeLength(String s) {
+    if (s.regionMatches(true, 0, "http://", 0, 7))
+      return 7;
+    if (s.regionMatches(true, 0, "https://", 0, 8))
+      return 8;
+    return -1;
+  }
+
+  // Returns the end of a plain "host[:port]" authority starting at start, or -1.
+  private static int authorityEnd(String s, int start) {
+    int i = start;
+    while (i < s.length()) {
+      char c = s.charAt(i);
+      if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.'
+          || c == '-')
+        i++;
+      else
+        break;
+    }
+    if (i == start)
+      return -1;
+    if (i < s.length() && s.charAt(i) == ':') {
+      int p = ++i;
+      while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9')
+        i++;
+      if (i == p)
+        return -1;
+    }
+    if (i < s.length() && s.charAt(i) != '/')
+      return -1;
+    return i;
+  }
+}
@@ -27,7 +27,7 @@ import java.util.StringTokenizer;
 
 public class AnchorTextBasicNormalizer implements AnchorTextNormalizer {
 	
-	private static final String[] STOP_WORDS = { "your", "yours", "yourself",
+	static final String[] STOP_WORDS = { "your", "yours", "yourself",
 		"yourselves", "you", "yond", "yonder", "yon", "ye", "yet", "zillion",
 		"umpteen", "usually", "us", "username", "uponed", "upons", "uponing", "upon", "ups",
 		"upping", "upped", "up", "unto", "until", "unless", "unlike", "unliker", "unlikest",
@@ -0,0 +1,265 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.normalizer;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Normalizes lines of anchor text exactly as {@link AnchorTextBasicNormalizer} does, but without
+ * the tokenizers, regular expressions and intermediate strings: a line is copied into a reusable
+ * <code>char[]</code> without the tokens that look like URLs, lower-cased in place, and then
+ * split into words in a single pass that drops HTML entities, symbols and one-letter words. Stop
+ * words are recognized by walking a trie (a DFA over the characters of the stop words) compiled
+ * once from the stop words of {@link AnchorTextBasicNormalizer}.
+ * </p>
+ *
+ * <p>
+ * Lines of ASCII text are lower-cased with a table built for the default locale when the
+ * normalizer is created; other lines go through {@link String#toLowerCase()}, like the basic
+ * normalizer does. A normalizer keeps its buffers between calls, so it must not be shared by
+ * threads.
+ * </p>
+ */
+public class AnchorTextTrieNormalizer implements AnchorTextNormalizer {
+
+	// symbol of each character in the trie, or -1 if no stop word has it
+	private static final int[] symbols = new int[128];
+	private static final int alphabet;
+	// transitions[state * alphabet + symbol] is the next state, or -1; the root is state 0
+	private static final int[] transitions;
+	private static final boolean[] accepting;
+
+	static {
+		String[] words = AnchorTextBasicNormalizer.STOP_WORDS;
+
+		Arrays.fill(symbols, -1);
+		int n = 0;
+		int maxStates = 1;
+		for (String word : words) {
+			for (int i = 0; i < word.length(); i++) {
+				if (symbols[word.charAt(i)] < 0)
+					symbols[word.charAt(i)] = n++;
+			}
+			maxStates += word.length();
+		}
+		alphabet = n;
+
+		int[] next = new int[maxStates * alphabet];
+		boolean[] accept = new boolean[maxStates];
+		Arrays.fill(next, -1);
+
+		int states = 1;
+		for (String word : words) {
+			int state = 0;
+			for (int i = 0; i < word.length(); i++) {
+				int t = state * alphabet + symbols[word.charAt(i)];
+				if (next[t] < 0)
+					next[t] = states++;
+				state = next[t];
+			}
+			accept[state] = true;
+		}
+
+		transitions = Arrays.copyOf(next, states * alphabet);
+		accepting = Arrays.copyOf(accept, states);
+	}
+
+	// lower case of each ASCII character, or 0 if it isn't ASCII in the default locale
+	private final char[] lowerCase = new char[128];
+
+	private char[] buffer = new char[256];
+	private char[] output = new char[256];
+	private int outputLength;
+
+	public AnchorTextTrieNormalizer() {
+		for (char c = 0; c < 128; c++) {
+			String lower = String.valueOf(c).toLowerCase();
+			lowerCase[c] = lower.length() == 1 && lower.charAt(0) < 128 ? lower.charAt(0) : 0;
+		}
+	}
+
+	public boolean isStopWord(String word) {
+		char[] chars = word.toCharArray();
+		return isStopWord(chars, 0, chars.length);
+	}
+
+	private static boolean isStopWord(char[] chars, int start, int end) {
+		int state = 0;
+		for (int i = start; i < end; i++) {
+			char c = chars[i];
+			if (c >= 128 || symbols[c] < 0)
+				return false;
+
+			state = transitions[state * alphabet + symbols[c]];
+			if (state < 0)
+				return false;
+		}
+		return accepting[state];
+	}
+
+	public String normalize(String anchor) {
+		normalize(anchor, false);
+		return new String(output, 0, outputLength);
+	}
+
+	public String removeStopWords(String anchor) {
+		int n = anchor.length();
+		if (output.length < n)
+			output = new char[Math.max(n, output.length * 2)];
+
+		int length = 0;
+		int i = 0;
+		while (i < n) {
+			while (i < n && isDelimiter(anchor.charAt(i)))
+				i++;
+			if (i == n)
+				break;
+
+			int start = i;
+			while (i < n && !isDelimiter(anchor.charAt(i)))
+				i++;
+
+			int pos = length == 0 ? 0 : length + 1;
+			anchor.getChars(start, i, output, pos);
+			if (!isStopWord(output, pos, pos + i - start)) {
+				if (length > 0)
+					output[length] = ' ';
+				length = pos + i - start;
+			}
+		}
+
+		// the tokens at the ends may still have control characters, which trim() removes
+		int start = 0;
+		while (start < length && output[start] <= ' ')
+			start++;
+		while (length > start && output[length - 1] <= ' ')
+			length--;
+
+		return new String(output, start, length - start);
+	}
+
+	public String stem(String anchor) {
+		return anchor;
+	}
+
+	public String process(String anchor) {
+		normalize(anchor, true);
+		return new String(output, 0, outputLength);
+	}
+
+	// normalizes a line of anchor text into output, without the stop words if asked to
+	private void normalize(String anchor, boolean removeStopWords) {
+		int length = filterTokens(anchor);
+		if (output.length < length + 1)
+			output = new char[Math.max(length + 1, output.length * 2)];
+
+		outputLength = 0;
+		// where the current word starts in output, and how long it is so far
+		int wordStart = 0;
+		int wordLength = 0;
+		// position of the first ';' after the last '&', or length if there is none
+		int semicolon = -1;
+
+		for (int i = 0; i <= length; i++) {
+			char c = i < length ? buffer[i] : ' ';
+
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+				output[wordStart + wordLength++] = c;
+			} else if (c == '&') {
+				// an entity runs to the next ';', and is dropped without separating words
+				if (semicolon < i) {
+					semicolon = i + 1;
+					while (semicolon < length && buffer[semicolon] != ';')
+						semicolon++;
+				}
+				if (semicolon < length)
+					i = semicolon;
+			} else if (c == '-' || isSpace(c)) {
+				if (wordLength > 1
+						&& !(removeStopWords && isStopWord(output, wordStart, wordStart + wordLength))) {
+					if (outputLength > 0)
+						output[outputLength] = ' ';
+					outputLength = wordStart + wordLength;
+					wordStart = outputLength + 1;
+				}
+				wordLength = 0;
+			}
+			// any other symbol is dropped
+		}
+	}
+
+	// copies the tokens that don't look like URLs into buffer, lower-cased, and returns the length
+	private int filterTokens(String anchor) {
+		int n = anchor.length();
+		if (buffer.length < n)
+			buffer = new char[Math.max(n, buffer.length * 2)];
+
+		int length = 0;
+		boolean ascii = true;
+		int i = 0;
+		while (i < n) {
+			while (i < n && isDelimiter(anchor.charAt(i)))
+				i++;
+			if (i == n)
+				break;
+
+			int start = i;
+			boolean url = false;
+			for (; i < n; i++) {
+				char c = anchor.charAt(i);
+				if (isDelimiter(c))
+					break;
+				if (c == '.' || (c == ':' && anchor.startsWith("//", i + 1)))
+					url = true;
+			}
+
+			if (!url) {
+				if (length > 0)
+					buffer[length++] = ' ';
+				for (int j = start; j < i; j++) {
+					char c = anchor.charAt(j);
+					ascii &= c < 128;
+					buffer[length++] = c;
+				}
+			}
+		}
+
+		if (ascii) {
+			for (int j = 0; j < length; j++)
+				buffer[j] = lowerCase[buffer[j]];
+		} else {
+			String lower = new String(buffer, 0, length).toLowerCase();
+			length = lower.length();
+			if (buffer.length < length)
+				buffer = new char[length];
+			lower.getChars(0, length, buffer, 0);
+		}
+
+		return length;
+	}
+
+	// the delimiters of StringTokenizer
+	private static boolean isDelimiter(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+	}
+
+	// \s in regular expressions
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+}
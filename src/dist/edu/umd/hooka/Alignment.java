@@ -22,27 +22,20 @@ public class Alignment implements org.apache.hadoop.io.Writable,
 	}
 	public class AIterator implements java.util.Iterator<IntPair> {
 		int cur;
-		boolean[] d;
-		int w;
+		M2 m;
 	
 		protected AIterator(Alignment a) {
-			this.d = a._aligned._data;
-			this.w = a._aligned._w;
-			this.cur = 0;
-			advance();
-		}
-		
-		protected void advance() {
-			while (cur < d.length && !d[cur]) { cur++; }
+			this.m = a._aligned;
+			this.cur = m.nextSetBit(0);
 		}
 		
 		public boolean hasNext() {
-			return cur < d.length;
+			return cur >= 0;
 		}
 		
 		public IntPair next() {
-			IntPair res = new IntPair(cur % w, cur / w);
-			cur++; advance();
+			IntPair res = new IntPair(cur % m._w, cur / m._w);
+			cur = m.nextSetBit(cur + 1);
 			return res;
 		}
 		
@@ -52,53 +45,97 @@ public class Alignment implements org.apache.hadoop.io.Writable,
 		
 	}
 	
+	/**
+	 * Alignment matrix stored as a bitset, one bit per cell in e-major order,
+	 * so that union, intersection and difference work on 64 cells at a time.
+	 */
 	protected final static class M2 implements Cloneable{
 		public short _w;
-		public boolean[] _data;
+		public int _size;
+		public long[] _bits;
 		public Object clone() {
 			M2 res = new M2();
-			res._data = _data.clone();
+			res._bits = _bits.clone();
+			res._size = _size;
 			res._w = _w;
 			return res;
 		}
-		public M2() { _w =0; _data = null; }
+		public M2() { _w =0; _size = 0; _bits = new long[0]; }
 		public M2(int f, int e) {
-			//System.err.println("x:"+x+"y:"+y);
-			_data = new boolean[f*e];
+			_size = f*e;
+			_bits = new long[(_size + 63) >>> 6];
 			_w = (short)f;
 		}
-		void eraseFirstEWord() {
-			boolean[] nd = new boolean[_data.length - _w];
-			System.arraycopy(nd, 0, _data, 0, _data.length-_w);
-			_data = nd;
-		}
 		boolean equals(M2 other) {
-			if (other._w != _w) { return false; }
-			return java.util.Arrays.equals(_data, other._data);
+			if (other._w != _w || other._size != _size) { return false; }
+			return java.util.Arrays.equals(_bits, other._bits);
 		}
 		public boolean get(int f,int e)
 		{
-			return _data[_w*e + f];
+			int i = _w*e + f;
+			return (_bits[i >>> 6] & (1L << i)) != 0;
 		}
 		public void set(int f, int e)
 		{
-			//System.out.println("Set("+x+", "+y+")");
-			try {
-			 _data[_w*e + f] = true;
-			} catch (ArrayIndexOutOfBoundsException ee) {
-				throw new RuntimeException("Set(" + f + ", " + e + "): caught " + ee);
-			}
+			int i = _w*e + f;
+			if (i < 0 || i >= _size)
+				throw new RuntimeException("Set(" + f + ", " + e + "): out of bounds for " + _w + "x" + (_w == 0 ? 0 : _size / _w));
+			_bits[i >>> 6] |= 1L << i;
 		}
 		public void reset(int f, int e)
 		{
-			_data[_w*e + f] = false;
+			int i = _w*e + f;
+			_bits[i >>> 6] &= ~(1L << i);
+		}
+		/**
+		 * Returns the first set cell at or after <code>from</code>, or -1.
+		 */
+		public int nextSetBit(int from) {
+			if (from >= _size)
+				return -1;
+			int w = from >>> 6;
+			long word = _bits[w] & (-1L << from);
+			while (true) {
+				if (word != 0)
+					return (w << 6) + Long.numberOfTrailingZeros(word);
+				if (++w == _bits.length)
+					return -1;
+				word = _bits[w];
+			}
+		}
+		public int cardinality() {
+			int c = 0;
+			for (long b : _bits)
+				c += Long.bitCount(b);
+			return c;
+		}
+		private void checkShape(M2 other) {
+			if (other._w != _w || other._size != _size)
+				throw new IllegalArgumentException("Alignment shapes differ: " + _w + "x" + (_w == 0 ? 0 : _size / _w)
+						+ " vs " + other._w + "x" + (other._w == 0 ? 0 : other._size / other._w));
+		}
+		void or(M2 other) {
+			checkShape(other);
+			for (int i = 0; i < _bits.length; i++)
+				_bits[i] |= other._bits[i];
+		}
+		void and(M2 other) {
+			checkShape(other);
+			for (int i = 0; i < _bits.length; i++)
+				_bits[i] &= other._bits[i];
+		}
+		void andNot(M2 other) {
+			checkShape(other);
+			for (int i = 0; i < _bits.length; i++)
+				_bits[i] &= ~other._bits[i];
 		}
 		public void readFields(DataInput in) throws IOException {
 			_w = in.readShort();
 			int size = in.readChar();
 			if (size < 1)
 				throw new RuntimeException("Error: " + size + " is not good for alignment!");
-			_data = new boolean[size];
+			_size = size;
+			_bits = new long[(size + 63) >>> 6];
 			int bbLen = in.readInt();
 			short[] faps = new short[bbLen/2];
 			short[] eaps = new short[bbLen/2];
@@ -116,19 +153,16 @@ public class Alignment implements org.apache.hadoop.io.Writable,
 		}
 		public void write(DataOutput out) throws IOException {
 			out.writeShort(_w);
-			out.writeShort((short)_data.length);
-			int c = 0;
-			for (int i=0; i< _data.length; i++)
-				if (_data[i]) c++;
+			out.writeShort((short)_size);
+			int c = cardinality();
 			short[] faps = new short[c];
 			short[] eaps = new short[c];
 			c = 0;
-			for (int i=0; i< _data.length; i++)
-				if (_data[i]) {
-					faps[c] = (short)(i % _w);
-					eaps[c] = (short)(i / _w);
-					c++;
-				}
+			for (int i = nextSetBit(0); i >= 0; i = nextSetBit(i + 1)) {
+				faps[c] = (short)(i % _w);
+				eaps[c] = (short)(i / _w);
+				c++;
+			}
 			int bbLen = faps.length * 2;
 			out.writeInt(bbLen);
 			ByteBuffer bb=ByteBuffer.allocate(bbLen);
@@ -155,12 +189,21 @@ public class Alignment implements org.apache.hadoop.io.Writable,
 	                                      {{-1, 0},{-1,+1},{ 0,+1}}};
 
 	public int countAlignmentPoints() {
-		int count = 0;
-		for (int j=0; j < _flen; j++)
-			for (int i = 0; i < _elen; i++)
-				if (this.aligned(j, i))
-					count += 1;
-		return count;
+		return _aligned == null ? 0 : _aligned.cardinality();
+	}
+
+	public boolean isEmpty() {
+		return _aligned == null || _aligned.nextSetBit(0) < 0;
+	}
+
+	// Recomputes which words are aligned after the matrix was changed directly.
+	private void updateAlignedWords() {
+		java.util.Arrays.fill(faligned, false);
+		java.util.Arrays.fill(ealigned, false);
+		for (int i = _aligned.nextSetBit(0); i >= 0; i = _aligned.nextSetBit(i + 1)) {
+			faligned[i % _flen] = true;
+			ealigned[i / _flen] = true;
+		}
 	}
 
 	public Alignment mergeEnglishWords(int i, int j) {
@@ -209,16 +252,10 @@ public class Alignment implements org.apache.hadoop.io.Writable,
 			_aligned = new M2();
 		_aligned.readFields(in);
 		_flen = _aligned._w;
-		_elen = (short)(_aligned._data.length / _flen);
+		_elen = (short)(_aligned._size / _flen);
 		faligned = new boolean[_flen];
 		ealigned = new boolean[_elen];
-		for (int f=0; f<_flen; f++)
-			for (int e=0; e<_elen; e++)
-				if (aligned(f,e)) {
-					faligned[f]=true;
-					ealigned[e]=true;
-				}
-		
+		updateAlignedWords();
 	}
 	
 	public byte getType() {
@@ -430,26 +467,42 @@ public class Alignment implements org.apache.hadoop.io.Writable,
 		return sb.toString();
 	}
 	
+	// Copies the shape and matrix of a1 into a plain Alignment.
+	private static Alignment copyOf(Alignment a1) {
+		Alignment a = new Alignment();
+		a._flen = a1._flen;
+		a._elen = a1._elen;
+		a._aligned = (M2)a1._aligned.clone();
+		a.faligned = new boolean[a._flen];
+		a.ealigned = new boolean[a._elen];
+		return a;
+	}
+
 	public static Alignment intersect(Alignment a1, Alignment a2)
 	{
-		Alignment a = new Alignment(a1._flen, a1._elen);
-		for (int i=0; i<a1._flen; i++)
-			for (int j=0; j<a1._elen; j++)
-				if (a1.aligned(i, j) &&
-					a2.aligned(i, j))
-					a.align(i,j);
+		Alignment a = copyOf(a1);
+		a._aligned.and(a2._aligned);
+		a.updateAlignedWords();
 		return a;
 	}
 	
 	public static Alignment union(Alignment a1, Alignment a2)
 	{
-		Alignment a = new Alignment(a1._flen, a1._elen);
-		for (int i=0; i<a1._flen; i++)
-			for (int j=0; j<a1._elen; j++)
-				if (a1.aligned(i, j) ||
-					a2.aligned(i, j))
-					a.align(i,j);
+		Alignment a = copyOf(a1);
+		a._aligned.or(a2._aligned);
+		a.updateAlignedWords();
 		return a;
 	}	
 
+	/**
+	 * Returns the points of <code>a1</code> that are not in <code>a2</code>.
+	 */
+	public static Alignment subtract(Alignment a1, Alignment a2)
+	{
+		Alignment a = copyOf(a1);
+		a._aligned.andNot(a2._aligned);
+		a.updateAlignedWords();
+		return a;
+	}
+
 }
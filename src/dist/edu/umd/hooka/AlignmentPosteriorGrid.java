@@ -3,19 +3,63 @@ package edu.umd.hooka;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
+/**
+ * Posterior probabilities of the alignment points of a sentence pair, with
+ * row 0 for the NULL word. The grid is dense in memory, but only the cells
+ * above the pruning threshold are serialized, as a count followed by one
+ * block of cell indices and one of posteriors:
+ *
+ * <pre>
+ * short flen, short elen, int n
+ * n x int cell (e * flen + f), n x float posterior
+ * </pre>
+ *
+ * Cells that were dropped read back as 0.
+ */
 public class AlignmentPosteriorGrid {
 
 	Array2D posteriors;
 	int elen = 0;
 	int flen = 0;
-	
+	float threshold = 0.0f;
+
+	/**
+	 * Sets the posterior that a cell must exceed to be serialized.
+	 */
+	public void setPruningThreshold(float t) {
+		threshold = t;
+	}
+
 	public void write(DataOutput out) throws IOException {
-		throw new IOException("foo");
+		int size = elen * flen;
+		int n = 0;
+		for (int c = 0; c < size; c++)
+			if (posteriors.data[c] > threshold) n++;
+		ByteBuffer bb = ByteBuffer.allocate(8 * n);
+		for (int c = 0; c < size; c++)
+			if (posteriors.data[c] > threshold) bb.putInt(c);
+		for (int c = 0; c < size; c++)
+			if (posteriors.data[c] > threshold) bb.putFloat(posteriors.data[c]);
+		out.writeShort(flen);
+		out.writeShort(elen);
+		out.writeInt(n);
+		out.write(bb.array());
 	}
 
-	public void readFiles(DataInput in) throws IOException {
-		throw new IOException("foo");
+	public void readFields(DataInput in) throws IOException {
+		int f = in.readShort();
+		int e = in.readShort();
+		if (f != flen || e != elen)
+			throw new IOException("Posterior grid is " + f + "x" + e + ", expected " + flen + "x" + elen);
+		int n = in.readInt();
+		byte[] block = new byte[8 * n];
+		in.readFully(block);
+		ByteBuffer bb = ByteBuffer.wrap(block);
+		posteriors.fill(0.0f);
+		for (int i = 0; i < n; i++)
+			posteriors.data[bb.getInt(4 * i)] = bb.getFloat(4 * (n + i));
 	}
 	
 	public AlignmentPosteriorGrid(PhrasePair pp) {
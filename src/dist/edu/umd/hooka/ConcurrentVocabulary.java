@@ -0,0 +1,67 @@
+package edu.umd.hooka;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Vocabulary that many threads can numberize against at once. Lookups of known
+ * words don't lock; only adding a new word does. Like
+ * {@link VocabularyWritable}, id 0 is the NULL word, and
+ * {@link #toVocabularyWritable()} gives a copy that can be written out.
+ *
+ * Ids are handed out in the order in which words are first added, so when
+ * several threads add words, their ids depend on the scheduling of the
+ * threads. They are always dense and consistent with each other.
+ */
+public class ConcurrentVocabulary implements Vocab {
+
+	private final ConcurrentHashMap<String, Integer> ids;
+	private String[] words = new String[16];
+	private int size = 0;
+
+	public ConcurrentVocabulary() {
+		ids = new ConcurrentHashMap<String, Integer>(1024, 0.75f, 16);
+		addOrGet("NULL");
+	}
+
+	public int addOrGet(String word) {
+		Integer id = ids.get(word);
+		if (id != null)
+			return id;
+		synchronized (this) {
+			id = ids.get(word);
+			if (id != null)
+				return id;
+			if (size == words.length)
+				words = Arrays.copyOf(words, size * 2);
+			words[size] = word;
+			ids.put(word, size);
+			return size++;
+		}
+	}
+
+	public int get(String word) {
+		Integer id = ids.get(word);
+		return id == null ? -1 : id;
+	}
+
+	public synchronized String get(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		return words[index];
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns a {@link VocabularyWritable} that gives every word the same id.
+	 */
+	public synchronized VocabularyWritable toVocabularyWritable() {
+		VocabularyWritable v = new VocabularyWritable();
+		for (int i = 1; i < size; i++)
+			v.addOrGet(words[i]);
+		return v;
+	}
+}
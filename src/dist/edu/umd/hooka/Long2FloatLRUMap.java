@@ -0,0 +1,149 @@
+package edu.umd.hooka;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-capacity map from primitive longs to primitive floats that evicts the
+ * least recently used entry when full. Entries live in parallel arrays, are
+ * chained into hash buckets by slot index, and are threaded on a doubly-linked
+ * recency list, so neither lookups nor evictions allocate.
+ */
+public final class Long2FloatLRUMap {
+
+	private final int capacity;
+	private final long[] keys;
+	private final float[] values;
+	private final int[] chain;   // next slot in the same bucket
+	private final int[] newer;   // recency list, towards the head
+	private final int[] older;   // recency list, towards the tail
+	private final int[] buckets;
+	private final int mask;
+
+	private int size = 0;
+	private int head = -1;       // most recently used
+	private int tail = -1;       // least recently used
+	private long evictions = 0;
+
+	public Long2FloatLRUMap(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		this.capacity = capacity;
+		keys = new long[capacity];
+		values = new float[capacity];
+		chain = new int[capacity];
+		newer = new int[capacity];
+		older = new int[capacity];
+		int n = Integer.highestOneBit(capacity) << 1;
+		buckets = new int[n];
+		mask = n - 1;
+		Arrays.fill(buckets, -1);
+	}
+
+	private int bucket(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32)) & mask;
+	}
+
+	private int find(long key) {
+		for (int s = buckets[bucket(key)]; s != -1; s = chain[s])
+			if (keys[s] == key)
+				return s;
+		return -1;
+	}
+
+	private void unlink(int s) {
+		if (newer[s] == -1) head = older[s]; else older[newer[s]] = older[s];
+		if (older[s] == -1) tail = newer[s]; else newer[older[s]] = newer[s];
+	}
+
+	private void pushHead(int s) {
+		newer[s] = -1;
+		older[s] = head;
+		if (head != -1) newer[head] = s;
+		head = s;
+		if (tail == -1) tail = s;
+	}
+
+	private void removeFromBucket(int s) {
+		int b = bucket(keys[s]);
+		if (buckets[b] == s) {
+			buckets[b] = chain[s];
+			return;
+		}
+		int p = buckets[b];
+		while (chain[p] != s)
+			p = chain[p];
+		chain[p] = chain[s];
+	}
+
+	/**
+	 * Returns the value mapped to <code>key</code> and marks it as most recently
+	 * used, or returns <code>missing</code> if the key is not in the map.
+	 */
+	public float get(long key, float missing) {
+		int s = find(key);
+		if (s == -1)
+			return missing;
+		if (s != head) {
+			unlink(s);
+			pushHead(s);
+		}
+		return values[s];
+	}
+
+	public boolean containsKey(long key) {
+		return find(key) != -1;
+	}
+
+	/**
+	 * Maps <code>key</code> to <code>value</code>, evicting the least recently
+	 * used entry if the map is full.
+	 */
+	public void put(long key, float value) {
+		int s = find(key);
+		if (s != -1) {
+			values[s] = value;
+			if (s != head) {
+				unlink(s);
+				pushHead(s);
+			}
+			return;
+		}
+		if (size == capacity) {
+			s = tail;
+			unlink(s);
+			removeFromBucket(s);
+			evictions++;
+		} else {
+			s = size++;
+		}
+		keys[s] = key;
+		values[s] = value;
+		int b = bucket(key);
+		chain[s] = buckets[b];
+		buckets[b] = s;
+		pushHead(s);
+	}
+
+	public void clear() {
+		Arrays.fill(buckets, -1);
+		size = 0;
+		head = -1;
+		tail = -1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of entries evicted since this map was created.
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+}
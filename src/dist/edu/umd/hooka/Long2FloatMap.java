@@ -0,0 +1,145 @@
+package edu.umd.hooka;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive longs to primitive floats. Every
+ * entry lives at a slot of two parallel arrays, and callers that update the
+ * same entries repeatedly can look their slots up once with {@link #slot(long)}
+ * and then use {@link #addAt(int, float)}. Slots stay valid until the map
+ * grows, which only happens in {@link #slot(long)} and
+ * {@link #ensureCapacity(int)}. The key {@link Long#MIN_VALUE} is reserved.
+ */
+public final class Long2FloatMap {
+
+	private static final long EMPTY = Long.MIN_VALUE;
+	private static final float MAX_LOAD = 0.5f;
+
+	private long[] keys;
+	private float[] values;
+	private int mask;
+	private int size = 0;
+	private int maxSize;
+
+	public Long2FloatMap() {
+		this(16);
+	}
+
+	public Long2FloatMap(int expectedSize) {
+		allocate(tableSize(expectedSize));
+	}
+
+	private static int tableSize(int n) {
+		int cap = Integer.highestOneBit(Math.max(4, (int)Math.ceil(n / MAX_LOAD)) - 1) << 1;
+		if (cap <= 0)
+			throw new IllegalArgumentException("Too many entries: " + n);
+		return cap;
+	}
+
+	private void allocate(int cap) {
+		keys = new long[cap];
+		values = new float[cap];
+		Arrays.fill(keys, EMPTY);
+		mask = cap - 1;
+		maxSize = (int)(cap * MAX_LOAD);
+	}
+
+	private int index(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		int i = (int)(h ^ (h >>> 32)) & mask;
+		while (keys[i] != EMPTY && keys[i] != key)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 * Makes room for <code>n</code> entries in total, so that slots stay valid
+	 * while the map is filled up to that size.
+	 */
+	public void ensureCapacity(int n) {
+		if (n <= maxSize)
+			return;
+		long[] ok = keys;
+		float[] ov = values;
+		allocate(tableSize(n));
+		for (int i = 0; i < ok.length; i++) {
+			if (ok[i] != EMPTY) {
+				int s = index(ok[i]);
+				keys[s] = ok[i];
+				values[s] = ov[i];
+			}
+		}
+	}
+
+	/**
+	 * Returns the slot of <code>key</code>, adding it with a value of zero if
+	 * it is not in the map yet.
+	 */
+	public int slot(long key) {
+		if (key == EMPTY)
+			throw new IllegalArgumentException("Reserved key: " + key);
+		int s = index(key);
+		if (keys[s] == EMPTY) {
+			if (size == maxSize) {
+				ensureCapacity(size + 1);
+				s = index(key);
+			}
+			keys[s] = key;
+			size++;
+		}
+		return s;
+	}
+
+	public void addAt(int slot, float delta) {
+		values[slot] += delta;
+	}
+
+	public float getAt(int slot) {
+		return values[slot];
+	}
+
+	public void add(long key, float delta) {
+		// slot() may replace the arrays
+		int s = slot(key);
+		values[s] += delta;
+	}
+
+	public void put(long key, float value) {
+		int s = slot(key);
+		values[s] = value;
+	}
+
+	public float get(long key, float missing) {
+		int s = index(key);
+		return keys[s] == EMPTY ? missing : values[s];
+	}
+
+	public boolean containsKey(long key) {
+		return key != EMPTY && keys[index(key)] != EMPTY;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the keys in ascending order.
+	 */
+	public long[] sortedKeys() {
+		long[] ks = new long[size];
+		int n = 0;
+		for (long k : keys)
+			if (k != EMPTY)
+				ks[n++] = k;
+		Arrays.sort(ks);
+		return ks;
+	}
+
+	public void clear() {
+		if (size == 0)
+			return;
+		Arrays.fill(keys, EMPTY);
+		Arrays.fill(values, 0.0f);
+		size = 0;
+	}
+}
@@ -1,181 +1,244 @@
 package edu.umd.hooka;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
 import java.nio.ByteBuffer;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.nio.channels.ServerSocketChannel;
-import java.nio.channels.SocketChannel;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.Text;
 
 import edu.umd.hooka.ttables.TTable;
 import edu.umd.hooka.ttables.TTable_monolithic_IFAs;
 
+/**
+ * Serves translation probabilities from a {@link TTable} to {@link PServerClient}s.
+ * Each connection is handled by its own thread and may carry any number of
+ * pipelined requests, which are answered in order. All ints and floats are
+ * big-endian.
+ *
+ * <pre>
+ * request:  int length (bytes that follow), int numPairs,
+ *           numPairs x (int elen, int flen, elen x int e, flen x int f)
+ * response: int length (bytes that follow),
+ *           numPairs x (elen x flen x float t(f|e), row-major in e)
+ * </pre>
+ */
 public class PServer implements Runnable {
-	
-	private TTable ttable;
-
-	public static void main(String[] args) {
-		try { PServer v = null; //new PServer(4444);
-		ByteBuffer b = ByteBuffer.allocate(20);
-		FloatBuffer fb = b.asFloatBuffer();
-		fb.put(0.1f); fb.flip();
-		System.out.println(fb.position() + "=fpos   bpos=" + b.position());
-		Thread t = new Thread(v);
-		t.start();
-		try {Thread.sleep(100); } catch (Exception e ) {}
-		PServerClient psc = new PServerClient("localhost",4444);
-		{	int[] e = {201, 202, 203, 1000000, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 2, 2,2, 2,2,2,2,2,2,2,2,2,2,2,2,2};
-			int[] f = {101, 102, 103, 104, 105, 106,5,5,5,5,5,5,5,5,5,5,5,5,5,5,5,5,3,2,3,5,3,4,2,3,4,5,3,2,5,6,7,12345,34};
-			PhrasePair pp = new PhrasePair(new Phrase(e, 0), new Phrase(f, 1));
-			psc.query(pp, true);
+
+	/**
+	 * Requests larger than this are treated as a protocol error and close the
+	 * connection; buffers grow on demand up to this size.
+	 */
+	public static final int MAX_MESSAGE_SIZE = 1 << 28;
+	static final int INITIAL_BUFFER_SIZE = 1 << 16;
+
+	private final TTable ttable;
+	private final ServerSocket serverSocket;
+	private final ExecutorService workers;
+	private volatile boolean running = true;
+
+	final AtomicLong connections = new AtomicLong();
+	final AtomicLong reqs = new AtomicLong();
+	final AtomicLong pairs = new AtomicLong();
+	final AtomicLong lookups = new AtomicLong();
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("usage: PServer [ttable] [port]");
+			System.exit(-1);
 		}
-		//try {Thread.sleep(500); } catch (Exception ex){}
-		{int[] e = {201, 202, 203,2,2,2};
-		int[] f = {101, 102, 103,6,7,12345,34};
-			PhrasePair pp = new PhrasePair(new Phrase(f, 0), new Phrase(e, 1));
-			psc.query(pp, true);
-			float va = psc.get(2, 34);
-			System.out.println(va);
-		 }
-		try {Thread.sleep(1000); } catch (Exception ex ) {}
-		v.stopServer();
-		} catch (IOException e) { e.printStackTrace();}
+		PServer server = new PServer(Integer.parseInt(args[1]),
+				FileSystem.get(new Configuration()), new Path(args[0]));
+		server.run();
 	}
-	
-	ServerSocketChannel serverChannel;
+
 	public PServer(int port, FileSystem fs, Path ttablePath) throws IOException {
-		ttable = new TTable_monolithic_IFAs(fs, ttablePath, true);
-		
-		serverChannel = ServerSocketChannel.open();
-		selector = Selector.open();
-		serverChannel.socket().bind (new InetSocketAddress(port));
-		serverChannel.configureBlocking (false);
-		serverChannel.register (selector, SelectionKey.OP_ACCEPT);		
-		System.err.println("PServer initialized on " + InetAddress.getLocalHost() + ":" + port);
+		this(port, new TTable_monolithic_IFAs(fs, ttablePath, true));
 	}
-	
+
+	/**
+	 * Creates a server for <code>ttable</code>, which must be safe for
+	 * concurrent reads. Pass port 0 to bind to any free port.
+	 */
+	public PServer(int port, TTable ttable) throws IOException {
+		this.ttable = ttable;
+		serverSocket = new ServerSocket(port);
+		workers = Executors.newCachedThreadPool(new ThreadFactory() {
+			int n = 0;
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "PServer-connection-" + (n++));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		System.err.println("PServer initialized on " + InetAddress.getLocalHost() + ":" + getPort());
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
 	public void stopServer() {
 		System.err.println("Stopping PServer...");
-		try { selector.close(); serverChannel.close(); } catch (Exception e) { System.err.println("Caught " + e); }
+		running = false;
+		try { serverSocket.close(); } catch (IOException e) { System.err.println("Caught " + e); }
+		workers.shutdownNow();
 	}
-	
-	Selector selector = null;
-	long reqs=0;
-	
+
 	public void run() {
 		System.err.println("PServer running.");
-		while (true) {
+		while (running) {
+			Socket s;
 			try {
-				selector.select();
+				s = serverSocket.accept();
 			} catch (IOException e) {
-				System.err.println("Caught exception in select()");
-				e.printStackTrace();
+				if (running) {
+					System.err.println("Caught exception in accept()");
+					e.printStackTrace();
+				}
 				break;
 			}
-
-			if (selector.isOpen() == false) break;
-		   Iterator<SelectionKey> it = selector.selectedKeys().iterator();
-
-		   while (it.hasNext()) {
-		      SelectionKey key = it.next();
-		      try {
-		        processSelectionKey(key);
-		      } catch (IOException e) {
-		    	  key.cancel();
-		    	  System.err.println("Caught exception handling selection key. Key cancelled");
-		      }
-		      it.remove();
-		   }
+			connections.incrementAndGet();
+			workers.execute(new Connection(s));
 		}
 		System.err.println("Server exiting.");
 		System.err.println("  " + reqs + " requests processed");
+		System.err.println("  " + pairs + " sentence pairs");
+		System.err.println("  " + lookups + " lookups");
 		System.err.println("  " + connections + " connections");
 	}
-	
-	int i = 0;
-	int connections = 0;
-	HashMap<SelectionKey, ByteBuffer> key2buf = new HashMap<SelectionKey, ByteBuffer>();
-	HashMap<SelectionKey, ByteBuffer> key2obuf = new HashMap<SelectionKey, ByteBuffer>();
-	static final int READ_BUFFER_SIZE = 35000;
-	static final int WRITE_BUFFER_SIZE = 300000;
-	
-	protected void processSelectionKey(SelectionKey key) throws IOException {
-	      if (key.isAcceptable()) {
-		         ServerSocketChannel server = (ServerSocketChannel) key.channel();
-		         SocketChannel channel = server.accept();
-		         if (channel == null) return;
-
-		         channel.configureBlocking (false);
-		         channel.register (selector, SelectionKey.OP_READ);
-		         connections++;
-		      } else if (key.isReadable()) {
-		    	  ByteBuffer in_bb = key2buf.get(key);
-		    	  ByteBuffer out_bb = key2obuf.get(key);
-		    	  if (in_bb == null) {
-		    		  System.err.println("Allocating new buffer!");
-		    		  in_bb = ByteBuffer.allocate(READ_BUFFER_SIZE);
-		    		  key2buf.put(key, in_bb);
-		    		  out_bb = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
-		    		  key2obuf.put(key, out_bb);
-		    	  }
-		    	  SocketChannel sc = (SocketChannel)key.channel();
-		    	  int num = sc.read(in_bb);
-		    	  if (num == -1) {
-		    		  System.out.println("closing");
-		    		  key2buf.remove(key);
-		    		  sc.close();
-		    		  return;
-		    	  }
-		    	  if (in_bb.position() < 8) return;
-		    	  int elen = in_bb.getInt(0);
-		    	  if (elen < 1)
-		    		  throw new RuntimeException("Elen is out of bounds! elen="+elen);
-		    	  int pl = in_bb.position();
-		    	  if (elen > pl) {
-		    	//	 System.err.println("Haven't read enough! " + elen + " pos="+pl);
-		    		  return; // not ready!
-		    	  } else {
-		    		//  System.err.println("Read enough");
-		    	  }
-		    	  in_bb.flip();
-		    	  in_bb.getInt();
-		    	  int fplen = in_bb.getInt();
-		    	  IntBuffer ib = in_bb.asIntBuffer();
-		    	  int[] ep = new int[fplen];
-		    	  ib.get(ep, 0, fplen);
-		    	  int[] fp = new int[ib.remaining()];
-		    	  ib.get(fp);
-		    	  int sz = fp.length * ep.length * Float.SIZE/8;
-		    	  out_bb.putInt(sz);
-		    	  for (int e : ep)
-		    		  for (int f : fp)
-		    			  out_bb.putFloat(ttable.get(e, f));
-		    	  ++reqs;
-		    	  out_bb.flip();
-		    	  int x = sc.write(out_bb);
-		    	  if (x != sz + 4) {
-		    		  System.err.println("Failed to write "+sz+" bytes!  Wrote " + x + " bytes");
-		    	  }
-		    	//  System.err.println("WROTE " + x + " bytes");
-		    	  in_bb.rewind();
-		    	  in_bb.limit(READ_BUFFER_SIZE);
-		    	  out_bb.rewind();
-		    	  out_bb.limit(WRITE_BUFFER_SIZE);
-		      } else if (key.isWritable()) {
-		    	  throw new IOException("Received writable key - not expecting!");
-		      }
+
+	public long getRequestCount() {
+		return reqs.get();
+	}
+
+	public long getLookupCount() {
+		return lookups.get();
+	}
+
+	private class Connection implements Runnable {
+		private final Socket socket;
+		private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		private ByteBuffer out = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		private long connReqs = 0;
+		private long connPairs = 0;
+		private long connLookups = 0;
+		private long bytesIn = 0;
+		private long bytesOut = 0;
+
+		Connection(Socket socket) {
+			this.socket = socket;
+		}
+
+		public void run() {
+			long start = System.currentTimeMillis();
+			try {
+				socket.setTcpNoDelay(true);
+				DataInputStream is = new DataInputStream(
+						new BufferedInputStream(socket.getInputStream(), INITIAL_BUFFER_SIZE));
+				DataOutputStream os = new DataOutputStream(
+						new BufferedOutputStream(socket.getOutputStream(), INITIAL_BUFFER_SIZE));
+				while (true) {
+					int len;
+					try {
+						len = is.readInt();
+					} catch (EOFException e) {
+						break;
+					}
+					if (len < 4 || len > MAX_MESSAGE_SIZE)
+						throw new IOException("Request length out of bounds: " + len);
+					in = ensureCapacity(in, len);
+					is.readFully(in.array(), 0, len);
+					in.limit(len);
+					bytesIn += len + 4;
+
+					answer();
+					os.writeInt(out.position());
+					os.write(out.array(), 0, out.position());
+					bytesOut += out.position() + 4;
+					// Only flush once the client stops pipelining, so that
+					// consecutive responses share packets.
+					if (is.available() == 0)
+						os.flush();
+				}
+				os.flush();
+			} catch (SocketException e) {
+				if (running)
+					System.err.println("Connection " + socket.getRemoteSocketAddress() + ": " + e);
+			} catch (IOException e) {
+				System.err.println("Caught exception handling connection "
+						+ socket.getRemoteSocketAddress() + ", closing: " + e);
+			} finally {
+				try { socket.close(); } catch (IOException e) {}
+				reqs.addAndGet(connReqs);
+				pairs.addAndGet(connPairs);
+				lookups.addAndGet(connLookups);
+				System.err.println("Closed " + socket.getRemoteSocketAddress() + ": " + connReqs
+						+ " requests, " + connPairs + " pairs, " + connLookups + " lookups, "
+						+ bytesIn + " bytes in, " + bytesOut + " bytes out, "
+						+ (System.currentTimeMillis() - start) + " ms");
+			}
+		}
+
+		private void answer() throws IOException {
+			in.position(0);
+			out.clear();
+			int n = in.getInt();
+			for (int p = 0; p < n; p++) {
+				if (in.remaining() < 8)
+					throw new IOException("Truncated request: pair " + p + " of " + n);
+				int elen = in.getInt();
+				int flen = in.getInt();
+				if (elen < 0 || flen < 0 || ((long)elen + flen) * 4 > in.remaining())
+					throw new IOException("Bad pair dimensions: " + elen + "x" + flen);
+				long cells = (long)elen * flen;
+				if (out.position() + cells * 4 > MAX_MESSAGE_SIZE)
+					throw new IOException("Response too large: " + cells + " cells for pair " + p);
+				out = ensureCapacity(out, out.position() + (int)cells * 4);
+
+				int ep = in.position();
+				int fp = ep + elen * 4;
+				for (int i = 0; i < elen; i++) {
+					int e = in.getInt(ep + i * 4);
+					for (int j = 0; j < flen; j++)
+						out.putFloat(ttable.get(e, in.getInt(fp + j * 4)));
+				}
+				in.position(fp + flen * 4);
+				connLookups += cells;
+			}
+			connPairs += n;
+			connReqs++;
+		}
+	}
+
+	/**
+	 * Returns <code>b</code> if it can hold <code>size</code> bytes, otherwise a
+	 * larger buffer with the same contents and position.
+	 */
+	static ByteBuffer ensureCapacity(ByteBuffer b, int size) {
+		if (b.capacity() >= size) {
+			b.limit(b.capacity());
+			return b;
+		}
+		int cap = b.capacity();
+		while (cap < size)
+			cap = (int)Math.min((long)cap * 2, Integer.MAX_VALUE);
+		ByteBuffer nb = ByteBuffer.allocate(cap);
+		b.flip();
+		nb.put(b);
+		return nb;
 	}
 }
@@ -1,90 +1,249 @@
 package edu.umd.hooka;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
 import java.nio.ByteBuffer;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-
-import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.Text;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import edu.umd.hooka.alignment.IndexedFloatArray;
 import edu.umd.hooka.ttables.TTable;
 
+/**
+ * Read-only {@link TTable} backed by a {@link PServer}. Call
+ * {@link #query(List, boolean)} with the sentence pairs about to be processed;
+ * the probabilities they need that are not already cached are fetched in
+ * batches of sentence pairs, with several requests in flight at once, and kept
+ * in an LRU cache that persists across queries. The cache should be large
+ * enough to hold all cells of one query; anything evicted before it is read
+ * is fetched again, one cell at a time.
+ */
 public class PServerClient extends TTable {
 
-	HashMap<String, Integer> map = new HashMap<String, Integer>();
+	public static final int DEFAULT_BATCH_SIZE = 64;
+	public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+	public static final int DEFAULT_CACHE_SIZE = 1 << 21;
+
+	private static final int BUF_SIZE = 1 << 16;
+	private static final byte[] EOF = new byte[0];
+
 	Socket s;
 	DataInputStream is;
 	DataOutputStream os;
-	static final int BUF_SIZE=300000;
-	ByteBuffer bb = ByteBuffer.allocate(BUF_SIZE);
-	int entries;
-	
-	public PServerClient(
-			String host,
-			int port) throws IOException {
+	private final int batchSize;
+	private final int maxInFlight;
+	private final Long2FloatLRUMap cache;
+
+	// Responses read off the socket by the reader thread, in request order.
+	private final BlockingQueue<byte[]> responses;
+	// The (e, f) words of each pair of each request in flight, in request order.
+	private final ArrayDeque<List<int[][]>> inFlight = new ArrayDeque<List<int[][]>>();
+	private volatile IOException readerFailure = null;
+
+	private List<int[][]> batch = new ArrayList<int[][]>();
+	private int batchBytes = 4;
+	private ByteBuffer bb = ByteBuffer.allocate(BUF_SIZE);
+
+	long hits = 0;
+	long misses = 0;
+	long requests = 0;
+	long fallbacks = 0;
+
+	public PServerClient(String host, int port) throws IOException {
+		this(host, port, DEFAULT_BATCH_SIZE, DEFAULT_MAX_IN_FLIGHT, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * @param batchSize maximum number of sentence pairs per request
+	 * @param maxInFlight maximum number of requests sent but not yet answered
+	 * @param cacheSize number of (e, f) probabilities to cache
+	 */
+	public PServerClient(String host, int port, int batchSize, int maxInFlight, int cacheSize)
+			throws IOException {
+		if (batchSize < 1 || maxInFlight < 1)
+			throw new IllegalArgumentException("Batch size and requests in flight must be positive");
+		this.batchSize = batchSize;
+		this.maxInFlight = maxInFlight;
+		cache = new Long2FloatLRUMap(cacheSize);
+		responses = new ArrayBlockingQueue<byte[]>(maxInFlight + 1);
+
 		System.err.println("Connecting to PServer: " + host + ":" + port);
 		s = new Socket(host, port);
-		is = new DataInputStream(s.getInputStream());
-		os = new DataOutputStream(s.getOutputStream());
-	}
-	
-	public void query(PhrasePair pp, boolean nullWord) throws IOException {
-		dict.clear();
-		int[] es = pp.getE().getWords();
-		int[] fs = pp.getF().getWords();
-		int size = 4*(es.length + fs.length + 2);
-		if (nullWord) size += 4;
-		bb.rewind();
-		bb.limit(BUF_SIZE);
-		bb.putInt(size);
-		int elen = es.length;
-		if (nullWord) ++elen;
-		bb.putInt(elen);
-		if (nullWord) bb.putInt(0);
-		for (int e : es) bb.putInt(e);
-		for (int f : fs) bb.putInt(f);
-		bb.flip();
-		os.write(bb.array(), 0, size);
-		
-		bb.rewind();
-		bb.limit(BUF_SIZE);
-		size = is.readInt();
-		is.readFully(bb.array(), 0, size);
-		entries=0;
-		for (int i = 0; i < elen; ++i) {
-			int ew = 0;
-			if (nullWord) {
-			    if (i>0) ew = es[i-1];
-			} else {
-				ew = es[i];
-			}
-			temp.set(ew);
-			HashMap<IntWritable,Float> v1 = dict.get(temp);
-			if (v1 == null) {
-				v1 = new HashMap<IntWritable, Float>(fs.length*2);
-				dict.put(temp, v1);
-			}
-			for (int j = 0; j < fs.length; ++j) {
-				temp.set(fs[j]);
-				float val = bb.getFloat();
-				if (v1.get(temp) == null) {
-					v1.put(temp, val);
+		s.setTcpNoDelay(true);
+		is = new DataInputStream(new BufferedInputStream(s.getInputStream(), BUF_SIZE));
+		os = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), BUF_SIZE));
+
+		// Responses are drained on their own thread so that the server never
+		// blocks writing to us while we are blocked writing to it.
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (true) {
+						byte[] r = new byte[is.readInt()];
+						is.readFully(r);
+						responses.put(r);
+					}
+				} catch (IOException e) {
+					readerFailure = e;
+				} catch (InterruptedException e) {
+					readerFailure = new IOException("Interrupted");
+				} finally {
+					responses.offer(EOF);
 				}
 			}
+		}, "PServerClient-reader");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	static long pack(int e, int f) {
+		return ((long)e << 32) | (f & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Makes the probabilities of a single sentence pair available via {@link #get(int, int)}.
+	 */
+	public void query(PhrasePair pp, boolean nullWord) throws IOException {
+		query(Collections.singletonList(pp), nullWord);
+	}
+
+	/**
+	 * Makes the probabilities of every (e, f) word pair in <code>pps</code>
+	 * available via {@link #get(int, int)}. If <code>nullWord</code> is set, so
+	 * are those of every f given the null word (e = 0).
+	 */
+	public void query(List<PhrasePair> pps, boolean nullWord) throws IOException {
+		for (PhrasePair pp : pps) {
+			int[] es = distinct(pp.getE().getWords(), nullWord);
+			int[] fs = distinct(pp.getF().getWords(), false);
+			if (isCached(es, fs))
+				continue;
+			misses += (long)es.length * fs.length;
+			add(es, fs);
+		}
+		send();
+		while (!inFlight.isEmpty())
+			receive();
+	}
+
+	private static int[] distinct(int[] words, boolean withNull) {
+		int[] w;
+		if (withNull) {
+			w = new int[words.length + 1];
+			System.arraycopy(words, 0, w, 1, words.length);
+		} else {
+			w = words.clone();
 		}
+		Arrays.sort(w);
+		int n = 0;
+		for (int i = 0; i < w.length; i++)
+			if (i == 0 || w[i] != w[i - 1])
+				w[n++] = w[i];
+		return n == w.length ? w : Arrays.copyOf(w, n);
+	}
+
+	private boolean isCached(int[] es, int[] fs) {
+		for (int e : es)
+			for (int f : fs)
+				if (!cache.containsKey(pack(e, f)))
+					return false;
+		// touch the cells so they are not evicted by the rest of this query
+		for (int e : es)
+			for (int f : fs)
+				cache.get(pack(e, f), 0.0f);
+		hits += (long)es.length * fs.length;
+		return true;
+	}
+
+	private void add(int[] es, int[] fs) throws IOException {
+		int bytes = 4 * (2 + es.length + fs.length);
+		if (!batch.isEmpty()
+				&& (batch.size() == batchSize || batchBytes + bytes > PServer.MAX_MESSAGE_SIZE))
+			send();
+		batch.add(new int[][] { es, fs });
+		batchBytes += bytes;
+	}
+
+	private void send() throws IOException {
+		if (batch.isEmpty())
+			return;
+		while (inFlight.size() >= maxInFlight)
+			receive();
+
+		bb = PServer.ensureCapacity(bb, batchBytes);
+		bb.clear();
+		bb.putInt(batch.size());
+		for (int[][] p : batch) {
+			bb.putInt(p[0].length);
+			bb.putInt(p[1].length);
+			for (int e : p[0]) bb.putInt(e);
+			for (int f : p[1]) bb.putInt(f);
+		}
+		os.writeInt(bb.position());
+		os.write(bb.array(), 0, bb.position());
+		os.flush();
+		requests++;
+
+		inFlight.add(batch);
+		batch = new ArrayList<int[][]>();
+		batchBytes = 4;
+	}
+
+	private void receive() throws IOException {
+		byte[] r;
+		try {
+			r = responses.take();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted waiting for PServer");
+		}
+		if (r == EOF) {
+			responses.offer(EOF);
+			throw new IOException("Lost connection to PServer: " + readerFailure);
+		}
+		ByteBuffer in = ByteBuffer.wrap(r);
+		for (int[][] p : inFlight.remove())
+			for (int e : p[0])
+				for (int f : p[1])
+					cache.put(pack(e, f), in.getFloat());
+	}
+
+	@Override
+	public float get(int e, int f) {
+		float v = cache.get(pack(e, f), Float.NaN);
+		if (!Float.isNaN(v))
+			return v;
+		// evicted (or never queried): fetch the single cell synchronously
+		fallbacks++;
+		try {
+			add(new int[] { e }, new int[] { f });
+			send();
+			while (!inFlight.isEmpty())
+				receive();
+		} catch (IOException ex) {
+			throw new RuntimeException("Caught " + ex);
+		}
+		return cache.get(pack(e, f), 0.0f);
+	}
+
+	public void close() throws IOException {
+		System.err.println(getStats());
+		s.close();
+	}
+
+	public String getStats() {
+		return "PServerClient: " + requests + " requests, " + hits + " cached lookups, "
+				+ misses + " fetched lookups, " + fallbacks + " single-cell fetches, "
+				+ cache.getEvictions() + " evictions";
 	}
-	
-	IntWritable temp = new IntWritable();
-	HashMap<IntWritable, HashMap<IntWritable,Float>> dict =
-		new HashMap<IntWritable, HashMap<IntWritable,Float>>();
 
 	@Override
 	public void add(int e, int f, float delta) {
@@ -99,18 +258,6 @@ public class PServerClient extends TTable {
 		throw new UnsupportedOperationException();
 	}
 	@Override
-	public float get(int e, int f) {
-		temp.set(e);
-		HashMap<IntWritable, Float> v1 = dict.get(temp);
-		if (v1 == null)
-			return 0.0f;
-		temp.set(f);
-		Float v2 = v1.get(temp);
-		if (v2 == null)
-			return 0.0f;
-		return v2.floatValue();
-	}
-	@Override
 	public void normalize() {
 		throw new UnsupportedOperationException();
 	}
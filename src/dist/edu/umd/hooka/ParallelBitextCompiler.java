@@ -0,0 +1,305 @@
+package edu.umd.hooka;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+import edu.umd.hooka.CorpusVocabNormalizerAndNumberizer.BitextCompilerCounters;
+import edu.umd.hooka.alignment.aer.ReferenceAlignment;
+import edu.umd.hooka.corpora.Chunk;
+import edu.umd.hooka.corpora.Language;
+import edu.umd.hooka.corpora.LanguagePair;
+import edu.umd.hooka.corpora.ParallelChunk;
+import edu.umd.hooka.corpora.ParallelChunkReader;
+import edu.umd.hooka.corpora.PlainTextParallelCorpusReader;
+import edu.umd.hooka.corpora.StaxParallelCorpusReader;
+
+/**
+ * Compiles a bitext into the comp-bitext SequenceFile of (Text, PhrasePair)
+ * and the vocab.E and vocab.F files written by
+ * {@link CorpusVocabNormalizerAndNumberizer}, without running a job.
+ *
+ * The corpus is streamed by a {@link ParallelChunkReader} on the calling
+ * thread and cut into batches of chunks. Each batch is preprocessed and
+ * numberized by a pool of worker threads against a shared
+ * {@link ConcurrentVocabulary}. The calling thread writes finished batches in
+ * the order in which they were read, and stops reading while
+ * <code>2 x threads</code> batches are in flight, so memory use doesn't
+ * depend on the size of the corpus.
+ */
+public class ParallelBitextCompiler {
+
+	static final int MAX_LENGTH = 200;
+	static final int BATCH_SIZE = 512;
+
+	private final Language src;
+	private final Language tgt;
+	private final LanguagePair lp;
+	private final Configuration conf;
+	private final boolean truncate;
+	private final int numThreads;
+	private final ConcurrentVocabulary vocE = new ConcurrentVocabulary();
+	private final ConcurrentVocabulary vocF = new ConcurrentVocabulary();
+	private final long[] counters = new long[BitextCompilerCounters.values().length];
+
+	// preprocessors are not thread-safe, so every worker has its own
+	private final ThreadLocal<AlignmentWordPreprocessor[]> preprocessors =
+		new ThreadLocal<AlignmentWordPreprocessor[]>() {
+		@Override
+		protected AlignmentWordPreprocessor[] initialValue() {
+			if (truncate) {
+				return new AlignmentWordPreprocessor[] {
+						AlignmentWordPreprocessor.CreatePreprocessor(lp, src, conf),
+						AlignmentWordPreprocessor.CreatePreprocessor(lp, tgt, conf) };
+			}
+			return new AlignmentWordPreprocessor[] {
+					AlignmentWordPreprocessor.CreatePreprocessor(null, null, conf),
+					AlignmentWordPreprocessor.CreatePreprocessor(null, null, conf) };
+		}
+	};
+
+	/**
+	 * @param src source (f) language
+	 * @param tgt target (e) language
+	 * @param conf read for <code>ha.trunc.use</code> and by the preprocessors
+	 */
+	public ParallelBitextCompiler(Language src, Language tgt, Configuration conf, int numThreads) {
+		if (numThreads < 1)
+			throw new IllegalArgumentException("Number of threads must be positive: " + numThreads);
+		this.src = src;
+		this.tgt = tgt;
+		this.conf = conf;
+		this.numThreads = numThreads;
+		lp = LanguagePair.languageForISO639_1Pair(src.code() + "-" + tgt.code());
+		truncate = conf.getBoolean("ha.trunc.use", true);
+	}
+
+	public Vocab getVocabE() { return vocE; }
+	public Vocab getVocabF() { return vocF; }
+
+	long getCounter(BitextCompilerCounters c) {
+		return counters[c.ordinal()];
+	}
+
+	private static final class Batch {
+		final List<ParallelChunk> chunks;
+		final List<Text> keys;
+		final List<PhrasePair> pairs;
+		final long[] counters = new long[BitextCompilerCounters.values().length];
+
+		Batch(List<ParallelChunk> chunks) {
+			this.chunks = chunks;
+			keys = new ArrayList<Text>(chunks.size());
+			pairs = new ArrayList<PhrasePair>(chunks.size());
+		}
+	}
+
+	private static int[] convertStrings(String[] s, Vocab v) {
+		int[] res = new int[s.length];
+		for (int i = 0; i < s.length; ++i)
+			res[i] = v.addOrGet(s[i]);
+		return res;
+	}
+
+	// Does the work of CorpusVocabNormalizerAndNumberizer.BitextCompilerMapper.map for a batch.
+	private Batch numberize(Batch b) {
+		AlignmentWordPreprocessor[] awp = preprocessors.get();
+		for (ParallelChunk c : b.chunks) {
+			Chunk fc = c.getChunk(src);
+			Chunk ec = c.getChunk(tgt);
+			if (fc == null || ec == null) {
+				b.counters[BitextCompilerCounters.WRONG_LANGUAGE.ordinal()]++;
+				continue;
+			}
+			if (fc.getLength() > MAX_LENGTH) {
+				b.counters[BitextCompilerCounters.SRC_TOO_LONG.ordinal()]++;
+				continue;
+			}
+			if (ec.getLength() > MAX_LENGTH) {
+				b.counters[BitextCompilerCounters.TGT_TOO_LONG.ordinal()]++;
+				continue;
+			}
+			int[] ee = convertStrings(awp[1].preprocessWordsForAlignment(ec.getWords()), vocE);
+			int[] fe = convertStrings(awp[0].preprocessWordsForAlignment(fc.getWords()), vocF);
+			PhrasePair pp = new PhrasePair(new Phrase(fe, 1), new Phrase(ee, 0));
+			ReferenceAlignment ra = c.getReferenceAlignment(lp);
+			if (ra != null)
+				pp.setAlignment(ra);
+			b.keys.add(new Text(c.idString()));
+			b.pairs.add(pp);
+			b.counters[BitextCompilerCounters.EN_WORDS.ordinal()] += ee.length;
+			b.counters[BitextCompilerCounters.FR_WORDS.ordinal()] += fe.length;
+			b.counters[BitextCompilerCounters.CHUNKS.ordinal()]++;
+		}
+		b.chunks.clear();
+		return b;
+	}
+
+	/**
+	 * Numberizes every chunk of <code>in</code> and appends the sentence pairs
+	 * to <code>out</code> in the order of <code>in</code>. Neither is closed.
+	 */
+	public void compile(ParallelChunkReader in, SequenceFile.Writer out) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		ArrayDeque<Future<Batch>> pending = new ArrayDeque<Future<Batch>>();
+		int maxPending = 2 * numThreads;
+		try {
+			List<ParallelChunk> chunks = new ArrayList<ParallelChunk>(BATCH_SIZE);
+			ParallelChunk c;
+			while ((c = in.next()) != null) {
+				chunks.add(c);
+				if (chunks.size() == BATCH_SIZE) {
+					pending.add(submit(pool, chunks));
+					chunks = new ArrayList<ParallelChunk>(BATCH_SIZE);
+					if (pending.size() >= maxPending)
+						write(pending.poll(), out);
+				}
+			}
+			if (!chunks.isEmpty())
+				pending.add(submit(pool, chunks));
+			while (!pending.isEmpty())
+				write(pending.poll(), out);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private Future<Batch> submit(ExecutorService pool, List<ParallelChunk> chunks) {
+		final Batch b = new Batch(chunks);
+		return pool.submit(new Callable<Batch>() {
+			public Batch call() {
+				return numberize(b);
+			}
+		});
+	}
+
+	private void write(Future<Batch> f, SequenceFile.Writer out) throws IOException {
+		Batch b;
+		try {
+			b = f.get();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while numberizing: " + e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Numberizing failed", e.getCause());
+		}
+		for (int i = 0; i < b.keys.size(); i++)
+			out.append(b.keys.get(i), b.pairs.get(i));
+		for (int i = 0; i < counters.length; i++)
+			counters[i] += b.counters[i];
+		long n = getCounter(BitextCompilerCounters.CHUNKS);
+		if (n / 50000 != (n - b.keys.size()) / 50000)
+			System.err.println("[" + n + "]");
+	}
+
+	/**
+	 * Writes the vocabularies to <code>root</code>/vocab.E and
+	 * <code>root</code>/vocab.F.
+	 */
+	public void writeVocabularies(FileSystem fs, String root) throws IOException {
+		System.err.println("Target: " + vocE.size() + " types. Writing to "+root+"/vocab.E");
+		System.err.println("Source: " + vocF.size() + " types. Writing to "+root+"/vocab.F");
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fs.create(new Path(root+"/vocab.E"))));
+		vocE.toVocabularyWritable().write(dos);
+		dos.close();
+		DataOutputStream dos2 = new DataOutputStream(new BufferedOutputStream(fs.create(new Path(root+"/vocab.F"))));
+		vocF.toVocabularyWritable().write(dos2);
+		dos2.close();
+	}
+
+	private void report() {
+		for (BitextCompilerCounters c : BitextCompilerCounters.values())
+			System.out.println("  " + c + ": " + getCounter(c));
+	}
+
+	/**
+	 * Drop-in replacement for
+	 * {@link CorpusVocabNormalizerAndNumberizer#preprocessAndNumberizeFiles(Configuration, String, Path)}:
+	 * compiles the comma-separated XML bitexts in <code>inputPaths</code> into
+	 * <code>output</code>/part-00000 and writes the vocabularies to the
+	 * <code>root</code> directory of <code>c</code>.
+	 */
+	public static void preprocessAndNumberizeFiles(Configuration c,
+			String inputPaths, Path output, int numThreads) throws IOException {
+		ParallelBitextCompiler pbc = new ParallelBitextCompiler(
+				Language.languageForISO639_1(c.get(CorpusVocabNormalizerAndNumberizer.SRC_LANG)),
+				Language.languageForISO639_1(c.get(CorpusVocabNormalizerAndNumberizer.TGT_LANG)),
+				c, numThreads);
+		FileSystem fs = FileSystem.get(c);
+		System.out.println("Compiling bitext with " + numThreads + " threads");
+		System.out.println("Input: " + inputPaths);
+		System.out.println("Output: " + output);
+		SequenceFile.Writer w = SequenceFile.createWriter(fs, c,
+				new Path(output, "part-00000"), Text.class, PhrasePair.class);
+		try {
+			for (String p : inputPaths.split(",")) {
+				ParallelChunkReader r = new StaxParallelCorpusReader(fs.open(new Path(p.trim())));
+				try {
+					pbc.compile(r, w);
+				} finally {
+					r.close();
+				}
+			}
+		} finally {
+			w.close();
+		}
+		pbc.report();
+		pbc.writeVocabularies(fs, c.get("root", null));
+	}
+
+	private static BufferedReader open(FileSystem fs, String path) throws IOException {
+		return new BufferedReader(new InputStreamReader(fs.open(new Path(path)), "UTF8"));
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 6 && args.length != 7 && args.length != 8) {
+			System.err.println("Usage: " + ParallelBitextCompiler.class.getName()
+					+ " <src lang> <tgt lang> <threads> <output dir> <vocab dir>"
+					+ " (<bitext.xml>[,<bitext.xml>...] | <src.txt> <tgt.txt> [<tgt-src alignments>])");
+			System.exit(1);
+		}
+		Configuration c = new Configuration();
+		Language src = Language.languageForISO639_1(args[0]);
+		Language tgt = Language.languageForISO639_1(args[1]);
+		c.set(CorpusVocabNormalizerAndNumberizer.SRC_LANG, args[0]);
+		c.set(CorpusVocabNormalizerAndNumberizer.TGT_LANG, args[1]);
+		c.set("root", args[4]);
+		int numThreads = Integer.parseInt(args[2]);
+		Path output = new Path(args[3]);
+		if (args.length == 6) {
+			preprocessAndNumberizeFiles(c, args[5], output, numThreads);
+			return;
+		}
+		FileSystem fs = FileSystem.get(c);
+		ParallelBitextCompiler pbc = new ParallelBitextCompiler(src, tgt, c, numThreads);
+		String label = new Path(args[5]).getName() + "_";
+		ParallelChunkReader r = new PlainTextParallelCorpusReader(label,
+				open(fs, args[6]), tgt, open(fs, args[5]), src,
+				args.length == 8 ? open(fs, args[7]) : null);
+		SequenceFile.Writer w = SequenceFile.createWriter(fs, c,
+				new Path(output, "part-00000"), Text.class, PhrasePair.class);
+		try {
+			pbc.compile(r, w);
+		} finally {
+			w.close();
+			r.close();
+		}
+		pbc.report();
+		pbc.writeVocabularies(fs, args[4]);
+	}
+}
@@ -5,6 +5,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
 import java.nio.*;
 import java.util.TreeSet;
 
@@ -90,6 +91,26 @@ public class Phrase implements WritableComparable, Cloneable {
 		return hc;
 	}
 	
+	/**
+	 * Returns a 64-bit hash of the language and words, for keying phrases
+	 * without shipping their words. It is never {@link Long#MIN_VALUE}.
+	 */
+	public long fingerprint() {
+		long h = 0xcbf29ce484222325L ^ _language;
+		if (_words != null) {
+			for (int i = 0; i < _words.length; i++) {
+				h = (h ^ _words[i]) * 0x100000001b3L;
+				h ^= h >>> 29;
+			}
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h == Long.MIN_VALUE ? Long.MAX_VALUE : h;
+	}
+
 	public String toString(Vocab voc) {
 		StringBuffer sb = new StringBuffer();
 		if (_words != null) {
@@ -162,4 +183,42 @@ public class Phrase implements WritableComparable, Cloneable {
 		out.write(bb.array());
 	}
 	
+	/** Comparator that orders serialized phrases as compareTo does, without deserializing them. */
+	public static class Comparator extends WritableComparator {
+
+		public Comparator() {
+			super(Phrase.class);
+		}
+
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			return compareSerialized(b1, s1, b2, s2);
+		}
+	}
+
+	/**
+	 * Returns the length of the serialized phrase starting at <code>b[s]</code>.
+	 */
+	static int serializedLength(byte[] b, int s) {
+		return 5 + WritableComparator.readInt(b, s + 1);
+	}
+
+	static int compareSerialized(byte[] b1, int s1, byte[] b2, int s2) {
+		if (b1[s1] != b2[s2])
+			return (int)b2[s2] - (int)b1[s1];
+		int n1 = WritableComparator.readInt(b1, s1 + 1) >> 2;
+		int n2 = WritableComparator.readInt(b2, s2 + 1) >> 2;
+		// an empty phrase is read back with null words
+		if (n1 == 0 || n2 == 0)
+			return n2 - n1;
+		for (int i = 0; i < n1 && i < n2; i++) {
+			int a = WritableComparator.readInt(b1, s1 + 5 + 4 * i);
+			int b = WritableComparator.readInt(b2, s2 + 5 + 4 * i);
+			if (a != b) return a - b;
+		}
+		return n1 - n2;
+	}
+
+	static {
+		WritableComparator.define(Phrase.class, new Comparator());
+	}
 }
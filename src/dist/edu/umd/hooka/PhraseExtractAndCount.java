@@ -2,6 +2,8 @@ package edu.umd.hooka;
 
 import edu.umd.hooka.alignment.IndexedFloatArray;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.rmi.UnexpectedException;
 import java.util.ArrayList;
@@ -11,6 +13,9 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
@@ -18,13 +23,28 @@ import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.MapReduceBase;
 import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Partitioner;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
 
-
+/**
+ * Extracts phrase pairs from a word-aligned bitext and scores them with the
+ * relative frequencies p(e|f) and p(f|e).
+ *
+ * The original pipeline chains four jobs (count, marginalize, score, sum
+ * scores) that each shuffle whole {@link PhrasePair} keys. The fingerprint
+ * pipeline needs two: the first keys every extracted pair by 64-bit phrase
+ * fingerprints in both directions, next to a marginal key per phrase that
+ * sorts before all of the phrase's pairs, so joint counts and both marginals
+ * come out of one shuffle. The second joins the two scores of each pair and
+ * materializes the phrases, which the first job carries along once per pair.
+ */
 public class PhraseExtractAndCount {
+	static final int MAX_PHRASE_LENGTH = 7;
+
 	public static class MapClass1 extends MapReduceBase implements Mapper<IntWritable, PhrasePair, PhrasePair, IntWritable>
 	{
 		    
@@ -33,7 +53,7 @@ public class PhraseExtractAndCount {
 		public void map(IntWritable key, PhrasePair value, 
 				OutputCollector<PhrasePair, IntWritable> output, 
 				Reporter reporter) throws IOException {
-			ArrayList<PhrasePair> extracts = value.extractConsistentPhrasePairs(7);
+			ArrayList<PhrasePair> extracts = value.extractConsistentPhrasePairs(MAX_PHRASE_LENGTH);
 			for (PhrasePair p : extracts) {
 				output.collect(p, one);
 		    	}
@@ -163,24 +183,291 @@ public class PhraseExtractAndCount {
 		}
 	}
 		  
+	/**
+	 * Key of the fingerprint pipeline: a phrase fingerprint and the fingerprint
+	 * of the phrase it is paired with, or {@link #MARGINAL}, which sorts first.
+	 * The side says which phrase comes first, and is {@link #PAIR} once both
+	 * scores of an (f, e) pair are keyed together.
+	 */
+	public static class PPKey implements WritableComparable<PPKey> {
+		static final byte F_SIDE = 0;
+		static final byte E_SIDE = 1;
+		static final byte PAIR = 2;
+		static final long MARGINAL = Long.MIN_VALUE;
+
+		byte side;
+		long first;
+		long second;
+
+		public PPKey() {}
+
+		PPKey(byte side, long first, long second) {
+			set(side, first, second);
+		}
+
+		void set(byte side, long first, long second) {
+			this.side = side;
+			this.first = first;
+			this.second = second;
+		}
+
+		public void readFields(DataInput in) throws IOException {
+			side = in.readByte();
+			first = in.readLong();
+			second = in.readLong();
+		}
+
+		public void write(DataOutput out) throws IOException {
+			out.writeByte(side);
+			out.writeLong(first);
+			out.writeLong(second);
+		}
+
+		public int compareTo(PPKey that) {
+			if (side != that.side) return side - that.side;
+			if (first != that.first) return first < that.first ? -1 : 1;
+			if (second != that.second) return second < that.second ? -1 : 1;
+			return 0;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof PPKey)) return false;
+			return compareTo((PPKey)o) == 0;
+		}
+
+		public int hashCode() {
+			return side * 31 + (int)(first ^ (first >>> 32));
+		}
+
+		public String toString() {
+			return "(" + side + ", " + first + ", " + (second == MARGINAL ? "*" : Long.toString(second)) + ")";
+		}
+
+		/** Comparator optimized for <code>PPKey</code>. */
+		public static class Comparator extends WritableComparator {
+			public Comparator() {
+				super(PPKey.class);
+			}
+
+			public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+				if (b1[s1] != b2[s2]) return b1[s1] - b2[s2];
+				long a = readLong(b1, s1 + 1);
+				long b = readLong(b2, s2 + 1);
+				if (a != b) return a < b ? -1 : 1;
+				a = readLong(b1, s1 + 9);
+				b = readLong(b2, s2 + 9);
+				if (a != b) return a < b ? -1 : 1;
+				return 0;
+			}
+		}
+
+		static {
+			WritableComparator.define(PPKey.class, new Comparator());
+		}
+	}
+
+	/**
+	 * A count, and the phrase pair it belongs to if this record is the one
+	 * that carries it to the join.
+	 */
+	public static class PPCount implements Writable {
+		int count;
+		PhrasePair pair;
+
+		public void readFields(DataInput in) throws IOException {
+			count = in.readInt();
+			if (in.readBoolean()) {
+				if (pair == null) pair = new PhrasePair();
+				pair.readFields(in);
+			} else {
+				pair = null;
+			}
+		}
+
+		public void write(DataOutput out) throws IOException {
+			out.writeInt(count);
+			out.writeBoolean(pair != null);
+			if (pair != null)
+				pair.write(out);
+		}
+	}
+
+	/**
+	 * One of the two scores of a phrase pair, p(e|f) in slot 0 or p(f|e) in
+	 * slot 1, and the pair itself if this record carries it.
+	 */
+	public static class PPScore implements Writable {
+		byte slot;
+		float score;
+		PhrasePair pair;
+
+		public void readFields(DataInput in) throws IOException {
+			slot = in.readByte();
+			score = in.readFloat();
+			if (in.readBoolean()) {
+				if (pair == null) pair = new PhrasePair();
+				pair.readFields(in);
+			} else {
+				pair = null;
+			}
+		}
+
+		public void write(DataOutput out) throws IOException {
+			out.writeByte(slot);
+			out.writeFloat(score);
+			out.writeBoolean(pair != null);
+			if (pair != null)
+				pair.write(out);
+		}
+	}
+
+	public static class FingerprintMapper extends MapReduceBase
+		implements Mapper<IntWritable, PhrasePair, PPKey, PPCount> {
+
+		private final PPKey k = new PPKey();
+		private final PPCount one = new PPCount();
+
+		public void map(IntWritable key, PhrasePair value,
+				OutputCollector<PPKey, PPCount> output,
+				Reporter reporter) throws IOException {
+			ArrayList<PhrasePair> extracts = value.extractConsistentPhrasePairs(MAX_PHRASE_LENGTH);
+			one.count = 1;
+			for (PhrasePair p : extracts) {
+				long f = p.getF().fingerprint();
+				long e = p.getE().fingerprint();
+				one.pair = null;
+				k.set(PPKey.F_SIDE, f, PPKey.MARGINAL);
+				output.collect(k, one);
+				k.set(PPKey.E_SIDE, e, PPKey.MARGINAL);
+				output.collect(k, one);
+				k.set(PPKey.E_SIDE, e, f);
+				output.collect(k, one);
+				// the (f, e) joint count carries the phrases to the join
+				one.pair = p;
+				k.set(PPKey.F_SIDE, f, e);
+				output.collect(k, one);
+			}
+		}
+	}
+
+	public static class PPCountCombiner extends MapReduceBase
+		implements Reducer<PPKey, PPCount, PPKey, PPCount> {
+
+		private final PPCount sum = new PPCount();
+
+		public void reduce(PPKey key, Iterator<PPCount> values,
+				OutputCollector<PPKey, PPCount> output,
+				Reporter reporter) throws IOException {
+			sum.count = 0;
+			sum.pair = null;
+			while (values.hasNext()) {
+				PPCount c = values.next();
+				sum.count += c.count;
+				// values are reused, so keep a copy of the first pair
+				if (sum.pair == null && c.pair != null)
+					sum.pair = (PhrasePair)c.pair.clone();
+			}
+			output.collect(key, sum);
+		}
+	}
+
+	/**
+	 * Sends a phrase's marginal and all of its pairs to the same reducer.
+	 */
+	public static class FirstFingerprintPartitioner implements Partitioner<PPKey, Writable> {
+		public void configure(JobConf job) {}
+
+		public int getPartition(PPKey key, Writable value, int numReduceTasks) {
+			return (key.hashCode() & Integer.MAX_VALUE) % numReduceTasks;
+		}
+	}
+
+	/**
+	 * Turns joint counts into relative frequencies, using the marginal that
+	 * arrives just before the pairs of each phrase.
+	 */
+	public static class PPScoreReducer extends MapReduceBase
+		implements Reducer<PPKey, PPCount, PPKey, PPScore> {
+
+		private long marginalOf = PPKey.MARGINAL;
+		private byte marginalSide = -1;
+		private float marginal = 0.0f;
+		private final PPKey ko = new PPKey();
+		private final PPScore score = new PPScore();
+
+		public void reduce(PPKey key, Iterator<PPCount> values,
+				OutputCollector<PPKey, PPScore> output,
+				Reporter reporter) throws IOException {
+			int sum = 0;
+			PhrasePair pair = null;
+			while (values.hasNext()) {
+				PPCount c = values.next();
+				sum += c.count;
+				if (pair == null && c.pair != null)
+					pair = (PhrasePair)c.pair.clone();
+			}
+			if (key.second == PPKey.MARGINAL) {
+				marginalOf = key.first;
+				marginalSide = key.side;
+				marginal = (float)sum;
+				return;
+			}
+			if (key.first != marginalOf || key.side != marginalSide)
+				throw new UnexpectedException("No marginal before " + key);
+			score.slot = key.side;
+			score.score = (float)sum / marginal;
+			score.pair = pair;
+			if (key.side == PPKey.F_SIDE)
+				ko.set(PPKey.PAIR, key.first, key.second);
+			else
+				ko.set(PPKey.PAIR, key.second, key.first);
+			output.collect(ko, score);
+		}
+	}
+
+	/**
+	 * Joins both scores of a pair with its phrases into the phrase table
+	 * format of {@link ReduceSumScores}.
+	 */
+	public static class PPJoinReducer extends MapReduceBase
+		implements Reducer<PPKey, PPScore, PhrasePair, IndexedFloatArray> {
+
+		private final IndexedFloatArray scores = new IndexedFloatArray(2);
+
+		public void reduce(PPKey key, Iterator<PPScore> values,
+				OutputCollector<PhrasePair, IndexedFloatArray> output,
+				Reporter reporter) throws IOException {
+			scores.clear();
+			PhrasePair pair = null;
+			while (values.hasNext()) {
+				PPScore s = values.next();
+				scores.set(s.slot, s.score);
+				if (s.pair != null)
+					pair = (PhrasePair)s.pair.clone();
+			}
+			if (pair == null)
+				throw new UnexpectedException("No phrases for " + key);
+			output.collect(pair, scores);
+		}
+	}
+
+	/**
+	 * Runs the original four-job chain and returns the number of jobs run.
+	 */
 	@SuppressWarnings("deprecation")
-	public static void main(String[] args) throws IOException {
-		CorpusInfo corpus =
-			CorpusInfo.getCorpus(CorpusInfo.Corpus.ARABIC_500k);
+	public static int runFourJobChain(Path input, Path output, int mapTasks, int reduceTasks)
+			throws IOException {
 		Path ppCountTemp= new Path("ppc.paircount.tmp");
 		Path ppMarginalTemp = new Path("ppc.marginals.tmp");
 		Path ppPtableTemp = new Path("ppc.ptable.tmp");
 
-		int mapTasks    = 38;
-		int reduceTasks = 38;
-
 		JobConf conf = new JobConf(PhraseExtractAndCount.class);
 		FileSystem fs = FileSystem.get(conf);
 		
 		fs.delete(ppCountTemp);
 		fs.delete(ppMarginalTemp);
 		fs.delete(ppPtableTemp);
-		fs.delete(corpus.getLocalPhraseTable());
+		fs.delete(output);
 
 		conf.setJobName("PhraseExtractAndCount");
 		 
@@ -194,7 +481,7 @@ public class PhraseExtractAndCount {
 		conf.setNumMapTasks(mapTasks);
 		conf.setNumReduceTasks(reduceTasks);
 		
-		FileInputFormat.setInputPaths(conf, corpus.getAlignedBitext());
+		FileInputFormat.setInputPaths(conf, input);
 		FileOutputFormat.setOutputPath(conf, ppCountTemp);
 		conf.setInputFormat(SequenceFileInputFormat.class);
 		conf.setOutputFormat(SequenceFileOutputFormat.class);
@@ -254,8 +541,87 @@ public class PhraseExtractAndCount {
 		conf.setNumMapTasks(mapTasks);
 		conf.setNumReduceTasks(reduceTasks);
 		FileInputFormat.setInputPaths(conf, ppPtableTemp);
-		FileOutputFormat.setOutputPath(conf, corpus.getLocalPhraseTable());
+		FileOutputFormat.setOutputPath(conf, output);
 		JobClient.runJob(conf);
+		return 4;
+	}
 
-	}	  
+	/**
+	 * Runs the fingerprint pipeline and returns the number of jobs run.
+	 */
+	@SuppressWarnings("deprecation")
+	public static int runFingerprintPipeline(Path input, Path output, int mapTasks, int reduceTasks)
+			throws IOException {
+		Path scoreTemp = new Path("ppc.fpscores.tmp");
+
+		JobConf conf = new JobConf(PhraseExtractAndCount.class);
+		FileSystem fs = FileSystem.get(conf);
+		fs.delete(scoreTemp);
+		fs.delete(output);
+
+		conf.setJobName("PhraseExtractAndCount_fpscore");
+		conf.setInputFormat(SequenceFileInputFormat.class);
+		conf.setOutputFormat(SequenceFileOutputFormat.class);
+		conf.setMapOutputKeyClass(PPKey.class);
+		conf.setMapOutputValueClass(PPCount.class);
+		conf.setOutputKeyClass(PPKey.class);
+		conf.setOutputValueClass(PPScore.class);
+		conf.setMapperClass(FingerprintMapper.class);
+		conf.setCombinerClass(PPCountCombiner.class);
+		conf.setPartitionerClass(FirstFingerprintPartitioner.class);
+		conf.setReducerClass(PPScoreReducer.class);
+		conf.setNumMapTasks(mapTasks);
+		conf.setNumReduceTasks(reduceTasks);
+		FileInputFormat.setInputPaths(conf, input);
+		FileOutputFormat.setOutputPath(conf, scoreTemp);
+		JobClient.runJob(conf);
+
+		conf = new JobConf(PhraseExtractAndCount.class);
+		conf.setJobName("PhraseExtractAndCount_fpjoin");
+		conf.setInputFormat(SequenceFileInputFormat.class);
+		conf.setOutputFormat(SequenceFileOutputFormat.class);
+		conf.setMapOutputKeyClass(PPKey.class);
+		conf.setMapOutputValueClass(PPScore.class);
+		conf.setOutputKeyClass(PhrasePair.class);
+		conf.setOutputValueClass(IndexedFloatArray.class);
+		conf.setMapperClass(IdentityMapper.class);
+		conf.setReducerClass(PPJoinReducer.class);
+		conf.setNumMapTasks(mapTasks);
+		conf.setNumReduceTasks(reduceTasks);
+		FileInputFormat.setInputPaths(conf, scoreTemp);
+		FileOutputFormat.setOutputPath(conf, output);
+		JobClient.runJob(conf);
+
+		fs.delete(scoreTemp);
+		return 2;
+	}
+
+	/**
+	 * Usage: [fingerprint|four-job|both]. With both, the two pipelines run
+	 * one after the other so that their job counts and wall times can be
+	 * compared.
+	 */
+	public static void main(String[] args) throws IOException {
+		CorpusInfo corpus =
+			CorpusInfo.getCorpus(CorpusInfo.Corpus.ARABIC_500k);
+		String mode = args.length > 0 ? args[0] : "fingerprint";
+		int mapTasks    = 38;
+		int reduceTasks = 38;
+		Path output = corpus.getLocalPhraseTable();
+
+		if (mode.equals("four-job") || mode.equals("both")) {
+			long start = System.currentTimeMillis();
+			int jobs = runFourJobChain(corpus.getAlignedBitext(), output, mapTasks, reduceTasks);
+			System.out.println("Four-job chain: " + jobs + " jobs, "
+					+ (System.currentTimeMillis() - start) / 1000.0 + " s");
+		}
+		if (mode.equals("both"))
+			output = output.suffix("-fp");
+		if (mode.equals("fingerprint") || mode.equals("both")) {
+			long start = System.currentTimeMillis();
+			int jobs = runFingerprintPipeline(corpus.getAlignedBitext(), output, mapTasks, reduceTasks);
+			System.out.println("Fingerprint pipeline: " + jobs + " jobs, "
+					+ (System.currentTimeMillis() - start) / 1000.0 + " s");
+		}
+	}
 }
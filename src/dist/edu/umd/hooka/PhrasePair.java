@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
 
 import edu.umd.hooka.alignment.aer.ReferenceAlignment;
 
@@ -27,7 +28,7 @@ public class PhrasePair implements WritableComparable, Cloneable {
 	public Object clone() {
 		Phrase nf = (Phrase)f.clone();
 		Phrase ne = (Phrase)e.clone();
-		Alignment na = (Alignment)a.clone();
+		Alignment na = a == null ? null : (Alignment)a.clone();
 		return new PhrasePair(nf, ne, na);
 	}
 	public int compareTo(Object o) {
@@ -222,7 +223,7 @@ public class PhrasePair implements WritableComparable, Cloneable {
 		boolean hasg = in.readBoolean();
 		if (hasg) {
 			g = new AlignmentPosteriorGrid(this);
-			g.readFiles(in);
+			g.readFields(in);
 		}
 	}
 
@@ -353,14 +354,13 @@ public class PhrasePair implements WritableComparable, Cloneable {
 		{
 			alignedToE.add(new ArrayList<Integer>());
 		}
-		java.util.Iterator<Alignment.IntPair> ai = a.iterator();
-		while (ai.hasNext())
-		{
-			Alignment.IntPair pair = ai.next();
-			int f = pair.f;
-			int e = pair.e;
-			alignedToE.get(e).add(f);
-			alignedCountF[f]++;
+		for (int e=0; e<_elen; e++) {
+			if (!a.isEAligned(e)) continue;
+			for (int f=0; f<_flen; f++)
+				if (a.aligned(f, e)) {
+					alignedToE.get(e).add(f);
+					alignedCountF[f]++;
+				}
 		}
 		int[] usedF = new int[alignedCountF.length];
 		//for (int cc=0; cc<_flen; cc++) {
@@ -417,4 +417,26 @@ public class PhrasePair implements WritableComparable, Cloneable {
 			res.add(this.extractSubPhrasePair(spc));
 		return res;
 	}
+
+	/**
+	 * Comparator that orders serialized phrase pairs as compareTo does, by
+	 * comparing the f and then the e phrases in place.
+	 */
+	public static class Comparator extends WritableComparator {
+
+		public Comparator() {
+			super(PhrasePair.class);
+		}
+
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			int c = Phrase.compareSerialized(b2, s2, b1, s1);
+			if (c != 0) { return c; }
+			return Phrase.compareSerialized(b2, s2 + Phrase.serializedLength(b2, s2),
+					b1, s1 + Phrase.serializedLength(b1, s1));
+		}
+	}
+
+	static {
+		WritableComparator.define(PhrasePair.class, new Comparator());
+	}
 }
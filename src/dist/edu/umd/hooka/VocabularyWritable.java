@@ -3,77 +3,215 @@ package edu.umd.hooka;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.Text;
 import org.apache.log4j.Logger;
 
+/**
+ * Vocabulary that keeps the UTF-8 bytes of all words back to back in a
+ * single arena, with the start of each word in an offset array and an
+ * open-addressing table of word ids for lookups. Words can be looked up and
+ * added straight from {@link Text} or other UTF-8 bytes without creating
+ * Strings.
+ *
+ * The serialized form is a header followed by one block holding the arena and
+ * the offsets, which is loaded with a single <code>readFully</code>:
+ *
+ * <pre>
+ * int MAGIC, int size, int arena length
+ * arena length x byte, (size + 1) x int offset
+ * </pre>
+ *
+ * The older form, a count followed by that many {@link Text}s, is still read.
+ */
 public class VocabularyWritable implements Writable, Vocab {
 	private static final Logger sLogger = Logger.getLogger(VocabularyWritable.class);
 
-	ArrayList<String> strings;
-	HashMap<String, Integer> map;
+	// negative, so that it can't be mistaken for the word count of the old format
+	static final int MAGIC = 0xCAFE0001;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int EMPTY = -1;
+
+	byte[] arena;
+	int arenaLength;
+	int[] offsets;   // word i is arena[offsets[i], offsets[i + 1])
+	int size;
+	int[] table;     // word ids by hash, or EMPTY
+	int mask;
+
 	public VocabularyWritable()
 	{
-		strings = new ArrayList<String>();
-		strings.add("NULL");
-		map = new HashMap<String, Integer>();
-		map.put("NULL", new Integer(0));
+		clear(16, 64);
+		addOrGet("NULL");
+	}
+
+	private void clear(int words, int bytes) {
+		arena = new byte[bytes];
+		arenaLength = 0;
+		offsets = new int[words + 1];
+		size = 0;
+		allocateTable(words);
+	}
+
+	private void allocateTable(int words) {
+		int cap = Integer.highestOneBit(Math.max(8, words * 2) - 1) << 1;
+		table = new int[cap];
+		Arrays.fill(table, EMPTY);
+		mask = cap - 1;
 	}
-	
+
 	public int size() {
-		return strings.size();
+		return size;
+	}
+
+	private static int hash(byte[] b, int start, int len) {
+		int h = 0x811C9DC5;
+		for (int i = start; i < start + len; i++)
+			h = (h ^ b[i]) * 0x01000193;
+		return h ^ (h >>> 16);
+	}
+
+	private boolean equals(int id, byte[] b, int start, int len) {
+		int o = offsets[id];
+		if (offsets[id + 1] - o != len)
+			return false;
+		for (int i = 0; i < len; i++)
+			if (arena[o + i] != b[start + i])
+				return false;
+		return true;
+	}
+
+	// Returns the table position holding the word, or the empty position where it belongs.
+	private int find(byte[] b, int start, int len) {
+		int i = hash(b, start, len) & mask;
+		while (table[i] != EMPTY && !equals(table[i], b, start, len))
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	// Appends a word to the arena and gives it the next id, without checking
+	// whether it is already present.
+	private int append(byte[] b, int start, int len) {
+		if (arenaLength + len > arena.length)
+			arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaLength + len));
+		if (size + 2 > offsets.length)
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+		System.arraycopy(b, start, arena, arenaLength, len);
+		arenaLength += len;
+		int id = size++;
+		offsets[size] = arenaLength;
+		return id;
+	}
+
+	private void rehash() {
+		allocateTable(size * 2);
+		for (int id = 0; id < size; id++) {
+			int i = find(arena, offsets[id], offsets[id + 1] - offsets[id]);
+			if (table[i] == EMPTY)
+				table[i] = id;
+		}
+	}
+
+	/**
+	 * Returns the id of the word in <code>b[start, start + len)</code>, which
+	 * must be UTF-8, adding it if it is not in the vocabulary yet.
+	 */
+	public int addOrGet(byte[] b, int start, int len) {
+		int i = find(b, start, len);
+		if (table[i] != EMPTY)
+			return table[i];
+		int id = append(b, start, len);
+		table[i] = id;
+		if (size * 2 > table.length)
+			rehash();
+		return id;
 	}
-	
+
+	/**
+	 * Returns the id of the word in <code>b[start, start + len)</code>, which
+	 * must be UTF-8, or -1 if it is not in the vocabulary.
+	 */
+	public int get(byte[] b, int start, int len) {
+		return table[find(b, start, len)];
+	}
+
+	public int addOrGet(Text word) {
+		return addOrGet(word.getBytes(), 0, word.getLength());
+	}
+
+	public int get(Text word) {
+		return get(word.getBytes(), 0, word.getLength());
+	}
+
 	public int addOrGet(String word)
 	{
-		Integer i = map.get(word);
-		if (i == null) {
-			i = new Integer(strings.size());
-			strings.add(word);
-			map.put(word, i);
-		}
-		return i.intValue();
+		byte[] b = word.getBytes(UTF8);
+		return addOrGet(b, 0, b.length);
 	}
-	
+
 	public int get(String word) {
-		if(map.get(word)==null){
-			return -1;
-		}else{
-			return map.get(word).intValue();
-		}
+		byte[] b = word.getBytes(UTF8);
+		return get(b, 0, b.length);
 	}
-	
+
 	public String get(int index) {
-		return strings.get(index);
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		return new String(arena, offsets[index], offsets[index + 1] - offsets[index], UTF8);
 	}
-	
+
 	public void readFields(DataInput in) throws IOException {
 		int s = in.readInt();
+		if (s != MAGIC) {
+			readOldFormat(in, s);
+			return;
+		}
+		s = in.readInt();
+		int len = in.readInt();
 		sLogger.info("VOCAB SIZE "+s);
-		strings = new ArrayList<String>(s);
-		map = new HashMap<String, Integer>();
+		// the offsets are read into the spare capacity of the arena
+		byte[] block = new byte[len + 4 * (s + 1)];
+		in.readFully(block);
+		arena = block;
+		arenaLength = len;
+		offsets = new int[s + 1];
+		ByteBuffer.wrap(block, len, 4 * (s + 1)).asIntBuffer().get(offsets);
+		size = s;
+		rehash();
+	}
+
+	private void readOldFormat(DataInput in, int s) throws IOException {
+		sLogger.info("VOCAB SIZE "+s);
+		clear(s, 8 * s);
 		Text t = new Text();
 		for (int i=0; i<s; i++) {
 			t.readFields(in);
-			String str = t.toString();
-			strings.add(i, str);
-			map.put(str, new Integer(i));
+			append(t.getBytes(), 0, t.getLength());
 		}
+		rehash();
 	}
 
 	public void write(DataOutput out) throws IOException {
-		out.writeInt(strings.size());
-		Text t= new Text();
-		for (String s: strings) {
-			t.set(s);
-			t.write(out);
-		}
+		out.writeInt(MAGIC);
+		out.writeInt(size);
+		out.writeInt(arenaLength);
+		out.write(arena, 0, arenaLength);
+		ByteBuffer bb = ByteBuffer.allocate(4 * (size + 1));
+		bb.asIntBuffer().put(offsets, 0, size + 1);
+		out.write(bb.array());
 	}
-	
+
 	public String toString(){
-		return strings.toString();
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < size; i++) {
+			if (i > 0) sb.append(", ");
+			sb.append(get(i));
+		}
+		return sb.append("]").toString();
 	}
 
 }
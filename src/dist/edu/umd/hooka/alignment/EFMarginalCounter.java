@@ -19,7 +19,6 @@ import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.SequenceFileOutputFormat;
 import edu.umd.hooka.CorpusInfo;
 import edu.umd.hooka.PhrasePair;
-import edu.umd.hooka.Vocab;
 
 /**
  * General EM training framework for word alignment models.
@@ -58,8 +57,9 @@ public class EFMarginalCounter {
 			return res;
 		}
 		OutputCollector<IntWritable, IndexedFloatArray> output_;
-		float[] emap = new float[Vocab.MAX_VOCAB_INDEX];
-		float[] fmap = new float[Vocab.MAX_VOCAB_INDEX];
+		// grown to the largest word id seen
+		float[] emap = new float[1 << 16];
+		float[] fmap = new float[1 << 16];
 		int maxF = -1;
 		int maxE = -1;
 		boolean hasValues = false;
@@ -75,6 +75,8 @@ public class EFMarginalCounter {
 			fs = makeUnique(fs);
 			if (es[es.length - 1] > maxE) maxE = es[es.length - 1];
 			if (fs[fs.length - 1] > maxF) maxF = fs[fs.length - 1];
+			if (maxE >= emap.length) emap = Arrays.copyOf(emap, Math.max(emap.length * 2, maxE + 1));
+			if (maxF >= fmap.length) fmap = Arrays.copyOf(fmap, Math.max(fmap.length * 2, maxF + 1));
 			for (int e : es) emap[e] += 1.0f;
 			for (int f : fs) fmap[f] += 1.0f;
 			hasValues = true;
@@ -6,10 +6,13 @@ import java.io.BufferedOutputStream;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.PriorityQueue;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -19,6 +22,7 @@ import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -26,6 +30,7 @@ import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapred.Counters;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
@@ -55,9 +60,12 @@ import edu.umd.hooka.alignment.hmm.ATable;
 import edu.umd.hooka.alignment.hmm.HMM;
 import edu.umd.hooka.alignment.hmm.HMM_NullWord;
 import edu.umd.hooka.alignment.model1.Model1;
+import edu.umd.hooka.alignment.model1.Model1Base;
 import edu.umd.hooka.alignment.model1.Model1_InitUniform;
 import edu.umd.hooka.ttables.TTable;
+import edu.umd.hooka.ttables.TTable_mmap;
 import edu.umd.hooka.ttables.TTable_monolithic_IFAs;
+import edu.umd.hooka.ttables.TTable_sliced;
 import edu.umd.cloud9.mapred.NullInputFormat;
 import edu.umd.cloud9.mapred.NullMapper;
 import edu.umd.cloud9.mapred.NullOutputFormat;
@@ -74,6 +82,7 @@ public class HadoopAlign {
   static final String MODEL1_UNIFORM_INIT = "model1.uniform";
   static final String MODEL1_TRAINER = "model1.trainer";
   static final String HMM_TRAINER = "hmm.baumwelch.trainer";
+  static final String KEY_PSERVER_SENTENCES = "ha.pserver.sentences";
 
   static public ATable loadATable(Path path, Configuration job) throws IOException {
     org.apache.hadoop.conf.Configuration conf = new org.apache.hadoop.conf.Configuration(job);
@@ -113,6 +122,18 @@ public class HadoopAlign {
     }
   }
 
+  /**
+   * Size of the partial counts written by the EM mappers, and of what is left of them after
+   * combining, i.e. what is shuffled to the reducers.
+   */
+  public static enum PartialCountCounters {
+    MAP_RECORDS,
+    MAP_BYTES,
+    PRUNED_COUNTS,
+    COMBINED_RECORDS,
+    COMBINED_BYTES,
+  }
+
   public static enum AlignmentEvalEnum {
     SURE_HITS,
     PROBABLE_HITS,
@@ -130,6 +151,7 @@ public class HadoopAlign {
     HadoopAlignConfig job = null;
     FileSystem ttfs = null;
     TTable ttable = null;
+    File mmapTTable = null;
     boolean generatePosteriors = false;
     public void configure(JobConf j) {
       job = new HadoopAlignConfig(j);
@@ -154,6 +176,24 @@ public class HadoopAlign {
         ltp = localFiles[0];
       else
         ltp = job.getTTablePath();
+      if (job.useMemoryMappedTTable()) {
+        try {
+          Path[] cached = DistributedCache.getLocalCacheFiles(job);
+          if (cached != null)
+            for (Path p : cached)
+              if (p.getName().equals(job.getMemoryMappedTTablePath().getName()))
+                mmapTTable = new File(p.toUri().getPath());
+        } catch (IOException e) {
+          throw new RuntimeException("Caught: " + e);
+        }
+      }
+    }
+    TTable loadTTable() throws IOException {
+      if (mmapTTable != null)
+        return new TTable_mmap(mmapTTable);
+      if (job.useSlicedTTable())
+        return new TTable_sliced(ttfs, job.getSlicedTTablePath(), job.getSlicedTTableBudget());
+      return new TTable_monolithic_IFAs(ttfs, ltp, true);
     }
     public void init() throws IOException {
       String pserveHost = job.get("ha.pserver.host");
@@ -169,16 +209,14 @@ public class HadoopAlign {
         if (usePServer)
           ttable = new PServerClient(pserveHost, pservePort);
         else
-          ttable = new TTable_monolithic_IFAs(
-              ttfs, ltp, true);
+          ttable = loadTTable();
 
         trainer = new Model1(ttable, useNullWord);
       } else if (trainerType.equals(HMM_TRAINER)) {
         if (usePServer)
           ttable = new PServerClient(pserveHost, pservePort);
         else
-          ttable = new TTable_monolithic_IFAs(
-              ttfs, ltp, true);
+          ttable = loadTTable();
         ATable atable = loadATable(job.getATablePath(), job);
         if (!useNullWord)
           trainer = new HMM(ttable, atable);
@@ -186,6 +224,8 @@ public class HadoopAlign {
           trainer = new HMM_NullWord(ttable, atable, job.getHMMp0());
       } else
         throw new RuntimeException("Don't understand initialization stategy: " + trainerType);
+      if (trainer instanceof Model1Base)
+        ((Model1Base)trainer).setCountPruningThreshold(job.getCountPruningThreshold());
     }		
   }
 
@@ -193,6 +233,11 @@ public class HadoopAlign {
   implements Mapper<Text,PhrasePair,IntWritable,PartialCountContainer> {
 
     OutputCollector<IntWritable,PartialCountContainer> output_ = null;	
+    Reporter reporter_ = null;
+    // sentence pairs waiting for their probabilities from the PServer
+    List<PhrasePair> pending = new ArrayList<PhrasePair>();
+    // sentence pairs whose ttable slices are being read ahead
+    ArrayDeque<PhrasePair> window = new ArrayDeque<PhrasePair>();
 
     public void map(Text key, PhrasePair value, 
         OutputCollector<IntWritable,PartialCountContainer> output, 
@@ -200,11 +245,36 @@ public class HadoopAlign {
 
       if (output_ == null) {
         output_ = output;
+        reporter_ = reporter;
         init();
         trainer.addAlignmentListener(new AEListener(reporter));
       }
-      if (usePServer && ttable != null)
-        ((PServerClient)ttable).query(value, useNullWord);
+      hasCounts = true;
+      if (usePServer && ttable != null) {
+        pending.add(WritableUtils.clone(value, job));
+        if (pending.size() >= job.getInt(KEY_PSERVER_SENTENCES, 1024))
+          processPending();
+        return;
+      }
+      if (ttable instanceof TTable_sliced) {
+        PhrasePair pp = WritableUtils.clone(value, job);
+        ttable.prepare(pp, useNullWord);
+        window.add(pp);
+        if (window.size() > job.getSlicedTTablePrefetch())
+          process(window.poll(), reporter);
+        return;
+      }
+      process(value, reporter);
+    }
+
+    void processPending() throws IOException {
+      ((PServerClient)ttable).query(pending, useNullWord);
+      for (PhrasePair pp : pending)
+        process(pp, reporter_);
+      pending.clear();
+    }
+
+    void process(PhrasePair value, Reporter reporter) throws IOException {
       AlignmentPosteriorGrid model1g= null;
       if (value.hasAlignmentPosteriors())
         model1g = value.getAlignmentPosteriorGrid();
@@ -223,14 +293,29 @@ public class HadoopAlign {
         reporter.incrCounter(AlignmentEvalEnum.HYPOTHESIZED_ALIGNMENT_POINTS, a.countAlignmentPoints());
         reporter.incrCounter(AlignmentEvalEnum.REF_ALIGNMENT_POINTS, ref.countSureAlignmentPoints());
       }
-      hasCounts = true;
     }
 
     public void close() {
       if (!hasCounts) return;
       try {
+        if (!pending.isEmpty())
+          processPending();
+        while (!window.isEmpty())
+          process(window.poll(), reporter_);
+        if (usePServer && ttable != null)
+          ((PServerClient)ttable).close();
+        if (ttable instanceof TTable_sliced) {
+          TTable_sliced ts = (TTable_sliced)ttable;
+          for (TTable_sliced.SliceCounters c : TTable_sliced.SliceCounters.values())
+            reporter_.incrCounter(c, ts.getCounter(c));
+          ts.close();
+        }
         trainer.clearModel();
-        trainer.writePartialCounts(output_);
+        trainer.writePartialCounts(new CountingCollector(output_, reporter_,
+            PartialCountCounters.MAP_RECORDS, PartialCountCounters.MAP_BYTES));
+        if (trainer instanceof Model1Base)
+          reporter_.incrCounter(PartialCountCounters.PRUNED_COUNTS,
+              ((Model1Base)trainer).getPrunedCountTotal());
       } catch (IOException e) {
         throw new RuntimeException("Caught: " + e);
       }
@@ -288,6 +373,7 @@ public class HadoopAlign {
           //System.out.println("DIFF (HMM - (Model1 \\intersect DIFF)): " + key + "\n" +df.toStringVisual() + "\n"+model1g);
           //a = Alignment.union(a, df);
         }
+        g.setPruningThreshold(job.getPosteriorPruningThreshold());
         value.setAlignmentPosteriorGrid(g);
       }
 
@@ -318,12 +404,37 @@ public class HadoopAlign {
     }
   }
 
+  /**
+   * Counts the records passed on to another collector and their serialized size.
+   */
+  static class CountingCollector implements OutputCollector<IntWritable,PartialCountContainer> {
+    private final OutputCollector<IntWritable,PartialCountContainer> output;
+    private final Reporter reporter;
+    private final Enum<?> records;
+    private final Enum<?> bytes;
+
+    CountingCollector(OutputCollector<IntWritable,PartialCountContainer> output, Reporter reporter,
+        Enum<?> records, Enum<?> bytes) {
+      this.output = output;
+      this.reporter = reporter;
+      this.records = records;
+      this.bytes = bytes;
+    }
+
+    public void collect(IntWritable key, PartialCountContainer value) throws IOException {
+      reporter.incrCounter(records, 1);
+      reporter.incrCounter(bytes, 4 + value.getSerializedSize());
+      output.collect(key, value);
+    }
+  }
+
   public static class EMReducer extends MapReduceBase
   implements Reducer<IntWritable,PartialCountContainer,IntWritable,PartialCountContainer> {
     boolean variationalBayes = false;
+    boolean normalize = true;
     IntWritable oe = new IntWritable();
     PartialCountContainer pcc = new PartialCountContainer();
-    float[] counts = new float[Vocab.MAX_VOCAB_INDEX]; // TODO: fix this
+    float[] counts = new float[1 << 16]; // grown to the largest f id seen
     float alpha = 0.0f;
     @Override
     public void configure(JobConf job) {
@@ -338,6 +449,9 @@ public class HadoopAlign {
       if (HMM.ACOUNT_VOC_ID.get() != key.get()) {
         while (values.hasNext()) {;
         IndexedFloatArray v = (IndexedFloatArray)values.next().getContent();
+        if (v.size() == 0) continue;
+        if (v.maxKey() + 1 > counts.length)
+          counts = Arrays.copyOf(counts, Math.max(counts.length * 2, v.maxKey() + 1));
         if (v.maxKey() + 1 > lm) {
           Arrays.fill(counts, lm, v.maxKey() + 1, 0.0f);
           lm = v.maxKey() + 1;
@@ -358,11 +472,31 @@ public class HadoopAlign {
         //				pcc.normalize();
         //				if (true) throw new RuntimeException("CHECK\n"+pcc.getContent());
       }
-      pcc.normalize(variationalBayes, alpha);
+      if (normalize)
+        pcc.normalize(variationalBayes, alpha);
       output.collect(key, pcc);
     }
   }
 
+  /**
+   * Sums the partial counts of each mapper as {@link EMReducer} does, without normalizing them,
+   * so that each mapper ships a single sparse row per e word.
+   */
+  public static class EMCombiner extends EMReducer {
+    @Override
+    public void configure(JobConf job) {
+      super.configure(job);
+      normalize = false;
+    }
+    @Override
+    public void reduce(IntWritable key, Iterator<PartialCountContainer> values,
+        OutputCollector<IntWritable,PartialCountContainer> output,
+        Reporter reporter) throws IOException {
+      super.reduce(key, values, new CountingCollector(output, reporter,
+          PartialCountCounters.COMBINED_RECORDS, PartialCountCounters.COMBINED_BYTES), reporter);
+    }
+  }
+
   /**
    * Basic implementation: assume keys are IntWritable, values are Phrase
    * Better implementation: use Java Generics to templatize, ie.
@@ -486,10 +620,41 @@ public class HadoopAlign {
       }
       fileSys.delete(ttablePath, true); // delete old ttable
       tt.write();  // write new one to same location
+      writeMemoryMappedTTable(hac, fileSys, (TTable_monolithic_IFAs)tt);
+      writeSlicedTTable(hac, fileSys, (TTable_monolithic_IFAs)tt);
     }
   }
 
 
+  /**
+   * Also writes <code>tt</code> in {@link TTable_mmap} format if the alignment tasks are to share
+   * a memory-mapped copy of it.
+   */
+  static void writeMemoryMappedTTable(HadoopAlignConfig hac, FileSystem fileSys,
+      TTable_monolithic_IFAs tt) throws IOException {
+    if (!hac.useMemoryMappedTTable())
+      return;
+    Path mmapPath = hac.getMemoryMappedTTablePath();
+    fileSys.delete(mmapPath, true);
+    DataOutputStream dos = new DataOutputStream(
+        new BufferedOutputStream(fileSys.create(mmapPath)));
+    TTable_mmap.write(tt, dos);
+    dos.close();
+  }
+
+  /**
+   * Also writes <code>tt</code> in {@link TTable_sliced} format if the alignment tasks are to read
+   * only the slices they need.
+   */
+  static void writeSlicedTTable(HadoopAlignConfig hac, FileSystem fileSys,
+      TTable_monolithic_IFAs tt) throws IOException {
+    if (!hac.useSlicedTTable())
+      return;
+    Path slicedPath = hac.getSlicedTTablePath();
+    fileSys.delete(slicedPath, true);
+    TTable_sliced.write(tt, fileSys, slicedPath);
+  }
+
   public static class ModelMergeMapper extends MapReduceBase
   implements Mapper<LongWritable,Text,LongWritable,Text> {
     Path outputPath = null;
@@ -538,6 +703,8 @@ public class HadoopAlign {
       }
       fileSys.delete(ttablePath, true); // delete old ttable
       tt.write();  // write new one to same location
+      writeMemoryMappedTTable(hac, fileSys, (TTable_monolithic_IFAs)tt);
+      writeSlicedTTable(hac, fileSys, (TTable_monolithic_IFAs)tt);
       output.collect(key, value);
     }
   }
@@ -616,6 +783,9 @@ public class HadoopAlign {
         conf.set("mapred.child.java.opts", "-Xmx2048m");
         if (iteration == 0)
           conf.set(KEY_TRAINER, MODEL1_UNIFORM_INIT);
+        else if (hac.useMemoryMappedTTable())
+          DistributedCache.addCacheFile(
+              fileSys.makeQualified(hac.getMemoryMappedTTablePath()).toUri(), conf);
         if (hmm) {
           conf.set(KEY_TRAINER, HMM_TRAINER);
           if (firstHmm) {
@@ -639,6 +809,7 @@ public class HadoopAlign {
         conf.setOutputValueClass(PartialCountContainer.class);
 
         conf.setMapperClass(EMapper.class);
+        conf.setCombinerClass(EMCombiner.class);
         conf.setReducerClass(EMReducer.class);
 
         conf.setNumMapTasks(mapTasks);
@@ -670,6 +841,12 @@ public class HadoopAlign {
         double aer = ComputeAER(c);
         System.out.println("Iteration " + iteration + ": (" + modelType + ")\tCROSS-ENTROPY: " + ce + "   PERPLEXITY: " + perp);
         System.out.println("Iteration " + iteration + ": " + aer + " AER");
+        System.out.println("Iteration " + iteration + ": partial counts: "
+            + c.getCounter(PartialCountCounters.MAP_RECORDS) + " records, "
+            + c.getCounter(PartialCountCounters.MAP_BYTES) + " bytes written by mappers, "
+            + c.getCounter(PartialCountCounters.COMBINED_RECORDS) + " records, "
+            + c.getCounter(PartialCountCounters.COMBINED_BYTES) + " bytes shuffled, "
+            + c.getCounter(PartialCountCounters.PRUNED_COUNTS) + " counts pruned");
         aers.add(aer);			
         perps.add(perp);
       } finally { stopPServers(); }
@@ -727,6 +904,9 @@ public class HadoopAlign {
         conf.set(KEY_ITERATION, Integer.toString(iteration));
         if (hmm)
           conf.set(KEY_TRAINER, HMM_TRAINER);
+        if (hac.useMemoryMappedTTable())
+          DistributedCache.addCacheFile(
+              fileSys.makeQualified(hac.getMemoryMappedTTablePath()).toUri(), conf);
         conf.setOutputKeyClass(Text.class);
         conf.setOutputValueClass(PhrasePair.class);
 
@@ -755,6 +935,12 @@ public class HadoopAlign {
         double aer = ComputeAER(c);
         //				System.out.println("Iteration " + iteration + ": (" + modelType + ")\tCROSS-ENTROPY: " + ce + "   PERPLEXITY: " + perp);
         System.out.println("Iteration " + iteration + ": " + aer + " AER");
+        System.out.println("Iteration " + iteration + ": partial counts: "
+            + c.getCounter(PartialCountCounters.MAP_RECORDS) + " records, "
+            + c.getCounter(PartialCountCounters.MAP_BYTES) + " bytes written by mappers, "
+            + c.getCounter(PartialCountCounters.COMBINED_RECORDS) + " records, "
+            + c.getCounter(PartialCountCounters.COMBINED_BYTES) + " bytes shuffled, "
+            + c.getCounter(PartialCountCounters.PRUNED_COUNTS) + " counts pruned");
         aers.add(aer);			
         perps.add(0.0);
       }
@@ -786,6 +972,8 @@ public class HadoopAlign {
   private static final String REDUCE_OPTION = "reduce";
   private static final String TRUNCATE_OPTION = "use_truncate";
   private static final String LIBJARS_OPTION = "libjars";
+  private static final String MMAP_OPTION = "mmap_ttable";
+  private static final String SLICED_OPTION = "sliced_ttable";
 
   private static Options options;
 
@@ -801,6 +989,8 @@ public class HadoopAlign {
     options.addOption(OptionBuilder.withDescription("truncate/stem text or not").create(TRUNCATE_OPTION));
     options.addOption(OptionBuilder.withDescription("number of reducers").withArgName("positive integer").hasArg().create(REDUCE_OPTION));
     options.addOption(OptionBuilder.withDescription("Hadoop option to load external jars").withArgName("jar packages").hasArg().create(LIBJARS_OPTION));
+    options.addOption(OptionBuilder.withDescription("share a memory-mapped ttable between the tasks on each node").create(MMAP_OPTION));
+    options.addOption(OptionBuilder.withDescription("read the ttable slices each task needs, keeping at most this many MB of them").withArgName("MB").hasArg().create(SLICED_OPTION));
 
     CommandLine cmdline;
     CommandLineParser parser = new GnuParser();
@@ -844,6 +1034,11 @@ public class HadoopAlign {
     hac.set("mapreduce.reduce.java.opts", "-Xmx2048m");
     hac.setHMMp0(0.2);
     hac.setMaxSentLen(15);
+    hac.setUseMemoryMappedTTable(cmdline.hasOption(MMAP_OPTION));
+    if (cmdline.hasOption(SLICED_OPTION)) {
+      hac.setUseSlicedTTable(true);
+      hac.setSlicedTTableBudget(Long.parseLong(cmdline.getOptionValue(SLICED_OPTION)) << 20);
+    }
 
     doAlignment(50, numReducers, hac);
   }
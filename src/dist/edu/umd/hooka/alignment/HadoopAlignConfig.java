@@ -22,6 +22,12 @@ public class HadoopAlignConfig extends Configuration {
 	static final String KEY_FVOC = "ha.fvoc";
 	static final String KEY_MAX_SENTLEN = "ha.max.sentlen";
 	static final String KEY_HOMOGENEOUS_HMM = "ha.hmm.homogeneous";
+	static final String KEY_MMAP_TTABLE = "ha.ttable.mmap";
+	static final String KEY_COUNT_PRUNING = "ha.counts.prune";
+	static final String KEY_POSTERIOR_PRUNING = "ha.posteriors.prune";
+	static final String KEY_SLICED_TTABLE = "ha.ttable.sliced";
+	static final String KEY_SLICED_TTABLE_BUDGET = "ha.ttable.sliced.budget";
+	static final String KEY_SLICED_TTABLE_PREFETCH = "ha.ttable.sliced.prefetch";
 
 	public HadoopAlignConfig() {}
 	public HadoopAlignConfig(Configuration conf) {
@@ -80,6 +86,36 @@ public class HadoopAlignConfig extends Configuration {
 		if (tp == null || tp.equals("")) tp = "tmp.ttable";
 		return new Path(getRoot()+"/"+tp);
 	}
+	/**
+	 * Location of the copy of the ttable in {@link edu.umd.hooka.ttables.TTable_mmap} format.
+	 */
+	public Path getMemoryMappedTTablePath() {
+		return getTTablePath().suffix(".mmap");
+	}
+	public boolean useMemoryMappedTTable() { return this.getBoolean(KEY_MMAP_TTABLE, false); }
+	/**
+	 * Location of the copy of the ttable in {@link edu.umd.hooka.ttables.TTable_sliced} format.
+	 */
+	public Path getSlicedTTablePath() {
+		return getTTablePath().suffix(".sliced");
+	}
+	public boolean useSlicedTTable() { return this.getBoolean(KEY_SLICED_TTABLE, false); }
+	/**
+	 * Bytes of ttable slices each task keeps in memory.
+	 */
+	public long getSlicedTTableBudget() { return this.getLong(KEY_SLICED_TTABLE_BUDGET, 256L << 20); }
+	/**
+	 * Number of sentence pairs whose ttable slices are read ahead of the one being trained on.
+	 */
+	public int getSlicedTTablePrefetch() { return this.getInt(KEY_SLICED_TTABLE_PREFETCH, 64); }
+	/**
+	 * Partial counts below this are dropped by the EM mappers; 0 keeps them all.
+	 */
+	public float getCountPruningThreshold() { return this.getFloat(KEY_COUNT_PRUNING, 0.0f); }
+	/**
+	 * Alignment posteriors at or below this are not written out; 0 only drops zeros.
+	 */
+	public float getPosteriorPruningThreshold() { return this.getFloat(KEY_POSTERIOR_PRUNING, 0.0f); }
 	public Path getATablePath() {
 		String tp = this.get(KEY_ATABLE);
 		if (tp == null || tp.equals("")) tp = "tmp.atable";
@@ -115,6 +151,12 @@ public class HadoopAlignConfig extends Configuration {
 	public void setFVocFile(Path p) { this.set(KEY_FVOC, p.toString()); }
 	public void setHMMp0(double p0) { this.set(KEY_HMMP0, Double.toString(p0)); }
 	public void setHMMHomogeneous(boolean x) { this.setBoolean(KEY_HOMOGENEOUS_HMM, x); }
+	public void setUseMemoryMappedTTable(boolean x) { this.setBoolean(KEY_MMAP_TTABLE, x); }
+	public void setUseSlicedTTable(boolean x) { this.setBoolean(KEY_SLICED_TTABLE, x); }
+	public void setSlicedTTableBudget(long bytes) { this.setLong(KEY_SLICED_TTABLE_BUDGET, bytes); }
+	public void setSlicedTTablePrefetch(int n) { this.setInt(KEY_SLICED_TTABLE_PREFETCH, n); }
+	public void setCountPruningThreshold(float t) { this.set(KEY_COUNT_PRUNING, Float.toString(t)); }
+	public void setPosteriorPruningThreshold(float t) { this.set(KEY_POSTERIOR_PRUNING, Float.toString(t)); }
 
 	public String toString() {
 		StringBuffer sb = new StringBuffer();
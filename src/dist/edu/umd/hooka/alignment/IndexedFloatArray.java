@@ -173,7 +173,7 @@ public final class IndexedFloatArray implements Writable, Cloneable {
 	public IndexedFloatArray(float[] values, int size) {
 		_useBinSearch = false;
 		int nzc = 0;
-		for (int i=0; i<values.length; i++)
+		for (int i=0; i<size; i++)
 			if (values[i] != 0.0f) nzc++;
 		if (nzc == 0) { _data = null; _indices = null; return; }
 		float load = ((float)nzc)/((float)size);
@@ -221,6 +221,14 @@ public final class IndexedFloatArray implements Writable, Cloneable {
 		else return 0;
 	}
 
+	/**
+	 * Returns the number of bytes written by {@link #write(DataOutput)}.
+	 */
+	public int getSerializedSize() {
+		if (_data == null) return 4;
+		return 5 + (_useBinSearch ? 8 : 4) * _data.length;
+	}
+
 	
 	public int getWord(int loc){
 		return _indices[loc];
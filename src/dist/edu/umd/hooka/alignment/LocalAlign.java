@@ -0,0 +1,416 @@
+package edu.umd.hooka.alignment;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+import edu.umd.hooka.ParallelBitextCompiler;
+import edu.umd.hooka.PhrasePair;
+import edu.umd.hooka.alignment.hmm.ATable;
+import edu.umd.hooka.alignment.hmm.HMM;
+import edu.umd.hooka.alignment.hmm.HMM_NullWord;
+import edu.umd.hooka.alignment.model1.Model1;
+import edu.umd.hooka.alignment.model1.Model1Base;
+import edu.umd.hooka.alignment.model1.Model1_InitUniform;
+import edu.umd.hooka.ttables.TTable;
+import edu.umd.hooka.ttables.TTable_monolithic_IFAs;
+
+/**
+ * Runs the same EM training as {@link HadoopAlign} in a single JVM, for corpora that fit on one
+ * machine. The numberized sentence pairs are streamed from the comp-bitext SequenceFiles once per
+ * iteration to a pool of threads, each of which runs its own {@link AlignmentModel} over the
+ * shared read-only model and accumulates sparse partial counts. At the end of the iteration the
+ * counts of all threads are summed and normalized as in {@link HadoopAlign.EMReducer}, and the
+ * new ttable and atable are written to the paths of the {@link HadoopAlignConfig}, where the
+ * HadoopAlign alignment job can read them.
+ */
+public class LocalAlign {
+
+  static final int BATCH_SIZE = 256;
+
+  private LocalAlign() {}
+
+  /**
+   * Trains the models, preprocessing the bitexts of <code>hac</code> first unless this has already
+   * been done, and returns the perplexity of each iteration.
+   */
+  public static List<Double> doAlignment(int numThreads, HadoopAlignConfig hac) throws IOException {
+    System.out.println("Running local alignment with " + numThreads + " threads: " + hac);
+    FileSystem fs = FileSystem.get(hac);
+    Path cbtxt = new Path(hac.getRoot()+"/comp-bitext");
+    if (!fs.exists(cbtxt)) {
+      ParallelBitextCompiler.preprocessAndNumberizeFiles(hac, hac.getBitexts(), cbtxt, numThreads);
+    }
+    System.out.println("Finished preprocessing");
+    return train(numThreads, hac, fs, cbtxt);
+  }
+
+  /**
+   * Trains the models on the numberized sentence pairs in <code>input</code>, a SequenceFile or
+   * directory of SequenceFiles of (Text, PhrasePair), and returns the perplexity of each
+   * iteration.
+   */
+  public static List<Double> train(int numThreads, HadoopAlignConfig hac, FileSystem fs,
+      Path input) throws IOException {
+    if (numThreads < 1)
+      throw new IllegalArgumentException("Number of threads must be positive: " + numThreads);
+    int m1iters = hac.getModel1Iterations();
+    int totalIterations = m1iters + hac.getHMMIterations();
+    boolean useNullWord = hac.includeNullWord();
+    List<Double> perps = new ArrayList<Double>();
+    TTable ttable = null;
+    ATable atable = null;
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    try {
+      for (int iteration=0; iteration<totalIterations; iteration++) {
+        long start = System.currentTimeMillis();
+        boolean hmm = iteration >= m1iters;
+        String modelType = hmm ? "HMM" : "Model1";
+        System.out.println("Starting iteration " + iteration + (iteration == 0 ? " (initialization)" : "") + ": " + modelType);
+        if (hmm && atable == null) {
+          System.out.println("Creating default a-table...");
+          int cond_values = 1;
+          if (!hac.isHMMHomogeneous()) {
+            cond_values = 100;
+          }
+          atable = new ATable(hac.isHMMHomogeneous(), cond_values, 100);
+          atable.normalize();
+        }
+
+        AlignmentModel[] trainers = new AlignmentModel[numThreads];
+        CountingReporter[] reporters = new CountingReporter[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+          if (iteration == 0)
+            trainers[i] = new Model1_InitUniform(useNullWord);
+          else if (!hmm)
+            trainers[i] = new Model1(ttable, useNullWord);
+          else if (!useNullWord)
+            trainers[i] = new HMM(ttable, atable);
+          else
+            trainers[i] = new HMM_NullWord(ttable, atable, hac.getHMMp0());
+          if (trainers[i] instanceof Model1Base)
+            ((Model1Base)trainers[i]).setCountPruningThreshold(hac.getCountPruningThreshold());
+          reporters[i] = new CountingReporter();
+          trainers[i].addAlignmentListener(new HadoopAlign.AEListener(reporters[i]));
+        }
+        long pairs = runEStep(pool, trainers, reporters, hac, fs, input);
+
+        CountMerger merger = new CountMerger();
+        for (AlignmentModel trainer : trainers) {
+          trainer.clearModel();
+          trainer.writePartialCounts(merger);
+        }
+        ttable = merger.normalize(hac, fs);
+        if (merger.atable != null)
+          atable = merger.atable;
+        writeModels(hac, fs, (TTable_monolithic_IFAs)ttable, hmm ? atable : null);
+
+        long lp = 0;
+        long wc = 0;
+        long infinities = 0;
+        for (CountingReporter r : reporters) {
+          lp += r.logProb;
+          wc += r.wordCount;
+          infinities += r.infinities;
+        }
+        PerplexityReporter pr = new PerplexityReporter();
+        pr.addFactor(-lp / Math.log(2), (int)wc);
+        double perp = Math.pow(2.0, pr.getCrossEntropy());
+        perps.add(perp);
+        double secs = (System.currentTimeMillis() - start) / 1000.0;
+        System.out.println("Iteration " + iteration + ": (" + modelType + ")\t" + pr);
+        System.out.println("Iteration " + iteration + ": " + pairs + " sentence pairs, "
+            + infinities + " unalignable, " + secs + " s (" + (pairs / secs) + " pairs/s)");
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    return perps;
+  }
+
+  // Feeds batches of sentence pairs from the input to one task per trainer, and returns the
+  // number of pairs read.
+  private static long runEStep(ExecutorService pool, AlignmentModel[] trainers,
+      CountingReporter[] reporters, HadoopAlignConfig hac, FileSystem fs, Path input)
+      throws IOException {
+    final BlockingQueue<List<PhrasePair>> queue =
+      new ArrayBlockingQueue<List<PhrasePair>>(2 * trainers.length);
+    final List<PhrasePair> done = new ArrayList<PhrasePair>();
+    List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+    for (int i = 0; i < trainers.length; i++) {
+      final AlignmentModel trainer = trainers[i];
+      final Reporter reporter = reporters[i];
+      tasks.add(pool.submit(new Callable<Void>() {
+        public Void call() throws InterruptedException {
+          for (List<PhrasePair> batch = queue.take(); batch != done; batch = queue.take()) {
+            for (PhrasePair pp : batch) {
+              if (trainer instanceof HMM)
+                ((HMM)trainer).setModel1Posteriors(
+                    pp.hasAlignmentPosteriors() ? pp.getAlignmentPosteriorGrid() : null);
+              trainer.processTrainingInstance(pp, reporter);
+            }
+          }
+          return null;
+        }
+      }));
+    }
+
+    long pairs = 0;
+    try {
+      List<PhrasePair> batch = new ArrayList<PhrasePair>(BATCH_SIZE);
+      Text key = new Text();
+      for (Path p : listInputs(fs, input)) {
+        SequenceFile.Reader reader = new SequenceFile.Reader(hac, SequenceFile.Reader.file(p));
+        try {
+          PhrasePair pp = new PhrasePair();
+          while (reader.next(key, pp)) {
+            batch.add(pp);
+            pairs++;
+            if (batch.size() == BATCH_SIZE) {
+              put(queue, batch, tasks);
+              batch = new ArrayList<PhrasePair>(BATCH_SIZE);
+            }
+            pp = new PhrasePair();
+          }
+        } finally {
+          reader.close();
+        }
+      }
+      if (!batch.isEmpty())
+        put(queue, batch, tasks);
+      for (int i = 0; i < trainers.length; i++)
+        put(queue, done, tasks);
+      for (Future<Void> task : tasks)
+        task.get();
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted");
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Caught " + e.getCause(), e.getCause());
+    } finally {
+      for (Future<Void> task : tasks)
+        task.cancel(true);
+    }
+    return pairs;
+  }
+
+  // Waits for room in the queue, failing fast if a task has died rather than blocking forever.
+  private static void put(BlockingQueue<List<PhrasePair>> queue, List<PhrasePair> batch,
+      List<Future<Void>> tasks) throws InterruptedException, ExecutionException {
+    while (!queue.offer(batch, 1, TimeUnit.SECONDS)) {
+      for (Future<Void> task : tasks)
+        if (task.isDone())
+          task.get();
+    }
+  }
+
+  private static List<Path> listInputs(FileSystem fs, Path input) throws IOException {
+    List<Path> paths = new ArrayList<Path>();
+    FileStatus status = fs.getFileStatus(input);
+    if (!status.isDirectory()) {
+      paths.add(input);
+      return paths;
+    }
+    for (FileStatus s : fs.listStatus(input)) {
+      String name = s.getPath().getName();
+      if (!s.isDirectory() && !name.startsWith("_") && !name.startsWith("."))
+        paths.add(s.getPath());
+    }
+    return paths;
+  }
+
+  /**
+   * Writes the ttable and, if not null, the atable where the EM and alignment jobs read them.
+   */
+  static void writeModels(HadoopAlignConfig hac, FileSystem fs, TTable_monolithic_IFAs tt,
+      ATable at) throws IOException {
+    fs.delete(hac.getTTablePath(), true);
+    tt.write();
+    HadoopAlign.writeMemoryMappedTTable(hac, fs, tt);
+    HadoopAlign.writeSlicedTTable(hac, fs, tt);
+    if (at != null) {
+      Path pathATable = hac.getATablePath();
+      fs.delete(pathATable, true);
+      DataOutputStream dos = new DataOutputStream(
+          new BufferedOutputStream(fs.create(pathATable)));
+      at.write(dos);
+      dos.close();
+    }
+  }
+
+  /**
+   * Sums the partial counts written by the trainers of each thread.
+   */
+  static class CountMerger implements OutputCollector<IntWritable,PartialCountContainer> {
+    final TreeMap<Integer,IndexedFloatArray> tcounts = new TreeMap<Integer,IndexedFloatArray>();
+    ATable atable = null;
+
+    public void collect(IntWritable key, PartialCountContainer value) {
+      if (value.getType() == PartialCountContainer.CONTENT_ATABLE) {
+        // the trainer clears its counts once they are written
+        ATable at = (ATable)value.getContent();
+        if (atable == null)
+          atable = (ATable)at.clone();
+        else
+          atable.plusEquals(at);
+        return;
+      }
+      IndexedFloatArray v = (IndexedFloatArray)value.getContent();
+      if (v.size() == 0)
+        return;
+      IndexedFloatArray sum = tcounts.get(key.get());
+      if (sum == null)
+        tcounts.put(key.get(), v);
+      else
+        sum.plusEqualsMismatchSize(v);
+    }
+
+    /**
+     * Normalizes the summed counts as {@link HadoopAlign.EMReducer} does and returns them as a new
+     * ttable, releasing the counts as it goes.
+     */
+    TTable_monolithic_IFAs normalize(HadoopAlignConfig hac, FileSystem fs) throws IOException {
+      boolean variationalBayes = hac.useVariationalBayes();
+      float alpha = hac.getAlpha();
+      PartialCountContainer pcc = new PartialCountContainer();
+      TTable_monolithic_IFAs tt = new TTable_monolithic_IFAs(fs, hac.getTTablePath(), false);
+      while (!tcounts.isEmpty()) {
+        Map.Entry<Integer,IndexedFloatArray> e = tcounts.pollFirstEntry();
+        IndexedFloatArray v = e.getValue();
+        float[] counts = new float[v.maxKey() + 1];
+        v.addTo(counts);
+        pcc.setContent(new IndexedFloatArray(counts, counts.length));
+        pcc.normalize(variationalBayes, alpha);
+        tt.set(e.getKey(), (IndexedFloatArray)pcc.getContent());
+      }
+      if (atable != null) {
+        pcc.setContent(atable);
+        pcc.normalize(variationalBayes, alpha);
+      }
+      return tt;
+    }
+  }
+
+  /**
+   * Collects the cross-entropy counters of one thread.
+   */
+  static class CountingReporter implements Reporter {
+    long logProb = 0;
+    long wordCount = 0;
+    long infinities = 0;
+
+    public void incrCounter(Enum<?> key, long amount) {
+      if (key == CrossEntropyCounters.LOGPROB)
+        logProb += amount;
+      else if (key == CrossEntropyCounters.WORDCOUNT)
+        wordCount += amount;
+      else if (key == CrossEntropyCounters.INFINITIES)
+        infinities += amount;
+    }
+    public void incrCounter(String group, String counter, long amount) {}
+    public Counters.Counter getCounter(Enum<?> name) { return null; }
+    public Counters.Counter getCounter(String group, String name) { return null; }
+    public InputSplit getInputSplit() { throw new UnsupportedOperationException(); }
+    public float getProgress() { return 0.0f; }
+    public void setStatus(String status) {}
+    public void progress() {}
+  }
+
+  private static void printUsage() {
+    HelpFormatter formatter = new HelpFormatter();
+    formatter.printHelp( LocalAlign.class.getCanonicalName(), options );
+  }
+
+  private static final String INPUT_OPTION = "input";
+  private static final String WORK_OPTION = "workdir";
+  private static final String FLANG_OPTION = "src_lang";
+  private static final String ELANG_OPTION = "trg_lang";
+  private static final String MODEL1_OPTION = "model1";
+  private static final String HMM_OPTION = "hmm";
+  private static final String TRUNCATE_OPTION = "use_truncate";
+  private static final String THREADS_OPTION = "threads";
+  private static final String MMAP_OPTION = "mmap_ttable";
+
+  private static Options options;
+
+  @SuppressWarnings("static-access")
+  public static void main(String[] args) throws IOException {
+    options = new Options();
+    options.addOption(OptionBuilder.withDescription("path to XML-formatted parallel corpus").withArgName("path").hasArg().isRequired().create(INPUT_OPTION));
+    options.addOption(OptionBuilder.withDescription("path to work/output directory").withArgName("path").hasArg().isRequired().create(WORK_OPTION));
+    options.addOption(OptionBuilder.withDescription("two-letter collection language code").withArgName("en|de|fr|zh|es|ar|tr").hasArg().isRequired().create(FLANG_OPTION));
+    options.addOption(OptionBuilder.withDescription("two-letter collection language code").withArgName("en|de|fr|zh|es|ar|tr").hasArg().isRequired().create(ELANG_OPTION));
+    options.addOption(OptionBuilder.withDescription("number of IBM Model 1 iterations").withArgName("positive integer").hasArg().create(MODEL1_OPTION));
+    options.addOption(OptionBuilder.withDescription("number of HMM iterations").withArgName("positive integer").hasArg().create(HMM_OPTION));
+    options.addOption(OptionBuilder.withDescription("truncate/stem text or not").create(TRUNCATE_OPTION));
+    options.addOption(OptionBuilder.withDescription("number of training threads (default: number of processors)").withArgName("positive integer").hasArg().create(THREADS_OPTION));
+    options.addOption(OptionBuilder.withDescription("also write a memory-mapped ttable for the alignment job").create(MMAP_OPTION));
+
+    CommandLine cmdline;
+    CommandLineParser parser = new GnuParser();
+    try {
+      cmdline = parser.parse(options, args);
+    } catch (ParseException exp) {
+      printUsage();
+      System.err.println("Error parsing command line: " + exp.getMessage());
+      return;
+    }
+
+    int model1Iters = cmdline.hasOption(MODEL1_OPTION) ? Integer.parseInt(cmdline.getOptionValue(MODEL1_OPTION)) : 0;
+    int hmmIters = cmdline.hasOption(HMM_OPTION) ? Integer.parseInt(cmdline.getOptionValue(HMM_OPTION)) : 0;
+    if (model1Iters + hmmIters == 0) {
+      System.err.println("Please enter a positive number of iterations for either Model 1 or HMM");
+      printUsage();
+      return;
+    }
+    int numThreads = cmdline.hasOption(THREADS_OPTION) ? Integer.parseInt(cmdline.getOptionValue(THREADS_OPTION))
+        : Runtime.getRuntime().availableProcessors();
+
+    // same settings as HadoopAlign, so that either can pick up the other's models
+    HadoopAlignConfig hac = new HadoopAlignConfig(cmdline.getOptionValue(WORK_OPTION),
+        cmdline.getOptionValue(ELANG_OPTION), cmdline.getOptionValue(FLANG_OPTION),
+        cmdline.getOptionValue(INPUT_OPTION),
+        model1Iters,
+        hmmIters,
+        true, 	// use null word
+        false, 	// use variational bayes
+        cmdline.hasOption(TRUNCATE_OPTION), 	// use word truncation
+        0.00f  	// alpha
+    );
+    hac.setHMMHomogeneous(false);
+    hac.setHMMp0(0.2);
+    hac.setMaxSentLen(15);
+    hac.setUseMemoryMappedTTable(cmdline.hasOption(MMAP_OPTION));
+
+    doAlignment(numThreads, hac);
+  }
+}
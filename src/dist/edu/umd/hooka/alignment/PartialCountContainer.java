@@ -1,7 +1,9 @@
 package edu.umd.hooka.alignment;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
 
 import org.apache.hadoop.io.Writable;
@@ -105,6 +107,21 @@ public class PartialCountContainer implements Writable, Cloneable {
 		out.writeByte(type);
 		content.write(out);
 	}
+
+	/**
+	 * Returns the number of bytes written by {@link #write(DataOutput)}.
+	 */
+	public int getSerializedSize() {
+		if (type == CONTENT_ARRAY)
+			return 1 + ((IndexedFloatArray)content).getSerializedSize();
+		DataOutputStream out = new DataOutputStream(new ByteArrayOutputStream());
+		try {
+			write(out);
+		} catch (IOException e) {
+			throw new RuntimeException("Caught " + e);
+		}
+		return out.size();
+	}
 	
 	public String toString() {
 		return "T(" + type + "): " + content;
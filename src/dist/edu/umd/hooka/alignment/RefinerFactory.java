@@ -60,43 +60,44 @@ public class RefinerFactory {
 		}
 	}
 	
-	static class Pair {
-		public Pair(int i, int j) {this.i=i; this.j=j;}
-		public int i;
-		public int j;
-	}
-	
 	static void grow(Alignment a, Pred pred, boolean idem, Alignment pot)
 	{
 		int flen = a.getFLength();
 		int elen = a.getELength();
+		// the candidates are found 64 cells at a time, but are visited in the
+		// same order as before, since adding a point changes the predicates
+		Alignment cand = Alignment.subtract(pot, a);
+		if (cand.isEmpty())
+			return;
 		if (idem) {
-			for (int i=0;i<flen;i++)
+			for (int i=0;i<flen;i++) {
+				if (!cand.isFAligned(i)) continue;
 				for (int j=0;j<elen;j++)
-					if (pot.aligned(i,j) &&
-							!a.aligned(i, j) &&
+					if (cand.aligned(i,j) &&
 							pred.eval(a, i, j))
 						a.align(i, j);
+			}
 		} else {
-			java.util.ArrayList<Pair> p = new java.util.ArrayList<Pair>();
-			for (int i=0;i<flen;i++)
+			int[] cells = new int[cand.countAlignmentPoints()];
+			int plen = 0;
+			for (int i=0;i<flen;i++) {
+				if (!cand.isFAligned(i)) continue;
 				for (int j=0;j<elen;j++)
-					if (pot.aligned(i, j) &&
-							!a.aligned(i, j))
-						p.add(new Pair(i,j));
-			int plen = p.size();
-			Pair[] pairs = new Pair[plen]; p.toArray(pairs); p = null;
+					if (cand.aligned(i, j))
+						cells[plen++] = i * elen + j;
+			}
 			while (true) {
 				int cur = 0;
 				boolean flag = false;
 				for (int pi=0; pi<plen; pi++)
 				{
-					Pair pp = pairs[pi];
-					if (pred.eval(a, pp.i, pp.j)) {
-						a.align(pp.i, pp.j);
+					int i = cells[pi] / elen;
+					int j = cells[pi] % elen;
+					if (pred.eval(a, i, j)) {
+						a.align(i, j);
 						flag = true;
 					} else {
-						pairs[cur] = pp;
+						cells[cur] = cells[pi];
 						cur++;
 					}
 				}
@@ -1,6 +1,7 @@
 package edu.umd.hooka.alignment.hmm;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.mapred.OutputCollector;
@@ -50,9 +51,6 @@ public class HMM extends Model1 {
 	Array2D transition = new Array2D(MAX_LENGTH * MAX_LENGTH);
 	IntArray2D transition_coords = new IntArray2D(MAX_LENGTH * MAX_LENGTH);
 
-	Array2D alphas = new Array2D(MAX_LENGTH * MAX_LENGTH);
-	Array2D betas  = new Array2D(MAX_LENGTH * MAX_LENGTH);
-
 	Array2D viterbi = new Array2D(MAX_LENGTH * MAX_LENGTH);
 	IntArray2D backtrace = new IntArray2D(MAX_LENGTH * MAX_LENGTH);
 	
@@ -153,6 +151,95 @@ public class HMM extends Model1 {
 		}
 	}
 
+	/*
+	 * Scratch space for the forward-backward and Viterbi kernels. The tables
+	 * built by buildHMMTables are copied into flat row-major arrays so that
+	 * the inner loops run over contiguous memory, and the arrays are reused
+	 * from sentence to sentence, growing only when a longer one comes along.
+	 */
+	private int N;                // number of states
+	private float[] emis;         // [j * N + s] = p(f_j|e(s))
+	private float[] trans;        // [s * N + s_prev] = p(s|s_prev)
+	private float[] transT;       // [s_prev * N + s] = p(s|s_prev)
+	private double[] logTrans;    // [s * N + s_prev] = log p(s|s_prev)
+	private int[] tcoords;        // [s_prev * N + s] = ATable coordinate
+	private float[] alpha;        // [j * N + s], scaled
+	private float[] beta;         // [j * N + s], scaled
+	private float[] anorms;
+	private float[] totalProb;
+	private float[] vit;          // [j * N + s]
+	private int[] back;           // [j * N + s]
+	private int vitJ;             // rows of vit/back from the last viterbiAlign
+	private boolean[] m1Use;      // [j]
+	private float[] m1Boost;      // [j]
+	private float[] m1Penalty;    // [j]
+
+	private static float[] ensure(float[] a, int n) {
+		return (a != null && a.length >= n) ? a : new float[n];
+	}
+	private static double[] ensure(double[] a, int n) {
+		return (a != null && a.length >= n) ? a : new double[n];
+	}
+	private static int[] ensure(int[] a, int n) {
+		return (a != null && a.length >= n) ? a : new int[n];
+	}
+	private static boolean[] ensure(boolean[] a, int n) {
+		return (a != null && a.length >= n) ? a : new boolean[n];
+	}
+
+	/**
+	 * Copies the tables built by buildHMMTables for a sentence with J-1 words
+	 * on the f side into the flat scratch arrays.
+	 */
+	private void prepareKernel(int J, boolean forViterbi) {
+		N = getNumStates();
+		int NN = N * N;
+		emis = ensure(emis, (J + 1) * N);
+		trans = ensure(trans, NN);
+		transT = ensure(transT, NN);
+		tcoords = ensure(tcoords, NN);
+		for (int j = 0; j < J; j++)
+			for (int s = 0; s < N; s++)
+				emis[j * N + s] = emission.get(j, s);
+		for (int s_prev = 0; s_prev < N; s_prev++) {
+			for (int s = 0; s < N; s++) {
+				float t = transition.get(s_prev, s);
+				trans[s * N + s_prev] = t;
+				transT[s_prev * N + s] = t;
+				tcoords[s_prev * N + s] = transition_coords.get(s_prev, s);
+			}
+		}
+		if (forViterbi) {
+			logTrans = ensure(logTrans, NN);
+			for (int i = 0; i < NN; i++)
+				logTrans[i] = Math.log(trans[i]);
+		}
+	}
+
+	/**
+	 * Computes, for each position j, whether the Model 1 posteriors override
+	 * the transition probabilities and by how much.
+	 */
+	private void prepareModel1Weights(Alignment m1a, int J, int lene) {
+		m1Use = ensure(m1Use, J + 1);
+		m1Boost = ensure(m1Boost, J + 1);
+		m1Penalty = ensure(m1Penalty, J + 1);
+		for (int j = 1; j < J; j++) {
+			m1Use[j] = false;
+			m1Boost[j] = 1.0f;
+			m1Penalty[j] = 0.0f;
+			if (m1a != null && m1a.isFAligned(j-1)) {
+				float m1post = 0.0f;
+				m1Use[j] = true;
+				for (int i=0; i<lene; i++)
+					if (m1a.aligned(j-1, i))
+						m1post = m1_post.getAlignmentPointPosterior(j-1, i+1);
+				m1Boost[j] = (float)(Math.sqrt(m1post));
+				m1Penalty[j] = 1.0f - m1Boost[j];
+			}
+		}
+	}
+
 	/**
 	 * @return negative log probability of sentence
 	 */
@@ -162,107 +249,91 @@ public class HMM extends Model1 {
 
 		int[] obs = pp.getF().getWords();
 		int J = obs.length + 1;
-		int numStates = getNumStates();
 		int l = pp.getE().getWords().length;
-		float[] anorms = new float[J];
-		alphas.resize(J + 1, getNumStates());
-		betas.resize(J + 1, getNumStates());
-		alphas.set(0, 0, 1.0f); anorms[0]=1.0f;
+		prepareKernel(J, false);
+		final int N = this.N;
+		alpha = ensure(alpha, (J + 1) * N);
+		beta = ensure(beta, (J + 1) * N);
+		anorms = ensure(anorms, J);
+		totalProb = ensure(totalProb, J);
 		Alignment m1a = null;
 		if (m1_post != null)
 			m1a = m1_post.alignPosteriorThreshold(THRESH);
+		prepareModel1Weights(m1a, J, l);
+
+		// FORWARD
+		Arrays.fill(alpha, 0, N, 0.0f);
+		alpha[0] = 1.0f; anorms[0] = 1.0f;
 		for (int j = 1; j < J; j++) {
-			//System.out.println("J="+j);
-			for (int s = 0; s < numStates; s++) {
-				float alpha = 0.0f;
-				float m1boost = 1.0f;
-				float m1penalty = 0.0f;
-				boolean use_m1 = false;
-				if (m1a != null && m1a.isFAligned(j-1)) {
-					float m1post = 0.0f;
-					use_m1 = true;
-					for (int i=0; i<l; i++)
-						if (m1a.aligned(j-1, i))
-							m1post = m1_post.getAlignmentPointPosterior(j-1, i+1);
-					//System.out.println(m1post);
-					m1boost = (float)(Math.sqrt(m1post));
-					m1penalty = 1.0f - m1boost;
-				}
-				for (int s_prev = 0; s_prev < numStates; s_prev++) {
-					float trans = getTransitionProb(s_prev, s);
-					if (use_m1) {
-						if (s <= l && s > 0 && m1a.aligned(j-1, s-1))
-							trans = m1boost;
-						else
-							trans *= m1penalty;
-					}
-					alpha += alphas.get(j - 1, s_prev) * trans;
+			int row = j * N;
+			int prev = row - N;
+			for (int s = 0; s < N; s++) {
+				float a = 0.0f;
+				int t = s * N;
+				if (!m1Use[j]) {
+					for (int s_prev = 0; s_prev < N; s_prev++)
+						a += alpha[prev + s_prev] * trans[t + s_prev];
+				} else if (s <= l && s > 0 && m1a.aligned(j-1, s-1)) {
+					float boost = m1Boost[j];
+					for (int s_prev = 0; s_prev < N; s_prev++)
+						a += alpha[prev + s_prev] * boost;
+				} else {
+					float penalty = m1Penalty[j];
+					for (int s_prev = 0; s_prev < N; s_prev++)
+						a += alpha[prev + s_prev] * (trans[t + s_prev] * penalty);
 				}
-				alpha *= getEmissionProb(j, s);
-				//System.out.println(" ep:" + hmm.getEmissionProb(s, j));
-				alphas.set(j, s, alpha);
+				alpha[row + s] = a * emis[row + s];
 			}
-			//anorms[j] = 1.0f;
-			try {
-				anorms[j] = alphas.normalizeColumn(j);
-			} catch (ZeroProbabilityException ex) {
-				this.notifyUnalignablePair(pp, ex.getMessage());
+			float sum = 0.0f;
+			for (int s = 0; s < N; s++)
+				sum += alpha[row + s];
+			if (sum == 0.0f) {
+				this.notifyUnalignablePair(pp, "forward probabilities of f_" + j + " sum to 0.0");
 				return 0.0f;
 			}
+			for (int s = 0; s < N; s++)
+				alpha[row + s] /= sum;
+			anorms[j] = sum;
 		}
-		for (int s=1; s<numStates; s++)
-			betas.set(J-1, s, 1.0f);
+
+		// BACKWARD
+		int last = (J - 1) * N;
+		beta[last] = 0.0f;
+		for (int s=1; s<N; s++)
+			beta[last + s] = 1.0f;
 		for (int j=J-2; j>=1; j--) {
-			//System.out.println("J="+j);
-			for (int s = 0; s < numStates; s++) {
-				float beta = 0.0f;
-				float m1boost = 1.0f;
-				float m1penalty = 0.0f;
-				boolean use_m1 = false;
-				if (m1a != null && m1a.isFAligned(j-1)) {
-					float m1post = 0.0f;
-					use_m1 = true;
-					for (int i=0; i<l; i++)
-						if (m1a.aligned(j-1, i))
-							m1post = m1_post.getAlignmentPointPosterior(j-1, i+1);
-					m1boost = (float)(Math.sqrt(m1post));
-					m1penalty = 1.0f - m1boost;
-				}
-				for (int s_next = 0; s_next < numStates; s_next++) {
-					//System.out.println("    s_next="+s_next + " b(j+1,s_next)="+ betas.get(j+1, s_next) + " * " +
-					//		hmm.getTransitionProb(s, s_next) + " * " + hmm.getEmissionProb(s_next, j));
-					float trans = getTransitionProb(s, s_next);
-					if (use_m1) {
-						if (s <= l && s > 0 && m1a.aligned(j-1, s-1))
-							trans = m1boost;
-						else
-							trans *= m1penalty;
-					}
-					beta += betas.get(j+1, s_next) *
-					  trans *
-					  getEmissionProb(j+1, s_next);
+			int row = j * N;
+			int next = row + N;
+			for (int s = 0; s < N; s++) {
+				float b = 0.0f;
+				int t = s * N;
+				if (!m1Use[j]) {
+					for (int s_next = 0; s_next < N; s_next++)
+						b += beta[next + s_next] * transT[t + s_next] * emis[next + s_next];
+				} else if (s <= l && s > 0 && m1a.aligned(j-1, s-1)) {
+					float boost = m1Boost[j];
+					for (int s_next = 0; s_next < N; s_next++)
+						b += beta[next + s_next] * boost * emis[next + s_next];
+				} else {
+					float penalty = m1Penalty[j];
+					for (int s_next = 0; s_next < N; s_next++)
+						b += beta[next + s_next] * (transT[t + s_next] * penalty) * emis[next + s_next];
 				}
-				
-				beta /= anorms[j];
-				//System.out.println("  s="+s+ "  b:"+beta);
-				betas.set(j, s, beta);
+				beta[row + s] = b / anorms[j];
 			}
 		}
 		
 		// PARTIAL COUNTS FOR EMMISSIONS (WORD TRANSLATION)
-		float totalProb[] = new float[J];
 		for (int j=1; j<J; j++) {
+			int row = j * N;
 			float tp = 0.0f;
-			for (int s = 0; s < numStates; s++) {
-				tp += betas.get(j, s) * alphas.get(j, s);
-			}
-			// System.out.println("total prob(" + j + ")=" + tp);
+			for (int s = 0; s < N; s++)
+				tp += beta[row + s] * alpha[row + s];
 			totalProb[j] = tp;
-			for (int s = 0; s < numStates; s++) {
-				// j=1 s=14
+			for (int s = 0; s < N; s++) {
 				int iplus1 = e_coords.get(j, s);
 				if (iplus1 == -1) continue;
-				float pc = betas.get(j, s) * alphas.get(j, s) / tp;
+				float pc = beta[row + s] * alpha[row + s] / tp;
 				if (pg != null) {
 					int e = 0;
 					if (s <= l)
@@ -275,61 +346,44 @@ public class HMM extends Model1 {
 					try {
 						addTranslationCount(iplus1, j-1, pc);
 					} catch (Exception e) {
-						throw new RuntimeException("J=" + J + ", numStates=" + numStates +": Failed to add (" +iplus1+","+(j-1)+") += " + pc + " s=" + s + " pp=" + pp + "\n E:\n"+ e_coords);
+						throw new RuntimeException("J=" + J + ", numStates=" + N +": Failed to add (" +iplus1+","+(j-1)+") += " + pc + " s=" + s + " pp=" + pp + "\n E:\n"+ e_coords);
 					}
 				}
-				//System.out.println("ec="+ec+" pc="+pc);
 			}
 		}
 		
 		// PARTIAL COUNTS FOR TRANSITIONS
 		if (pg == null) {
+			char cond = (char)l;
 			for (int j=1; j<J-1; j++) {
-				for (int s_prev=0; s_prev < numStates; s_prev++) {
-					for (int s=0; s < numStates; s++) {
-						int tc = transition_coords.get(s_prev, s);
+				// transitions overridden by Model 1 posteriors are not counted
+				if (m1Use[j]) continue;
+				int row = j * N;
+				int next = row + N;
+				float norm = anorms[j+1];
+				float tp = totalProb[j+1];
+				for (int s_prev=0; s_prev < N; s_prev++) {
+					float a = alpha[row + s_prev];
+					int t = s_prev * N;
+					for (int s=0; s < N; s++) {
+						int tc = tcoords[t + s];
 						if (tc == -1) continue;
-						float m1boost = 1.0f;
-						float m1penalty = 0.0f;
-						boolean use_m1 = false;
-						if (m1a != null && m1a.isFAligned(j-1)) {
-							float m1post = 0.0f;
-							use_m1 = true;
-							for (int i=0; i<l; i++)
-								if (m1a.aligned(j-1, i))
-									m1post = m1_post.getAlignmentPointPosterior(j-1, i+1);
-							m1boost = (float)(Math.sqrt(m1post));
-							m1penalty = 1.0f - m1boost;
-						}
-						float trans = getTransitionProb(s_prev, s);
-						if (use_m1) {
-							if (s <= l && s > 0 && m1a.aligned(j-1, s-1))
-								trans = m1boost;
-							else
-								trans *= m1penalty;
-						}
-						// SKIPPING: REMOVE!!!
-						if (use_m1) continue;
-						float pc = alphas.get(j, s_prev)
-							* trans
-							* emission.get(j+1, s)
-							/ anorms[j+1]
-							* betas.get(j+1, s)
-							/ totalProb[j+1];
-						acounts.add(tc, (char)l, pc);
-						//System.out.println("tc="+tc+"  pc="+pc);
+						float pc = a
+							* transT[t + s]
+							* emis[next + s]
+							/ norm
+							* beta[next + s]
+							/ tp;
+						acounts.add(tc, cond, pc);
 					}
 				}
 			}
 		}
 		
 		float tlp = 0.0f;
-		for (float n : anorms)
-			tlp += Math.log(n);
+		for (int j = 0; j < J; j++)
+			tlp += Math.log(anorms[j]);
 		return tlp;
-		//System.out.println(acounts);
-		
-//		System.out.println(alphas + "\n" + betas);
 	}
 
 	@Override
@@ -346,65 +400,67 @@ public class HMM extends Model1 {
 		this.buildHMMTables(sentence);
 		Alignment res = new Alignment(sentence.getF().size(), sentence.getE().size());
 		int J = sentence.getF().size() + 1;
-		int numStates = getNumStates();
-		viterbi.resize(J, getNumStates());
-		backtrace.resize(J, getNumStates());
-		viterbi.fill(Float.NEGATIVE_INFINITY);
-		viterbi.set(0, 0, 0.0f);
+		prepareKernel(J, true);
+		final int N = this.N;
+		vit = ensure(vit, J * N);
+		back = ensure(back, J * N);
+		vitJ = J;
 		int lene = sentence.getE().getWords().length;
 		Alignment m1a = null;
 		if (m1_post != null)
 			m1a = m1_post.alignPosteriorThreshold(THRESH);
+		prepareModel1Weights(m1a, J, lene);
 
-		//System.out.println(emission);
+		Arrays.fill(vit, 0, N, Float.NEGATIVE_INFINITY);
+		Arrays.fill(back, 0, N, 0);
+		vit[0] = 0.0f;
 		for (int j = 1; j < J; j++) {
-			//System.out.println("J="+j);
+			int row = j * N;
+			int prev = row - N;
+			vit[row] = Float.NEGATIVE_INFINITY;
+			back[row] = 0;
 			boolean valid = false;
-			for (int s = 1; s < numStates; s++) {
+			for (int s = 1; s < N; s++) {
 				float best = Float.NEGATIVE_INFINITY;
 				int best_s = -1;
-				double emitLogProb = Math.log(emission.get(j, s));
+				double emitLogProb = Math.log(emis[row + s]);
 				if (emitLogProb == Float.NEGATIVE_INFINITY) {
-					//System.out.println("BAD STATE: " + j + " " + s);
+					vit[row + s] = Float.NEGATIVE_INFINITY;
+					back[row + s] = 0;
 					continue;
 				}
-				//System.out.println("j="+j + " s="+s+ "  ep"+emitLogProb);
-				for (int s_prev = 0; s_prev < numStates; s_prev++) {
-					float m1boost = 1.0f;
-					float m1penalty = 0.0f;
-					boolean use_m1 = false;
-					if (m1a != null && m1a.isFAligned(j-1)) {
-						float m1post = 0.0f;
-						use_m1 = true;
-						for (int i=0; i<lene; i++) {
-							if (m1a.aligned(j-1, i))
-								m1post = m1_post.getAlignmentPointPosterior(j-1, i+1);
+				int t = s * N;
+				if (!m1Use[j]) {
+					for (int s_prev = 0; s_prev < N; s_prev++) {
+						float cur = (float)(vit[prev + s_prev] + logTrans[t + s_prev] + emitLogProb);
+						if (cur > best) {
+							best = cur;
+							best_s = s_prev;
 						}
-						m1boost = (float)Math.sqrt(m1post);
-						m1penalty = 1.0f - m1boost;
 					}
-					float trans = getTransitionProb(s_prev, s);
-					if (use_m1) {
-						if (s <= l && s > 0 && m1a.aligned(j-1, s-1))
-							trans = m1boost;
-						else
-							trans *= m1penalty;
+				} else if (s <= l && s > 0 && m1a.aligned(j-1, s-1)) {
+					double logBoost = Math.log(m1Boost[j]);
+					for (int s_prev = 0; s_prev < N; s_prev++) {
+						float cur = (float)(vit[prev + s_prev] + logBoost + emitLogProb);
+						if (cur > best) {
+							best = cur;
+							best_s = s_prev;
+						}
 					}
-					float cur = (float)(viterbi.get(j - 1, s_prev) +
-					    Math.log(trans) +
-					    emitLogProb);
-					//System.out.println(" s'="+s_prev + "  cur="+cur);
-					if (cur > best) {
-						best = cur;
-						best_s = s_prev;
-						//System.out.println("new best: " + s + " " + best_s);
+				} else {
+					float penalty = m1Penalty[j];
+					for (int s_prev = 0; s_prev < N; s_prev++) {
+						float cur = (float)(vit[prev + s_prev] + Math.log(trans[t + s_prev] * penalty) + emitLogProb);
+						if (cur > best) {
+							best = cur;
+							best_s = s_prev;
+						}
 					}
 				}
-				//System.out.println(" s_best="+best_s + "  cur="+best);
-				viterbi.set(j, s, best);
+				vit[row + s] = best;
 				if (best != Float.NEGATIVE_INFINITY)
 					valid = true;
-				backtrace.set(j, s, best_s);
+				back[row + s] = best_s;
 			}
 			// if we don't know how to generate some column
 			// create a uniform distribution over the states
@@ -412,53 +468,76 @@ public class HMM extends Model1 {
 			if (!valid) {
 				float best = Float.NEGATIVE_INFINITY;
 				int bests = -1;
-				for (int s = 1; s < numStates; s++) {
-					if (viterbi.get(j-1, s) > best) {
-						best = viterbi.get(j-1, s);
+				for (int s = 1; s < N; s++) {
+					if (vit[prev + s] > best) {
+						best = vit[prev + s];
 						bests = s;
 					}
 				}
-				for (int s = 1; s < numStates; s++) {
-					viterbi.set(j, s, 0.0f);
-					backtrace.set(j, s, bests);
+				for (int s = 1; s < N; s++) {
+					vit[row + s] = 0.0f;
+					back[row + s] = bests;
 				}
 			}
 		}
-		//System.out.println(viterbi);
+
 		float best = Float.NEGATIVE_INFINITY;
 		int best_s = -1;
-		for (int s = 1; s < numStates; s++) {
-			if (viterbi.get(J-1, s) > best) {
-				best = viterbi.get(J-1,s);
+		int lastRow = (J - 1) * N;
+		for (int s = 1; s < N; s++) {
+			if (vit[lastRow + s] > best) {
+				best = vit[lastRow + s];
 				best_s = s;
 			}
 		}
-		//System.out.println("vit: " + best + "j-1="+(J-1));
 		reporter.addFactor(best, J - 1);
-		//System.out.println(viterbi);
 		int e = best_s;
 		for (int f=J-1; f>0; f--) {
 			if (e <= 0) {
+				mirrorForDebugging();
 				throw new ZeroProbabilityException("  Error f=" +f+" e="+e+
 						"  sentence + \n" + viterbi + "\n" + emission + "\n" + transition + "\n" + backtrace);
 			} else {
-				if (viterbi.get(f, e) < 0.0) {
+				if (vit[f * N + e] < 0.0) {
 					// hack to avoid errors
 					try {
 						int af = f-1;
 						int ae = e_words.get(f, e);
 						if (ae >= 0)
 							res.align(af, ae);
-						//else
-						//	System.err.println("ALIGN NULL TO " + af);
 					} catch (RuntimeException ex) {
-						throw new RuntimeException("Caught " + ex + "\nvit(f,e)="+viterbi.get(f,e)+"  size(f,e)=" + sentence.getF().size() +","+ sentence.getE().size() + " Error f=" +f+" e="+e+
+						mirrorForDebugging();
+						throw new RuntimeException("Caught " + ex + "\nvit(f,e)="+vit[f * N + e]+"  size(f,e)=" + sentence.getF().size() +","+ sentence.getE().size() + " Error f=" +f+" e="+e+
 								"  sentence + \n" + viterbi + "\n" + emission + "\n" + transition + "\n" + backtrace + "\n" + e_words);
 					}
 				}
-				e = backtrace.get(f, e);
+				e = back[f * N + e];
 			}
 		}
 		return res;
 	}
+
+	// copies the flat Viterbi tables of the last alignment into
+	// viterbi/backtrace; only done for error messages and debugging output
+	private void mirrorForDebugging() {
+		final int J = vitJ;
+		viterbi.resize(J, N);
+		backtrace.resize(J, N);
+		for (int j = 0; j < J; j++) {
+			for (int s = 0; s < N; s++) {
+				viterbi.set(j, s, vit[j * N + s]);
+				backtrace.set(j, s, back[j * N + s]);
+			}
+		}
+	}
+
+	Array2D getViterbi() {
+		mirrorForDebugging();
+		return viterbi;
+	}
+
+	IntArray2D getBacktrace() {
+		mirrorForDebugging();
+		return backtrace;
+	}
 }
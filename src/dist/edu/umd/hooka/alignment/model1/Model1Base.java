@@ -1,17 +1,15 @@
 package edu.umd.hooka.alignment.model1;
 
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Arrays;
 
-import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.mapred.OutputCollector;
 
-import edu.umd.hooka.Int2FloatMap;
+import edu.umd.hooka.Long2FloatMap;
 import edu.umd.hooka.PhrasePair;
 import edu.umd.hooka.alignment.AlignmentModel;
+import edu.umd.hooka.alignment.IndexedFloatArray;
 import edu.umd.hooka.alignment.PartialCountContainer;
 import edu.umd.hooka.ttables.TTable;
 
@@ -24,67 +22,97 @@ public abstract class Model1Base extends AlignmentModel {
 		_includeEnglishNullWord = incNullWord;
 	}
 
-	TreeMap<IntWritable, Int2FloatMap> counts =
-		new TreeMap<IntWritable, Int2FloatMap>();
-	IntWritable nullWord = new IntWritable(0);
+	// partial counts keyed by (e, f), see pack()
+	Long2FloatMap counts = new Long2FloatMap();
+	float pruningThreshold = 0.0f;
+	long prunedCounts = 0;
 
+	static long pack(int e, int f) {
+		return ((long)e << 32) | (f & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Partial counts below <code>threshold</code> are dropped instead of being
+	 * written by {@link #writePartialCounts(OutputCollector)}. Translation
+	 * probabilities that end up with no counts at all are zero in the next
+	 * iteration.
+	 */
+	public void setCountPruningThreshold(float threshold) {
+		pruningThreshold = threshold;
+	}
+
+	/**
+	 * Returns the number of partial counts dropped by the pruning threshold.
+	 */
+	public long getPrunedCountTotal() {
+		return prunedCounts;
+	}
+
+	/**
+	 * Writes one sparse row of counts per e word, in order of e.
+	 */
 	public void writePartialCounts(OutputCollector<IntWritable,PartialCountContainer> output) throws IOException
 	{
 		PartialCountContainer pcc = new PartialCountContainer();
-		Iterator<Map.Entry<IntWritable, Int2FloatMap>> i = counts.entrySet().iterator();
-		while (i.hasNext()) {
-			Map.Entry<IntWritable, Int2FloatMap> p = i.next();
-			pcc.setContent(p.getValue().getAsIndexedFloatArray());
-			output.collect(p.getKey(), pcc);
-			i.remove();
+		IntWritable e = new IntWritable();
+		long[] keys = counts.sortedKeys();
+		int[] fs = new int[keys.length];
+		float[] vs = new float[keys.length];
+		int start = 0;
+		while (start < keys.length) {
+			int ei = (int)(keys[start] >>> 32);
+			int n = 0;
+			int end = start;
+			for (; end < keys.length && (int)(keys[end] >>> 32) == ei; end++) {
+				float v = counts.get(keys[end], 0.0f);
+				if (pruningThreshold > 0.0f && v < pruningThreshold) {
+					prunedCounts++;
+					continue;
+				}
+				fs[n] = (int)keys[end];
+				vs[n] = v;
+				n++;
+			}
+			if (n > 0) {
+				e.set(ei);
+				pcc.setContent(new IndexedFloatArray(Arrays.copyOf(fs, n), Arrays.copyOf(vs, n)));
+				output.collect(e, pcc);
+			}
+			start = end;
 		}
+		counts.clear();
 	}
 	
 	public void addPartialTranslationCountsToTTable(TTable tcounts) {
-		Iterator<Map.Entry<IntWritable, Int2FloatMap>> i = counts.entrySet().iterator();
-		while (i.hasNext()) {
-			Map.Entry<IntWritable, Int2FloatMap> p = i.next();
-			int ei = p.getKey().get();
-			for (Map.Entry<Integer, FloatWritable> f:p.getValue().entrySet()) {
-				tcounts.add(ei, f.getKey(), f.getValue().get());
-			}
-			i.remove();
-		}
+		for (long k : counts.sortedKeys())
+			tcounts.add((int)(k >>> 32), (int)k, counts.get(k, 0.0f));
+		counts.clear();
 	}
 	
-	/*tcmap is actually a 2D array projected onto a linear space*/	
-	FloatWritable[] tcmap = null;
+	/*tcmap is actually a 2D array projected onto a linear space of count slots*/	
+	int[] tcmap = null;
 	int width = 0;
 	protected void initializeCountTableForSentencePair(PhrasePair pp) {
 		int ew[] = pp.getE().getWords();
 		int fw[] = pp.getF().getWords();
 		width = fw.length;
 		// add null word to the beginning of e sentence:
-		tcmap = new FloatWritable[(ew.length+1) * fw.length];
+		tcmap = new int[(ew.length+1) * fw.length];
+		// no slot may move while tcmap is filled in
+		counts.ensureCapacity(counts.size() + tcmap.length);
 		int c = 0;
-		Int2FloatMap ecm = null;
 		if (_includeEnglishNullWord) {
-			ecm = counts.get(nullWord);
-			if (ecm == null) {
-				ecm = new Int2FloatMap();
-				counts.put(nullWord, ecm);
-			}
 			for (int fi:fw) {
-				ecm.createIfMissing(fi);
-				tcmap[c] = ecm.getFloatWritable(fi);
+				tcmap[c] = counts.slot(pack(0, fi));
 				c++;
 			}
-		} else { c += fw.length; }
+		} else {
+			for (; c < fw.length; c++)
+				tcmap[c] = -1;
+		}
 		for (int ei:ew) {
-			IntWritable cew = new IntWritable(ei);
-			ecm = counts.get(cew);
-			if (ecm == null) {
-				ecm = new Int2FloatMap();
-				counts.put(cew, ecm);
-			}
 			for (int fi:fw) {
-				ecm.createIfMissing(fi);
-				tcmap[c] = ecm.getFloatWritable(fi);
+				tcmap[c] = counts.slot(pack(ei, fi));
 				c++;
 			}
 		}
@@ -103,15 +131,15 @@ public abstract class Model1Base extends AlignmentModel {
 	protected final void addTranslationCount(int i_plus1, int j, float v) {
 		if (v == 0.0f) return;
 		int coord = getTranslationCoord(i_plus1, j);
-		if (tcmap[coord] == null) {
+		if (tcmap[coord] < 0) {
 			throw new RuntimeException("isNull(" + i_plus1 + "," + j +")");
 		}
 		//add v to existing count
-		tcmap[coord].set(tcmap[coord].get() + v);
+		counts.addAt(tcmap[coord], v);
 	}
 
 	protected final void addTranslationCount(int coord, float v) {
 		if (v == 0.0f) return;
-		tcmap[coord].set(tcmap[coord].get() + v);
+		counts.addAt(tcmap[coord], v);
 	}
 }
@@ -0,0 +1,18 @@
+package edu.umd.hooka.corpora;
+
+import java.io.IOException;
+
+/**
+ * Source of parallel chunks that are read one at a time from a stream, so that
+ * a corpus never has to be held in memory or split into one XML document per
+ * chunk.
+ */
+public interface ParallelChunkReader {
+
+	/**
+	 * Returns the next chunk, or null at the end of the corpus.
+	 */
+	ParallelChunk next() throws IOException;
+
+	void close() throws IOException;
+}
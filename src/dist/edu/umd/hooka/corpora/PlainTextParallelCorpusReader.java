@@ -0,0 +1,104 @@
+package edu.umd.hooka.corpora;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+import edu.umd.hooka.alignment.aer.ReferenceAlignment;
+
+/**
+ * Reads a bitext from line-aligned plain text files, one whitespace-tokenized
+ * sentence per line, with an optional file of Pharaoh-style word alignments
+ * between them. Chunks are named and checked as in the conversion to XML done
+ * by {@link ParallelCorpusReader}, so that both paths produce the same chunks.
+ */
+public class PlainTextParallelCorpusReader implements ParallelChunkReader {
+
+	private final String label;
+	private final BufferedReader r1;
+	private final BufferedReader r2;
+	private BufferedReader r1_2;
+	private final Language l1;
+	private final Language l2;
+	private final LanguagePair l1_2;
+	private int lc = 0;
+
+	/**
+	 * @param label prefix of the chunk names, which end in the line number
+	 * @param r1 sentences in language <code>l1</code>
+	 * @param r2 sentences in language <code>l2</code>
+	 * @param r1_2 alignments from <code>r1</code> to <code>r2</code>, or null
+	 */
+	public PlainTextParallelCorpusReader(String label,
+			BufferedReader r1, Language l1,
+			BufferedReader r2, Language l2,
+			BufferedReader r1_2) {
+		this.label = label;
+		this.r1 = r1;
+		this.r2 = r2;
+		this.r1_2 = r1_2;
+		this.l1 = l1;
+		this.l2 = l2;
+		l1_2 = r1_2 == null ? null :
+			LanguagePair.languageForISO639_1Pair(l1.code() + "-" + l2.code());
+	}
+
+	public ParallelChunk next() throws IOException {
+		String e = r1.readLine();
+		if (e == null) {
+			if (r2.readLine() != null)
+				System.err.println("WARNING: " + l2 + " side has more lines than " + l1 + " side");
+			return null;
+		}
+		lc += 1;
+		String f = r2.readLine();
+		if (f == null) {
+			System.err.println("WARNING: " + l2 + " side has fewer lines than " + l1 + " side");
+			return null;
+		}
+		String a = null;
+		if (r1_2 != null) {
+			a = r1_2.readLine();
+			if (a == null) {
+				System.err.println("Alignments have fewer lines than corpora files -- dropping alignments for remaining sentences");
+				r1_2.close();
+				r1_2 = null;
+			}
+		}
+		ParallelChunk p = new ParallelChunk();
+		p.setName(label + lc);
+		Chunk fc = addChunk(p, l2, f);
+		Chunk ec = addChunk(p, l1, e);
+		if (a != null && ec != null && fc != null) {
+			ReferenceAlignment ra = new ReferenceAlignment(ec.getLength(), fc.getLength());
+			try {
+				ra.addAlignmentPointsPharaoh(a);
+				p.addReferenceAlignment(l1_2, ra);
+			} catch (RuntimeException re) {
+				System.err.println("Couldn't set alignment points for sentence # " + lc);
+				System.err.println(" " + l1 + ": len=" + ec.getLength() + " words=" + ec);
+				System.err.println(" " + l2 + ": len=" + fc.getLength() + " words=" + fc);
+				System.err.println(" " + l1_2 + ": " + a);
+			}
+		}
+		return p;
+	}
+
+	// Empty lines are left out of the chunk, as empty segments are when reading XML.
+	private Chunk addChunk(ParallelChunk p, Language l, String line) {
+		String s = line.trim();
+		if (s.length() == 0) {
+			System.err.println(p.getName() + ": Empty segment for lang=" + l);
+			return null;
+		}
+		Chunk c = new Chunk(s);
+		p.addChunk(l, c);
+		return c;
+	}
+
+	public void close() throws IOException {
+		r1.close();
+		r2.close();
+		if (r1_2 != null)
+			r1_2.close();
+	}
+}
@@ -0,0 +1,109 @@
+package edu.umd.hooka.corpora;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import edu.umd.hooka.alignment.aer.ReferenceAlignment;
+
+/**
+ * Reads an XML bitext in the format of {@link ParallelCorpusReader} with a
+ * StAX pull parser, returning one {@link ParallelChunk} per call to
+ * {@link #next()}. Unlike {@link ParallelCorpusReader#parseString(String)}, a
+ * single parser streams the whole document.
+ */
+public class StaxParallelCorpusReader implements ParallelChunkReader {
+
+	private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+	private final InputStream in;
+	private final XMLStreamReader xml;
+	private String docName;
+	int pchunkCount = 0;
+	int chunkCount = 0;
+	int refAlignCount = 0;
+
+	public StaxParallelCorpusReader(InputStream in) throws IOException {
+		this.in = in;
+		try {
+			synchronized (factory) {
+				xml = factory.createXMLStreamReader(in);
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Couldn't build XML parser: " + e);
+		}
+	}
+
+	public ParallelChunk next() throws IOException {
+		try {
+			ParallelChunk pchunk = null;
+			while (xml.hasNext()) {
+				int event = xml.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String tag = xml.getLocalName();
+					if (tag.equalsIgnoreCase("pchunk")) {
+						pchunk = new ParallelChunk();
+						pchunk.setName(xml.getAttributeValue(null, "name"));
+					} else if (tag.equalsIgnoreCase("s")) {
+						Language lang = Language.languageForISO639_1(xml.getAttributeValue(null, "lang"));
+						String s = xml.getElementText().trim();
+						if (s.length() == 0) {
+							System.err.println(pchunk.getName() + ": Empty segment for lang=" + lang);
+						} else {
+							pchunk.addChunk(lang, new Chunk(s));
+							chunkCount++;
+						}
+					} else if (tag.equalsIgnoreCase("wordalignment")) {
+						LanguagePair langpair = LanguagePair.languageForISO639_1Pair(xml.getAttributeValue(null, "langpair"));
+						readAlignment(pchunk, langpair, xml.getElementText().trim());
+					} else if (tag.equalsIgnoreCase("pdoc")) {
+						docName = xml.getAttributeValue(null, "name");
+					} else {
+						throw new IOException("Unknown tag: " + tag);
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					String tag = xml.getLocalName();
+					if (tag.equalsIgnoreCase("pchunk")) {
+						pchunkCount++;
+						return pchunk;
+					} else if (tag.equalsIgnoreCase("pdoc")) {
+						System.err.println("Finished parsing document " + docName);
+						System.err.println("  pchunks: " + pchunkCount);
+						System.err.println("  chunks: " + chunkCount);
+						System.err.println("  ref alignments: " + refAlignCount);
+					}
+				}
+			}
+			return null;
+		} catch (XMLStreamException e) {
+			throw new IOException("Malformed bitext: " + e);
+		}
+	}
+
+	private void readAlignment(ParallelChunk pchunk, LanguagePair langpair, String points) {
+		Chunk sc = pchunk.getChunk(langpair.getSource());
+		if (sc == null)
+			throw new RuntimeException("PChunk doesn't contain data for lang: " + langpair.getSource() + ".  Note: manual word alignment data must follow the chunk data.");
+		Chunk tc = pchunk.getChunk(langpair.getTarget());
+		if (tc == null)
+			throw new RuntimeException("PChunk doesn't contain data for lang: " + langpair.getTarget() + ".  Note: manual word alignment data must follow the chunk data.");
+		ReferenceAlignment r = new ReferenceAlignment(sc.getLength(), tc.getLength());
+		r.addAlignmentPointsPharaoh(points);
+		pchunk.addReferenceAlignment(langpair, r);
+		refAlignCount++;
+	}
+
+	public void close() throws IOException {
+		try {
+			xml.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e.toString());
+		} finally {
+			in.close();
+		}
+	}
+}
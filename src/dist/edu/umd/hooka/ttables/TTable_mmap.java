@@ -0,0 +1,223 @@
+package edu.umd.hooka.ttables;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import edu.umd.hooka.alignment.IndexedFloatArray;
+
+/**
+ * Read-only translation table backed by a memory-mapped local file, so that
+ * every task JVM on a node shares one copy of the table in the page cache
+ * instead of deserializing its own onto the heap.
+ *
+ * The file is laid out in compressed sparse row form. Each row e is a block
+ * of its n sorted f ids followed by their n probabilities, and a table of
+ * row offsets at the end of the file gives the start of each block:
+ *
+ * <pre>
+ * int MAGIC, int numRows
+ * numRows x (n x int f, n x float p(f|e))
+ * (numRows + 1) x long byte offset of each row block, then of the table itself
+ * </pre>
+ *
+ * A row whose last f id is n - 1 is dense and is indexed directly; all other
+ * rows are binary searched in place. Writing the offsets last lets
+ * {@link #convert(DataInput, DataOutputStream)} stream a
+ * {@link TTable_monolithic_IFAs} without loading it.
+ */
+public class TTable_mmap extends TTable {
+
+	public static final int MAGIC = 0x54544d31; // "TTM1"
+
+	// Mappings are limited to 2GB, so larger files are mapped in chunks. Every
+	// value is 4-byte aligned and so never straddles two chunks.
+	private static final int CHUNK_SHIFT = 30;
+	private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+	private final MappedByteBuffer[] chunks;
+	private final long[] offsets;
+	private final int numRows;
+
+	public TTable_mmap(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long length = channel.size();
+			chunks = new MappedByteBuffer[(int)((length + CHUNK_MASK) >>> CHUNK_SHIFT)];
+			for (int i = 0; i < chunks.length; i++) {
+				long pos = (long)i << CHUNK_SHIFT;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, pos,
+						Math.min(CHUNK_MASK + 1, length - pos));
+			}
+			if (length < 8 || getInt(0) != MAGIC)
+				throw new IOException(file + " is not a memory-mapped ttable");
+			numRows = getInt(4);
+			offsets = new long[numRows + 1];
+			long table = length - 8L * (numRows + 1);
+			for (int e = 0; e <= numRows; e++)
+				offsets[e] = ((long)getInt(table + 8L * e) << 32)
+						| (getInt(table + 8L * e + 4) & 0xFFFFFFFFL);
+			if (offsets[numRows] != table)
+				throw new IOException(file + " is truncated or corrupt");
+		} finally {
+			// the mappings stay valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	private int getInt(long pos) {
+		return chunks[(int)(pos >>> CHUNK_SHIFT)].getInt((int)(pos & CHUNK_MASK));
+	}
+
+	private float getFloat(long pos) {
+		return chunks[(int)(pos >>> CHUNK_SHIFT)].getFloat((int)(pos & CHUNK_MASK));
+	}
+
+	public int getMaxE() {
+		return numRows - 1;
+	}
+
+	@Override
+	public float get(int e, int f) {
+		if (e < 0 || e >= numRows)
+			return 0.0f;
+		long start = offsets[e];
+		int n = (int)((offsets[e + 1] - start) >>> 3);
+		if (n == 0)
+			return 0.0f;
+		long probs = start + 4L * n;
+		if (getInt(probs - 4) == n - 1) {
+			// dense row: f ids are 0 .. n-1
+			if (f < 0 || f >= n)
+				return 0.0f;
+			return getFloat(probs + 4L * f);
+		}
+		int min = 0;
+		int max = n - 1;
+		while (min <= max) {
+			int mid = (min + max) >>> 1;
+			int v = getInt(start + 4L * mid);
+			if (v > f)
+				max = mid - 1;
+			else if (v < f)
+				min = mid + 1;
+			else
+				return getFloat(probs + 4L * mid);
+		}
+		return 0.0f;
+	}
+
+	/**
+	 * Writes <code>tt</code> in the format read by this class.
+	 */
+	public static void write(TTable_monolithic_IFAs tt, DataOutputStream out) throws IOException {
+		RowWriter w = new RowWriter(out, tt.getMaxE() + 1);
+		for (int e = 0; e <= tt.getMaxE(); e++)
+			w.write(tt.get(e));
+		w.close();
+	}
+
+	/**
+	 * Converts a serialized {@link TTable_monolithic_IFAs} into the format read
+	 * by this class, one row at a time.
+	 */
+	public static void convert(DataInput in, DataOutputStream out) throws IOException {
+		int numRows = in.readInt();
+		RowWriter w = new RowWriter(out, numRows);
+		IndexedFloatArray row = new IndexedFloatArray();
+		for (int e = 0; e < numRows; e++) {
+			row.readFields(in);
+			w.write(row);
+		}
+		w.close();
+	}
+
+	private static final class RowWriter {
+		private final DataOutputStream out;
+		private final long[] offsets;
+		private int row = 0;
+		// DataOutputStream.size() saturates at 2GB, so track the offset here.
+		private long position = 8;
+
+		RowWriter(DataOutputStream out, int numRows) throws IOException {
+			this.out = out;
+			offsets = new long[numRows + 1];
+			out.writeInt(MAGIC);
+			out.writeInt(numRows);
+		}
+
+		void write(IndexedFloatArray ifa) throws IOException {
+			offsets[row++] = position;
+			int n = ifa == null ? 0 : ifa.size();
+			for (int i = 0; i < n; i++)
+				out.writeInt(ifa._useBinSearch ? ifa._indices[i] : i);
+			for (int i = 0; i < n; i++)
+				out.writeFloat(ifa._data[i]);
+			position += 8L * n;
+		}
+
+		void close() throws IOException {
+			if (row != offsets.length - 1)
+				throw new IllegalStateException("Wrote " + row + " of " + (offsets.length - 1) + " rows");
+			offsets[row] = position;
+			for (long o : offsets)
+				out.writeLong(o);
+			out.flush();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("usage: TTable_mmap [input ttable] [output mmap ttable]");
+			System.exit(-1);
+		}
+		FileSystem fs = FileSystem.get(new Configuration());
+		DataInputStream in = new DataInputStream(new BufferedInputStream(fs.open(new Path(args[0]))));
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(fs.create(new Path(args[1]))));
+		convert(in, out);
+		out.close();
+		in.close();
+	}
+
+	@Override
+	public Object clone() {
+		return this;
+	}
+	@Override
+	public void add(int e, int f, float delta) {
+		throw new UnsupportedOperationException();
+	}
+	@Override
+	public void set(int e, int f, float value) {
+		throw new UnsupportedOperationException();
+	}
+	@Override
+	public void set(int e, IndexedFloatArray fs) {
+		throw new UnsupportedOperationException();
+	}
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException();
+	}
+	@Override
+	public void normalize() {
+		throw new UnsupportedOperationException();
+	}
+	@Override
+	public void write() throws IOException {
+		throw new UnsupportedOperationException();
+	}
+}
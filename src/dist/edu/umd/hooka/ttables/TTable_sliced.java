@@ -1,9 +1,26 @@
 package edu.umd.hooka.ttables;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+
+import edu.umd.hooka.PhrasePair;
 import edu.umd.hooka.alignment.IndexedFloatArray;
 
 
@@ -12,81 +29,288 @@ import edu.umd.hooka.alignment.IndexedFloatArray;
  * counts c(f,e).  The set of values (*,e) associated with a particular
  * e are stored adjacent to one another in an array.  For a given f
  * in (f,e) the location of the f is found using a binary search.
- * 
+ *
  * Layout: http://www.umiacs.umd.edu/~redpony/ttable-structure.png
- * 
+ *
+ * Each slice (*,e) is read from the file system the first time it is
+ * needed.  The resident slices are kept within a byte budget by evicting
+ * the least recently used one.  Slices that have been changed through
+ * {@link #add}, {@link #set} or {@link #normalize} can't be read back, so
+ * they stay resident.  {@link #prepare(PhrasePair, boolean)} reads the
+ * slices of a sentence pair that is about to be processed on a background
+ * thread.
+ *
+ * A table written by {@link #write(TTable_monolithic_IFAs, FileSystem, Path)}
+ * keeps all slices in <code>slices.bin</code>, at the offsets listed in
+ * <code>metadata.bin</code>, so it is opened once.  Older tables have a
+ * <code>voc_e.tab</code> file per slice.
+ *
  * @author redpony
  *
  */
 public class TTable_sliced extends TTable implements Cloneable {
 
-	IndexedFloatArray[] _data;  // length = |F|
+	public static enum SliceCounters { HITS, PREFETCH_HITS, MISSES, EVICTIONS, LOAD_MILLIS, STALL_MILLIS };
+
+	IndexedFloatArray[] _data;  // length = |E|, null if not resident
 	Path _datapath;
 	FileSystem _fs;
 	boolean cleared = false;
-		
+
+	long[] _offsets;            // into slices.bin, or null for voc_e.tab files
+	FSDataInputStream _slices;
+
+	long _budget = Long.MAX_VALUE;
+	long _resident = 0;         // bytes held by resident slices
+	boolean[] _pinned;
+	int[] _newer;               // recency list of the unpinned resident slices
+	int[] _older;
+	int _head = -1;             // most recently used
+	int _tail = -1;             // least recently used
+
+	ExecutorService _prefetcher;
+	Map<Integer,Future<IndexedFloatArray>> _inflight = new HashMap<Integer,Future<IndexedFloatArray>>();
+	final AtomicLong _loadNanos = new AtomicLong();
+	long _stallNanos, _hits, _prefetchHits, _misses, _evictions;
+
 	public Object clone() {
-		TTable_sliced res = new TTable_sliced();
-		res._datapath = _datapath;
-		res._fs = _fs;
+		TTable_sliced res = new TTable_sliced(_data.length, _fs, _datapath);
 		res.cleared = cleared;
-		res._data = new IndexedFloatArray[_data.length];
-		for (int i=0; i<_data.length; i++)
-			res._data[i] = (IndexedFloatArray)_data[i].clone();
+		res._offsets = _offsets;
+		res._budget = _budget;
+		for (int e = 0; e < _data.length; e++) {
+			if (_data[e] != null && _pinned[e]) {
+				res._data[e] = (IndexedFloatArray)_data[e].clone();
+				res._pinned[e] = true;
+				res._resident += _data[e].getSerializedSize();
+			}
+		}
+		for (int e = _tail; e != -1; e = _newer[e]) {
+			res._data[e] = (IndexedFloatArray)_data[e].clone();
+			res._resident += _data[e].getSerializedSize();
+			res.pushHead(e);
+		}
 		return res;
 	}
-	
+
 	public TTable_sliced() {}
-	
+
 	public TTable_sliced(int e_voc_size) {
-		_data = new IndexedFloatArray[e_voc_size];
+		init(e_voc_size);
 	}
 
 	public TTable_sliced(FileSystem fs, Path p) throws IOException {
-		_fs = fs; _datapath = p;
-		FSDataInputStream in = _fs.open(_datapath.suffix(Path.SEPARATOR + "metadata.bin"));
-		_data = new IndexedFloatArray[in.readInt()];
+		this(fs, p, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Opens the table at <code>p</code>, keeping at most about <code>budget</code>
+	 * bytes of unchanged slices in memory.
+	 */
+	public TTable_sliced(FileSystem fs, Path p, long budget) throws IOException {
+		_fs = fs; _datapath = p; _budget = budget;
+		Path meta = _datapath.suffix(Path.SEPARATOR + "metadata.bin");
+		boolean hasOffsets = _fs.getFileStatus(meta).getLen() > 4;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(_fs.open(meta)));
+		init(in.readInt());
+		if (hasOffsets) {
+			_offsets = new long[_data.length + 1];
+			for (int i = 0; i < _offsets.length; i++)
+				_offsets[i] = in.readLong();
+		}
 		in.close();
 	}
 
 	public TTable_sliced(int e_voc_size, FileSystem fs, Path p) {
 		_fs = fs; _datapath = p;
+		init(e_voc_size);
+	}
+
+	private void init(int e_voc_size) {
 		_data = new IndexedFloatArray[e_voc_size];
+		_pinned = new boolean[e_voc_size];
+		_newer = new int[e_voc_size];
+		_older = new int[e_voc_size];
 	}
-	
+
 	public int getMaxF() {
+		checkE(0);
 		return _data[0].size() - 1;
-	} 
-	
+	}
+
 	public int getMaxE() {
 		return _data.length - 1;
 	}
-	
+
+	private void unlink(int e) {
+		if (_newer[e] == -1) _head = _older[e]; else _older[_newer[e]] = _older[e];
+		if (_older[e] == -1) _tail = _newer[e]; else _newer[_older[e]] = _newer[e];
+	}
+
+	private void pushHead(int e) {
+		_newer[e] = -1;
+		_older[e] = _head;
+		if (_head != -1) _newer[_head] = e;
+		_head = e;
+		if (_tail == -1) _tail = e;
+	}
+
+	private void touch(int e) {
+		if (e != _head && !_pinned[e]) {
+			unlink(e);
+			pushHead(e);
+		}
+	}
+
 	final private void checkE(int e) {
-		if (_data[e] == null) {
-			try {
-				_data[e] = new IndexedFloatArray();
-				FSDataInputStream in = _fs.open(_datapath.suffix(Path.SEPARATOR + "voc_" + e + ".tab"));
-				_data[e].readFields(in);
-				in.close();
-				if (cleared) _data[e].clear();
-			} catch (IOException ex) {
-				ex.printStackTrace();
-				throw new RuntimeException("Caught " + e);
+		if (_data[e] != null) {
+			_hits++;
+			touch(e);
+			return;
+		}
+		long start = System.nanoTime();
+		IndexedFloatArray slice;
+		Future<IndexedFloatArray> pending = _inflight.remove(e);
+		try {
+			if (pending != null) {
+				slice = pending.get();
+				_prefetchHits++;
+			} else {
+				slice = load(e);
+				_misses++;
 			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Error loading slice e=" + e, ex);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted loading slice e=" + e, ex);
+		} catch (ExecutionException ex) {
+			throw new RuntimeException("Error loading slice e=" + e, ex.getCause());
+		}
+		_stallNanos += System.nanoTime() - start;
+		if (cleared) slice.clear();
+		_data[e] = slice;
+		_resident += slice.getSerializedSize();
+		pushHead(e);
+		while (_resident > _budget && _tail != e) {
+			int victim = _tail;
+			unlink(victim);
+			_resident -= _data[victim].getSerializedSize();
+			_data[victim] = null;
+			_evictions++;
 		}
 	}
-			
-	public void add(int e, int f, float delta) {
+
+	private void pin(int e) {
 		checkE(e);
+		if (!_pinned[e]) {
+			unlink(e);
+			_pinned[e] = true;
+		}
+	}
+
+	IndexedFloatArray load(int e) throws IOException {
+		long start = System.nanoTime();
+		IndexedFloatArray res = new IndexedFloatArray();
+		if (_offsets != null) {
+			byte[] b = new byte[(int)(_offsets[e + 1] - _offsets[e])];
+			slices().readFully(_offsets[e], b, 0, b.length);
+			res.readFields(new DataInputStream(new ByteArrayInputStream(b)));
+		} else {
+			FSDataInputStream in = _fs.open(_datapath.suffix(Path.SEPARATOR + "voc_" + e + ".tab"));
+			res.readFields(new DataInputStream(new BufferedInputStream(in)));
+			in.close();
+		}
+		_loadNanos.addAndGet(System.nanoTime() - start);
+		return res;
+	}
+
+	private synchronized FSDataInputStream slices() throws IOException {
+		if (_slices == null)
+			_slices = _fs.open(_datapath.suffix(Path.SEPARATOR + "slices.bin"));
+		return _slices;
+	}
+
+	/**
+	 * Starts reading the slices of the e-words of <code>pp</code>, and of the
+	 * null word if <code>nullWord</code> is set, on a background thread.  Slices
+	 * that are already resident become the most recently used ones.
+	 */
+	@Override
+	public void prepare(PhrasePair pp, boolean nullWord) {
+		if (_fs == null) return;
+		if (nullWord) prefetch(0);
+		for (int e : pp.getE().getWords())
+			prefetch(e);
+	}
+
+	private void prefetch(final int e) {
+		if (_data[e] != null) {
+			touch(e);
+			return;
+		}
+		if (_inflight.containsKey(e)) return;
+		if (_prefetcher == null) {
+			_prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ttable-prefetch");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		_inflight.put(e, _prefetcher.submit(new Callable<IndexedFloatArray>() {
+			public IndexedFloatArray call() throws IOException {
+				return load(e);
+			}
+		}));
+	}
+
+	public long getCounter(SliceCounters c) {
+		switch (c) {
+		case HITS: return _hits;
+		case PREFETCH_HITS: return _prefetchHits;
+		case MISSES: return _misses;
+		case EVICTIONS: return _evictions;
+		case LOAD_MILLIS: return _loadNanos.get() / 1000000;
+		case STALL_MILLIS: return _stallNanos / 1000000;
+		}
+		throw new IllegalArgumentException("Unknown counter: " + c);
+	}
+
+	/**
+	 * Returns the number of bytes held by the resident slices.
+	 */
+	public long getResidentBytes() {
+		return _resident;
+	}
+
+	/**
+	 * Stops the prefetching thread and closes the slice file.
+	 */
+	public void close() throws IOException {
+		if (_prefetcher != null) {
+			_prefetcher.shutdownNow();
+			_prefetcher = null;
+		}
+		_inflight.clear();
+		synchronized (this) {
+			if (_slices != null) _slices.close();
+			_slices = null;
+		}
+	}
+
+	public void add(int e, int f, float delta) {
+		pin(e);
 		_data[e].add(f, delta);
 	}
-	
+
 	public void set(int e, int f, float value) {
-		checkE(e);
+		pin(e);
 		_data[e].set(f, value);
 	}
 	public long getCoord(int e, int f) {
+		pin(e);
 		return ((long)e) << 32 | (long)_data[e].getAddr(f);
 	}
 
@@ -95,19 +319,24 @@ public class TTable_sliced extends TTable implements Cloneable {
 	}
 
 	public void set(int e, IndexedFloatArray fs) {
+		_inflight.remove(e);
 		if (_data[e] == null) {
 			_data[e] = (IndexedFloatArray)fs.clone();
+			_resident += _data[e].getSerializedSize();
 		} else {
+			if (!_pinned[e]) unlink(e);
+			_resident += fs.getSerializedSize() - _data[e].getSerializedSize();
 			_data[e].copyFrom(fs);
 		}
+		_pinned[e] = true;
 	}
-	
+
 	/**
 	public void plusEquals(int e, IndexedFloatArray fs) {
 		checkE(e);
 		_data[e].plusEquals(fs);
 	}*/
-	
+
 	public float get(int e, int f) {
 		checkE(e);
 		return _data[e].get(f);
@@ -119,16 +348,20 @@ public class TTable_sliced extends TTable implements Cloneable {
 			if (ar != null) ar.clear();
 		}
 	}
-	
+
 	public void prune(float threshold) {
 		throw new RuntimeException("Not implemented");
 	}
-	
+
 	public void normalize() {
-		for (IndexedFloatArray ar : _data)
-			if (ar != null) ar.normalize();
+		for (int e = 0; e < _data.length; e++) {
+			if (_data[e] != null) {
+				pin(e);
+				_data[e].normalize();
+			}
+		}
 	}
-		
+
 	public String toString() {
 		StringBuffer sb = new StringBuffer();
 		for (int e = 0; e< _data.length; e++) {
@@ -142,4 +375,29 @@ public class TTable_sliced extends TTable implements Cloneable {
 		throw new RuntimeException("Not implemented");
 	}
 
+	/**
+	 * Writes <code>tt</code> to the directory <code>p</code> in the layout read by
+	 * {@link #TTable_sliced(FileSystem, Path, long)}.
+	 */
+	public static void write(TTable_monolithic_IFAs tt, FileSystem fs, Path p) throws IOException {
+		int len = tt.getMaxE() + 1;
+		long[] offsets = new long[len + 1];
+		fs.mkdirs(p);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				fs.create(p.suffix(Path.SEPARATOR + "slices.bin"))));
+		IndexedFloatArray nullA = new IndexedFloatArray();
+		for (int e = 0; e < len; e++) {
+			IndexedFloatArray a = tt.get(e) == null ? nullA : tt.get(e);
+			a.write(out);
+			offsets[e + 1] = offsets[e] + a.getSerializedSize();
+		}
+		out.close();
+		out = new DataOutputStream(new BufferedOutputStream(
+				fs.create(p.suffix(Path.SEPARATOR + "metadata.bin"))));
+		out.writeInt(len);
+		for (long o : offsets)
+			out.writeLong(o);
+		out.close();
+	}
+
 }
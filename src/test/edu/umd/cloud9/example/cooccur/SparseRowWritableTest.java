@@ -0,0 +1,96 @@
+/*
+ * Cloud9: A Hadoop toolkit for working with big data
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.example.cooccur;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import edu.umd.cloud9.util.map.HMapII;
+
+public class SparseRowWritableTest {
+
+  @Test
+  public void testSerialize() throws IOException {
+    HMapII map = new HMapII();
+    map.put(1000, 3);
+    map.put(5, 1);
+    map.put(70000, 200);
+    map.put(0, 7);
+
+    SparseRowWritable row1 = new SparseRowWritable();
+    row1.set(map);
+
+    assertEquals(4, row1.size());
+    assertEquals("{0=7, 5=1, 1000=3, 70000=200}", row1.toString());
+
+    ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+    row1.write(new DataOutputStream(bytesOut));
+    byte[] bytes = bytesOut.toByteArray();
+
+    // One byte for the size, then VInt gaps and counts: 2 + 2 + 4 + 6 bytes.
+    assertEquals(15, bytes.length);
+
+    SparseRowWritable row2 = new SparseRowWritable();
+    row2.readFields(new DataInputStream(new ByteArrayInputStream(bytes)));
+
+    assertEquals(4, row2.size());
+    assertEquals(0, row2.getColumn(0));
+    assertEquals(7, row2.getValue(0));
+    assertEquals(5, row2.getColumn(1));
+    assertEquals(1, row2.getValue(1));
+    assertEquals(1000, row2.getColumn(2));
+    assertEquals(3, row2.getValue(2));
+    assertEquals(70000, row2.getColumn(3));
+    assertEquals(200, row2.getValue(3));
+  }
+
+  @Test
+  public void testReuse() throws IOException {
+    HMapII map = new HMapII();
+    map.put(1, 1);
+    map.put(2, 2);
+    map.put(3, 3);
+
+    SparseRowWritable row = new SparseRowWritable();
+    row.set(map);
+    assertEquals(3, row.size());
+
+    map.clear();
+    map.put(9, 9);
+    row.set(map);
+    assertEquals(1, row.size());
+    assertEquals("{9=9}", row.toString());
+
+    map.clear();
+    row.set(map);
+    assertEquals(0, row.size());
+    assertEquals("{}", row.toString());
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SparseRowWritableTest.class);
+  }
+}
@@ -29,8 +29,10 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.WritableComparator;
 import org.junit.Test;
 
+import edu.umd.cloud9.debug.WritableComparatorTestHarness;
 import edu.umd.cloud9.io.SequenceFileUtils;
 import edu.umd.cloud9.io.pair.PairOfWritables;
 
@@ -171,6 +173,28 @@ public class ArrayListOfShortsWritableTest {
     assertTrue(e.compareTo(d)<0);
   }
   
+  @Test
+  public void testCompareRaw() {
+    WritableComparator comparator = new ArrayListOfShortsWritable.Comparator();
+
+    ArrayListOfShortsWritable[] lists = new ArrayListOfShortsWritable[6];
+    for (int i = 0; i < lists.length; i++) {
+      lists[i] = new ArrayListOfShortsWritable();
+    }
+    lists[1].add(one).add(three).add(five);
+    lists[2].add(one).add(three).add(five).add(seven);
+    lists[3].add(one).add(three);
+    lists[4].add(neg_one).add(nine);
+    lists[5].add(two).add(zero);
+
+    for (int i = 0; i < lists.length; i++) {
+      for (int j = 0; j < lists.length; j++) {
+        assertEquals(Integer.signum(lists[i].compareTo(lists[j])),
+            Integer.signum(WritableComparatorTestHarness.compare(comparator, lists[i], lists[j])));
+      }
+    }
+  }
+
   public static junit.framework.Test suite() {
     return new JUnit4TestAdapter(ArrayListOfShortsWritableTest.class);
   }
@@ -25,15 +25,19 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 import junit.framework.JUnit4TestAdapter;
 
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
 import org.junit.Test;
 
+import edu.umd.cloud9.debug.WritableComparatorTestHarness;
 import edu.umd.cloud9.io.array.ArrayListWritableComparable;
+import edu.umd.cloud9.io.pair.PairOfInts;
 
 public class ArrayListWritableComparableTest {
 
@@ -273,6 +277,55 @@ public class ArrayListWritableComparableTest {
 		assertTrue(list3.compareTo(list2) > 0);
 	}
 
+	@Test
+	public void testCompareRaw() throws IOException {
+		WritableComparator comparator = new ArrayListWritableComparable.Comparator();
+
+		List<ArrayListWritableComparable<Text>> texts = new ArrayList<ArrayListWritableComparable<Text>>();
+		for (String[] terms : new String[][] { {}, { "a" }, { "a", "b" }, { "a", "ba" }, { "b" },
+				{ "", "z" } }) {
+			ArrayListWritableComparable<Text> list = new ArrayListWritableComparable<Text>();
+			for (String term : terms) {
+				list.add(new Text(term));
+			}
+			texts.add(list);
+		}
+		assertConsistent(comparator, texts);
+
+		List<ArrayListWritableComparable<IntWritable>> ints = new ArrayList<ArrayListWritableComparable<IntWritable>>();
+		for (int[] values : new int[][] { {}, { 1 }, { 1, 2 }, { 1, -2 }, { -1 }, { 2, 0, 0 } }) {
+			ArrayListWritableComparable<IntWritable> list = new ArrayListWritableComparable<IntWritable>();
+			for (int value : values) {
+				list.add(new IntWritable(value));
+			}
+			ints.add(list);
+		}
+		assertConsistent(comparator, ints);
+
+		// Element types without a raw encoding fall back on deserialization.
+		List<ArrayListWritableComparable<PairOfInts>> pairs = new ArrayList<ArrayListWritableComparable<PairOfInts>>();
+		for (int[] values : new int[][] { {}, { 1, 2 }, { 1, 3 }, { 1, 2, 0, 0 }, { 0, 5 } }) {
+			ArrayListWritableComparable<PairOfInts> list = new ArrayListWritableComparable<PairOfInts>();
+			for (int i = 0; i < values.length; i += 2) {
+				list.add(new PairOfInts(values[i], values[i + 1]));
+			}
+			pairs.add(list);
+		}
+		assertConsistent(comparator, pairs);
+	}
+
+	private static <E extends ArrayListWritableComparable<?>> void assertConsistent(
+			WritableComparator comparator, List<E> lists) {
+		for (E a : lists) {
+			for (E b : lists) {
+				@SuppressWarnings({ "unchecked", "rawtypes" })
+				int expected = Integer.signum(((ArrayListWritableComparable) a).compareTo(b));
+				assertEquals(expected,
+						Integer.signum(WritableComparatorTestHarness.compare(comparator, a, b)));
+			}
+		}
+	}
+
 	public static junit.framework.Test suite() {
 		return new JUnit4TestAdapter(ArrayListWritableComparableTest.class);
 	}
@@ -0,0 +1,150 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.io.benchmark;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+import edu.umd.cloud9.example.bigram.BigramRelativeFrequency;
+import edu.umd.cloud9.example.bigram.BigramRelativeFrequencyJson;
+import edu.umd.cloud9.example.bigram.BigramRelativeFrequencyTuple;
+import edu.umd.cloud9.io.pair.PairOfInts;
+import edu.umd.cloud9.mapreduce.lib.cfd.ComputeConditionalProbabilities;
+import edu.umd.cloud9.util.array.ArrayListOfInts;
+import edu.umd.cloud9.util.text.TermIdDictionary;
+import edu.umd.cloud9.util.text.WhitespaceTokenizer;
+
+/**
+ * <p>
+ * Compares the throughput of the three bigram relative frequency jobs ({@link
+ * BigramRelativeFrequency} with {@code PairOfStrings} keys, {@link BigramRelativeFrequencyJson} and
+ * {@link BigramRelativeFrequencyTuple}) with that of {@link ComputeConditionalProbabilities} on
+ * the same bigrams. For the latter, the bigrams of the input are first encoded locally as
+ * (previous term id, term id) pairs; the encoding is not included in the reported time.
+ * </p>
+ *
+ * <p>
+ * Usage: [input text] [num reducers]
+ * </p>
+ */
+public class HadoopRelativeFrequencyThroughput {
+  private HadoopRelativeFrequencyThroughput() {}
+
+  private static interface BenchmarkedJob {
+    void run(String input, String output, String reducers) throws Exception;
+  }
+
+  /**
+   * Runs this benchmark.
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.out.println("usage: [input text] [num reducers]");
+      System.exit(-1);
+    }
+
+    String input = args[0];
+    String reducers = args.length > 1 ? args[1] : "1";
+    String events = input + ".bigrams.seq";
+
+    long numBigrams = encodeBigrams(new Path(input), new Path(events));
+    System.out.println("Bigrams: " + numBigrams);
+
+    double[] times = new double[4];
+    times[0] = time(input, "bigram-pairs", reducers, new BenchmarkedJob() {
+      public void run(String input, String output, String reducers) throws Exception {
+        BigramRelativeFrequency.main(
+            new String[] { "-input", input, "-output", output, "-numReducers", reducers });
+      }
+    });
+    times[1] = time(input, "bigram-json", reducers, new BenchmarkedJob() {
+      public void run(String input, String output, String reducers) throws Exception {
+        BigramRelativeFrequencyJson.main(
+            new String[] { "-input", input, "-output", output, "-numReducers", reducers });
+      }
+    });
+    times[2] = time(input, "bigram-tuple", reducers, new BenchmarkedJob() {
+      public void run(String input, String output, String reducers) throws Exception {
+        BigramRelativeFrequencyTuple.main(
+            new String[] { "-input", input, "-output", output, "-numReducers", reducers });
+      }
+    });
+    times[3] = time(events, "bigram-cfd", reducers, new BenchmarkedJob() {
+      public void run(String input, String output, String reducers) throws Exception {
+        ComputeConditionalProbabilities.main(
+            new String[] { "-input", input, "-output", output, "-numReducers", reducers });
+      }
+    });
+
+    String[] names = new String[] { BigramRelativeFrequency.class.getSimpleName(),
+        BigramRelativeFrequencyJson.class.getSimpleName(),
+        BigramRelativeFrequencyTuple.class.getSimpleName(),
+        ComputeConditionalProbabilities.class.getSimpleName() };
+    for (int i = 0; i < names.length; i++) {
+      System.out.println(String.format("%-35s %10.3f s %12.0f bigrams/sec", names[i], times[i],
+          numBigrams / times[i]));
+    }
+  }
+
+  private static double time(String input, String output, String reducers, BenchmarkedJob job)
+      throws Exception {
+    long startTime = System.currentTimeMillis();
+    job.run(input, output, reducers);
+    return (System.currentTimeMillis() - startTime) / 1000.0;
+  }
+
+  // Writes a (previous term id, term id) pair with a count of one for each bigram in the input,
+  // tokenizing as the bigram jobs do.
+  private static long encodeBigrams(Path input, Path output) throws Exception {
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.get(conf);
+
+    WhitespaceTokenizer tokenizer = new WhitespaceTokenizer(100);
+    TermIdDictionary dictionary = new TermIdDictionary();
+    ArrayListOfInts terms = new ArrayListOfInts();
+
+    PairOfInts key = new PairOfInts();
+    IntWritable one = new IntWritable(1);
+    Text text = new Text();
+    long numBigrams = 0;
+
+    BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(input), "UTF-8"));
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, output, PairOfInts.class,
+        IntWritable.class);
+    String line;
+    while ((line = reader.readLine()) != null) {
+      text.set(line);
+      int n = tokenizer.tokenize(text, dictionary, terms);
+      for (int i = 1; i < n; i++) {
+        key.set(terms.get(i - 1), terms.get(i));
+        writer.append(key, one);
+        numBigrams++;
+      }
+    }
+    writer.close();
+    reader.close();
+
+    return numBigrams;
+  }
+}
@@ -0,0 +1,406 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.io.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
+import org.apache.hadoop.mapred.lib.IdentityReducer;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+import edu.umd.cloud9.example.bigram.BigramRelativeFrequencyTuple;
+import edu.umd.cloud9.io.array.ArrayListOfDoublesWritable;
+import edu.umd.cloud9.io.array.ArrayListOfFloatsWritable;
+import edu.umd.cloud9.io.array.ArrayListOfIntsWritable;
+import edu.umd.cloud9.io.array.ArrayListOfLongsWritable;
+import edu.umd.cloud9.io.array.ArrayListOfShortsWritable;
+import edu.umd.cloud9.io.array.ArrayListWritableComparable;
+import edu.umd.cloud9.io.pair.PairOfFloatInt;
+import edu.umd.cloud9.io.pair.PairOfFloatString;
+import edu.umd.cloud9.io.pair.PairOfFloats;
+import edu.umd.cloud9.io.pair.PairOfIntFloat;
+import edu.umd.cloud9.io.pair.PairOfIntLong;
+import edu.umd.cloud9.io.pair.PairOfIntString;
+import edu.umd.cloud9.io.pair.PairOfInts;
+import edu.umd.cloud9.io.pair.PairOfLongFloat;
+import edu.umd.cloud9.io.pair.PairOfLongInt;
+import edu.umd.cloud9.io.pair.PairOfLongString;
+import edu.umd.cloud9.io.pair.PairOfLongs;
+import edu.umd.cloud9.io.pair.PairOfStringFloat;
+import edu.umd.cloud9.io.pair.PairOfStringInt;
+import edu.umd.cloud9.io.pair.PairOfStringLong;
+import edu.umd.cloud9.io.pair.PairOfStrings;
+import edu.umd.cloud9.io.triple.TripleOfInts;
+import edu.umd.cloud9.io.triple.TripleOfIntsDouble;
+import edu.umd.cloud9.io.triple.TripleOfIntsString;
+
+/**
+ * <p>
+ * Benchmark for comparing Hadoop sorting with and without raw comparators, in the style of
+ * {@link HadoopSortRandomPairsOfInts}, for every {@code WritableComparable} in the {@code io.pair},
+ * {@code io.triple} and {@code io.array} packages, as well as the pig tuple keys used by
+ * {@link BigramRelativeFrequencyTuple}. For each key type, random keys are written to a
+ * SequenceFile and sorted twice with an identity job: once with the comparator registered for the
+ * key class, and once with a comparator that deserializes both keys for every comparison (which is
+ * what Hadoop does for keys without a registered comparator).
+ * </p>
+ *
+ * <p>
+ * Usage: [num records] [key type ...]. By default, one million records are sorted for each key
+ * type.
+ * </p>
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class HadoopSortRandomKeys {
+  private static final int DEFAULT_NUM_RECORDS = 1000000;
+
+  // Small value ranges, so that comparisons frequently fall through to the later fields.
+  private static final int RANGE = 1000;
+  private static final int MAX_LIST_LENGTH = 5;
+
+  private HadoopSortRandomKeys() {}
+
+  private static abstract class KeyGenerator {
+    final Class<? extends WritableComparable> keyClass;
+
+    KeyGenerator(Class<? extends WritableComparable> keyClass) {
+      this.keyClass = keyClass;
+    }
+
+    abstract WritableComparable next(Random r);
+
+    // Comparator to use for the optimized run; null for the comparator registered for the class.
+    Class<? extends RawComparator> getRawComparatorClass() {
+      return null;
+    }
+  }
+
+  /**
+   * Comparator that deserializes both keys for every comparison, for the unoptimized runs.
+   */
+  public static class DeserializingComparator implements RawComparator<WritableComparable>,
+      Configurable {
+    private final DataInputBuffer buffer = new DataInputBuffer();
+    private Configuration conf;
+    private WritableComparable key1;
+    private WritableComparable key2;
+
+    public void setConf(Configuration conf) {
+      this.conf = conf;
+      Class<?> keyClass = ((JobConf) conf).getMapOutputKeyClass();
+      key1 = (WritableComparable) ReflectionUtils.newInstance(keyClass, conf);
+      key2 = (WritableComparable) ReflectionUtils.newInstance(keyClass, conf);
+    }
+
+    public Configuration getConf() {
+      return conf;
+    }
+
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      try {
+        buffer.reset(b1, s1, l1);
+        key1.readFields(buffer);
+        buffer.reset(b2, s2, l2);
+        key2.readFields(buffer);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      return compare(key1, key2);
+    }
+
+    public int compare(WritableComparable a, WritableComparable b) {
+      return a.compareTo(b);
+    }
+  }
+
+  private static final Map<String, KeyGenerator> GENERATORS =
+      new LinkedHashMap<String, KeyGenerator>();
+
+  private static void add(KeyGenerator generator) {
+    GENERATORS.put(generator.keyClass.getSimpleName(), generator);
+  }
+
+  private static String nextString(Random r) {
+    return "term" + r.nextInt(RANGE);
+  }
+
+  static {
+    add(new KeyGenerator(PairOfInts.class) {
+      WritableComparable next(Random r) {
+        return new PairOfInts(r.nextInt(RANGE), r.nextInt(RANGE));
+      }
+    });
+    add(new KeyGenerator(PairOfIntFloat.class) {
+      WritableComparable next(Random r) {
+        return new PairOfIntFloat(r.nextInt(RANGE), r.nextFloat());
+      }
+    });
+    add(new KeyGenerator(PairOfIntLong.class) {
+      WritableComparable next(Random r) {
+        return new PairOfIntLong(r.nextInt(RANGE), r.nextLong());
+      }
+    });
+    add(new KeyGenerator(PairOfIntString.class) {
+      WritableComparable next(Random r) {
+        return new PairOfIntString(r.nextInt(RANGE), nextString(r));
+      }
+    });
+    add(new KeyGenerator(PairOfFloats.class) {
+      WritableComparable next(Random r) {
+        return new PairOfFloats(r.nextInt(RANGE), r.nextFloat());
+      }
+    });
+    add(new KeyGenerator(PairOfFloatInt.class) {
+      WritableComparable next(Random r) {
+        return new PairOfFloatInt(r.nextInt(RANGE), r.nextInt());
+      }
+    });
+    add(new KeyGenerator(PairOfFloatString.class) {
+      WritableComparable next(Random r) {
+        return new PairOfFloatString(r.nextInt(RANGE), nextString(r));
+      }
+    });
+    add(new KeyGenerator(PairOfLongs.class) {
+      WritableComparable next(Random r) {
+        return new PairOfLongs(r.nextInt(RANGE), r.nextLong());
+      }
+    });
+    add(new KeyGenerator(PairOfLongInt.class) {
+      WritableComparable next(Random r) {
+        return new PairOfLongInt(r.nextInt(RANGE), r.nextInt());
+      }
+    });
+    add(new KeyGenerator(PairOfLongFloat.class) {
+      WritableComparable next(Random r) {
+        return new PairOfLongFloat(r.nextInt(RANGE), r.nextFloat());
+      }
+    });
+    add(new KeyGenerator(PairOfLongString.class) {
+      WritableComparable next(Random r) {
+        return new PairOfLongString(r.nextInt(RANGE), nextString(r));
+      }
+    });
+    add(new KeyGenerator(PairOfStrings.class) {
+      WritableComparable next(Random r) {
+        return new PairOfStrings(nextString(r), nextString(r));
+      }
+    });
+    add(new KeyGenerator(PairOfStringInt.class) {
+      WritableComparable next(Random r) {
+        return new PairOfStringInt(nextString(r), r.nextInt());
+      }
+    });
+    add(new KeyGenerator(PairOfStringFloat.class) {
+      WritableComparable next(Random r) {
+        return new PairOfStringFloat(nextString(r), r.nextFloat());
+      }
+    });
+    add(new KeyGenerator(PairOfStringLong.class) {
+      WritableComparable next(Random r) {
+        return new PairOfStringLong(nextString(r), r.nextLong());
+      }
+    });
+    add(new KeyGenerator(TripleOfInts.class) {
+      WritableComparable next(Random r) {
+        return new TripleOfInts(r.nextInt(RANGE), r.nextInt(RANGE), r.nextInt());
+      }
+    });
+    add(new KeyGenerator(TripleOfIntsDouble.class) {
+      WritableComparable next(Random r) {
+        return new TripleOfIntsDouble(r.nextInt(RANGE), r.nextInt(RANGE), r.nextDouble());
+      }
+    });
+    add(new KeyGenerator(TripleOfIntsString.class) {
+      WritableComparable next(Random r) {
+        return new TripleOfIntsString(r.nextInt(RANGE), r.nextInt(RANGE), nextString(r));
+      }
+    });
+    add(new KeyGenerator(ArrayListOfIntsWritable.class) {
+      WritableComparable next(Random r) {
+        ArrayListOfIntsWritable list = new ArrayListOfIntsWritable();
+        for (int i = r.nextInt(MAX_LIST_LENGTH); i >= 0; i--) {
+          list.add(r.nextInt(RANGE));
+        }
+        return list;
+      }
+    });
+    add(new KeyGenerator(ArrayListOfLongsWritable.class) {
+      WritableComparable next(Random r) {
+        ArrayListOfLongsWritable list = new ArrayListOfLongsWritable();
+        for (int i = r.nextInt(MAX_LIST_LENGTH); i >= 0; i--) {
+          list.add(r.nextInt(RANGE));
+        }
+        return list;
+      }
+    });
+    add(new KeyGenerator(ArrayListOfFloatsWritable.class) {
+      WritableComparable next(Random r) {
+        ArrayListOfFloatsWritable list = new ArrayListOfFloatsWritable();
+        for (int i = r.nextInt(MAX_LIST_LENGTH); i >= 0; i--) {
+          list.add(r.nextInt(RANGE));
+        }
+        return list;
+      }
+    });
+    add(new KeyGenerator(ArrayListOfDoublesWritable.class) {
+      WritableComparable next(Random r) {
+        ArrayListOfDoublesWritable list = new ArrayListOfDoublesWritable();
+        for (int i = r.nextInt(MAX_LIST_LENGTH); i >= 0; i--) {
+          list.add(r.nextInt(RANGE));
+        }
+        return list;
+      }
+    });
+    add(new KeyGenerator(ArrayListOfShortsWritable.class) {
+      WritableComparable next(Random r) {
+        ArrayListOfShortsWritable list = new ArrayListOfShortsWritable();
+        for (int i = r.nextInt(MAX_LIST_LENGTH); i >= 0; i--) {
+          list.add((short) r.nextInt(RANGE));
+        }
+        return list;
+      }
+    });
+    add(new KeyGenerator(ArrayListWritableComparable.class) {
+      WritableComparable next(Random r) {
+        ArrayListWritableComparable<Text> list = new ArrayListWritableComparable<Text>();
+        for (int i = r.nextInt(MAX_LIST_LENGTH); i >= 0; i--) {
+          list.add(new Text(nextString(r)));
+        }
+        return list;
+      }
+    });
+    add(new KeyGenerator(TupleFactory.getInstance().tupleClass()) {
+      WritableComparable next(Random r) {
+        Tuple tuple = TupleFactory.getInstance().newTuple(2);
+        try {
+          tuple.set(0, nextString(r));
+          tuple.set(1, r.nextInt(10) == 0 ? "*" : nextString(r));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        return tuple;
+      }
+
+      Class<? extends RawComparator> getRawComparatorClass() {
+        return BigramRelativeFrequencyTuple.MyRawComparator.class;
+      }
+    });
+  }
+
+  /**
+   * Runs this benchmark.
+   */
+  public static void main(String[] args) throws IOException {
+    int numRecords = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NUM_RECORDS;
+    List<String> types = args.length > 1 ?
+        Arrays.asList(Arrays.copyOfRange(args, 1, args.length)) :
+        new ArrayList<String>(GENERATORS.keySet());
+
+    System.out.println(String.format("%-30s %15s %15s", "key", "optimized (s)", "deserialize (s)"));
+    for (String type : types) {
+      KeyGenerator generator = GENERATORS.get(type);
+      if (generator == null) {
+        System.err.println("Unknown key type: " + type + ", expected one of " + GENERATORS.keySet());
+        continue;
+      }
+
+      String inputPath = "random-keys-" + type + ".seq";
+      generate(generator, new Path(inputPath), numRecords);
+
+      double optimized = sort(generator, inputPath, true);
+      double deserialized = sort(generator, inputPath, false);
+      System.out.println(String.format("%-30s %15.3f %15.3f", type, optimized, deserialized));
+    }
+  }
+
+  private static void generate(KeyGenerator generator, Path path, int numRecords)
+      throws IOException {
+    JobConf conf = new JobConf();
+    FileSystem fs = FileSystem.get(conf);
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, path, generator.keyClass,
+        IntWritable.class);
+
+    Random r = new Random(0);
+    IntWritable value = new IntWritable();
+    for (int i = 0; i < numRecords; i++) {
+      value.set(i);
+      writer.append(generator.next(r), value);
+    }
+    writer.close();
+  }
+
+  private static double sort(KeyGenerator generator, String inputPath, boolean optimized)
+      throws IOException {
+    String outputPath = inputPath + ".sorted";
+
+    JobConf conf = new JobConf(HadoopSortRandomKeys.class);
+    conf.setJobName("SortRandomKeys:" + generator.keyClass.getSimpleName());
+
+    conf.setNumMapTasks(1);
+    conf.setNumReduceTasks(1);
+
+    FileInputFormat.setInputPaths(conf, new Path(inputPath));
+    FileOutputFormat.setOutputPath(conf, new Path(outputPath));
+    FileOutputFormat.setCompressOutput(conf, false);
+
+    conf.setInputFormat(SequenceFileInputFormat.class);
+    conf.setOutputKeyClass(generator.keyClass);
+    conf.setOutputValueClass(IntWritable.class);
+    conf.setOutputFormat(SequenceFileOutputFormat.class);
+
+    if (!optimized) {
+      conf.setOutputKeyComparatorClass(DeserializingComparator.class);
+    } else if (generator.getRawComparatorClass() != null) {
+      conf.setOutputKeyComparatorClass(generator.getRawComparatorClass());
+    }
+
+    conf.setMapperClass(IdentityMapper.class);
+    conf.setReducerClass(IdentityReducer.class);
+
+    // Delete the output directory if it exists already
+    Path outputDir = new Path(outputPath);
+    FileSystem.get(conf).delete(outputDir, true);
+
+    long startTime = System.currentTimeMillis();
+    JobClient.runJob(conf);
+    return (System.currentTimeMillis() - startTime) / 1000.0;
+  }
+}
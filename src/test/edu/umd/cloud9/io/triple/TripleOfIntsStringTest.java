@@ -28,8 +28,11 @@ import java.io.IOException;
 
 import junit.framework.JUnit4TestAdapter;
 
+import org.apache.hadoop.io.WritableComparator;
 import org.junit.Test;
 
+import edu.umd.cloud9.debug.WritableComparatorTestHarness;
+
 public class TripleOfIntsStringTest {
 
   @Test
@@ -79,6 +82,25 @@ public class TripleOfIntsStringTest {
     assertTrue(threeInts2.compareTo(threeInts4) > 0);
   }
 
+  @Test
+  public void testComparison2() throws IOException {
+    WritableComparator comparator = new TripleOfIntsString.Comparator();
+
+    TripleOfIntsString threeInts1 = new TripleOfIntsString(1, 2, "good");
+    TripleOfIntsString threeInts2 = new TripleOfIntsString(1, 2, "good");
+    TripleOfIntsString threeInts3 = new TripleOfIntsString(1, 2, "buddy");
+    TripleOfIntsString threeInts4 = new TripleOfIntsString(1, 1, "good");
+    TripleOfIntsString threeInts5 = new TripleOfIntsString(0, 2, "good");
+    TripleOfIntsString threeInts6 = new TripleOfIntsString(1, 2, "goodness");
+
+    assertTrue(WritableComparatorTestHarness.compare(comparator, threeInts1, threeInts2) == 0);
+    assertTrue(WritableComparatorTestHarness.compare(comparator, threeInts1, threeInts3) > 0);
+    assertTrue(WritableComparatorTestHarness.compare(comparator, threeInts1, threeInts4) > 0);
+    assertTrue(WritableComparatorTestHarness.compare(comparator, threeInts1, threeInts5) > 0);
+    assertTrue(WritableComparatorTestHarness.compare(comparator, threeInts1, threeInts6) < 0);
+    assertTrue(WritableComparatorTestHarness.compare(comparator, threeInts3, threeInts6) < 0);
+  }
+
   public static junit.framework.Test suite() {
     return new JUnit4TestAdapter(TripleOfIntsStringTest.class);
   }
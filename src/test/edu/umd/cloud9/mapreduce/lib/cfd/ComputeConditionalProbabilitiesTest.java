@@ -0,0 +1,300 @@
+/*
+ * Cloud9: A Hadoop toolkit for working with big data
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.mapreduce.lib.cfd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.VLongWritable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import edu.umd.cloud9.io.pair.PairOfInts;
+import edu.umd.cloud9.mapreduce.lib.cfd.ComputeConditionalProbabilities.Counts;
+import edu.umd.cloud9.mapreduce.lib.cfd.ComputeConditionalProbabilities.ProbabilityReducer;
+
+public class ComputeConditionalProbabilitiesTest {
+  private static final int MARGINAL = ComputeConditionalProbabilities.MARGINAL;
+
+  // Mapper whose only input is what the test emits.
+  private static class EventMapper extends ConditionalEventMapper<Object, Object> {}
+
+  // What a mapper or reducer wrote, in order.
+  private static class Output {
+    final List<PairOfInts> keys = new ArrayList<PairOfInts>();
+    final List<Number> values = new ArrayList<Number>();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Mapper<Object, Object, PairOfInts, VLongWritable>.Context mapContext(
+      Configuration conf, final Output output) throws Exception {
+    Mapper<Object, Object, PairOfInts, VLongWritable>.Context context = mock(Mapper.Context.class);
+    when(context.getConfiguration()).thenReturn(conf);
+    doAnswer(new Answer<Object>() {
+      public Object answer(InvocationOnMock invocation) {
+        // The mapper reuses its key and value.
+        output.keys.add(((PairOfInts) invocation.getArguments()[0]).clone());
+        output.values.add(((VLongWritable) invocation.getArguments()[1]).get());
+        return null;
+      }
+    }).when(context).write(any(PairOfInts.class), any(VLongWritable.class));
+    return context;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Reducer<PairOfInts, VLongWritable, PairOfInts, FloatWritable>.Context reduceContext(
+      Configuration conf, final Counters counters, final Output output) throws Exception {
+    Reducer<PairOfInts, VLongWritable, PairOfInts, FloatWritable>.Context context =
+        mock(Reducer.Context.class);
+    when(context.getConfiguration()).thenReturn(conf);
+    when(context.getCounter(any(Enum.class))).thenAnswer(new Answer<Counter>() {
+      public Counter answer(InvocationOnMock invocation) {
+        return counters.findCounter((Enum<?>) invocation.getArguments()[0]);
+      }
+    });
+    doAnswer(new Answer<Object>() {
+      public Object answer(InvocationOnMock invocation) {
+        output.keys.add(((PairOfInts) invocation.getArguments()[0]).clone());
+        output.values.add(((FloatWritable) invocation.getArguments()[1]).get());
+        return null;
+      }
+    }).when(context).write(any(PairOfInts.class), any(FloatWritable.class));
+    return context;
+  }
+
+  // Sorts and groups the output of the mappers, as the shuffle does.
+  private static TreeMap<PairOfInts, List<VLongWritable>> shuffle(Output output) {
+    TreeMap<PairOfInts, List<VLongWritable>> groups = new TreeMap<PairOfInts, List<VLongWritable>>();
+    for (int i = 0; i < output.keys.size(); i++) {
+      if (!groups.containsKey(output.keys.get(i))) {
+        groups.put(output.keys.get(i), new ArrayList<VLongWritable>());
+      }
+      groups.get(output.keys.get(i)).add(new VLongWritable(output.values.get(i).longValue()));
+    }
+    return groups;
+  }
+
+  private static Output reduce(TreeMap<PairOfInts, List<VLongWritable>> groups,
+      boolean logProbabilities, Counters counters) throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(ComputeConditionalProbabilities.LOG_PROBABILITIES_PROPERTY, logProbabilities);
+    Output output = new Output();
+    Reducer<PairOfInts, VLongWritable, PairOfInts, FloatWritable>.Context context =
+        reduceContext(conf, counters, output);
+
+    ProbabilityReducer reducer = new ProbabilityReducer();
+    reducer.setup(context);
+    for (Map.Entry<PairOfInts, List<VLongWritable>> group : groups.entrySet()) {
+      reducer.reduce(group.getKey(), group.getValue(), context);
+    }
+    reducer.cleanup(context);
+    return output;
+  }
+
+  @Test
+  public void testProbabilities() throws Exception {
+    Random r = new Random(0);
+    Map<PairOfInts, Long> counts = new HashMap<PairOfInts, Long>();
+    Map<Integer, Long> marginals = new HashMap<Integer, Long>();
+
+    Configuration conf = new Configuration();
+    // Flushes many times, so that counts and marginals arrive in pieces.
+    conf.setInt(ConditionalEventMapper.MAX_ENTRIES_PROPERTY, 10);
+    Output mapOutput = new Output();
+    Mapper<Object, Object, PairOfInts, VLongWritable>.Context mapContext =
+        mapContext(conf, mapOutput);
+
+    EventMapper mapper = new EventMapper();
+    mapper.setup(mapContext);
+    for (int i = 0; i < 2000; i++) {
+      int event = r.nextInt(30);
+      int condition = r.nextInt(20);
+      int count = 1 + r.nextInt(5);
+      mapper.emit(event, condition, count);
+
+      PairOfInts pair = new PairOfInts(condition, event);
+      counts.put(pair, (counts.containsKey(pair) ? counts.get(pair) : 0) + count);
+      marginals.put(condition, (marginals.containsKey(condition) ? marginals.get(condition) : 0)
+          + count);
+    }
+    mapper.cleanup(mapContext);
+
+    TreeMap<PairOfInts, List<VLongWritable>> groups = shuffle(mapOutput);
+
+    // The marginal of each condition sorts before its events.
+    int condition = -1;
+    for (PairOfInts key : groups.keySet()) {
+      if (key.getLeftElement() != condition) {
+        assertEquals(MARGINAL, key.getRightElement());
+        condition = key.getLeftElement();
+      }
+    }
+
+    for (boolean logProbabilities : new boolean[] { false, true }) {
+      Counters counters = new Counters();
+      Output output = reduce(groups, logProbabilities, counters);
+
+      assertEquals(counts.size(), output.keys.size());
+      for (int i = 0; i < output.keys.size(); i++) {
+        PairOfInts key = output.keys.get(i);
+        double p = (double) counts.get(key) / marginals.get(key.getLeftElement());
+        assertEquals(logProbabilities ? Math.log(p) : p, output.values.get(i).doubleValue(), 1e-5);
+      }
+
+      assertEquals(marginals.size(), counters.findCounter(Counts.CONDITIONS).getValue());
+      assertEquals(counts.size(), counters.findCounter(Counts.EVENTS).getValue());
+      assertEquals(0, counters.findCounter(Counts.MISSING_MARGINALS).getValue());
+      assertEquals(0, counters.findCounter(Counts.UNNORMALIZED_CONDITIONS).getValue());
+    }
+  }
+
+  @Test
+  public void testMarginalSortsFirst() throws Exception {
+    // As serialized, for the raw comparator the shuffle uses.
+    DataOutputBuffer marginal = new DataOutputBuffer();
+    new PairOfInts(5, MARGINAL).write(marginal);
+    DataOutputBuffer event = new DataOutputBuffer();
+    new PairOfInts(5, 0).write(event);
+
+    assertTrue(new PairOfInts.Comparator().compare(marginal.getData(), 0, marginal.getLength(),
+        event.getData(), 0, event.getLength()) < 0);
+    assertTrue(new PairOfInts(5, MARGINAL).compareTo(new PairOfInts(5, 0)) < 0);
+    assertTrue(new PairOfInts(4, Integer.MAX_VALUE).compareTo(new PairOfInts(5, MARGINAL)) < 0);
+  }
+
+  @Test
+  public void testFlushOnMaxEntries() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(ConditionalEventMapper.MAX_ENTRIES_PROPERTY, 2);
+    Output output = new Output();
+    Mapper<Object, Object, PairOfInts, VLongWritable>.Context context = mapContext(conf, output);
+
+    EventMapper mapper = new EventMapper();
+    mapper.setup(context);
+    mapper.emit(0, 7, 1);
+    mapper.emit(1, 7, 2);
+    mapper.emit(1, 7, 1);
+    assertEquals(0, output.keys.size());
+
+    // The third distinct pair goes over the maximum.
+    mapper.emit(2, 7, 4);
+    assertEquals(4, output.keys.size());
+    Map<PairOfInts, Long> flushed = new HashMap<PairOfInts, Long>();
+    for (int i = 0; i < output.keys.size(); i++) {
+      flushed.put(output.keys.get(i), output.values.get(i).longValue());
+    }
+    assertEquals(Long.valueOf(1), flushed.get(new PairOfInts(7, 0)));
+    assertEquals(Long.valueOf(3), flushed.get(new PairOfInts(7, 1)));
+    assertEquals(Long.valueOf(4), flushed.get(new PairOfInts(7, 2)));
+    assertEquals(Long.valueOf(8), flushed.get(new PairOfInts(7, MARGINAL)));
+
+    // Starts over after the flush.
+    mapper.emit(0, 7, 5);
+    mapper.cleanup(context);
+    assertEquals(6, output.keys.size());
+    assertEquals(new PairOfInts(7, 0), output.keys.get(4));
+    assertEquals(5L, output.values.get(4).longValue());
+    assertEquals(new PairOfInts(7, MARGINAL), output.keys.get(5));
+    assertEquals(5L, output.values.get(5).longValue());
+  }
+
+  @Test
+  public void testLargeCounts() throws Exception {
+    Output output = new Output();
+    Mapper<Object, Object, PairOfInts, VLongWritable>.Context context =
+        mapContext(new Configuration(), output);
+
+    EventMapper mapper = new EventMapper();
+    mapper.setup(context);
+    long[] counts = { Integer.MAX_VALUE / 2, Integer.MAX_VALUE / 2 + 10, Integer.MAX_VALUE, 3 };
+    long total = 0;
+    for (long count : counts) {
+      mapper.emit(1, 2, (int) count);
+      total += count;
+    }
+    mapper.cleanup(context);
+
+    long sum = 0;
+    long marginal = 0;
+    for (int i = 0; i < output.keys.size(); i++) {
+      long value = output.values.get(i).longValue();
+      assertTrue(value > 0);
+      if (output.keys.get(i).getRightElement() == MARGINAL) {
+        marginal += value;
+      } else {
+        assertEquals(new PairOfInts(2, 1), output.keys.get(i));
+        sum += value;
+      }
+    }
+    assertEquals(total, sum);
+    assertEquals(total, marginal);
+  }
+
+  @Test
+  public void testMissingMarginals() throws Exception {
+    TreeMap<PairOfInts, List<VLongWritable>> groups = new TreeMap<PairOfInts, List<VLongWritable>>();
+    groups.put(new PairOfInts(1, MARGINAL),
+        Arrays.asList(new VLongWritable(4), new VLongWritable(6)));
+    groups.put(new PairOfInts(1, 0), Arrays.asList(new VLongWritable(3)));
+    groups.put(new PairOfInts(1, 1), Arrays.asList(new VLongWritable(7)));
+    // No marginal for condition 2.
+    groups.put(new PairOfInts(2, 0), Arrays.asList(new VLongWritable(5)));
+    // Events of condition 3 only add up to half of its marginal.
+    groups.put(new PairOfInts(3, MARGINAL), Arrays.asList(new VLongWritable(2)));
+    groups.put(new PairOfInts(3, 4), Arrays.asList(new VLongWritable(1)));
+
+    Counters counters = new Counters();
+    Output output = reduce(groups, false, counters);
+
+    assertEquals(Arrays.asList(new PairOfInts(1, 0), new PairOfInts(1, 1), new PairOfInts(3, 4)),
+        output.keys);
+    assertEquals(0.3, output.values.get(0).doubleValue(), 1e-6);
+    assertEquals(0.7, output.values.get(1).doubleValue(), 1e-6);
+    assertEquals(0.5, output.values.get(2).doubleValue(), 1e-6);
+
+    assertEquals(2, counters.findCounter(Counts.CONDITIONS).getValue());
+    assertEquals(3, counters.findCounter(Counts.EVENTS).getValue());
+    assertEquals(1, counters.findCounter(Counts.MISSING_MARGINALS).getValue());
+    assertEquals(1, counters.findCounter(Counts.UNNORMALIZED_CONDITIONS).getValue());
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ComputeConditionalProbabilitiesTest.class);
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Cloud9: A Hadoop toolkit for working with big data
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.mapreduce.lib.combine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import edu.umd.cloud9.io.map.HMapIIW;
+import edu.umd.cloud9.mapreduce.lib.combine.InMapperCombiner.FlushPolicy;
+import edu.umd.cloud9.util.map.HMapII;
+import edu.umd.cloud9.util.map.HMapIV;
+import edu.umd.cloud9.util.map.MapII;
+
+public class InMapperCombinerTest {
+
+  private static class Sums implements Long2IntSumCombiner.Emitter {
+    final HMapII sums = new HMapII();
+    int emitted = 0;
+
+    public void emit(long key, int value) {
+      sums.increment((int) key, value);
+      emitted++;
+    }
+  }
+
+  @Test
+  public void testSumUnbounded() throws Exception {
+    Sums sums = new Sums();
+    Long2IntSumCombiner combiner =
+        new Long2IntSumCombiner(Long.MAX_VALUE, FlushPolicy.ALL, 0.5f, sums);
+
+    assertFalse(combiner.add(1, 1));
+    assertTrue(combiner.add(1, 2));
+    assertFalse(combiner.add(2, 5));
+    assertTrue(combiner.add(1, 1));
+    assertEquals(2, combiner.size());
+    assertEquals(0, sums.emitted);
+
+    combiner.flushAll();
+    assertEquals(0, combiner.size());
+    assertEquals(2, sums.emitted);
+    assertEquals(4, sums.sums.get(1));
+    assertEquals(5, sums.sums.get(2));
+    assertEquals(2.0f, combiner.getCombineRatio(), 10e-6);
+    assertEquals(0, combiner.getFlushCount());
+  }
+
+  @Test
+  public void testSumBounded() throws Exception {
+    for (FlushPolicy policy : FlushPolicy.values()) {
+      Random r = new Random(0);
+      HMapII expected = new HMapII();
+      Sums sums = new Sums();
+
+      // Room for roughly 100 entries.
+      Long2IntSumCombiner combiner = new Long2IntSumCombiner(2000, policy, 0.5f, sums);
+
+      for (int i = 0; i < 100000; i++) {
+        int key = (int) Math.abs(r.nextGaussian() * 500);
+        int value = 1 + r.nextInt(3);
+        expected.increment(key, value);
+        combiner.add(key, value);
+        assertTrue(combiner.getMemoryUsage() <= 2000);
+      }
+      combiner.flushAll();
+
+      assertTrue(combiner.getFlushCount() > 0);
+      assertTrue(combiner.getCombineRatio() > 1.0f);
+      assertEquals(expected.size(), sums.sums.size());
+      for (MapII.Entry e : expected.entrySet()) {
+        assertEquals(e.getValue(), sums.sums.get(e.getKey()));
+      }
+    }
+  }
+
+  @Test
+  public void testFlushOldest() throws Exception {
+    Sums sums = new Sums();
+    // Room for four entries; the fifth triggers a flush of the two oldest.
+    Long2IntSumCombiner combiner = new Long2IntSumCombiner(80, FlushPolicy.OLDEST, 0.5f, sums);
+
+    combiner.add(1, 1);
+    combiner.add(2, 1);
+    combiner.add(3, 1);
+    combiner.add(4, 1);
+    combiner.add(1, 1);
+    assertEquals(0, sums.emitted);
+
+    combiner.add(5, 1);
+    assertEquals(3, combiner.size());
+    assertEquals(2, sums.emitted);
+    assertEquals(2, sums.sums.get(1));
+    assertEquals(1, sums.sums.get(2));
+
+    // Remaining entries are still found after compaction.
+    assertTrue(combiner.add(3, 1));
+    assertTrue(combiner.add(4, 1));
+    assertTrue(combiner.add(5, 1));
+    assertFalse(combiner.add(1, 1));
+  }
+
+  @Test
+  public void testFlushHeaviest() throws Exception {
+    Sums sums = new Sums();
+    Long2IntSumCombiner combiner = new Long2IntSumCombiner(80, FlushPolicy.HEAVIEST, 0.5f, sums);
+
+    combiner.add(1, 1);
+    combiner.add(2, 10);
+    combiner.add(3, 1);
+    combiner.add(4, 7);
+    combiner.add(5, 1);
+
+    assertEquals(3, combiner.size());
+    assertEquals(2, sums.emitted);
+    assertEquals(10, sums.sums.get(2));
+    assertEquals(7, sums.sums.get(4));
+    assertTrue(combiner.add(1, 1));
+    assertTrue(combiner.add(3, 1));
+    assertTrue(combiner.add(5, 1));
+  }
+
+  @Test
+  public void testPack() {
+    long key = Long2IntSumCombiner.pack(-5, 7);
+    assertEquals(-5, Long2IntSumCombiner.getLeft(key));
+    assertEquals(7, Long2IntSumCombiner.getRight(key));
+
+    key = Long2IntSumCombiner.pack(3, -1);
+    assertEquals(3, Long2IntSumCombiner.getLeft(key));
+    assertEquals(-1, Long2IntSumCombiner.getRight(key));
+  }
+
+  @Test
+  public void testLogSum() throws Exception {
+    final HMapII emitted = new HMapII();
+    final float[] values = new float[10];
+    Long2FloatCombiner combiner = new Long2FloatCombiner(Long.MAX_VALUE, FlushPolicy.ALL, 0.5f,
+        Long2FloatCombiner.Operator.LOG_SUM, new Long2FloatCombiner.Emitter() {
+          public void emit(long key, float value) {
+            emitted.increment((int) key);
+            values[(int) key] = value;
+          }
+        });
+
+    combiner.add(1, (float) Math.log(0.25));
+    combiner.add(1, (float) Math.log(0.5));
+    combiner.add(2, Float.NEGATIVE_INFINITY);
+    combiner.add(2, (float) Math.log(0.1));
+    combiner.flushAll();
+
+    assertEquals(1, emitted.get(1));
+    assertEquals(1, emitted.get(2));
+    assertEquals(0.75, Math.exp(values[1]), 10e-6);
+    assertEquals(0.1, Math.exp(values[2]), 10e-6);
+  }
+
+  @Test
+  public void testStripes() throws Exception {
+    for (FlushPolicy policy : FlushPolicy.values()) {
+      final HMapIV<HMapII> result = new HMapIV<HMapII>();
+      Int2StripeCombiner combiner = new Int2StripeCombiner(5000, policy, 0.5f,
+          new Int2StripeCombiner.Emitter() {
+            public void emit(int key, HMapIIW stripe) {
+              if (!result.containsKey(key)) {
+                result.put(key, new HMapII());
+              }
+              result.get(key).plus(stripe);
+            }
+          });
+
+      Random r = new Random(0);
+      HMapIV<HMapII> expected = new HMapIV<HMapII>();
+      for (int i = 0; i < 10000; i++) {
+        int key = r.nextInt(50);
+        for (int j = 0; j < 4; j++) {
+          int neighbor = r.nextInt(50);
+          if (!expected.containsKey(key)) {
+            expected.put(key, new HMapII());
+          }
+          expected.get(key).increment(neighbor);
+          combiner.increment(key, neighbor);
+        }
+        combiner.checkMemory();
+        assertTrue(combiner.getMemoryUsage() <= 5000);
+      }
+      combiner.flushAll();
+
+      assertTrue(combiner.getFlushCount() > 0);
+      assertEquals(expected.size(), result.size());
+      for (int key = 0; key < 50; key++) {
+        HMapII e = expected.get(key);
+        HMapII a = result.get(key);
+        assertEquals(e.size(), a.size());
+        for (MapII.Entry entry : e.entrySet()) {
+          assertEquals(entry.getValue(), a.get(entry.getKey()));
+        }
+      }
+    }
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(InMapperCombinerTest.class);
+  }
+}
@@ -0,0 +1,181 @@
+package edu.umd.cloud9.util.benchmark;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+import org.apache.hadoop.io.Text;
+
+import edu.umd.cloud9.io.map.HMapSIW;
+import edu.umd.cloud9.util.array.ArrayListOfInts;
+import edu.umd.cloud9.util.text.TermIdDictionary;
+import edu.umd.cloud9.util.text.WhitespaceTokenizer;
+
+/**
+ * Compares the per-record work done by the cooccur, bigram and ir mappers before and after
+ * switching from {@code String.split} and {@code StringTokenizer} to {@link WhitespaceTokenizer}
+ * and {@link TermIdDictionary}. Reports records/sec and bytes allocated per record. Reads lines
+ * from the file given as the first argument, or generates Zipfian text if no argument is given.
+ */
+public class BenchmarkTokenization {
+  private static final int WINDOW = 2;
+  private static final int TRIALS = 5;
+
+  public static void main(String[] args) throws Exception {
+    List<Text> lines = args.length > 0 ? readLines(args[0]) : generateLines(200000, 50000, 20);
+    long bytes = 0;
+    for (Text line : lines) {
+      bytes += line.getLength();
+    }
+    System.out.println("Records: " + lines.size() + ", bytes: " + bytes);
+
+    for (int t = 0; t < TRIALS; t++) {
+      System.out.println("Trial " + t);
+      run("stripes, String.split", lines, new Task() {
+        private final HMapSIW map = new HMapSIW();
+
+        public long process(Text line) {
+          String[] terms = line.toString().split("\\s+");
+          long sum = 0;
+          for (int i = 0; i < terms.length; i++) {
+            if (terms[i].length() == 0)
+              continue;
+            map.clear();
+            for (int j = i - WINDOW; j < i + WINDOW + 1; j++) {
+              if (j == i || j < 0)
+                continue;
+              if (j >= terms.length)
+                break;
+              if (terms[j].length() == 0)
+                continue;
+              map.increment(terms[j]);
+            }
+            sum += map.size();
+          }
+          return sum;
+        }
+      });
+
+      run("stripes, WhitespaceTokenizer", lines, new Task() {
+        private final HMapSIW map = new HMapSIW();
+        private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+        private final TermIdDictionary dictionary = new TermIdDictionary();
+        private final ArrayListOfInts terms = new ArrayListOfInts();
+
+        public long process(Text line) {
+          int n = tokenizer.tokenize(line, dictionary, terms);
+          long sum = 0;
+          for (int i = 0; i < n; i++) {
+            map.clear();
+            for (int j = Math.max(0, i - WINDOW); j < Math.min(n, i + WINDOW + 1); j++) {
+              if (j == i)
+                continue;
+              map.increment(dictionary.getTerm(terms.get(j)));
+            }
+            sum += map.size();
+          }
+          return sum;
+        }
+      });
+
+      run("bigram, StringTokenizer", lines, new Task() {
+        public long process(Text line) {
+          StringTokenizer itr = new StringTokenizer(line.toString());
+          String prev = null;
+          long sum = 0;
+          while (itr.hasMoreTokens()) {
+            String cur = itr.nextToken();
+            if (prev != null) {
+              if (cur.length() > 100) {
+                cur = cur.substring(0, 100);
+              }
+              sum += prev.hashCode() ^ cur.hashCode();
+            }
+            prev = cur;
+          }
+          return sum;
+        }
+      });
+
+      run("bigram, WhitespaceTokenizer", lines, new Task() {
+        private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer(100);
+        private final TermIdDictionary dictionary = new TermIdDictionary();
+        private final ArrayListOfInts terms = new ArrayListOfInts();
+
+        public long process(Text line) {
+          int n = tokenizer.tokenize(line, dictionary, terms);
+          long sum = 0;
+          for (int i = 1; i < n; i++) {
+            sum += dictionary.getTerm(terms.get(i - 1)).hashCode()
+                ^ dictionary.getTerm(terms.get(i)).hashCode();
+          }
+          return sum;
+        }
+      });
+    }
+  }
+
+  private interface Task {
+    long process(Text line);
+  }
+
+  private static void run(String name, List<Text> lines, Task task) {
+    long allocated = getAllocatedBytes();
+    long startTime = System.nanoTime();
+    long checksum = 0;
+    for (Text line : lines) {
+      checksum += task.process(line);
+    }
+    long duration = System.nanoTime() - startTime;
+    allocated = getAllocatedBytes() - allocated;
+
+    System.out.println(String.format(" %-30s %10.0f records/sec, %8.1f bytes allocated/record (%d)",
+        name, lines.size() / (duration / 1e9), (float) allocated / lines.size(), checksum));
+  }
+
+  private static long getAllocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+          Thread.currentThread().getId());
+    }
+    return 0;
+  }
+
+  private static List<Text> readLines(String path) throws Exception {
+    List<Text> lines = new ArrayList<Text>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path),
+        "UTF-8"));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      lines.add(new Text(line));
+    }
+    reader.close();
+    return lines;
+  }
+
+  private static List<Text> generateLines(int numLines, int vocabSize, int avgLength) {
+    Random r = new Random(0);
+    List<Text> lines = new ArrayList<Text>(numLines);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < numLines; i++) {
+      sb.setLength(0);
+      int len = 1 + r.nextInt(2 * avgLength);
+      for (int j = 0; j < len; j++) {
+        // Approximately Zipfian term ranks.
+        int rank = (int) Math.pow(vocabSize, r.nextDouble());
+        if (j > 0) {
+          sb.append(' ');
+        }
+        sb.append("w").append(Integer.toString(rank, 36));
+      }
+      lines.add(new Text(sb.toString()));
+    }
+    return lines;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Cloud9: A Hadoop toolkit for working with big data
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.util.text;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+public class TermIdDictionaryTest {
+
+  @Test
+  public void testBasic() {
+    TermIdDictionary dictionary = new TermIdDictionary();
+
+    assertEquals(0, dictionary.addOrGet("hello"));
+    assertEquals(1, dictionary.addOrGet("world"));
+    assertEquals(0, dictionary.addOrGet(new Text("hello")));
+    assertEquals(2, dictionary.addOrGet("été"));
+    assertEquals(3, dictionary.addOrGet(""));
+    assertEquals(4, dictionary.size());
+
+    assertEquals(1, dictionary.get(new Text("world")));
+    assertEquals(-1, dictionary.get(new Text("worlds")));
+    assertEquals(3, dictionary.get(new Text("")));
+
+    assertEquals("hello", dictionary.getTerm(0));
+    assertEquals("été", dictionary.getTerm(2));
+    assertEquals(5, dictionary.getTermLength(2));
+    assertSame(dictionary.getTerm(1), dictionary.getTerm(1));
+
+    Text text = new Text();
+    dictionary.getTerm(1, text);
+    assertEquals("world", text.toString());
+  }
+
+  @Test
+  public void testGrow() {
+    TermIdDictionary dictionary = new TermIdDictionary(4);
+    int n = 100000;
+    for (int i = 0; i < n; i++) {
+      assertEquals(i, dictionary.addOrGet("term" + i));
+    }
+    assertEquals(n, dictionary.size());
+
+    for (int i = n - 1; i >= 0; i--) {
+      assertEquals(i, dictionary.addOrGet("term" + i));
+      assertEquals("term" + i, dictionary.getTerm(i));
+    }
+    assertEquals(n, dictionary.size());
+  }
+
+  @Test
+  public void testClear() {
+    TermIdDictionary dictionary = new TermIdDictionary();
+    dictionary.addOrGet("a");
+    dictionary.addOrGet("b");
+    dictionary.addOrGet("c");
+
+    assertFalse(dictionary.clearIfLargerThan(3));
+    assertEquals(3, dictionary.size());
+    assertTrue(dictionary.clearIfLargerThan(2));
+    assertEquals(0, dictionary.size());
+    assertEquals(-1, dictionary.get(new Text("a")));
+
+    assertEquals(0, dictionary.addOrGet("c"));
+    assertEquals("c", dictionary.getTerm(0));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testIllegalId() {
+    TermIdDictionary dictionary = new TermIdDictionary();
+    dictionary.addOrGet("a");
+    dictionary.getTerm(1);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TermIdDictionaryTest.class);
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Cloud9: A Hadoop toolkit for working with big data
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.util.text;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import edu.umd.cloud9.util.array.ArrayListOfInts;
+
+public class WhitespaceTokenizerTest {
+
+  @Test
+  public void testBasic() {
+    WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    tokenizer.reset(new Text("  the quick\tbrown \r\n fox\u000B\fjumps "));
+
+    String[] expected = new String[] { "the", "quick", "brown", "fox", "jumps" };
+    for (String s : expected) {
+      assertTrue(tokenizer.next());
+      assertEquals(s, tokenizer.getToken());
+    }
+    assertFalse(tokenizer.next());
+    assertFalse(tokenizer.next());
+  }
+
+  @Test
+  public void testMatchesSplit() {
+    String line = "a  bb\tccc  été 中文 d";
+    String[] terms = line.split("\\s+");
+
+    WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    ArrayListOfInts spans = new ArrayListOfInts();
+    Text text = new Text(line);
+    int n = tokenizer.tokenize(text, spans);
+
+    assertEquals(terms.length, n);
+    assertEquals(2 * n, spans.size());
+    for (int i = 0; i < n; i++) {
+      Text t = new Text();
+      t.set(text.getBytes(), spans.get(2 * i), spans.get(2 * i + 1));
+      assertEquals(terms[i], t.toString());
+    }
+  }
+
+  @Test
+  public void testEmpty() {
+    WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    tokenizer.reset(new Text(""));
+    assertFalse(tokenizer.next());
+
+    tokenizer.reset(new Text(" \t \n"));
+    assertFalse(tokenizer.next());
+  }
+
+  @Test
+  public void testReusedText() {
+    // The backing array of a Text may be longer than its contents.
+    Text text = new Text("aaaaaaaaaa bbbbbbbbbb");
+    text.set("x y");
+
+    WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    ArrayListOfInts spans = new ArrayListOfInts();
+    assertEquals(2, tokenizer.tokenize(text, spans));
+  }
+
+  @Test
+  public void testTruncate() {
+    WhitespaceTokenizer tokenizer = new WhitespaceTokenizer(3);
+    tokenizer.reset(new Text("abcdef ab éééé 中文中文"));
+
+    assertTrue(tokenizer.next());
+    assertEquals("abc", tokenizer.getToken());
+    assertTrue(tokenizer.next());
+    assertEquals("ab", tokenizer.getToken());
+    assertTrue(tokenizer.next());
+    assertEquals("ééé", tokenizer.getToken());
+    assertEquals(6, tokenizer.getLength());
+    assertTrue(tokenizer.next());
+    assertEquals("中文中", tokenizer.getToken());
+    assertEquals(9, tokenizer.getLength());
+    assertFalse(tokenizer.next());
+  }
+
+  @Test
+  public void testTruncateSurrogatePair() {
+    // U+1D11E takes two UTF-16 code units and four UTF-8 bytes.
+    String clef = new String(Character.toChars(0x1D11E));
+    WhitespaceTokenizer tokenizer = new WhitespaceTokenizer(2);
+    tokenizer.reset(new Text("a" + clef + " " + clef + "a"));
+
+    assertTrue(tokenizer.next());
+    assertEquals("a", tokenizer.getToken());
+    assertTrue(tokenizer.next());
+    assertEquals(clef, tokenizer.getToken());
+    assertFalse(tokenizer.next());
+  }
+
+  @Test
+  public void testTermIds() {
+    WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    TermIdDictionary dictionary = new TermIdDictionary();
+    ArrayListOfInts ids = new ArrayListOfInts();
+
+    assertEquals(5, tokenizer.tokenize(new Text("a b a c b"), dictionary, ids));
+    assertEquals(3, dictionary.size());
+    assertEquals(0, ids.get(0));
+    assertEquals(1, ids.get(1));
+    assertEquals(0, ids.get(2));
+    assertEquals(2, ids.get(3));
+    assertEquals(1, ids.get(4));
+
+    assertEquals(2, tokenizer.tokenize(new Text("c d"), dictionary, ids));
+    assertEquals(2, ids.get(0));
+    assertEquals(3, ids.get(1));
+    assertEquals("d", dictionary.getTerm(3));
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(WhitespaceTokenizerTest.class);
+  }
+}
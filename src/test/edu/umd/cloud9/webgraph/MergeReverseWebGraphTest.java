@@ -0,0 +1,102 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import edu.umd.cloud9.webgraph.data.AnchorText;
+import edu.umd.cloud9.webgraph.data.AnchorTextConstants;
+import edu.umd.cloud9.webgraph.data.AnchorTextMerger;
+
+public class MergeReverseWebGraphTest {
+
+	private static final byte EXTERNAL = AnchorTextConstants.Type.EXTERNAL_IN_LINK.val;
+	private static final byte INTERNAL = AnchorTextConstants.Type.INTERNAL_IN_LINK.val;
+	private static final String URL = "http://www.umd.edu/";
+
+	// a record of a reverse web graph, as BuildReverseWebGraph writes it
+	private static List<AnchorText> record(List<AnchorText> links) {
+		List<AnchorText> list = new ArrayList<AnchorText>();
+		AnchorTextMerger merger = new AnchorTextMerger(list, 0);
+		merger.clear();
+		int indegree = 0;
+		for(AnchorText data : links) {
+			indegree += data.getSize();
+			merger.add(data);
+		}
+		merger.finish();
+
+		list.add(new AnchorText(AnchorTextConstants.Type.IN_DEGREE.val, null, indegree));
+		list.add(new AnchorText(AnchorTextConstants.Type.URL_FIELD.val, URL));
+		Collections.sort(list);
+		return list;
+	}
+
+	@Test
+	public void testMergeDisjointLinks() {
+		Random r = new Random(0);
+		List<AnchorText> links = new ArrayList<AnchorText>();
+		List<AnchorText> oldLinks = new ArrayList<AnchorText>();
+		List<AnchorText> newLinks = new ArrayList<AnchorText>();
+		for(int source = 0; source < 3000; source++) {
+			AnchorText data = new AnchorText(r.nextBoolean() ? EXTERNAL : INTERNAL,
+					"text " + r.nextInt(200), source);
+			links.add(data);
+			(source % 3 == 0 ? newLinks : oldLinks).add(data);
+		}
+
+		List<AnchorText> list = new ArrayList<AnchorText>();
+		AnchorTextMerger merger = new AnchorTextMerger(list, 0);
+		merger.clear();
+		int indegree = MergeReverseWebGraph.merge(record(oldLinks), merger);
+		indegree += MergeReverseWebGraph.merge(record(newLinks), merger);
+		MergeReverseWebGraph.finish(merger, list, indegree);
+
+		// the same record as if all the links had been there from the start
+		assertEquals(record(links), list);
+		assertEquals(3000, indegree);
+	}
+
+	@Test
+	public void testMergeWithoutLinks() {
+		List<AnchorText> links = new ArrayList<AnchorText>();
+		links.add(new AnchorText(EXTERNAL, "cloud", 7));
+
+		List<AnchorText> list = new ArrayList<AnchorText>();
+		AnchorTextMerger merger = new AnchorTextMerger(list, 0);
+		merger.clear();
+		int indegree = MergeReverseWebGraph.merge(record(new ArrayList<AnchorText>()), merger);
+		indegree += MergeReverseWebGraph.merge(record(links), merger);
+		MergeReverseWebGraph.finish(merger, list, indegree);
+
+		assertEquals(record(links), list);
+		assertEquals(1, indegree);
+	}
+
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(MergeReverseWebGraphTest.class);
+	}
+}
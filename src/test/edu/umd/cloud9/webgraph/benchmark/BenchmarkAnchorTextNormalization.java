@@ -0,0 +1,98 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.benchmark;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import edu.umd.cloud9.webgraph.normalizer.AnchorTextBasicNormalizer;
+import edu.umd.cloud9.webgraph.normalizer.AnchorTextNormalizer;
+import edu.umd.cloud9.webgraph.normalizer.AnchorTextTrieNormalizer;
+
+/**
+ * Checks that {@link AnchorTextTrieNormalizer} processes lines of anchor text exactly as
+ * {@link AnchorTextBasicNormalizer} does, and reports lines/sec for both. Reads the lines of
+ * anchor text (UTF-8, one per line) in the file given as the first argument, e.g. the text of the
+ * links extracted from a sample of ClueWeb09, or generates lines if no argument is given.
+ */
+public class BenchmarkAnchorTextNormalization {
+  private static final int TRIALS = 3;
+
+  public static void main(String[] args) throws Exception {
+    List<String> anchors = new ArrayList<String>();
+    if (args.length > 0) {
+      BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(args[0]), "UTF-8"));
+      String line;
+      while ((line = in.readLine()) != null)
+        anchors.add(line);
+      in.close();
+    } else {
+      Random r = new Random(0);
+      for (int i = 0; i < 500000; i++)
+        anchors.add(generate(r));
+    }
+
+    AnchorTextNormalizer basic = new AnchorTextBasicNormalizer();
+    AnchorTextNormalizer trie = new AnchorTextTrieNormalizer();
+
+    int same = 0;
+    for (String anchor : anchors) {
+      String a = basic.process(anchor);
+      String b = trie.process(anchor);
+      if (a.equals(b)) {
+        same++;
+      } else if (anchors.size() - same < 10) {
+        System.out.println("Differs: " + anchor + "\n  basic: " + a + "\n  trie:  " + b);
+      }
+    }
+    System.out.println(same + " of " + anchors.size() + " lines are processed the same");
+
+    for (int t = 0; t < TRIALS; t++) {
+      run("basic", basic, anchors);
+      run("trie ", trie, anchors);
+    }
+  }
+
+  private static void run(String name, AnchorTextNormalizer normalizer, List<String> anchors) {
+    long chars = 0;
+    long startTime = System.currentTimeMillis();
+    for (String anchor : anchors)
+      chars += normalizer.process(anchor).length();
+    long duration = System.currentTimeMillis() - startTime;
+    System.out.println(String.format("%s %10.0f lines/sec (%d chars)", name,
+        anchors.size() * 1000.0 / Math.max(1, duration), chars));
+  }
+
+  private static final String[] WORDS = { "click", "here", "Home", "the", "New", "York", "Times",
+      "of", "and", "Contact", "Us", "about", "Privacy", "Policy", "e-mail", "News", "&amp;",
+      "&nbsp;", "&raquo;", "2009", "Next", "page", "www.example.com", "http://example.com/a/b",
+      "Café", "more...", "|", "Login", "a", "you", "FAQ", "(pdf)" };
+
+  private static String generate(Random r) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 1 + r.nextInt(6); i > 0; i--) {
+      if (sb.length() > 0)
+        sb.append(r.nextInt(10) == 0 ? "  " : " ");
+      sb.append(WORDS[r.nextInt(WORDS.length)]);
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.benchmark;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.htmlparser.NodeFilter;
+import org.htmlparser.Parser;
+import org.htmlparser.filters.NodeClassFilter;
+import org.htmlparser.tags.BaseHrefTag;
+import org.htmlparser.tags.LinkTag;
+import org.htmlparser.util.NodeList;
+
+import edu.umd.cloud9.webgraph.html.LinkScanner;
+
+/**
+ * Compares the links found by the two-pass htmlparser extraction that ClueExtractLinks and
+ * TrecExtractLinks used to do with those found by {@link LinkScanner}, and reports docs/sec for
+ * both. Reads the HTML files in the directory given as the first argument, each taken to be at
+ * <code>http://example.com/&lt;file name&gt;</code>, or generates documents if no argument is given.
+ * The files should not have <code>&lt;base&gt;</code> tags, which htmlparser's extraction ignored.
+ */
+public class BenchmarkLinkExtraction {
+  private static final int TRIALS = 3;
+
+  private static final Parser parser = new Parser();
+  private static final NodeFilter filter = new NodeClassFilter(LinkTag.class);
+
+  public static void main(String[] args) throws Exception {
+    List<byte[]> docs = new ArrayList<byte[]>();
+    List<String> urls = new ArrayList<String>();
+    if (args.length > 0) {
+      for (File f : new File(args[0]).listFiles()) {
+        byte[] b = new byte[(int) f.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        in.readFully(b);
+        in.close();
+        docs.add(b);
+        urls.add("http://example.com/" + f.getName());
+      }
+    } else {
+      Random r = new Random(0);
+      for (int i = 0; i < 2000; i++) {
+        docs.add(generate(r).getBytes("UTF-8"));
+        urls.add("http://example.com/dir/doc" + i + ".html");
+      }
+    }
+
+    int same = 0;
+    for (int i = 0; i < docs.size(); i++) {
+      List<String> a = htmlparser(docs.get(i), urls.get(i));
+      List<String> b = scanner(docs.get(i), urls.get(i));
+      if (a.equals(b)) {
+        same++;
+      } else if (docs.size() - same < 10) {
+        System.out.println("Differs: " + urls.get(i) + "\n  htmlparser: " + a + "\n  scanner:    " + b);
+      }
+    }
+    System.out.println(same + " of " + docs.size() + " documents have the same links");
+
+    for (int t = 0; t < TRIALS; t++) {
+      long links = 0;
+      long startTime = System.currentTimeMillis();
+      for (int i = 0; i < docs.size(); i++)
+        links += htmlparser(docs.get(i), urls.get(i)).size();
+      long duration = System.currentTimeMillis() - startTime;
+      System.out.println(String.format("htmlparser: %8.0f docs/sec (%d links)",
+          docs.size() * 1000.0 / Math.max(1, duration), links));
+
+      links = 0;
+      startTime = System.currentTimeMillis();
+      for (int i = 0; i < docs.size(); i++)
+        links += scanner(docs.get(i), urls.get(i)).size();
+      duration = System.currentTimeMillis() - startTime;
+      System.out.println(String.format("scanner:    %8.0f docs/sec (%d links)",
+          docs.size() * 1000.0 / Math.max(1, duration), links));
+    }
+  }
+
+  private static List<String> htmlparser(byte[] doc, String base) {
+    List<String> res = new ArrayList<String>();
+    try {
+      parser.setInputHTML(new String(doc, "UTF-8"));
+      NodeList nl = parser.parse(null);
+      BaseHrefTag baseTag = new BaseHrefTag();
+      baseTag.setBaseUrl(base);
+      nl.add(baseTag);
+      parser.setInputHTML(nl.toHtml());
+      NodeList list = parser.extractAllNodesThatMatch(filter);
+      for (int i = 0; i < list.size(); i++) {
+        LinkTag link = (LinkTag) list.elementAt(i);
+        res.add(link.extractLink() + " | " + link.getLinkText());
+      }
+    } catch (Exception e) {
+      res.add("failed");
+    } catch (StackOverflowError e) {
+      res.add("failed");
+    }
+    return res;
+  }
+
+  private static final LinkScanner linkScanner = new LinkScanner();
+
+  private static List<String> scanner(byte[] doc, String base) {
+    List<String> res = new ArrayList<String>();
+    linkScanner.reset(doc, 0, doc.length, base);
+    while (linkScanner.next())
+      res.add(linkScanner.getUrl() + " | " + linkScanner.getAnchorText());
+    return res;
+  }
+
+  private static String generate(Random r) {
+    StringBuilder sb = new StringBuilder("<html><head><title>page</title>");
+    sb.append("<script>var x = '<a href=\"no.html\">';</script></head><body>");
+    for (int p = 0; p < 20 + r.nextInt(40); p++) {
+      sb.append("<p class=\"para\">Some text about things, ");
+      for (int l = 0; l < r.nextInt(4); l++) {
+        switch (r.nextInt(4)) {
+        case 0:
+          sb.append("<a href=\"page").append(r.nextInt(1000)).append(".html\">a <b>relative</b> link</a> ");
+          break;
+        case 1:
+          sb.append("<a href='/top/").append(r.nextInt(1000)).append("'>host relative</a> ");
+          break;
+        case 2:
+          sb.append("<a href=http://site").append(r.nextInt(100)).append(".org/x?y=1 target=_blank>");
+          sb.append("<img src=i.gif alt=\"img\"> external &amp; more</a> ");
+          break;
+        default:
+          sb.append("<a href=\"../up/").append(r.nextInt(10)).append(".html\">up</a> ");
+        }
+      }
+      sb.append("<!-- comment --> and more text.</p>\n");
+    }
+    return sb.append("</body></html>").toString();
+  }
+}
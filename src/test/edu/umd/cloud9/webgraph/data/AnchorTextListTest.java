@@ -0,0 +1,179 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.hadoop.io.Writable;
+import org.junit.Test;
+
+import edu.umd.cloud9.io.array.ArrayListWritable;
+
+public class AnchorTextListTest {
+
+	private static byte[] serialize(Writable w) throws IOException {
+		ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+		DataOutputStream dataOut = new DataOutputStream(bytesOut);
+		w.write(dataOut);
+		dataOut.close();
+		return bytesOut.toByteArray();
+	}
+
+	private static AnchorTextList deserialize(byte[] bytes) throws IOException {
+		AnchorTextList list = new AnchorTextList();
+		list.readFields(new DataInputStream(new ByteArrayInputStream(bytes)));
+		return list;
+	}
+
+	private static AnchorTextList createList() {
+		AnchorTextList list = new AnchorTextList();
+		Random r = new Random(0);
+
+		AnchorText anchor = new AnchorText(AnchorTextConstants.Type.EXTERNAL_IN_LINK.val, "popular page");
+		for(int i = 0; i < 10000; i++) {
+			anchor.addDocument(r.nextInt(1000000));
+		}
+		anchor.addDocument(0);
+		anchor.addDocument(-5);
+		anchor.addDocument(Integer.MAX_VALUE);
+		anchor.addDocument(Integer.MIN_VALUE);
+		list.add(anchor);
+
+		anchor = new AnchorText(AnchorTextConstants.Type.EXTERNAL_IN_LINK.val, "weighted", 7);
+		anchor.setWeight(0.75f);
+		list.add(anchor);
+
+		list.add(new AnchorText(AnchorTextConstants.Type.INTERNAL_IN_LINK.val, "café 中文", 3));
+		list.add(new AnchorText(AnchorTextConstants.Type.INTERNAL_OUT_LINK.val, "", 12));
+		list.add(new AnchorText(AnchorTextConstants.Type.URL_FIELD.val, "http://example.com/"));
+		list.add(new AnchorText(AnchorTextConstants.Type.IN_DEGREE.val, null, 10003));
+		list.add(new AnchorText(AnchorTextConstants.Type.EXTERNAL_IN_LINK.val, "no sources"));
+		return list;
+	}
+
+	@Test
+	public void testSerialization() throws IOException {
+		AnchorTextList list = createList();
+		AnchorTextList copy = deserialize(serialize(list));
+
+		assertEquals(list.size(), copy.size());
+		for(int i = 0; i < list.size(); i++) {
+			assertEquals(list.get(i).getType(), copy.get(i).getType());
+			assertEquals(list.get(i).getText(), copy.get(i).getText());
+			assertEquals(list.get(i).getWeight(), copy.get(i).getWeight(), 0.0f);
+			assertEquals(list.get(i).getSize(), copy.get(i).getSize());
+			assertEquals(list.get(i), copy.get(i));
+		}
+
+		int[] docs = copy.get(0).getDocuments();
+		Arrays.sort(docs);
+		assertEquals(Integer.MIN_VALUE, docs[0]);
+		assertEquals(-5, docs[1]);
+		assertEquals(0, docs[2]);
+		assertEquals(Integer.MAX_VALUE, docs[docs.length - 1]);
+
+		assertEquals(0, deserialize(serialize(new AnchorTextList())).size());
+	}
+
+	@Test
+	public void testLazyDecoding() throws IOException {
+		byte[] bytes = serialize(createList());
+
+		// written again without being decoded
+		AnchorTextList copy = deserialize(bytes);
+		int size = createList().get(0).getSize();
+		assertEquals(size, copy.get(0).getSize());
+		assertTrue(Arrays.equals(bytes, serialize(copy)));
+
+		// or after being changed
+		copy = deserialize(bytes);
+		assertTrue(copy.get(0).containsDocument(-5));
+		copy.get(0).addDocument(-5);
+		copy.get(0).addDocument(42);
+		assertEquals(size + 1, copy.get(0).getSize());
+		copy = deserialize(serialize(copy));
+		assertTrue(copy.get(0).containsDocument(42));
+		assertEquals(size + 1, copy.get(0).getSize());
+
+		copy.get(0).clearDocuments();
+		assertEquals(0, copy.get(0).getSize());
+		copy = deserialize(bytes);
+		copy.get(0).resetToType(AnchorTextConstants.Type.INTERNAL_IN_LINK.val);
+		assertEquals(0, copy.get(0).getSize());
+
+		// the old format can be written from a lazily read object
+		copy = deserialize(bytes);
+		ArrayListWritable<AnchorText> old = new ArrayListWritable<AnchorText>();
+		old.readFields(new DataInputStream(new ByteArrayInputStream(
+				serialize(new ArrayListWritable<AnchorText>(copy)))));
+		assertEquals(createList(), old);
+	}
+
+	@Test
+	public void testCompactness() throws IOException {
+		AnchorTextList list = createList();
+		ArrayListWritable<AnchorText> old = new ArrayListWritable<AnchorText>(list);
+		byte[] oldBytes = serialize(old);
+		byte[] newBytes = serialize(list);
+		assertTrue(newBytes.length + " " + oldBytes.length, newBytes.length * 2 < oldBytes.length);
+
+		// and old collections read back the same once rewritten
+		ArrayListWritable<AnchorText> read = new ArrayListWritable<AnchorText>();
+		read.readFields(new DataInputStream(new ByteArrayInputStream(oldBytes)));
+		assertEquals(list, deserialize(serialize(new AnchorTextList(read))));
+	}
+
+	@Test
+	public void testLongText() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		while(sb.length() < 100000) {
+			sb.append("a long line of anchor text é ");
+		}
+		AnchorTextList list = new AnchorTextList();
+		list.add(new AnchorText(AnchorTextConstants.Type.EXTERNAL_IN_LINK.val, sb.toString(), 1));
+
+		try {
+			serialize(new ArrayListWritable<AnchorText>(list));
+			fail("writeUTF should not take more than 64KB");
+		} catch(IOException e) {
+		}
+		assertEquals(sb.toString(), deserialize(serialize(list)).get(0).getText());
+	}
+
+	@Test(expected = IOException.class)
+	public void testReadOldFormat() throws IOException {
+		ArrayListWritable<AnchorText> old = new ArrayListWritable<AnchorText>();
+		old.add(new AnchorText(AnchorTextConstants.Type.EXTERNAL_IN_LINK.val, "text", 1));
+		deserialize(serialize(old));
+	}
+
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(AnchorTextListTest.class);
+	}
+}
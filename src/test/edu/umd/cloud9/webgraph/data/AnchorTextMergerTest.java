@@ -0,0 +1,171 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class AnchorTextMergerTest {
+
+	private static final byte EXTERNAL = AnchorTextConstants.Type.EXTERNAL_IN_LINK.val;
+	private static final byte INTERNAL = AnchorTextConstants.Type.INTERNAL_IN_LINK.val;
+
+	// the linear scan the reducers used to do
+	private static List<AnchorText> mergeByScan(List<AnchorText> records) {
+		List<AnchorText> list = new ArrayList<AnchorText>();
+		for(AnchorText data : records) {
+			boolean pushed = false;
+			for(AnchorText line : list) {
+				if(line.equalsIgnoreSources(data)) {
+					line.addDocumentsFrom(data);
+					pushed = true;
+					break;
+				}
+			}
+			if(!pushed) {
+				list.add(data.clone());
+			}
+		}
+		return list;
+	}
+
+	@Test
+	public void testMerge() {
+		Random r = new Random(0);
+		List<AnchorText> records = new ArrayList<AnchorText>();
+		for(int i = 0; i < 5000; i++) {
+			records.add(new AnchorText(r.nextBoolean() ? EXTERNAL : INTERNAL,
+					"text " + r.nextInt(500), r.nextInt(2000)));
+		}
+
+		List<AnchorText> list = new ArrayList<AnchorText>();
+		AnchorTextMerger merger = new AnchorTextMerger(list, 0);
+		merger.clear();
+		long merged = 0;
+		for(AnchorText data : records) {
+			if(merger.add(data)) {
+				merged++;
+			}
+		}
+		merger.finish();
+
+		assertEquals(mergeByScan(records), list);
+		assertEquals(records.size() - list.size(), merged);
+		assertEquals(merged, merger.getMerged());
+		assertEquals(0, merger.getSampled());
+
+		merger.clear();
+		assertTrue(list.isEmpty());
+		assertEquals(0, merger.getMerged());
+		assertFalse(merger.add(records.get(0)));
+	}
+
+	@Test
+	public void testWeights() {
+		AnchorText a = new AnchorText(EXTERNAL, "text", 1);
+		AnchorText b = new AnchorText(EXTERNAL, "text", 2);
+		AnchorText c = new AnchorText(EXTERNAL, "text", 3);
+		a.setWeight(0.5f);
+		b.setWeight(0.25f);
+		c.setWeight(0.5f);
+
+		List<AnchorText> list = new ArrayList<AnchorText>();
+		AnchorTextMerger merger = new AnchorTextMerger(list, 0);
+		assertFalse(merger.add(a));
+		assertFalse(merger.add(b));
+		assertTrue(merger.add(c));
+		assertFalse(merger.add(new AnchorText(EXTERNAL, "text", 4)));
+		assertEquals(3, list.size());
+		assertEquals(2, list.get(0).getSize());
+		assertTrue(list.get(0).containsDocument(3));
+	}
+
+	private static int[] sample(List<Integer> docnos, int packetSize, int maxSources) {
+		List<AnchorText> list = new ArrayList<AnchorText>();
+		AnchorTextMerger merger = new AnchorTextMerger(list, maxSources);
+		for(int i = 0; i < docnos.size(); i += packetSize) {
+			AnchorText packet = new AnchorText(EXTERNAL, "popular");
+			for(int docno : docnos.subList(i, Math.min(docnos.size(), i + packetSize))) {
+				packet.addDocument(docno);
+			}
+			merger.add(packet);
+		}
+		merger.finish();
+		assertEquals(1, list.size());
+		assertEquals(maxSources > 0 ? 1 : 0, merger.getSampled());
+		int[] docs = list.get(0).getDocuments();
+		Arrays.sort(docs);
+		return docs;
+	}
+
+	@Test
+	public void testSample() {
+		List<Integer> docnos = new ArrayList<Integer>();
+		for(int i = -500; i < 5000; i++) {
+			docnos.add(i * 7);
+		}
+
+		int[] sample = sample(docnos, 1, 100);
+		assertEquals(100, sample.length);
+		for(int docno : sample) {
+			assertTrue(docnos.contains(docno));
+		}
+
+		// doesn't depend on the order of the sources, or on how they were packed
+		Collections.shuffle(docnos, new Random(1));
+		assertTrue(Arrays.equals(sample, sample(docnos, 1, 100)));
+		assertTrue(Arrays.equals(sample, sample(docnos, 37, 100)));
+		assertTrue(Arrays.equals(sample, sample(docnos, docnos.size(), 100)));
+
+		assertEquals(docnos.size(), sample(docnos, 10, 0).length);
+	}
+
+	@Test
+	public void testFieldsAreNotSampled() {
+		List<AnchorText> list = new ArrayList<AnchorText>();
+		AnchorTextMerger merger = new AnchorTextMerger(list, 2);
+		AnchorText docnos = new AnchorText(AnchorTextConstants.Type.DOCNO_FIELD.val, null);
+		for(int i = 0; i < 10; i++) {
+			docnos.addDocument(i);
+		}
+		merger.add(docnos);
+		merger.add(new AnchorText(INTERNAL, "a", 1));
+		merger.add(new AnchorText(INTERNAL, "a", 2));
+		merger.add(new AnchorText(INTERNAL, "a", 3));
+		merger.finish();
+
+		assertEquals(10, list.get(0).getSize());
+		assertEquals(2, list.get(1).getSize());
+		assertEquals(2, merger.getMerged());
+		assertEquals(1, merger.getSampled());
+	}
+
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(AnchorTextMergerTest.class);
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Test;
+
+import edu.umd.cloud9.io.array.ArrayListOfIntsWritable;
+
+public class CsrGraphTest {
+
+	private static final int FIRST_NODE = 1000;
+
+	// nodes FIRST_NODE to FIRST_NODE + 999; every third node has no neighbor list at all
+	private static int[][] createGraph() {
+		Random r = new Random(0);
+		int[][] graph = new int[1000][];
+		for(int i = 0; i < graph.length; i++) {
+			if(i % 3 == 1) {
+				continue;
+			}
+			graph[i] = new int[r.nextInt(i % 10 == 0 ? 500 : 20)];
+			for(int j = 0; j < graph[i].length; j++) {
+				graph[i][j] = r.nextInt(4) == 0 ? r.nextInt(Integer.MAX_VALUE) : r.nextInt(2000);
+			}
+			Arrays.sort(graph[i]);
+		}
+		return graph;
+	}
+
+	private static void write(int[][] graph, Path path, FileSystem fs, boolean gaps) throws IOException {
+		CsrGraphWriter writer = new CsrGraphWriter(path, fs, gaps);
+		for(int i = 0; i < graph.length; i++) {
+			if(graph[i] != null) {
+				writer.add(FIRST_NODE + i, graph[i], graph[i].length);
+			}
+		}
+		writer.close();
+	}
+
+	private static void checkMapped(int[][] graph, boolean gaps) throws IOException {
+		FileSystem fs = FileSystem.getLocal(new Configuration());
+		Path tmp = new Path("tmp.csr");
+		write(graph, tmp, fs, gaps);
+
+		MappedCsrGraph mapped = new MappedCsrGraph(new File("tmp.csr"));
+		fs.delete(tmp, true);
+
+		assertEquals(gaps, mapped.isGapCoded());
+		assertEquals(FIRST_NODE, mapped.getFirstNode());
+		// the last node has a list, since 999 % 3 != 1
+		assertEquals(graph.length, mapped.getNumNodes());
+		assertFalse(mapped.contains(FIRST_NODE - 1));
+		assertFalse(mapped.contains(FIRST_NODE + graph.length));
+
+		long edges = 0;
+		MappedCsrGraph.Cursor cursor = mapped.cursor();
+		for(int i = 0; i < graph.length; i++) {
+			int[] neighbors = graph[i] == null ? new int[0] : graph[i];
+			edges += neighbors.length;
+
+			assertTrue(mapped.contains(FIRST_NODE + i));
+			assertEquals(neighbors.length, mapped.getDegree(FIRST_NODE + i));
+			assertEquals(neighbors.length, cursor.reset(FIRST_NODE + i));
+			for(int neighbor : neighbors) {
+				assertTrue(cursor.hasNext());
+				assertEquals(neighbor, cursor.next());
+			}
+			assertFalse(cursor.hasNext());
+		}
+		assertEquals(edges, mapped.getNumEdges());
+	}
+
+	@Test
+	public void testMapped() throws IOException {
+		checkMapped(createGraph(), false);
+	}
+
+	@Test
+	public void testMappedGaps() throws IOException {
+		checkMapped(createGraph(), true);
+	}
+
+	@Test
+	public void testInputFormat() throws Exception {
+		Configuration conf = new Configuration();
+		FileSystem fs = FileSystem.getLocal(conf);
+		Path tmp = new Path("tmp.csr");
+		int[][] graph = createGraph();
+
+		for(boolean gaps : new boolean[] { false, true }) {
+			write(graph, tmp, fs, gaps);
+			long length = fs.getFileStatus(tmp).getLen();
+
+			// every node is read exactly once, whatever the splits
+			for(long splitSize : new long[] { length, 1000, 37 }) {
+				int next = 0;
+				for(long start = 0; start < length; start += splitSize) {
+					CsrGraphInputFormat.CsrGraphRecordReader reader = new CsrGraphInputFormat.CsrGraphRecordReader();
+					reader.initialize(new FileSplit(tmp, start, Math.min(splitSize, length - start), null),
+							new TaskAttemptContextImpl(conf, new TaskAttemptID()));
+					while(reader.nextKeyValue()) {
+						assertEquals(FIRST_NODE + next, reader.getCurrentKey().get());
+						ArrayListOfIntsWritable neighbors = reader.getCurrentValue();
+						int[] expected = graph[next] == null ? new int[0] : graph[next];
+						assertEquals(expected.length, neighbors.size());
+						for(int j = 0; j < expected.length; j++) {
+							assertEquals(expected[j], neighbors.get(j));
+						}
+						next++;
+					}
+					reader.close();
+				}
+				assertEquals(graph.length, next);
+			}
+		}
+		fs.delete(tmp, true);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsortedGaps() throws IOException {
+		FileSystem fs = FileSystem.getLocal(new Configuration());
+		Path tmp = new Path("tmp.csr");
+		CsrGraphWriter writer = new CsrGraphWriter(tmp, fs, true);
+		try {
+			writer.add(0, new int[] { 3, 1 }, 2);
+		} finally {
+			writer.close();
+			fs.delete(tmp, true);
+		}
+	}
+
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(CsrGraphTest.class);
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+public class HostIdMappingTest {
+
+	@Test
+	public void testLookup() {
+		HostIdMapping mapping = new HostIdMapping(new int[] { 0, 2, HostIdMapping.NO_HOST, 2 });
+
+		assertEquals(4, mapping.size());
+		assertEquals(0, mapping.getHostId(0));
+		assertEquals(2, mapping.getHostId(3));
+		assertEquals(HostIdMapping.NO_HOST, mapping.getHostId(2));
+		assertEquals(HostIdMapping.NO_HOST, mapping.getHostId(4));
+		assertEquals(HostIdMapping.NO_HOST, mapping.getHostId(-1));
+
+		assertTrue(mapping.sameHost(1, 3));
+		assertFalse(mapping.sameHost(0, 1));
+		assertFalse(mapping.sameHost(2, 2));
+		assertFalse(mapping.sameHost(2, 5));
+
+		assertEquals(0, new HostIdMapping().size());
+	}
+
+	@Test
+	public void testSerialization() throws IOException {
+		Random r = new Random(0);
+		// not a multiple of the buffer size
+		int[] hostIds = new int[100003];
+		for(int i = 0; i < hostIds.length; i++) {
+			hostIds[i] = r.nextInt(10) == 0 ? HostIdMapping.NO_HOST : r.nextInt(Integer.MAX_VALUE);
+		}
+
+		FileSystem fs = FileSystem.get(new Configuration());
+		Path tmp = new Path("tmp");
+		new HostIdMapping(hostIds).writeMapping(tmp, fs);
+
+		HostIdMapping mapping = new HostIdMapping();
+		mapping.loadMapping(tmp, fs);
+		fs.delete(tmp, true);
+
+		assertEquals(hostIds.length, mapping.size());
+		for(int i = 0; i < hostIds.length; i++) {
+			assertEquals(hostIds[i], mapping.getHostId(i));
+		}
+
+		new HostIdMapping().writeMapping(tmp, fs);
+		mapping.loadMapping(tmp, fs);
+		fs.delete(tmp, true);
+		assertEquals(0, mapping.size());
+	}
+
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(HostIdMappingTest.class);
+	}
+}
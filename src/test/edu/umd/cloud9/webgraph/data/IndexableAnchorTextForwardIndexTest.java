@@ -0,0 +1,305 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.umd.cloud9.collection.DocnoMapping;
+import edu.umd.cloud9.io.array.ArrayListWritable;
+
+public class IndexableAnchorTextForwardIndexTest {
+
+	private static final Path BASE = new Path("tmp-anchor-forward-index");
+	private static final Path COLLECTION = new Path(BASE, "collection");
+	private static final Path UPDATE = new Path(BASE, "update");
+	private static final Path INDEX = new Path(BASE, "index");
+	private static final Path UPDATED_INDEX = new Path(BASE, "updated-index");
+
+	// the collection has every third docno from 100 to 1297, in two part files
+	private static final int FIRST_DOCNO = 100;
+	private static final int LAST_DOCNO = 1297;
+	private static final int SPLIT_DOCNO = 700;
+	// the update has every fifteenth document of the collection, and a new one
+	private static final int NEW_DOCNO = 1300;
+
+	private Configuration conf;
+	private FileSystem fs;
+
+	private Map<Integer, ArrayListWritable<AnchorText>> collection;
+	private Map<Integer, ArrayListWritable<AnchorText>> updated;
+
+	// the docno mapping isn't used for lookups by docno
+	private static class NullDocnoMapping implements DocnoMapping {
+		public int getDocno(String docid) {
+			return -1;
+		}
+
+		public String getDocid(int docno) {
+			return null;
+		}
+
+		public void loadMapping(Path path, FileSystem fs) throws IOException {
+		}
+
+		public Builder getBuilder() {
+			return null;
+		}
+	}
+
+	private static ArrayListWritable<AnchorText> anchors(String prefix, int docno) {
+		ArrayListWritable<AnchorText> anchors = new ArrayListWritable<AnchorText>();
+		for (int i = 0; i <= docno % 3; i++) {
+			anchors.add(new AnchorText(AnchorTextConstants.Type.EXTERNAL_IN_LINK.val,
+					prefix + " " + docno + " " + i, docno * 10 + i));
+		}
+		return anchors;
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		conf = new Configuration();
+		// small blocks, so that the part files have many
+		conf.setInt("io.seqfile.compress.blocksize", 256);
+		fs = FileSystem.get(conf);
+		fs.delete(BASE, true);
+
+		collection = new HashMap<Integer, ArrayListWritable<AnchorText>>();
+		for (int docno = FIRST_DOCNO; docno <= LAST_DOCNO; docno += 3)
+			collection.put(docno, anchors("anchor", docno));
+
+		Map<Integer, ArrayListWritable<AnchorText>> update =
+			new HashMap<Integer, ArrayListWritable<AnchorText>>();
+		for (int docno = FIRST_DOCNO; docno <= LAST_DOCNO; docno += 15)
+			update.put(docno, anchors("update", docno));
+		update.put(NEW_DOCNO, anchors("update", NEW_DOCNO));
+
+		updated = new HashMap<Integer, ArrayListWritable<AnchorText>>(collection);
+		updated.putAll(update);
+
+		writeCollection(COLLECTION, collection, SPLIT_DOCNO);
+		writeCollection(UPDATE, update, Integer.MAX_VALUE);
+
+		// an index of the collection, and the same index with the update appended, laid out as
+		// BuildAnchorTextForwardIndex writes them
+		FSDataOutputStream out = fs.create(INDEX);
+		out.writeUTF(IndexableAnchorTextForwardIndex.class.getName());
+		writeLayer(out, COLLECTION, 2, null);
+		out.close();
+
+		out = fs.create(UPDATED_INDEX);
+		out.writeUTF(IndexableAnchorTextForwardIndex.class.getName());
+		writeLayer(out, COLLECTION, 2, null);
+		writeLayer(out, UPDATE, 1, update);
+		out.close();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		fs.delete(BASE, true);
+	}
+
+	// writes the documents below split to part-00000, and the others to part-00001
+	private void writeCollection(Path path, Map<Integer, ArrayListWritable<AnchorText>> documents,
+			int split) throws IOException {
+		SequenceFile.Writer[] writers = new SequenceFile.Writer[2];
+		for (int i = 0; i < writers.length; i++) {
+			writers[i] = SequenceFile.createWriter(fs, conf, new Path(path, "part-0000" + i),
+					IntWritable.class, ArrayListWritable.class, SequenceFile.CompressionType.BLOCK);
+		}
+
+		for (int docno = 0; docno <= NEW_DOCNO; docno++) {
+			if (documents.containsKey(docno))
+				writers[docno < split ? 0 : 1].append(new IntWritable(docno), documents.get(docno));
+		}
+
+		for (SequenceFile.Writer writer : writers)
+			writer.close();
+	}
+
+	// the blocks of the part files of a collection, found as BuildAnchorTextForwardIndex does,
+	// followed by the docnos of an update
+	private void writeLayer(FSDataOutputStream out, Path path, int numFiles,
+			Map<Integer, ArrayListWritable<AnchorText>> update) throws IOException {
+		DecimalFormat df = new DecimalFormat("00000");
+		int[] docnos = new int[100000];
+		long[] offsets = new long[docnos.length];
+		int[] filenos = new int[docnos.length];
+		int blocks = 0;
+
+		IntWritable key = new IntWritable();
+		for (int fileno = 0; fileno < numFiles; fileno++) {
+			SequenceFile.Reader reader = new SequenceFile.Reader(fs,
+					new Path(path, "part-" + df.format(fileno)), conf);
+
+			long pos = reader.getPosition();
+			long prevPos = -1;
+			int prevDocno = 0;
+			while (reader.next(key)) {
+				if (prevPos != -1 && prevPos != pos) {
+					docnos[blocks] = prevDocno;
+					offsets[blocks] = prevPos;
+					filenos[blocks] = fileno;
+					blocks++;
+				}
+
+				prevPos = pos;
+				pos = reader.getPosition();
+				prevDocno = key.get();
+			}
+			reader.close();
+		}
+
+		// otherwise, nothing would be looked up across blocks
+		assertTrue(blocks > 2 * numFiles);
+
+		out.writeUTF(path.toString());
+		out.writeInt(blocks);
+		for (int i = 0; i < blocks; i++) {
+			out.writeInt(docnos[i]);
+			out.writeInt((int) offsets[i]);
+			out.writeShort(filenos[i]);
+		}
+
+		if (update != null) {
+			out.writeInt(update.size());
+			for (int docno = 0; docno <= NEW_DOCNO; docno++) {
+				if (update.containsKey(docno))
+					out.writeInt(docno);
+			}
+		}
+	}
+
+	private IndexableAnchorTextForwardIndex load(Path index, long cacheBytes) throws IOException {
+		IndexableAnchorTextForwardIndex forwardIndex =
+			new IndexableAnchorTextForwardIndex(new NullDocnoMapping(), cacheBytes, 2);
+		forwardIndex.loadIndex(index, null, fs);
+		return forwardIndex;
+	}
+
+	// documents in and out of the collection, before the first block, at the ends of blocks
+	// and files, repeated, and in no order
+	private static int[] queries() {
+		Random r = new Random(0);
+		int[] docnos = new int[500];
+		int n = 0;
+		for (int docno : new int[] { 5, FIRST_DOCNO - 1, FIRST_DOCNO, FIRST_DOCNO + 1,
+				SPLIT_DOCNO - 3, SPLIT_DOCNO - 1, SPLIT_DOCNO, LAST_DOCNO, LAST_DOCNO + 1,
+				NEW_DOCNO, 400, 400, 5, FIRST_DOCNO })
+			docnos[n++] = docno;
+		while (n < docnos.length) {
+			int docno = r.nextInt(NEW_DOCNO + 20);
+			docnos[n++] = docno;
+			// some duplicates next to each other, others apart
+			if (n % 7 == 0 && n < docnos.length)
+				docnos[n++] = docno;
+		}
+		return docnos;
+	}
+
+	private void checkLookups(Path index, Map<Integer, ArrayListWritable<AnchorText>> expected)
+			throws IOException {
+		int[] docnos = queries();
+
+		IndexableAnchorTextForwardIndex batched = load(index, IndexableAnchorTextForwardIndex.DEFAULT_CACHE_BYTES);
+		// nothing cached, so that every lookup reads the files
+		IndexableAnchorTextForwardIndex single = load(index, 0);
+
+		List<ArrayListWritable<AnchorText>> results = batched.getAnchors(docnos);
+		assertEquals(docnos.length, results.size());
+		for (int i = 0; i < docnos.length; i++) {
+			assertEquals("docno " + docnos[i], expected.get(docnos[i]), results.get(i));
+			assertEquals("docno " + docnos[i], single.getAnchors(docnos[i]), results.get(i));
+		}
+
+		// again, from the cache
+		results = batched.getAnchors(docnos);
+		for (int i = 0; i < docnos.length; i++)
+			assertEquals("docno " + docnos[i], expected.get(docnos[i]), results.get(i));
+
+		batched.close();
+		single.close();
+	}
+
+	@Test
+	public void testLookups() throws IOException {
+		checkLookups(INDEX, collection);
+
+		IndexableAnchorTextForwardIndex index = load(INDEX, 0);
+		assertEquals(FIRST_DOCNO, index.getFirstDocno());
+		assertEquals(LAST_DOCNO, index.getLastDocno());
+		assertNull(index.getAnchors(NEW_DOCNO));
+		index.close();
+	}
+
+	@Test
+	public void testUpdate() throws IOException {
+		checkLookups(UPDATED_INDEX, updated);
+
+		IndexableAnchorTextForwardIndex index = load(UPDATED_INDEX, 0);
+		assertEquals(FIRST_DOCNO, index.getFirstDocno());
+		assertEquals(NEW_DOCNO, index.getLastDocno());
+		assertEquals(anchors("update", FIRST_DOCNO + 15), index.getAnchors(FIRST_DOCNO + 15));
+		assertEquals(anchors("anchor", FIRST_DOCNO + 3), index.getAnchors(FIRST_DOCNO + 3));
+		index.close();
+	}
+
+	@Test
+	public void testReaderPool() throws IOException {
+		IndexableAnchorTextForwardIndex index = load(UPDATED_INDEX, 0);
+		int[] docnos = queries();
+		for (int i = 0; i < 5; i++)
+			index.getAnchors(docnos);
+		for (int docno : docnos)
+			index.getAnchors(docno);
+
+		// a single thread borrows one reader of a file at a time, and returns it: one reader
+		// for each of the three part files
+		assertEquals(3, index.getOpenedReaders());
+
+		// the idle readers are closed, and opened again when needed; the update doesn't have the
+		// document, so only a reader of the collection is
+		index.close();
+		assertEquals(anchors("anchor", FIRST_DOCNO + 3), index.getAnchors(FIRST_DOCNO + 3));
+		assertEquals(4, index.getOpenedReaders());
+		index.close();
+	}
+
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(IndexableAnchorTextForwardIndexTest.class);
+	}
+}
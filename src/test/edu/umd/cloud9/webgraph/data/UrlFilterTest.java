@@ -0,0 +1,99 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+public class UrlFilterTest {
+
+	private static String url(int i) {
+		return "http://www.host" + (i % 1000) + ".com/page" + i + ".html";
+	}
+
+	@Test
+	public void testFalsePositives() {
+		UrlFilter filter = new UrlFilter(100000, 0.01);
+		for(int i = 0; i < 100000; i++) {
+			filter.add(url(i));
+		}
+		assertEquals(100000, filter.size());
+
+		// no false negatives
+		for(int i = 0; i < 100000; i++) {
+			assertTrue(filter.mightContain(url(i)));
+		}
+
+		int falsePositives = 0;
+		for(int i = 100000; i < 200000; i++) {
+			if(filter.mightContain(url(i))) {
+				falsePositives++;
+			}
+		}
+		assertTrue(falsePositives < 1500);
+		assertEquals(0.01, filter.getFalsePositiveRate(), 0.002);
+	}
+
+	@Test
+	public void testEmpty() {
+		UrlFilter filter = new UrlFilter();
+		assertFalse(filter.mightContain(url(0)));
+		assertEquals(0, filter.size());
+
+		filter = new UrlFilter(0, 0.01);
+		assertFalse(filter.mightContain(url(0)));
+		filter.add(url(0));
+		assertTrue(filter.mightContain(url(0)));
+	}
+
+	@Test
+	public void testSerialization() throws IOException {
+		// not a multiple of the buffer size
+		UrlFilter filter = new UrlFilter(123457, 0.05);
+		for(int i = 0; i < 123457; i += 2) {
+			filter.add(url(i));
+		}
+
+		FileSystem fs = FileSystem.get(new Configuration());
+		Path tmp = new Path("tmp");
+		filter.writeFilter(tmp, fs);
+
+		UrlFilter loaded = new UrlFilter();
+		loaded.loadFilter(tmp, fs);
+		fs.delete(tmp, true);
+
+		assertEquals(filter.size(), loaded.size());
+		assertEquals(filter.getNumBits(), loaded.getNumBits());
+		for(int i = 0; i < 123457; i++) {
+			assertEquals(filter.mightContain(url(i)), loaded.mightContain(url(i)));
+		}
+	}
+
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(UrlFilterTest.class);
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.html;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class LinkScannerTest {
+
+  private static List<String> scan(String html, String url) throws Exception {
+    LinkScanner scanner = new LinkScanner();
+    byte[] b = ("xx" + html).getBytes("UTF-8");
+    scanner.reset(b, 2, b.length - 2, url);
+    List<String> links = new ArrayList<String>();
+    while (scanner.next())
+      links.add(scanner.getUrl() + " | " + scanner.getAnchorText());
+    return links;
+  }
+
+  @Test
+  public void testLinks() throws Exception {
+    List<String> links = scan("<html><head><title>t</title></head><body>"
+        + "<A HREF=\"/x.html\">one <b>bold</b> link</a> text "
+        + "<a class=c href='y.html'>two<!-- <a href=z.html>no</a> --></A>"
+        + "<a name=anchor>no href</a>"
+        + "<a href=http://other.org/p?q=1#f target=_blank><img src=i.gif>café &amp; bar</a>"
+        + "<script>document.write('<a href=\"js.html\">js</a>');</script>"
+        + "<a href=\"t.html\">open <a href=\"u.html\">next</a>"
+        + "<a href=v.html>in <div>a div</div>"
+        + "</body></html>", "http://example.com/dir/page.html");
+
+    assertEquals(7, links.size());
+    assertEquals("http://example.com/x.html | one bold link", links.get(0));
+    assertEquals("http://example.com/dir/y.html | two", links.get(1));
+    assertEquals(" | no href", links.get(2));
+    assertEquals("http://other.org/p?q=1#f | café &amp; bar", links.get(3));
+    assertEquals("http://example.com/dir/t.html | open ", links.get(4));
+    assertEquals("http://example.com/dir/u.html | next", links.get(5));
+    assertEquals("http://example.com/dir/v.html | in ", links.get(6));
+  }
+
+  @Test
+  public void testBase() throws Exception {
+    List<String> links = scan("<a href=a.html>before</a><base href=\"http://mirror.org/m/\">"
+        + "<a href=a.html>after</a><a href=../b.html>up</a>", "http://example.com/dir/page.html");
+    assertEquals("http://example.com/dir/a.html | before", links.get(0));
+    assertEquals("http://mirror.org/m/a.html | after", links.get(1));
+    assertEquals("http://mirror.org/b.html | up", links.get(2));
+  }
+
+  @Test
+  public void testBrokenMarkup() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 100000; i++)
+      sb.append("<div><span>");
+    sb.append("<a href=deep.html>deep</a> a < b <a href=\"unterminated>x</a>");
+    sb.append("<a href=last.html>last");
+    List<String> links = scan(sb.toString(), "http://example.com/");
+    assertEquals(3, links.size());
+    assertEquals("http://example.com/deep.html | deep", links.get(0));
+    assertTrue(links.get(1), links.get(1).startsWith("http://example.com/unterminated"));
+    assertEquals("http://example.com/last.html | last", links.get(2));
+
+    assertTrue(scan("", "http://example.com/").isEmpty());
+    assertTrue(scan("<", "http://example.com/").isEmpty());
+    assertEquals(1, scan("<a", "http://example.com/").size());
+    assertFalse(scan("<a href=", "http://example.com/").isEmpty());
+  }
+
+  // What htmlparser's LinkTag.extractLink() does, through Page.constructUrl.
+  private static String reference(String base, String link) {
+    link = link.replace("\n", "").replace("\r", "");
+    if (link.length() == 0)
+      return "";
+    try {
+      URL url;
+      if ('?' == link.charAt(0)) {
+        int index = base.lastIndexOf('?');
+        url = new URL(-1 != index ? base.substring(0, index) + link : base + link);
+      } else {
+        url = new URL(new URL(base), link);
+      }
+      String path = url.getFile();
+      boolean modified = false;
+      if (!link.startsWith("/")) {
+        while (path.startsWith("/.")) {
+          if (path.startsWith("/../")) {
+            path = path.substring(3);
+            modified = true;
+          } else if (path.startsWith("/./") || path.startsWith("/.")) {
+            path = path.substring(2);
+            modified = true;
+          } else {
+            break;
+          }
+        }
+      }
+      int index;
+      while (-1 != (index = path.indexOf("/\\"))) {
+        path = path.substring(0, index + 1) + path.substring(index + 2);
+        modified = true;
+      }
+      if (modified)
+        url = new URL(url, path);
+      return url.toExternalForm();
+    } catch (MalformedURLException e) {
+      return link;
+    }
+  }
+
+  @Test
+  public void testResolverMatchesHtmlparser() {
+    String[] bases = { "http://example.com/dir/page.html", "http://example.com/dir/",
+        "http://Example.COM:8080/a/b/c?x=1&y=/2", "HTTP://example.com/dir/page.html",
+        "http://example.com", "https://example.com/p", "http://user@example.com/a/b",
+        "http://example.com/a/./b", "ftp://example.com/pub/f", "not a url" };
+    String[] hrefs = { "", " ", "a.html", "a.html?b=c#d", "/", "/x/y", "//other.org/z", "?q=2",
+        "#frag", "./a", "../a", "../../../a", "a/../../b", "/.hidden", ".hidden", "a/./b",
+        "http://other.org", "HTTP://Other.org/A/B", "https://other.org:443/x?y",
+        "http://other.org/a/../b", "mailto:someone@example.com", "javascript:void(0)",
+        "ftp://files.org/f", "http:relative", "  spaced.html  ", "a\\b", "/\\evil",
+        "a b.html", "a\nb.html", "url:http://x.org/", "http://host:/x", "http://h_h.org/",
+        "http://[::1]/x", "?", "#", "%20", "a:b/c", "a/b:c", "été.html" };
+    UrlResolver resolver = new UrlResolver();
+    for (String base : bases) {
+      resolver.setBase(base);
+      for (String href : hrefs)
+        assertEquals(base + " + " + href, reference(base, href), resolver.resolve(href));
+    }
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LinkScannerTest.class);
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Cloud9: A MapReduce Library for Hadoop
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package edu.umd.cloud9.webgraph.normalizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class AnchorTextTrieNormalizerTest {
+
+	private static final String[] ANCHORS = { "", "   ", "Click here", "Home", "The New York Times",
+		"www.example.com", "see http://example.com/a for more", "mailto:someone@example", "ftp://x",
+		"AT&amp;T Wireless", "Tom &amp Jerry; cartoons", "R&D department", "a & b & c;d",
+		"&nbsp;&nbsp;Next &raquo;", "e-mail us", "--- back ---", "no-one knows", "vis-a-vis",
+		"X Y Z ab", "C++ and C#", "100% free!!!", "Page 2 of 10", "\tTabs\tand\nnew\r\nlines\f",
+		"vertical\u000Btab", "\u0001control\u0002 chars\u0003", "Café résumé naïve",
+		"İstanbul Kelvin \u212A degrees", "ΣΟΦΟΣ greek", "中文 text", "it's John's", "Ümlaut über",
+		"the and of to", "THEY said NOTHING", "a.b c:d e://f g:/h", "end with &", "&;", ";&x;y" };
+
+	@Test
+	public void testSameAsBasic() {
+		AnchorTextNormalizer basic = new AnchorTextBasicNormalizer();
+		AnchorTextNormalizer trie = new AnchorTextTrieNormalizer();
+
+		for (String anchor : ANCHORS) {
+			assertEquals(anchor, basic.normalize(anchor), trie.normalize(anchor));
+			assertEquals(anchor, basic.removeStopWords(anchor), trie.removeStopWords(anchor));
+			assertEquals(anchor, basic.process(anchor), trie.process(anchor));
+		}
+	}
+
+	@Test
+	public void testRandomAnchors() {
+		AnchorTextNormalizer basic = new AnchorTextBasicNormalizer();
+		AnchorTextNormalizer trie = new AnchorTextTrieNormalizer();
+
+		String pieces[] = { "the", "The", "of", "you", "yours", "Link", "here", "a", "I", "x", "-",
+			" ", "  ", "\t", "\n", ".", "://", ":", "/", "&", ";", "&amp;", "&#169;", "é", "ß",
+			"İ", "\u212A", "\u0001", "\u000B", "2", "!", "no-one", "come-on", "yon", "yonder" };
+		Random r = new Random(0);
+		for (int i = 0; i < 20000; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (int j = r.nextInt(12); j > 0; j--)
+				sb.append(pieces[r.nextInt(pieces.length)]);
+
+			String anchor = sb.toString();
+			assertEquals(anchor, basic.normalize(anchor), trie.normalize(anchor));
+			assertEquals(anchor, basic.removeStopWords(anchor), trie.removeStopWords(anchor));
+			assertEquals(anchor, basic.process(anchor), trie.process(anchor));
+		}
+	}
+
+	@Test
+	public void testStopWords() {
+		AnchorTextBasicNormalizer basic = new AnchorTextBasicNormalizer();
+		AnchorTextTrieNormalizer trie = new AnchorTextTrieNormalizer();
+
+		for (String word : AnchorTextBasicNormalizer.STOP_WORDS) {
+			assertTrue(word, trie.isStopWord(word));
+			// prefixes and extensions of stop words
+			for (int i = 0; i < word.length(); i++)
+				assertEquals(basic.isStopWord(word.substring(0, i)), trie.isStopWord(word.substring(0, i)));
+			assertEquals(basic.isStopWord(word + "s"), trie.isStopWord(word + "s"));
+		}
+		assertFalse(trie.isStopWord("The"));
+		assertFalse(trie.isStopWord("cloud"));
+		assertFalse(trie.isStopWord("thé"));
+	}
+
+	@Test
+	public void testLongAnchor() {
+		AnchorTextNormalizer basic = new AnchorTextBasicNormalizer();
+		AnchorTextNormalizer trie = new AnchorTextTrieNormalizer();
+
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < 10000)
+			sb.append("Some Long Anchor-Text with &amp; entities and the stop words ");
+
+		// the buffers grow, and still work for short lines afterwards
+		assertEquals(basic.process(sb.toString()), trie.process(sb.toString()));
+		assertEquals(basic.process("Short One"), trie.process("Short One"));
+	}
+
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(AnchorTextTrieNormalizerTest.class);
+	}
+}
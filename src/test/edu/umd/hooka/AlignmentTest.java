@@ -250,4 +250,49 @@ public class AlignmentTest extends TestCase {
 //			fail("Should fail");
 //		} catch (RuntimeException f) {}
 	}
+
+	public void testWideSetOperations() {
+		// more cells than fit in one word of the bitset
+		Alignment b = new Alignment(30, 20);
+		Alignment c = new Alignment(30, 20);
+		for (int f = 0; f < 30; f++) {
+			b.align(f, f % 20);
+			if (f % 3 == 0) c.align(f, f % 20);
+			c.align(f, (f + 7) % 20);
+		}
+		Alignment u = Alignment.union(b, c);
+		Alignment i = Alignment.intersect(b, c);
+		Alignment d = Alignment.subtract(b, c);
+		for (int f = 0; f < 30; f++)
+			for (int e = 0; e < 20; e++) {
+				assertEquals(b.aligned(f, e) || c.aligned(f, e), u.aligned(f, e));
+				assertEquals(b.aligned(f, e) && c.aligned(f, e), i.aligned(f, e));
+				assertEquals(b.aligned(f, e) && !c.aligned(f, e), d.aligned(f, e));
+			}
+		assertEquals(30, b.countAlignmentPoints());
+		assertEquals(10, i.countAlignmentPoints());
+		assertEquals(20, d.countAlignmentPoints());
+		assertFalse(d.isFAligned(0));
+		assertTrue(d.isFAligned(1));
+		assertTrue(Alignment.subtract(i, b).isEmpty());
+		try {
+			Alignment.union(b, new Alignment(20, 30));
+			fail("Should fail");
+		} catch (IllegalArgumentException e) {}
+	}
+
+	public void testWideReadFields() throws Exception {
+		Alignment b = new Alignment(70, 3);
+		b.align(69, 2);
+		b.align(0, 1);
+		b.align(63, 0);
+		java.io.ByteArrayOutputStream bos = new java.io.ByteArrayOutputStream();
+		b.write(new DataOutputStream(bos));
+		Alignment c = new Alignment();
+		c.readFields(new DataInputStream(new java.io.ByteArrayInputStream(bos.toByteArray())));
+		assertEquals(b, c);
+		assertEquals("0-1 63-0 69-2", c.toString());
+		assertTrue(c.isEAligned(2));
+		assertFalse(c.isFAligned(1));
+	}
 }
@@ -0,0 +1,55 @@
+package edu.umd.hooka;
+
+import junit.framework.TestCase;
+
+public class Long2FloatLRUMapTest extends TestCase {
+
+	public void testPutGet() {
+		Long2FloatLRUMap m = new Long2FloatLRUMap(4);
+		m.put(1L, 0.1f);
+		m.put(-5L, 0.2f);
+		m.put(1L << 40, 0.3f);
+		assertEquals(3, m.size());
+		assertEquals(0.1f, m.get(1L, -1.0f));
+		assertEquals(0.2f, m.get(-5L, -1.0f));
+		assertEquals(0.3f, m.get(1L << 40, -1.0f));
+		assertEquals(-1.0f, m.get(2L, -1.0f));
+		m.put(1L, 0.5f);
+		assertEquals(3, m.size());
+		assertEquals(0.5f, m.get(1L, -1.0f));
+	}
+
+	public void testEviction() {
+		Long2FloatLRUMap m = new Long2FloatLRUMap(3);
+		m.put(1L, 1.0f);
+		m.put(2L, 2.0f);
+		m.put(3L, 3.0f);
+		m.get(1L, 0.0f);       // 2 is now least recently used
+		m.put(4L, 4.0f);
+		assertEquals(3, m.size());
+		assertEquals(1, m.getEvictions());
+		assertFalse(m.containsKey(2L));
+		assertTrue(m.containsKey(1L));
+		assertTrue(m.containsKey(3L));
+		assertTrue(m.containsKey(4L));
+		m.put(5L, 5.0f);       // evicts 3
+		assertFalse(m.containsKey(3L));
+		assertEquals(5.0f, m.get(5L, 0.0f));
+	}
+
+	public void testManyKeys() {
+		int cap = 1000;
+		Long2FloatLRUMap m = new Long2FloatLRUMap(cap);
+		for (int i = 0; i < 10 * cap; i++)
+			m.put(PServerClient.pack(i % 97, i), i);
+		assertEquals(cap, m.size());
+		assertEquals(9 * cap, m.getEvictions());
+		for (int i = 0; i < 9 * cap; i++)
+			assertFalse(m.containsKey(PServerClient.pack(i % 97, i)));
+		for (int i = 9 * cap; i < 10 * cap; i++)
+			assertEquals((float)i, m.get(PServerClient.pack(i % 97, i), -1.0f));
+		m.clear();
+		assertEquals(0, m.size());
+		assertFalse(m.containsKey(PServerClient.pack(0, 9 * cap)));
+	}
+}
@@ -0,0 +1,71 @@
+package edu.umd.hooka;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class Long2FloatMapTest extends TestCase {
+
+	public void testAddGet() {
+		Long2FloatMap m = new Long2FloatMap();
+		m.add(1L, 0.5f);
+		m.add(-3L, 1.0f);
+		m.add(1L << 40, 2.0f);
+		m.add(1L, 0.25f);
+		assertEquals(3, m.size());
+		assertEquals(0.75f, m.get(1L, -1.0f));
+		assertEquals(1.0f, m.get(-3L, -1.0f));
+		assertEquals(2.0f, m.get(1L << 40, -1.0f));
+		assertEquals(-1.0f, m.get(2L, -1.0f));
+		assertFalse(m.containsKey(2L));
+		m.put(1L, 3.0f);
+		assertEquals(3.0f, m.get(1L, -1.0f));
+		m.clear();
+		assertEquals(0, m.size());
+		assertFalse(m.containsKey(1L));
+	}
+
+	public void testSlotsSurviveFilling() {
+		Long2FloatMap m = new Long2FloatMap(2);
+		m.ensureCapacity(100);
+		int[] slots = new int[100];
+		for (int i = 0; i < 100; i++)
+			slots[i] = m.slot(i * 7919L);
+		for (int i = 0; i < 100; i++)
+			m.addAt(slots[i], i);
+		for (int i = 0; i < 100; i++)
+			assertEquals((float)i, m.get(i * 7919L, -1.0f));
+		assertEquals(slots[5], m.slot(5 * 7919L));
+		assertEquals(100, m.size());
+	}
+
+	public void testSortedKeysAndGrowth() {
+		Long2FloatMap m = new Long2FloatMap();
+		Map<Long, Float> ref = new HashMap<Long, Float>();
+		Random r = new Random(1);
+		for (int i = 0; i < 20000; i++) {
+			long k = ((long)r.nextInt(300) << 32) | r.nextInt(300);
+			float v = r.nextFloat();
+			m.add(k, v);
+			Float o = ref.get(k);
+			ref.put(k, o == null ? v : o + v);
+		}
+		assertEquals(ref.size(), m.size());
+		long[] keys = m.sortedKeys();
+		assertEquals(ref.size(), keys.length);
+		for (int i = 0; i < keys.length; i++) {
+			if (i > 0)
+				assertTrue(keys[i - 1] < keys[i]);
+			assertEquals(ref.get(keys[i]), m.get(keys[i], -1.0f), 1e-4f);
+		}
+	}
+
+	public void testReservedKey() {
+		try {
+			new Long2FloatMap().add(Long.MIN_VALUE, 1.0f);
+			fail();
+		} catch (IllegalArgumentException e) {}
+	}
+}
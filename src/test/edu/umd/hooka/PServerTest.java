@@ -0,0 +1,173 @@
+package edu.umd.hooka;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import edu.umd.hooka.alignment.IndexedFloatArray;
+import edu.umd.hooka.ttables.TTable;
+
+public class PServerTest extends TestCase {
+
+	// Synthetic, read-only ttable with a distinct value for every cell.
+	static class FunctionTTable extends TTable {
+		public float get(int e, int f) { return (e * 7919 + f) % 10007 / 10007.0f; }
+		public Object clone() { return this; }
+		public void add(int e, int f, float delta) { throw new UnsupportedOperationException(); }
+		public void set(int e, int f, float value) { throw new UnsupportedOperationException(); }
+		public void set(int e, IndexedFloatArray fs) { throw new UnsupportedOperationException(); }
+		public void clear() { throw new UnsupportedOperationException(); }
+		public void normalize() { throw new UnsupportedOperationException(); }
+		public void write() { throw new UnsupportedOperationException(); }
+	}
+
+	static final TTable tt = new FunctionTTable();
+	PServer server;
+
+	protected void setUp() throws IOException {
+		server = new PServer(0, tt);
+		new Thread(server).start();
+	}
+
+	protected void tearDown() {
+		server.stopServer();
+	}
+
+	static PhrasePair randomPair(Random r, int elen, int flen, int vocab) {
+		int[] e = new int[elen];
+		int[] f = new int[flen];
+		for (int i = 0; i < elen; i++) e[i] = 1 + r.nextInt(vocab);
+		for (int i = 0; i < flen; i++) f[i] = 1 + r.nextInt(vocab);
+		return new PhrasePair(new Phrase(f, 1), new Phrase(e, 0));
+	}
+
+	static void check(PServerClient c, PhrasePair pp, boolean nullWord) {
+		for (int f : pp.getF().getWords()) {
+			if (nullWord)
+				assertEquals(tt.get(0, f), c.get(0, f));
+			for (int e : pp.getE().getWords())
+				assertEquals(tt.get(e, f), c.get(e, f));
+		}
+	}
+
+	public void testSinglePair() throws IOException {
+		PServerClient c = new PServerClient("localhost", server.getPort());
+		int[] e = {201, 202, 203, 1000000, 1, 1, 2, 2};
+		int[] f = {101, 102, 103, 104, 5, 5, 3, 12345, 34};
+		PhrasePair pp = new PhrasePair(new Phrase(f, 1), new Phrase(e, 0));
+		c.query(pp, true);
+		check(c, pp, true);
+		assertEquals(0, c.fallbacks);
+
+		// second query is answered from the cache
+		long reqs = c.requests;
+		c.query(pp, true);
+		assertEquals(reqs, c.requests);
+		c.close();
+	}
+
+	public void testLongSentence() throws IOException {
+		// larger than the old fixed 35KB request / 300KB response buffers
+		PServerClient c = new PServerClient("localhost", server.getPort());
+		PhrasePair pp = randomPair(new Random(1), 400, 400, 1000000);
+		c.query(pp, false);
+		check(c, pp, false);
+		assertEquals(0, c.fallbacks);
+		c.close();
+	}
+
+	public void testBatchedPipelined() throws IOException {
+		Random r = new Random(2);
+		List<PhrasePair> pps = new ArrayList<PhrasePair>();
+		for (int i = 0; i < 500; i++)
+			pps.add(randomPair(r, 1 + r.nextInt(40), 1 + r.nextInt(40), 5000));
+
+		PServerClient c = new PServerClient("localhost", server.getPort(), 16, 3, 1 << 20);
+		c.query(pps, true);
+		for (PhrasePair pp : pps)
+			check(c, pp, true);
+		assertEquals(0, c.fallbacks);
+		assertTrue(c.requests >= 500 / 16);
+		c.close();
+	}
+
+	public void testSmallCacheFallsBack() throws IOException {
+		Random r = new Random(3);
+		List<PhrasePair> pps = new ArrayList<PhrasePair>();
+		for (int i = 0; i < 50; i++)
+			pps.add(randomPair(r, 20, 20, 100000));
+
+		PServerClient c = new PServerClient("localhost", server.getPort(), 8, 2, 1000);
+		c.query(pps, false);
+		for (PhrasePair pp : pps)
+			check(c, pp, false);
+		assertTrue(c.fallbacks > 0);
+		c.close();
+	}
+
+	public void testConcurrentClients() throws Exception {
+		final Throwable[] failure = new Throwable[1];
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int seed = t;
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						Random r = new Random(seed);
+						PServerClient c = new PServerClient("localhost", server.getPort());
+						for (int i = 0; i < 20; i++) {
+							List<PhrasePair> pps = new ArrayList<PhrasePair>();
+							for (int j = 0; j < 50; j++)
+								pps.add(randomPair(r, 1 + r.nextInt(30), 1 + r.nextInt(30), 20000));
+							c.query(pps, true);
+							for (PhrasePair pp : pps)
+								check(c, pp, true);
+						}
+						c.close();
+					} catch (Throwable e) {
+						failure[0] = e;
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		if (failure[0] != null)
+			throw new RuntimeException(failure[0]);
+	}
+
+	public void testThroughput() throws IOException {
+		Random r = new Random(4);
+		List<PhrasePair> pps = new ArrayList<PhrasePair>();
+		long cells = 0;
+		for (int i = 0; i < 2000; i++) {
+			PhrasePair pp = randomPair(r, 1 + r.nextInt(40), 1 + r.nextInt(40), 20000);
+			cells += (pp.getE().size() + 1) * pp.getF().size();
+			pps.add(pp);
+		}
+
+		// one request per sentence pair; the client's cache lasts across pairs, as in the batched run
+		PServerClient c = new PServerClient("localhost", server.getPort(), 1, 1, 1 << 20);
+		long start = System.currentTimeMillis();
+		for (PhrasePair pp : pps)
+			c.query(pp, true);
+		long unbatched = System.currentTimeMillis() - start;
+		c.close();
+
+		c = new PServerClient("localhost", server.getPort());
+		start = System.currentTimeMillis();
+		for (int i = 0; i < pps.size(); i += 256)
+			c.query(pps.subList(i, Math.min(i + 256, pps.size())), true);
+		long batched = System.currentTimeMillis() - start;
+		for (PhrasePair pp : pps)
+			check(c, pp, true);
+		c.close();
+
+		System.out.println("PServer: " + pps.size() + " sentence pairs, " + cells + " cells: "
+				+ unbatched + " ms one pair per request, " + batched + " ms batched and pipelined");
+	}
+}
@@ -0,0 +1,142 @@
+package edu.umd.hooka;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+import edu.umd.hooka.corpora.Language;
+import edu.umd.hooka.corpora.ParallelChunkReader;
+import edu.umd.hooka.corpora.PlainTextParallelCorpusReader;
+import edu.umd.hooka.corpora.StaxParallelCorpusReader;
+
+public class ParallelBitextCompilerTest extends TestCase {
+
+	static final Language de = Language.languageForISO639_1("de");
+	static final Language en = Language.languageForISO639_1("en");
+
+	File dir;
+	FileSystem fs;
+	Configuration conf;
+
+	public ParallelBitextCompilerTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws IOException {
+		dir = File.createTempFile("bitext", "");
+		dir.delete();
+		dir.mkdirs();
+		conf = new Configuration();
+		conf.setBoolean("ha.trunc.use", false);
+		fs = FileSystem.get(conf);
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		fs.delete(new Path(dir.getPath()), true);
+	}
+
+	static String[] sentences(int n, int seed, int words) {
+		String[] s = new String[n];
+		for (int i = 0; i < n; i++) {
+			StringBuilder sb = new StringBuilder();
+			int len = 1 + (i * seed) % words;
+			for (int j = 0; j < len; j++)
+				sb.append(j > 0 ? " " : "").append("w").append((i + j * seed) % 97);
+			s[i] = sb.toString();
+		}
+		return s;
+	}
+
+	List<String> compile(ParallelChunkReader r, int threads, ParallelBitextCompiler[] out)
+			throws IOException {
+		ParallelBitextCompiler pbc = new ParallelBitextCompiler(de, en, conf, threads);
+		Path p = new Path(dir.getPath() + "/out" + threads);
+		SequenceFile.Writer w = SequenceFile.createWriter(fs, conf, p, Text.class, PhrasePair.class);
+		pbc.compile(r, w);
+		w.close();
+		r.close();
+		SequenceFile.Reader sr = new SequenceFile.Reader(fs, p, conf);
+		List<String> res = new ArrayList<String>();
+		Text key = new Text();
+		PhrasePair pp = new PhrasePair();
+		while (sr.next(key, pp))
+			res.add(key + " " + pp.toString(pbc.getVocabF(), pbc.getVocabE()));
+		sr.close();
+		if (out != null)
+			out[0] = pbc;
+		return res;
+	}
+
+	static PlainTextParallelCorpusReader text(String[] e, String[] f, String a) {
+		StringBuilder se = new StringBuilder();
+		StringBuilder sf = new StringBuilder();
+		for (int i = 0; i < e.length; i++) {
+			se.append(e[i]).append('\n');
+			sf.append(f[i]).append('\n');
+		}
+		return new PlainTextParallelCorpusReader("t_",
+				new BufferedReader(new StringReader(se.toString())), en,
+				new BufferedReader(new StringReader(sf.toString())), de,
+				a == null ? null : new BufferedReader(new StringReader(a)));
+	}
+
+	public void testThreadsKeepOrder() throws IOException {
+		// enough sentences for several batches in flight at once
+		String[] e = sentences(5000, 7, 20);
+		String[] f = sentences(5000, 11, 25);
+		List<String> one = compile(text(e, f, null), 1, null);
+		ParallelBitextCompiler[] pbc = new ParallelBitextCompiler[1];
+		List<String> four = compile(text(e, f, null), 4, pbc);
+		assertEquals(5000, one.size());
+		assertEquals(one, four);
+		assertTrue(one.get(3).endsWith(f[3] + " ||| " + e[3]));
+		assertEquals(5000, pbc[0].getCounter(CorpusVocabNormalizerAndNumberizer.BitextCompilerCounters.CHUNKS));
+		assertEquals(98, pbc[0].getVocabE().size());
+	}
+
+	public void testXmlMatchesPlainText() throws IOException {
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<pdoc name=\"x\">\n"
+			+ "<pchunk name=\"t_1\">\n<s lang=\"de\"> das haus </s>\n<s lang=\"en\"> the house </s>\n"
+			+ "<wordalignment langpair=\"en-de\"> 0-0 1-1 </wordalignment>\n</pchunk>\n"
+			+ "<pchunk name=\"t_2\">\n<s lang=\"de\"> grün &amp; blau </s>\n<s lang=\"en\"> green &amp; blue </s>\n"
+			+ "<wordalignment langpair=\"en-de\"> 0-0 1-1 2-2 </wordalignment>\n</pchunk>\n"
+			+ "<pchunk name=\"t_3\">\n<s lang=\"de\"> nur deutsch </s>\n<s lang=\"en\">  </s>\n</pchunk>\n"
+			+ "</pdoc>\n";
+		ParallelChunkReader xr = new StaxParallelCorpusReader(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		ParallelBitextCompiler[] pbc = new ParallelBitextCompiler[1];
+		List<String> fromXml = compile(xr, 2, pbc);
+		List<String> fromText = compile(text(new String[] { "the house", "green & blue", "" },
+				new String[] { "das haus", "grün & blau", "nur deutsch" }, "0-0 1-1\n0-0 1-1 2-2\n"), 2, null);
+		assertEquals(2, fromXml.size());
+		assertEquals(fromText, fromXml);
+		assertTrue(fromXml.get(1), fromXml.get(1).endsWith("grün & blau ||| green & blue ||| 0-0 1-1 2-2"));
+		assertEquals(1, pbc[0].getCounter(CorpusVocabNormalizerAndNumberizer.BitextCompilerCounters.WRONG_LANGUAGE));
+	}
+
+	public void testConcurrentVocabulary() {
+		ConcurrentVocabulary v = new ConcurrentVocabulary();
+		assertEquals(0, v.get("NULL"));
+		assertEquals(1, v.addOrGet("a"));
+		assertEquals(2, v.addOrGet("b"));
+		assertEquals(1, v.addOrGet("a"));
+		assertEquals(-1, v.get("c"));
+		VocabularyWritable w = v.toVocabularyWritable();
+		assertEquals(3, w.size());
+		assertEquals("b", w.get(2));
+		assertEquals(2, w.get("b"));
+	}
+}
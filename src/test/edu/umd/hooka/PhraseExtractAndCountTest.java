@@ -0,0 +1,211 @@
+package edu.umd.hooka;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.OutputCollector;
+
+import edu.umd.hooka.PhraseExtractAndCount.PPCount;
+import edu.umd.hooka.PhraseExtractAndCount.PPKey;
+import edu.umd.hooka.PhraseExtractAndCount.PPScore;
+import edu.umd.hooka.alignment.IndexedFloatArray;
+
+public class PhraseExtractAndCountTest extends TestCase {
+
+	public PhraseExtractAndCountTest(String name) {
+		super(name);
+	}
+
+	static byte[] bytes(Writable w) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		w.write(new DataOutputStream(bos));
+		return bos.toByteArray();
+	}
+
+	static <T extends Writable> T read(byte[] b, T w) throws IOException {
+		w.readFields(new DataInputStream(new ByteArrayInputStream(b)));
+		return w;
+	}
+
+	static Phrase randomPhrase(Random r) {
+		int[] w = new int[r.nextInt(4)];
+		for (int i = 0; i < w.length; i++)
+			w[i] = 1 + r.nextInt(3);
+		return new Phrase(w, r.nextInt(2));
+	}
+
+	static int sign(int x) {
+		return x < 0 ? -1 : (x > 0 ? 1 : 0);
+	}
+
+	public void testPhraseComparator() throws IOException {
+		Random r = new Random(1);
+		WritableComparator c = WritableComparator.get(Phrase.class);
+		assertTrue(c instanceof Phrase.Comparator);
+		for (int i = 0; i < 2000; i++) {
+			Phrase a = randomPhrase(r);
+			Phrase b = randomPhrase(r);
+			byte[] ba = bytes(a);
+			byte[] bb = bytes(b);
+			Phrase ra = read(ba, new Phrase());
+			Phrase rb = read(bb, new Phrase());
+			assertEquals(a + " " + b, sign(ra.compareTo(rb)),
+					sign(c.compare(ba, 0, ba.length, bb, 0, bb.length)));
+		}
+	}
+
+	public void testPhrasePairComparator() throws IOException {
+		Random r = new Random(2);
+		WritableComparator c = WritableComparator.get(PhrasePair.class);
+		assertTrue(c instanceof PhrasePair.Comparator);
+		for (int i = 0; i < 2000; i++) {
+			PhrasePair a = new PhrasePair(randomPhrase(r), randomPhrase(r));
+			PhrasePair b = new PhrasePair(randomPhrase(r), randomPhrase(r));
+			if (r.nextBoolean())
+				b = new PhrasePair(a.getF(), randomPhrase(r));
+			byte[] ba = bytes(a);
+			byte[] bb = bytes(b);
+			PhrasePair ra = read(ba, new PhrasePair());
+			PhrasePair rb = read(bb, new PhrasePair());
+			assertEquals(a + " " + b, sign(ra.compareTo(rb)),
+					sign(c.compare(ba, 0, ba.length, bb, 0, bb.length)));
+		}
+	}
+
+	static class Record implements Comparable<Record> {
+		byte[] key;
+		byte[] value;
+		Record(byte[] key, byte[] value) { this.key = key; this.value = value; }
+		public int compareTo(Record o) {
+			return WritableComparator.get(PPKey.class).compare(key, 0, key.length, o.key, 0, o.key.length);
+		}
+	}
+
+	static class Collector<K extends Writable, V extends Writable> implements OutputCollector<K, V> {
+		List<Record> records = new ArrayList<Record>();
+		public void collect(K k, V v) throws IOException {
+			records.add(new Record(bytes(k), bytes(v)));
+		}
+	}
+
+	// Sorts the records of one reducer and feeds each group of equal keys to reduce.
+	static <V extends Writable> void reduce(List<Record> records, V value,
+			ReduceFn<V> fn) throws IOException {
+		Collections.sort(records);
+		int i = 0;
+		while (i < records.size()) {
+			int j = i;
+			final List<byte[]> vals = new ArrayList<byte[]>();
+			while (j < records.size() && records.get(j).compareTo(records.get(i)) == 0)
+				vals.add(records.get(j++).value);
+			final V v = value;
+			fn.reduce(read(records.get(i).key, new PPKey()), new Iterator<V>() {
+				int n = 0;
+				public boolean hasNext() { return n < vals.size(); }
+				public V next() {
+					try { return read(vals.get(n++), v); } catch (IOException e) { throw new RuntimeException(e); }
+				}
+				public void remove() {}
+			});
+			i = j;
+		}
+	}
+
+	interface ReduceFn<V> {
+		void reduce(PPKey key, Iterator<V> values) throws IOException;
+	}
+
+	public void testFingerprintPipelineMatchesCounts() throws IOException {
+		VocabularyWritable vf = new VocabularyWritable();
+		VocabularyWritable ve = new VocabularyWritable();
+		PhrasePair[] bitext = {
+			new PhrasePair("das haus", vf, "the house", ve, "0-0 1-1"),
+			new PhrasePair("das buch", vf, "the book", ve, "0-0 1-1"),
+			new PhrasePair("ein buch", vf, "a book", ve, "0-0 1-1"),
+			new PhrasePair("das haus ist klein", vf, "the house is small", ve, "0-0 1-1 2-2 3-3"),
+			new PhrasePair("das haus", vf, "the home", ve, "0-0 1-1"),
+		};
+
+		// the expected relative frequencies, counted directly
+		Map<PhrasePair, Integer> joint = new HashMap<PhrasePair, Integer>();
+		Map<Phrase, Integer> fm = new HashMap<Phrase, Integer>();
+		Map<Phrase, Integer> em = new HashMap<Phrase, Integer>();
+		for (PhrasePair s : bitext) {
+			for (PhrasePair p : s.extractConsistentPhrasePairs(PhraseExtractAndCount.MAX_PHRASE_LENGTH)) {
+				PhrasePair k = new PhrasePair(p.getF(), p.getE());
+				joint.put(k, joint.containsKey(k) ? joint.get(k) + 1 : 1);
+				fm.put(p.getF(), fm.containsKey(p.getF()) ? fm.get(p.getF()) + 1 : 1);
+				em.put(p.getE(), em.containsKey(p.getE()) ? em.get(p.getE()) + 1 : 1);
+			}
+		}
+
+		// two map tasks, each combined, shuffled to three reducers
+		int reducers = 3;
+		List<List<Record>> partitions = new ArrayList<List<Record>>();
+		for (int i = 0; i < reducers; i++)
+			partitions.add(new ArrayList<Record>());
+		PhraseExtractAndCount.FirstFingerprintPartitioner part = new PhraseExtractAndCount.FirstFingerprintPartitioner();
+		for (int task = 0; task < 2; task++) {
+			Collector<PPKey, PPCount> mapOut = new Collector<PPKey, PPCount>();
+			PhraseExtractAndCount.FingerprintMapper m = new PhraseExtractAndCount.FingerprintMapper();
+			for (int i = task; i < bitext.length; i += 2)
+				m.map(null, bitext[i], mapOut, null);
+			final Collector<PPKey, PPCount> combined = new Collector<PPKey, PPCount>();
+			final PhraseExtractAndCount.PPCountCombiner comb = new PhraseExtractAndCount.PPCountCombiner();
+			reduce(mapOut.records, new PPCount(), new ReduceFn<PPCount>() {
+				public void reduce(PPKey key, Iterator<PPCount> values) throws IOException {
+					comb.reduce(key, values, combined, null);
+				}
+			});
+			for (Record rec : combined.records)
+				partitions.get(part.getPartition(read(rec.key, new PPKey()), null, reducers)).add(rec);
+		}
+
+		final Collector<PPKey, PPScore> scored = new Collector<PPKey, PPScore>();
+		for (List<Record> p : partitions) {
+			final PhraseExtractAndCount.PPScoreReducer red = new PhraseExtractAndCount.PPScoreReducer();
+			reduce(p, new PPCount(), new ReduceFn<PPCount>() {
+				public void reduce(PPKey key, Iterator<PPCount> values) throws IOException {
+					red.reduce(key, values, scored, null);
+				}
+			});
+		}
+
+		final Map<PhrasePair, float[]> table = new HashMap<PhrasePair, float[]>();
+		final PhraseExtractAndCount.PPJoinReducer join = new PhraseExtractAndCount.PPJoinReducer();
+		reduce(scored.records, new PPScore(), new ReduceFn<PPScore>() {
+			public void reduce(PPKey key, Iterator<PPScore> values) throws IOException {
+				join.reduce(key, values, new OutputCollector<PhrasePair, IndexedFloatArray>() {
+					public void collect(PhrasePair k, IndexedFloatArray v) {
+						table.put(new PhrasePair(k.getF(), k.getE()), new float[] { v.get(0), v.get(1) });
+					}
+				}, null);
+			}
+		});
+
+		assertEquals(joint.size(), table.size());
+		for (Map.Entry<PhrasePair, Integer> j : joint.entrySet()) {
+			float[] s = table.get(j.getKey());
+			assertNotNull(j.getKey().toString(vf, ve), s);
+			assertEquals((float)j.getValue() / fm.get(j.getKey().getF()), s[0], 1e-6f);
+			assertEquals((float)j.getValue() / em.get(j.getKey().getE()), s[1], 1e-6f);
+		}
+		PhrasePair dasHaus = new PhrasePair(Phrase.fromString(1, "das haus", vf), Phrase.fromString(0, "the house", ve));
+		assertEquals(2.0f / 3.0f, table.get(dasHaus)[0], 1e-6f);
+		assertEquals(1.0f, table.get(dasHaus)[1], 1e-6f);
+	}
+}
@@ -139,4 +139,23 @@ public class PhrasePairTest extends TestCase {
 		
 		assertTrue(ps.get(0).hasAlignment());
 	}
+
+	public void testPosteriorGridRoundTrip() throws IOException {
+		AlignmentPosteriorGrid g = new AlignmentPosteriorGrid(pp);
+		g.setAlignmentPointPosterior(0, 0, 0.0001f);
+		g.setAlignmentPointPosterior(4, 3, 0.75f);
+		g.setAlignmentPointPosterior(1, 2, 0.25f);
+		g.setPruningThreshold(0.001f);
+		pp.setAlignmentPosteriorGrid(g);
+		java.io.ByteArrayOutputStream bos = new java.io.ByteArrayOutputStream();
+		pp.write(new DataOutputStream(bos));
+		PhrasePair x = new PhrasePair();
+		x.readFields(new DataInputStream(new java.io.ByteArrayInputStream(bos.toByteArray())));
+		assertTrue(x.hasAlignmentPosteriors());
+		AlignmentPosteriorGrid y = x.getAlignmentPosteriorGrid();
+		assertEquals(0.75f, y.getAlignmentPointPosterior(4, 3));
+		assertEquals(0.25f, y.getAlignmentPointPosterior(1, 2));
+		assertEquals(0.0f, y.getAlignmentPointPosterior(0, 0));
+		assertEquals("4-2", y.alignPosteriorThreshold(0.5f).toString());
+	}
 }
@@ -1,5 +1,7 @@
 package edu.umd.hooka;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -9,6 +11,8 @@ import java.io.IOException;
 
 import junit.framework.TestCase;
 
+import org.apache.hadoop.io.Text;
+
 public class VocabularyWritableTest extends TestCase {
 
 	VocabularyWritable v;
@@ -71,5 +75,49 @@ public class VocabularyWritableTest extends TestCase {
 		}
 	}
 
+	public void testText() {
+		Text t = new Text("Goodbye");
+		assertEquals(goodbye, v.get(t));
+		t.set("caf\u00e9");
+		assertEquals(-1, v.get(t));
+		int cafe = v.addOrGet(t);
+		assertEquals(cafe, v.get("caf\u00e9"));
+		assertEquals("caf\u00e9", v.get(cafe));
+		assertEquals(-1, v.get("cafe"));
+	}
+
+	public void testManyWords() throws IOException {
+		for (int i = 0; i < 50000; i++)
+			assertEquals(i + 4, v.addOrGet("w" + i));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		v.write(new DataOutputStream(bytes));
+		VocabularyWritable vw = new VocabularyWritable();
+		vw.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals(v.size(), vw.size());
+		for (int i = 0; i < v.size(); i++) {
+			assertEquals(v.get(i), vw.get(i));
+			assertEquals(i, vw.get(v.get(i)));
+		}
+		// still growable after loading
+		assertEquals(v.size(), vw.addOrGet("new"));
+		assertEquals("w49999", vw.get(v.size() - 1));
+	}
+
+	public void testReadOldFormat() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		String[] words = { "NULL", "hello", "Goodbye", "bar" };
+		out.writeInt(words.length);
+		for (String w : words)
+			new Text(w).write(out);
+		VocabularyWritable vw = new VocabularyWritable();
+		vw.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals(4, vw.size());
+		assertEquals(hello, vw.get("hello"));
+		assertEquals("bar", vw.get(bar));
+		assertEquals(0, vw.get("NULL"));
+		assertEquals(4, vw.addOrGet("foo"));
+	}
+
 
 }
@@ -0,0 +1,114 @@
+package edu.umd.hooka.alignment;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+import edu.umd.hooka.Phrase;
+import edu.umd.hooka.PhrasePair;
+import edu.umd.hooka.ttables.TTable_monolithic_IFAs;
+
+public class LocalAlignTest extends TestCase {
+
+	File dir;
+	FileSystem fs;
+	Path corpus;
+
+	public LocalAlignTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws IOException {
+		dir = File.createTempFile("localalign", "");
+		dir.delete();
+		dir.mkdirs();
+		HadoopAlignConfig hac = config(1);
+		fs = FileSystem.get(hac);
+		corpus = new Path(dir.getPath() + "/comp-bitext");
+		SequenceFile.Writer w = SequenceFile.createWriter(fs, hac, corpus, Text.class, PhrasePair.class);
+		// e word i mostly translates as f word i + 1
+		Random r = new Random(7);
+		Text key = new Text();
+		for (int n = 0; n < 300; n++) {
+			int[] ew = new int[1 + r.nextInt(6)];
+			int[] fw = new int[1 + r.nextInt(6)];
+			for (int i = 0; i < ew.length; i++)
+				ew[i] = 1 + r.nextInt(20);
+			for (int j = 0; j < fw.length; j++)
+				fw[j] = j < ew.length && r.nextInt(4) > 0 ? ew[j] + 1 : 1 + r.nextInt(21);
+			key.set(Integer.toString(n));
+			w.append(key, new PhrasePair(new Phrase(fw, 1), new Phrase(ew, 0)));
+		}
+		w.close();
+	}
+
+	@Override
+	protected void tearDown() {
+		fs.delete(new Path(dir.getPath()), true);
+	}
+
+	HadoopAlignConfig config(int hmmIters) {
+		HadoopAlignConfig hac = new HadoopAlignConfig(dir.getPath(), "en", "de", null,
+				3, hmmIters, true, false, false, 0.0f);
+		hac.setHMMHomogeneous(false);
+		hac.setHMMp0(0.2);
+		return hac;
+	}
+
+	TTable_monolithic_IFAs train(int threads, HadoopAlignConfig hac, List<Double> perps)
+			throws IOException {
+		perps.addAll(LocalAlign.train(threads, hac, fs, corpus));
+		return new TTable_monolithic_IFAs(fs, hac.getTTablePath(), true);
+	}
+
+	public void testThreadsAgree() throws IOException {
+		HadoopAlignConfig hac = config(2);
+		List<Double> p1 = new ArrayList<Double>();
+		List<Double> p4 = new ArrayList<Double>();
+		TTable_monolithic_IFAs t1 = train(1, hac, p1);
+		TTable_monolithic_IFAs t4 = train(4, hac, p4);
+		assertEquals(5, p1.size());
+		assertEquals(t1.getMaxE(), t4.getMaxE());
+		for (int e = 1; e <= t1.getMaxE(); e++)
+			for (int f = 1; f <= 21; f++)
+				if (contains(t1.get(e), f))
+					assertEquals("e=" + e + " f=" + f, t1.get(e, f), t4.get(e, f), 1e-4f);
+		for (int i = 0; i < p1.size(); i++)
+			assertEquals(p1.get(i), p4.get(i), 1e-3 * p1.get(i));
+		assertTrue(fs.exists(hac.getATablePath()));
+	}
+
+	public void testModel1Learns() throws IOException {
+		List<Double> perps = new ArrayList<Double>();
+		TTable_monolithic_IFAs tt = train(2, config(0), perps);
+		// perplexity can only go down after the uniform initialization
+		for (int i = 2; i < perps.size(); i++)
+			assertTrue(perps.get(i) <= perps.get(i - 1) + 1e-6);
+		for (int e = 1; e <= 20; e++) {
+			float best = 0.0f;
+			int argmax = -1;
+			for (int f = 1; f <= 21; f++) {
+				if (!contains(tt.get(e), f)) continue;
+				if (tt.get(e, f) > best) { best = tt.get(e, f); argmax = f; }
+			}
+			assertEquals("e=" + e, e + 1, argmax);
+		}
+	}
+
+	static boolean contains(IndexedFloatArray a, int f) {
+		if (a.size() == 0) return false;
+		if (!a._useBinSearch) return f < a.size();
+		return Arrays.binarySearch(a._indices, f) >= 0;
+	}
+}
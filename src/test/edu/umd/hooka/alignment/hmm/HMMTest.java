@@ -54,7 +54,7 @@ public class HMMTest extends TestCase {
 		double ce1 = cr.getCrossEntropy();
 		System.out.println(a.toStringVisual() + "\n"+cr);
 		assertTrue(a.aligned(0, 0));
-		System.out.println(hmm.backtrace);
+		System.out.println(hmm.getBacktrace());
 		hmm = new HMM(tc, ac);
 		hmm.buildHMMTables(pp);
 		cr.reset();
@@ -135,8 +135,8 @@ public class HMMTest extends TestCase {
 		System.err.println(hmm.emission);
 		System.err.println(hmm.transition);
 		System.out.println(tt);
-		System.err.println(hmm.viterbi);
-		System.err.println(hmm.backtrace);
+		System.err.println(hmm.getViterbi());
+		System.err.println(hmm.getBacktrace());
 	}
 
 	public void testNullHMM() {
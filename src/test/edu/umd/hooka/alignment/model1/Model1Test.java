@@ -1,11 +1,21 @@
 package edu.umd.hooka.alignment.model1;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import junit.framework.TestCase;
 
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapred.OutputCollector;
+
 import org.junit.Test;
 
 import edu.umd.hooka.Phrase;
 import edu.umd.hooka.PhrasePair;
+import edu.umd.hooka.alignment.IndexedFloatArray;
+import edu.umd.hooka.alignment.PartialCountContainer;
 import edu.umd.hooka.ttables.TTable_monolithic;
 
 
@@ -31,4 +41,44 @@ public class Model1Test extends TestCase {
 //		assertTrue(false);
 	}
 
+	@Test
+	public void testWritePartialCounts() throws IOException {
+		Model1_InitUniform m1 = new Model1_InitUniform(true);
+		m1.processTrainingInstance(new PhrasePair(new Phrase(new int[] {5, 3}, 2), new Phrase(new int[] {2, 1}, 1)), null);
+		m1.processTrainingInstance(new PhrasePair(new Phrase(new int[] {3}, 2), new Phrase(new int[] {2}, 1)), null);
+		final List<Integer> es = new ArrayList<Integer>();
+		final List<IndexedFloatArray> rows = new ArrayList<IndexedFloatArray>();
+		OutputCollector<IntWritable,PartialCountContainer> out =
+			new OutputCollector<IntWritable,PartialCountContainer>() {
+			public void collect(IntWritable k, PartialCountContainer v) {
+				es.add(k.get());
+				rows.add((IndexedFloatArray)v.getContent());
+			}
+		};
+		m1.writePartialCounts(out);
+		assertEquals(Arrays.asList(0, 1, 2), es);
+		// null word and e=2 saw f=3 twice
+		assertEquals(2.0f, rows.get(0).get(3));
+		assertEquals(1.0f, rows.get(0).get(5));
+		assertEquals(1.0f, rows.get(1).get(3));
+		assertEquals(2.0f, rows.get(2).get(3));
+		assertEquals(2, rows.get(2).size());
+
+		// the counts were cleared by writing them
+		es.clear();
+		m1.writePartialCounts(out);
+		assertTrue(es.isEmpty());
+
+		m1.setCountPruningThreshold(1.5f);
+		m1.processTrainingInstance(new PhrasePair(new Phrase(new int[] {5, 3}, 2), new Phrase(new int[] {2, 1}, 1)), null);
+		m1.processTrainingInstance(new PhrasePair(new Phrase(new int[] {3}, 2), new Phrase(new int[] {2}, 1)), null);
+		rows.clear();
+		m1.writePartialCounts(out);
+		// e=1 only has counts of 1
+		assertEquals(Arrays.asList(0, 2), es);
+		assertEquals(1, rows.get(0).size());
+		assertEquals(2.0f, rows.get(0).get(3));
+		assertEquals(4, m1.getPrunedCountTotal());
+	}
+
 }
@@ -0,0 +1,77 @@
+package edu.umd.hooka.benchmark;
+
+import java.util.Random;
+
+import edu.umd.hooka.Phrase;
+import edu.umd.hooka.PhrasePair;
+import edu.umd.hooka.alignment.PerplexityReporter;
+import edu.umd.hooka.alignment.hmm.ATable;
+import edu.umd.hooka.alignment.hmm.HMM;
+import edu.umd.hooka.alignment.hmm.HMM_NullWord;
+import edu.umd.hooka.alignment.IndexedFloatArray;
+import edu.umd.hooka.ttables.TTable_monolithic_IFAs;
+
+/**
+ * Measures HMM training (forward-backward) and Viterbi alignment throughput,
+ * in sentence pairs per second, on a synthetic bitext.
+ *
+ * Usage: [num sentence pairs] [max sentence length] [vocabulary size]
+ */
+public class BenchmarkHMM {
+	private static final Random rand = new Random(0);
+
+	public static void main(String[] args) {
+		int numPairs = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int maxLen = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+		int vocab = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+		TTable_monolithic_IFAs tt = new TTable_monolithic_IFAs();
+		for (int e = 0; e <= vocab; e++) {
+			float[] p = new float[vocab + 1];
+			for (int f = 1; f <= vocab; f++)
+				p[f] = rand.nextFloat();
+			tt.set(e, new IndexedFloatArray(p, vocab + 1));
+		}
+		tt.normalize();
+
+		// non-homogeneous, as HadoopAlign trains it
+		ATable at = new ATable(false, 100, 100);
+		for (int c = 0; c < 100; c++)
+			for (int jump = -c; jump <= c; jump++)
+				at.add(jump, (char)c, 0, 1.0f / (1 + Math.abs(jump - 1)));
+		at.normalize();
+
+		PhrasePair[] bitext = new PhrasePair[numPairs];
+		for (int i = 0; i < numPairs; i++)
+			bitext[i] = new PhrasePair(randomPhrase(maxLen, vocab, 1), randomPhrase(maxLen, vocab, 0));
+
+		for (int trial = 0; trial < 2; trial++) {
+			benchmark("HMM", new HMM(tt, at), bitext);
+			benchmark("HMM_NullWord", new HMM_NullWord(tt, at, 0.2), bitext);
+		}
+	}
+
+	private static Phrase randomPhrase(int maxLen, int vocab, int lang) {
+		int[] w = new int[1 + rand.nextInt(maxLen)];
+		for (int i = 0; i < w.length; i++)
+			w[i] = 1 + rand.nextInt(vocab);
+		return new Phrase(w, lang);
+	}
+
+	private static void benchmark(String name, HMM hmm, PhrasePair[] bitext) {
+		long startTime = System.currentTimeMillis();
+		for (PhrasePair pp : bitext)
+			hmm.processTrainingInstance(pp, null);
+		long trainTime = System.currentTimeMillis() - startTime;
+
+		PerplexityReporter pr = new PerplexityReporter();
+		startTime = System.currentTimeMillis();
+		for (PhrasePair pp : bitext)
+			hmm.viterbiAlign(pp, pr);
+		long alignTime = System.currentTimeMillis() - startTime;
+
+		System.out.println(String.format("%-14s forward-backward: %8.0f pairs/sec   viterbi: %8.0f pairs/sec",
+				name, bitext.length * 1000.0 / Math.max(1, trainTime),
+				bitext.length * 1000.0 / Math.max(1, alignTime)));
+	}
+}
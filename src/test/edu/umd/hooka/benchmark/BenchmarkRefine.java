@@ -0,0 +1,82 @@
+package edu.umd.hooka.benchmark;
+
+import java.util.Random;
+
+import edu.umd.hooka.Alignment;
+import edu.umd.hooka.Phrase;
+import edu.umd.hooka.PhrasePair;
+import edu.umd.hooka.alignment.Refiner;
+import edu.umd.hooka.alignment.RefinerFactory;
+
+/**
+ * Measures the throughput, in sentence pairs per second, of symmetrizing two
+ * directional alignments with each refiner and of extracting phrase pairs
+ * from the result, on synthetic near-diagonal alignments.
+ *
+ * Usage: [num sentence pairs] [max sentence length] [max phrase length]
+ */
+public class BenchmarkRefine {
+	private static final Random rand = new Random(0);
+
+	public static void main(String[] args) throws Exception {
+		int numPairs = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int maxLen = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+		int maxPhrase = args.length > 2 ? Integer.parseInt(args[2]) : 7;
+
+		PhrasePair[] bitext = new PhrasePair[numPairs];
+		Alignment[] e2f = new Alignment[numPairs];
+		Alignment[] f2e = new Alignment[numPairs];
+		for (int i = 0; i < numPairs; i++) {
+			int flen = 1 + rand.nextInt(maxLen);
+			int elen = Math.max(1, flen + rand.nextInt(7) - 3);
+			bitext[i] = new PhrasePair(phrase(flen, 1), phrase(elen, 0));
+			e2f[i] = directional(flen, elen, true);
+			f2e[i] = directional(flen, elen, false);
+		}
+
+		for (int trial = 0; trial < 2; trial++) {
+			for (String name : new String[] { "intersection", "union", "grow-diag-final-and" })
+				benchmark(name, RefinerFactory.getForName(name), bitext, e2f, f2e, maxPhrase);
+		}
+	}
+
+	private static Phrase phrase(int len, int lang) {
+		int[] w = new int[len];
+		for (int i = 0; i < len; i++)
+			w[i] = 1 + rand.nextInt(1000);
+		return new Phrase(w, lang);
+	}
+
+	// Every word of one side is aligned to a word near the diagonal of the other.
+	private static Alignment directional(int flen, int elen, boolean fromE) {
+		Alignment a = new Alignment(flen, elen);
+		int n = fromE ? elen : flen;
+		int m = fromE ? flen : elen;
+		for (int i = 0; i < n; i++) {
+			int j = Math.min(m - 1, Math.max(0, i * m / n + rand.nextInt(3) - 1));
+			if (fromE)
+				a.align(j, i);
+			else
+				a.align(i, j);
+		}
+		return a;
+	}
+
+	private static void benchmark(String name, Refiner r, PhrasePair[] bitext,
+			Alignment[] e2f, Alignment[] f2e, int maxPhrase) {
+		long startTime = System.currentTimeMillis();
+		for (int i = 0; i < bitext.length; i++)
+			bitext[i].setAlignment(r.refine(e2f[i], f2e[i]));
+		long refineTime = System.currentTimeMillis() - startTime;
+
+		long phrases = 0;
+		startTime = System.currentTimeMillis();
+		for (PhrasePair pp : bitext)
+			phrases += pp.extractConsistentPhrasePairs(maxPhrase).size();
+		long extractTime = System.currentTimeMillis() - startTime;
+
+		System.out.println(String.format("%-20s refine: %9.0f pairs/sec   extract: %8.0f pairs/sec (%d phrase pairs)",
+				name, bitext.length * 1000.0 / Math.max(1, refineTime),
+				bitext.length * 1000.0 / Math.max(1, extractTime), phrases));
+	}
+}
@@ -0,0 +1,76 @@
+package edu.umd.hooka.ttables;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import edu.umd.hooka.alignment.IndexedFloatArray;
+
+public class TTable_mmapTest extends TestCase {
+
+	TTable_monolithic_IFAs tt;
+
+	public TTable_mmapTest(String name) {
+		super(name);
+		tt = new TTable_monolithic_IFAs();
+		// e=0 is dense, as the null word row usually is
+		tt.set(0, new IndexedFloatArray(new float[] {0.1f, 0.2f, 0.3f, 0.15f, 0.15f, 0.1f}, 6));
+		tt.set(1, new IndexedFloatArray(new int[] {1, 3, 7, 100}, new float[] {0.5f, 0.25f, 0.125f, 0.125f}));
+		// e=2 is left empty
+		tt.set(3, new IndexedFloatArray(new int[] {2}, new float[] {1.0f}));
+		tt.set(4, new IndexedFloatArray(new int[] {0, 1, 2}, new float[] {0.7f, 0.2f, 0.1f}, false));
+	}
+
+	private File writeTemp(byte[] bytes) throws IOException {
+		File f = File.createTempFile("ttable", ".mmap");
+		f.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(f);
+		out.write(bytes);
+		out.close();
+		return f;
+	}
+
+	private void check(TTable_mmap m) {
+		assertEquals(tt.getMaxE(), m.getMaxE());
+		for (int e = 0; e <= tt.getMaxE(); e++)
+			for (int f = 0; f < 110; f++)
+				assertEquals("e=" + e + " f=" + f,
+						tt.get(e) == null ? 0.0f : tt.get(e, f), m.get(e, f), 0.0f);
+		assertEquals(0.0f, m.get(-1, 1), 0.0f);
+		assertEquals(0.0f, m.get(tt.getMaxE() + 1, 1), 0.0f);
+	}
+
+	public void testWrite() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TTable_mmap.write(tt, new DataOutputStream(bytes));
+		check(new TTable_mmap(writeTemp(bytes.toByteArray())));
+	}
+
+	public void testConvert() throws IOException {
+		ByteArrayOutputStream ifas = new ByteArrayOutputStream();
+		tt.write(new DataOutputStream(ifas));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TTable_mmap.convert(new DataInputStream(new ByteArrayInputStream(ifas.toByteArray())),
+				new DataOutputStream(bytes));
+		TTable_mmap m = new TTable_mmap(writeTemp(bytes.toByteArray()));
+		assertEquals(0.125f, m.get(1, 7), 0.0f);
+		assertEquals(0.3f, m.get(0, 2), 0.0f);
+		assertEquals(0.0f, m.get(2, 2), 0.0f);
+		assertEquals(1.0f, m.get(3, 2), 0.0f);
+		assertEquals(0.2f, m.get(4, 1), 0.0f);
+	}
+
+	public void testRejectsBadFile() throws IOException {
+		try {
+			new TTable_mmap(writeTemp(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9}));
+			fail();
+		} catch (IOException e) {
+		}
+	}
+}
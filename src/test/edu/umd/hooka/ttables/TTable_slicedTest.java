@@ -0,0 +1,137 @@
+package edu.umd.hooka.ttables;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import edu.umd.hooka.Phrase;
+import edu.umd.hooka.PhrasePair;
+import edu.umd.hooka.alignment.IndexedFloatArray;
+import edu.umd.hooka.ttables.TTable_sliced.SliceCounters;
+
+public class TTable_slicedTest extends TestCase {
+
+	static final int E = 50;
+
+	TTable_monolithic_IFAs tt;
+	FileSystem fs;
+	Path dir;
+
+	public TTable_slicedTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws IOException {
+		tt = new TTable_monolithic_IFAs();
+		for (int e = 0; e < E; e++) {
+			if (e == 7) continue;  // left empty
+			int[] f = new int[1 + e % 5];
+			float[] p = new float[f.length];
+			for (int i = 0; i < f.length; i++) {
+				f[i] = e + i * 3;
+				p[i] = (e + 1) * 0.01f + i;
+			}
+			tt.set(e, new IndexedFloatArray(f, p));
+		}
+		File tmp = File.createTempFile("ttable", "");
+		tmp.delete();
+		dir = new Path(tmp.getPath());
+		fs = FileSystem.get(new Configuration());
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		fs.delete(dir, true);
+	}
+
+	private void check(TTable_sliced ts) {
+		assertEquals(tt.getMaxE(), ts.getMaxE());
+		for (int e = 0; e < E; e++) {
+			if (tt.get(e) == null) continue;
+			for (int i = 0; i < 1 + e % 5; i++)
+				assertEquals("e=" + e, tt.get(e, e + i * 3), ts.get(e, e + i * 3), 0.0f);
+		}
+	}
+
+	private long sliceBytes(int e) {
+		return tt.get(e).getSerializedSize();
+	}
+
+	public void testEvictsWithinBudget() throws IOException {
+		TTable_sliced.write(tt, fs, dir);
+		long budget = sliceBytes(4) * 4;
+		TTable_sliced ts = new TTable_sliced(fs, dir, budget);
+		check(ts);
+		check(ts);
+		assertTrue(ts.getResidentBytes() <= budget);
+		assertTrue(ts.getCounter(SliceCounters.EVICTIONS) > 0);
+		assertTrue(ts.getCounter(SliceCounters.MISSES) > E);
+		ts.close();
+	}
+
+	public void testKeepsRecentlyUsed() throws IOException {
+		TTable_sliced.write(tt, fs, dir);
+		TTable_sliced ts = new TTable_sliced(fs, dir, sliceBytes(1) + sliceBytes(3));
+		ts.get(1, 1);
+		ts.get(2, 2);
+		ts.get(1, 1);
+		ts.get(3, 3);  // evicts 2, the least recently used
+		long misses = ts.getCounter(SliceCounters.MISSES);
+		ts.get(1, 1);
+		ts.get(3, 3);
+		assertEquals(misses, ts.getCounter(SliceCounters.MISSES));
+		ts.get(2, 2);
+		assertEquals(misses + 1, ts.getCounter(SliceCounters.MISSES));
+		ts.close();
+	}
+
+	public void testChangedSlicesStayResident() throws IOException {
+		TTable_sliced.write(tt, fs, dir);
+		TTable_sliced ts = new TTable_sliced(fs, dir, 1);
+		ts.add(4, 7, 1.0f);
+		check(new TTable_sliced(fs, dir, 1));
+		for (int e = 0; e < E; e++)
+			if (e != 7) ts.get(e, e);
+		assertEquals(tt.get(4, 7) + 1.0f, ts.get(4, 7), 0.0f);
+		TTable_sliced copy = (TTable_sliced)ts.clone();
+		assertEquals(tt.get(4, 7) + 1.0f, copy.get(4, 7), 0.0f);
+		assertEquals(tt.get(9, 12), copy.get(9, 12), 0.0f);
+		ts.close();
+	}
+
+	public void testPrefetch() throws IOException {
+		TTable_sliced.write(tt, fs, dir);
+		TTable_sliced ts = new TTable_sliced(fs, dir);
+		PhrasePair pp = new PhrasePair(new Phrase(new int[] { 1, 2 }, 1), new Phrase(new int[] { 3, 5, 3 }, 0));
+		ts.prepare(pp, true);
+		assertEquals(tt.get(3, 3), ts.get(3, 3), 0.0f);
+		assertEquals(tt.get(5, 8), ts.get(5, 8), 0.0f);
+		assertEquals(tt.get(0, 0), ts.get(0, 0), 0.0f);
+		assertEquals(3, ts.getCounter(SliceCounters.PREFETCH_HITS));
+		assertEquals(0, ts.getCounter(SliceCounters.MISSES));
+		ts.close();
+	}
+
+	public void testPerSliceFiles() throws IOException {
+		fs.mkdirs(dir);
+		FSDataOutputStream out = fs.create(dir.suffix(Path.SEPARATOR + "metadata.bin"));
+		out.writeInt(tt.getMaxE() + 1);
+		out.close();
+		IndexedFloatArray nullA = new IndexedFloatArray();
+		for (int e = 0; e <= tt.getMaxE(); e++) {
+			out = fs.create(dir.suffix(Path.SEPARATOR + "voc_" + e + ".tab"));
+			(tt.get(e) == null ? nullA : tt.get(e)).write(out);
+			out.close();
+		}
+		TTable_sliced ts = new TTable_sliced(fs, dir, sliceBytes(4) * 4);
+		check(ts);
+		ts.close();
+	}
+}